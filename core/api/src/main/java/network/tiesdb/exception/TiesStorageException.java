@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.exception;
+
+/**
+ * Exception class for TiesDB storage logic.
+ * 
+ * <P>Exception thrown when storage can't execute a request. The message is
+ * safe to be passed to the client.
+ */
+public class TiesStorageException extends TiesException {
+
+	private static final long serialVersionUID = -3511262183384180472L;
+
+	public TiesStorageException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public TiesStorageException(String message) {
+		super(message);
+	}
+
+}
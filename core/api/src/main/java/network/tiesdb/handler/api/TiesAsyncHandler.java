@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.api;
+
+import java.util.concurrent.CompletionStage;
+
+import network.tiesdb.transport.api.TiesRequest;
+import network.tiesdb.transport.api.TiesResponse;
+
+/**
+ * TiesDB asynchronous handler API.
+ * 
+ * <P>Defines handler functions which do not block the calling thread.
+ */
+public interface TiesAsyncHandler extends TiesHandler {
+
+	/**
+	 * Handles request asynchronously.
+	 * 
+	 * <P>Request and response should not be used by the caller until the
+	 * returned stage is completed.
+	 * 
+	 * @param request
+	 *            - request to handle
+	 * @param response
+	 *            - response to write results to
+	 * @return stage which is completed when the response has been sent
+	 */
+	CompletionStage<Void> handleAsync(TiesRequest request, TiesResponse response);
+
+}
@@ -19,6 +19,7 @@ import java.util.List;
 
 import network.tiesdb.api.TiesVersion;
 import network.tiesdb.context.api.TiesServiceConfig;
+import network.tiesdb.storage.api.TiesStorage;
 import network.tiesdb.transport.api.TiesTransport;
 
 /**
@@ -36,6 +37,8 @@ public interface TiesService {
 
 	TiesServiceConfig getTiesServiceConfig();
 
+	TiesStorage getStorage();
+
 	TiesVersion getVersion();
 
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.List;
+import java.util.Map;
+
+import network.tiesdb.exception.TiesStorageException;
+
+/**
+ * TiesDB storage API.
+ * 
+ * <P>Defines data access functions of the storage TiesDB service runs on.
+ * Rows are maps of column names to values as they come from the client
+ * request.
+ */
+public interface TiesStorage {
+
+	/**
+	 * Writes rows into the table.
+	 * 
+	 * @return count of written rows
+	 */
+	int insert(String keyspace, String table, List<Map<String, Object>> rows) throws TiesStorageException;
+
+	/**
+	 * Reads a page of the query results.
+	 * 
+	 * @param pagingState
+	 *            paging state of the previous page or {@code null} to read the
+	 *            first page
+	 */
+	TiesStoragePage select(TiesStorageQuery query, int pageSize, byte[] pagingState) throws TiesStorageException;
+
+	/**
+	 * Plans the query without executing it.
+	 * 
+	 * @return access path the query would be read with
+	 */
+	TiesStoragePlan explain(TiesStorageQuery query) throws TiesStorageException;
+
+	/**
+	 * Reads the digest of the table contents.
+	 * 
+	 * @param level
+	 *            level of the hash tree to return hashes of
+	 * @param nodes
+	 *            indexes of the nodes at the level to return hashes of or
+	 *            {@code null} to return hashes of all of them
+	 * @param keys
+	 *            primary keys of the rows to prove inclusion of
+	 */
+	TiesStorageDigest digest(String keyspace, String table, int level, List<Integer> nodes,
+			List<Map<String, Object>> keys) throws TiesStorageException;
+
+	/**
+	 * Reads the rows of the bucket of the table digest.
+	 * 
+	 * @param bucket
+	 *            index of the bucket, which is the node of the deepest level
+	 * @return entries of the rows in the order of their ids
+	 */
+	List<TiesStorageEntry> entries(String keyspace, String table, int bucket) throws TiesStorageException;
+
+	/**
+	 * Reads the stored cells of the rows of the table.
+	 * 
+	 * @param keys
+	 *            serialized primary keys of the rows as in their entries
+	 * @return cells of the rows found
+	 */
+	List<TiesStorageCells> fetch(String keyspace, String table, List<byte[]> keys) throws TiesStorageException;
+
+	/**
+	 * Writes the stored cells of the rows into the table with their
+	 * timestamps, so a cell older than the one already written is ignored.
+	 * 
+	 * @return count of written rows
+	 */
+	int merge(String keyspace, String table, List<TiesStorageCells> rows) throws TiesStorageException;
+
+}
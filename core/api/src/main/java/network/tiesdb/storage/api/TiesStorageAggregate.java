@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+/**
+ * Aggregate function of TiesDB storage query.
+ * 
+ * <P>Result of the function is named by {@code name}. Function without
+ * column is only allowed for {@link Function#COUNT} and counts rows, any
+ * other function ignores rows with null value of the column.
+ */
+public final class TiesStorageAggregate {
+
+	public static enum Function {
+		COUNT, SUM, MIN, MAX
+	}
+
+	private final Function function;
+	private final String column;
+	private final String name;
+
+	public TiesStorageAggregate(Function function, String column, String name) {
+		if (null == function) {
+			throw new NullPointerException("The function should not be null");
+		}
+		if (null == column && Function.COUNT != function) {
+			throw new NullPointerException("The column should not be null");
+		}
+		this.function = function;
+		this.column = column;
+		this.name = null != name //
+				? name
+				: null == column ? function.name().toLowerCase() : function.name().toLowerCase() + '(' + column + ')';
+	}
+
+	public Function getFunction() {
+		return function;
+	}
+
+	public String getColumn() {
+		return column;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
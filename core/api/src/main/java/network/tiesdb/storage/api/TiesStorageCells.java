@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Map;
+
+/**
+ * Stored cells of a row of TiesDB storage table.
+ * 
+ * <P>Values are serialized as they are stored, each value of a non-key
+ * column has the timestamp it was written with if the storage tracks it.
+ * Rows are copied from node to node this way, so neither their values nor
+ * their timestamps change on the way and the newest value of a cell wins
+ * whichever node it is written to.
+ */
+public final class TiesStorageCells {
+
+	private final Map<String, byte[]> values;
+	private final Map<String, Long> timestamps;
+
+	public TiesStorageCells(Map<String, byte[]> values, Map<String, Long> timestamps) {
+		if (null == values) {
+			throw new NullPointerException("The values should not be null");
+		}
+		if (null == timestamps) {
+			throw new NullPointerException("The timestamps should not be null");
+		}
+		this.values = values;
+		this.timestamps = timestamps;
+	}
+
+	public Map<String, byte[]> getValues() {
+		return values;
+	}
+
+	public Map<String, Long> getTimestamps() {
+		return timestamps;
+	}
+
+}
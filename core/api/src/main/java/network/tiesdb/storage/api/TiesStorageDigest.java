@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Digest of TiesDB storage table contents.
+ * 
+ * <P>Token ring of the table is split into {@code 2^depth} buckets, which
+ * are the leaves of the binary hash tree with the root hash of the table.
+ * Hashes of the tree nodes at the requested level cover {@code 2^level}
+ * equal token ranges in token order, so two digests could be compared level
+ * by level to find the ranges they differ in. Digest of the chosen nodes has
+ * the hashes of those nodes only, in the order they were chosen.
+ */
+public final class TiesStorageDigest {
+
+	private final int depth;
+	private final int level;
+	private final byte[] root;
+	private final List<byte[]> hashes;
+	private final List<TiesStorageProof> proofs;
+
+	public TiesStorageDigest(int depth, int level, byte[] root, List<byte[]> hashes, List<TiesStorageProof> proofs) {
+		if (null == root) {
+			throw new NullPointerException("The root should not be null");
+		}
+		if (level < 0 || level > depth) {
+			throw new IllegalArgumentException("The level " + level + " should be in range 0.." + depth);
+		}
+		this.depth = depth;
+		this.level = level;
+		this.root = root;
+		this.hashes = null == hashes ? Collections.<byte[]>emptyList() : Collections.unmodifiableList(hashes);
+		this.proofs = null == proofs //
+				? Collections.<TiesStorageProof>emptyList()
+				: Collections.unmodifiableList(proofs);
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public byte[] getRoot() {
+		return root;
+	}
+
+	public List<byte[]> getHashes() {
+		return hashes;
+	}
+
+	public List<TiesStorageProof> getProofs() {
+		return proofs;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Map;
+
+/**
+ * Row of a bucket of TiesDB storage table digest.
+ * 
+ * <P>Holds the primary key of the row with its id and hash as they are
+ * hashed into the bucket hash. Equal entries of two tables tell their rows are
+ * equal without reading them. The raw key is the serialized primary key the
+ * id is the hash of, which reads the row by {@link TiesStorage#fetch}.
+ */
+public final class TiesStorageEntry {
+
+	private final Map<String, Object> key;
+	private final byte[] rawKey;
+	private final byte[] id;
+	private final byte[] hash;
+
+	public TiesStorageEntry(Map<String, Object> key, byte[] rawKey, byte[] id, byte[] hash) {
+		if (null == key) {
+			throw new NullPointerException("The key should not be null");
+		}
+		if (null == rawKey) {
+			throw new NullPointerException("The rawKey should not be null");
+		}
+		if (null == id) {
+			throw new NullPointerException("The id should not be null");
+		}
+		if (null == hash) {
+			throw new NullPointerException("The hash should not be null");
+		}
+		this.key = key;
+		this.rawKey = rawKey;
+		this.id = id;
+		this.hash = hash;
+	}
+
+	public Map<String, Object> getKey() {
+		return key;
+	}
+
+	public byte[] getRawKey() {
+		return rawKey;
+	}
+
+	public byte[] getId() {
+		return id;
+	}
+
+	public byte[] getHash() {
+		return hash;
+	}
+
+}
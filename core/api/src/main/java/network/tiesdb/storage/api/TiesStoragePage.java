@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page of TiesDB storage query results.
+ * 
+ * <P>Paging state is an opaque position of the next page in the query
+ * results. It is {@code null} for the last page.
+ */
+public class TiesStoragePage {
+
+	private final List<Map<String, Object>> rows;
+	private final byte[] pagingState;
+
+	public TiesStoragePage(List<Map<String, Object>> rows, byte[] pagingState) {
+		if (null == rows) {
+			throw new NullPointerException("The rows should not be null");
+		}
+		this.rows = rows;
+		this.pagingState = pagingState;
+	}
+
+	public List<Map<String, Object>> getRows() {
+		return rows;
+	}
+
+	public byte[] getPagingState() {
+		return pagingState;
+	}
+
+	public boolean isLast() {
+		return null == pagingState;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Access path chosen by TiesDB storage for a query.
+ * 
+ * <P>Cost is relative and only comparable between plans of the same
+ * storage. Candidate plans the storage considered are kept as alternatives,
+ * including the rejected ones with the reason of rejection.
+ */
+public final class TiesStoragePlan {
+
+	public static enum AccessPath {
+		/**
+		 * Rows of a single partition.
+		 */
+		PARTITION_LOOKUP,
+		/**
+		 * Rows of a single partition within clustering bounds.
+		 */
+		CLUSTERING_SLICE,
+		/**
+		 * Rows found by the search index.
+		 */
+		INDEX,
+		/**
+		 * Rows of all partitions filtered one by one.
+		 */
+		SCAN
+	}
+
+	private final AccessPath accessPath;
+	private final double cost;
+	private final long estimatedRows;
+	private final String description;
+	private final String rejected;
+	private final List<TiesStoragePlan> alternatives;
+
+	private TiesStoragePlan(AccessPath accessPath, double cost, long estimatedRows, String description,
+			String rejected, List<TiesStoragePlan> alternatives) {
+		if (null == accessPath) {
+			throw new NullPointerException("The accessPath should not be null");
+		}
+		this.accessPath = accessPath;
+		this.cost = cost;
+		this.estimatedRows = estimatedRows;
+		this.description = description;
+		this.rejected = rejected;
+		this.alternatives = null == alternatives //
+				? Collections.<TiesStoragePlan>emptyList()
+				: Collections.unmodifiableList(alternatives);
+	}
+
+	public static TiesStoragePlan of(AccessPath accessPath, double cost, long estimatedRows, String description) {
+		return new TiesStoragePlan(accessPath, cost, estimatedRows, description, null, null);
+	}
+
+	public static TiesStoragePlan rejected(AccessPath accessPath, String reason) {
+		if (null == reason) {
+			throw new NullPointerException("The reason should not be null");
+		}
+		return new TiesStoragePlan(accessPath, Double.NaN, -1, null, reason, null);
+	}
+
+	public TiesStoragePlan withAlternatives(List<TiesStoragePlan> alternatives) {
+		return new TiesStoragePlan(accessPath, cost, estimatedRows, description, rejected, alternatives);
+	}
+
+	public AccessPath getAccessPath() {
+		return accessPath;
+	}
+
+	public double getCost() {
+		return cost;
+	}
+
+	public long getEstimatedRows() {
+		return estimatedRows;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public boolean isRejected() {
+		return null != rejected;
+	}
+
+	public String getRejected() {
+		return rejected;
+	}
+
+	public List<TiesStoragePlan> getAlternatives() {
+		return alternatives;
+	}
+
+	@Override
+	public String toString() {
+		return isRejected() //
+				? accessPath + " rejected: " + rejected
+				: accessPath + " (" + description + ") cost " + cost + ", rows " + estimatedRows;
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+/**
+ * Search predicate of TiesDB storage query.
+ * 
+ * <P>Unlike equality restrictions, predicates are not limited to primary key
+ * columns. They are resolved by the search index of the table.
+ */
+public final class TiesStoragePredicate {
+
+	public static enum Kind {
+		/**
+		 * Column is equal to the exact value.
+		 */
+		TERM,
+		/**
+		 * Column starts with the string value.
+		 */
+		PREFIX,
+		/**
+		 * Column matches the full-text query.
+		 */
+		MATCH,
+		/**
+		 * Column is within the bounds, any of which could be open.
+		 */
+		RANGE
+	}
+
+	private final Kind kind;
+	private final String column;
+	private final Object value;
+	private final Object lower;
+	private final boolean includeLower;
+	private final Object upper;
+	private final boolean includeUpper;
+
+	private TiesStoragePredicate(Kind kind, String column, Object value, Object lower, boolean includeLower,
+			Object upper, boolean includeUpper) {
+		if (null == column) {
+			throw new NullPointerException("The column should not be null");
+		}
+		this.kind = kind;
+		this.column = column;
+		this.value = value;
+		this.lower = lower;
+		this.includeLower = includeLower;
+		this.upper = upper;
+		this.includeUpper = includeUpper;
+	}
+
+	public static TiesStoragePredicate term(String column, Object value) {
+		return new TiesStoragePredicate(Kind.TERM, column, value, null, false, null, false);
+	}
+
+	public static TiesStoragePredicate prefix(String column, String value) {
+		if (null == value) {
+			throw new NullPointerException("The value should not be null");
+		}
+		return new TiesStoragePredicate(Kind.PREFIX, column, value, null, false, null, false);
+	}
+
+	public static TiesStoragePredicate match(String column, String value) {
+		if (null == value) {
+			throw new NullPointerException("The value should not be null");
+		}
+		return new TiesStoragePredicate(Kind.MATCH, column, value, null, false, null, false);
+	}
+
+	public static TiesStoragePredicate range(String column, Object lower, boolean includeLower, Object upper,
+			boolean includeUpper) {
+		return new TiesStoragePredicate(Kind.RANGE, column, null, lower, includeLower, upper, includeUpper);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getColumn() {
+		return column;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
+	public Object getLower() {
+		return lower;
+	}
+
+	public boolean isIncludeLower() {
+		return includeLower;
+	}
+
+	public Object getUpper() {
+		return upper;
+	}
+
+	public boolean isIncludeUpper() {
+		return includeUpper;
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case RANGE:
+			return column + " in " + (includeLower ? '[' : '(') + lower + ", " + upper + (includeUpper ? ']' : ')');
+		default:
+			return kind + "(" + column + ", " + value + ")";
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inclusion proof of a row in TiesDB storage table digest.
+ * 
+ * <P>The path leads from the row hash to the root hash of the table. Each
+ * step is the hash of the sibling node, which is hashed together with the
+ * current one on the side the step tells. Proof of a row which is not found
+ * has neither the row hash nor the path.
+ */
+public final class TiesStorageProof {
+
+	public static final class Step {
+
+		private final boolean left;
+		private final byte[] hash;
+
+		public Step(boolean left, byte[] hash) {
+			if (null == hash) {
+				throw new NullPointerException("The hash should not be null");
+			}
+			this.left = left;
+			this.hash = hash;
+		}
+
+		/**
+		 * Returns true if the sibling is the left one of the two nodes hashed.
+		 */
+		public boolean isLeft() {
+			return left;
+		}
+
+		public byte[] getHash() {
+			return hash;
+		}
+
+	}
+
+	private final Map<String, Object> key;
+	private final int bucket;
+	private final byte[] rowHash;
+	private final List<Step> path;
+
+	private TiesStorageProof(Map<String, Object> key, int bucket, byte[] rowHash, List<Step> path) {
+		if (null == key) {
+			throw new NullPointerException("The key should not be null");
+		}
+		this.key = key;
+		this.bucket = bucket;
+		this.rowHash = rowHash;
+		this.path = null == path ? Collections.<Step>emptyList() : Collections.unmodifiableList(path);
+	}
+
+	public static TiesStorageProof found(Map<String, Object> key, int bucket, byte[] rowHash, List<Step> path) {
+		if (null == rowHash) {
+			throw new NullPointerException("The rowHash should not be null");
+		}
+		if (null == path) {
+			throw new NullPointerException("The path should not be null");
+		}
+		return new TiesStorageProof(key, bucket, rowHash, path);
+	}
+
+	public static TiesStorageProof notFound(Map<String, Object> key, int bucket) {
+		return new TiesStorageProof(key, bucket, null, null);
+	}
+
+	public Map<String, Object> getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the bucket of the table token ring the row belongs to.
+	 */
+	public int getBucket() {
+		return bucket;
+	}
+
+	public boolean isFound() {
+		return null != rowHash;
+	}
+
+	public byte[] getRowHash() {
+		return rowHash;
+	}
+
+	public List<Step> getPath() {
+		return path;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.storage.api;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query of TiesDB storage.
+ * 
+ * <P>Selects columns of the table rows where columns are equal to the given
+ * values. All columns are selected if none are specified.
+ * 
+ * <P>Rows could be filtered further by search predicates of any columns, see
+ * {@link TiesStoragePredicate}.
+ * 
+ * <P>Query of many partitions lists the values of their key columns as
+ * {@code keys}. Rows of each partition are restricted by the rest of the
+ * query and come in the order of the keys.
+ * 
+ * <P>Aggregated query returns a row per group of rows with equal values of
+ * {@code groupBy} columns instead of the rows, see
+ * {@link #withAggregation(List, List)}.
+ * 
+ * <P>Columns could be excluded instead of being listed, so the query selects
+ * all other columns of the table, see {@link #withExcludedColumns(List)}.
+ */
+public class TiesStorageQuery {
+
+	private final String keyspace;
+	private final String table;
+	private final List<String> columns;
+	private final Map<String, Object> where;
+	private final List<TiesStoragePredicate> predicates;
+	private final List<Map<String, Object>> keys;
+	private final List<TiesStorageAggregate> aggregates;
+	private final List<String> groupBy;
+	private final List<String> excludedColumns;
+
+	public TiesStorageQuery(String keyspace, String table, List<String> columns, Map<String, Object> where) {
+		this(keyspace, table, columns, where, null);
+	}
+
+	public TiesStorageQuery(String keyspace, String table, List<String> columns, Map<String, Object> where,
+			List<TiesStoragePredicate> predicates) {
+		this(keyspace, table, columns, where, predicates, null);
+	}
+
+	public TiesStorageQuery(String keyspace, String table, List<String> columns, Map<String, Object> where,
+			List<TiesStoragePredicate> predicates, List<Map<String, Object>> keys) {
+		this(keyspace, table, columns, where, predicates, keys, null, null, null);
+	}
+
+	private TiesStorageQuery(String keyspace, String table, List<String> columns, Map<String, Object> where,
+			List<TiesStoragePredicate> predicates, List<Map<String, Object>> keys,
+			List<TiesStorageAggregate> aggregates, List<String> groupBy, List<String> excludedColumns) {
+		this.keyspace = keyspace;
+		this.table = table;
+		this.columns = null == columns ? Collections.<String>emptyList() : Collections.unmodifiableList(columns);
+		this.where = null == where ? Collections.<String, Object>emptyMap() : Collections.unmodifiableMap(where);
+		this.predicates = null == predicates //
+				? Collections.<TiesStoragePredicate>emptyList()
+				: Collections.unmodifiableList(predicates);
+		this.keys = null == keys //
+				? Collections.<Map<String, Object>>emptyList()
+				: Collections.unmodifiableList(keys);
+		this.aggregates = null == aggregates //
+				? Collections.<TiesStorageAggregate>emptyList()
+				: Collections.unmodifiableList(aggregates);
+		this.groupBy = null == groupBy ? Collections.<String>emptyList() : Collections.unmodifiableList(groupBy);
+		this.excludedColumns = null == excludedColumns //
+				? Collections.<String>emptyList()
+				: Collections.unmodifiableList(excludedColumns);
+	}
+
+	/**
+	 * Creates the same query aggregating its rows.
+	 */
+	public TiesStorageQuery withAggregation(List<TiesStorageAggregate> aggregates, List<String> groupBy) {
+		return new TiesStorageQuery(keyspace, table, columns, where, predicates, keys, aggregates, groupBy,
+				excludedColumns);
+	}
+
+	/**
+	 * Creates the same query not selecting the given columns.
+	 */
+	public TiesStorageQuery withExcludedColumns(List<String> excludedColumns) {
+		return new TiesStorageQuery(keyspace, table, columns, where, predicates, keys, aggregates, groupBy,
+				excludedColumns);
+	}
+
+	/**
+	 * Creates the same query selecting exactly the given columns.
+	 */
+	public TiesStorageQuery withColumns(List<String> columns) {
+		return new TiesStorageQuery(keyspace, table, columns, where, predicates, keys, aggregates, groupBy, null);
+	}
+
+	public boolean isAggregated() {
+		return !aggregates.isEmpty() || !groupBy.isEmpty();
+	}
+
+	public String getKeyspace() {
+		return keyspace;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public Map<String, Object> getWhere() {
+		return where;
+	}
+
+	public List<TiesStoragePredicate> getPredicates() {
+		return predicates;
+	}
+
+	public List<Map<String, Object>> getKeys() {
+		return keys;
+	}
+
+	public List<TiesStorageAggregate> getAggregates() {
+		return aggregates;
+	}
+
+	public List<String> getGroupBy() {
+		return groupBy;
+	}
+
+	public List<String> getExcludedColumns() {
+		return excludedColumns;
+	}
+
+}
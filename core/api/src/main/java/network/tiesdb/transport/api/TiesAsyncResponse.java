@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.api;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * TiesDB asynchronous response API.
+ * 
+ * <P>Defines response which is sent without blocking of the caller.
+ */
+public interface TiesAsyncResponse extends TiesResponse {
+
+	/**
+	 * Returns completion of this response.
+	 * 
+	 * @return stage which is completed when the response has been sent, or
+	 *         completed exceptionally if sending failed
+	 */
+	CompletionStage<Void> getCompletion();
+
+}
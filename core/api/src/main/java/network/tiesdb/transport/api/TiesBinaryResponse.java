@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.api;
+
+import java.io.OutputStream;
+
+/**
+ * TiesDB binary response API.
+ * 
+ * <P>Defines response which could be sent as binary content instead of a text.
+ */
+public interface TiesBinaryResponse extends TiesResponse {
+
+	/**
+	 * Returns output stream of this response and marks the response as binary.
+	 * 
+	 * @return the same stream as {@link #getOutputStream()}
+	 */
+	OutputStream getBinaryOutputStream();
+
+}
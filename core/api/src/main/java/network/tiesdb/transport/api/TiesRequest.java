@@ -28,4 +28,13 @@ public interface TiesRequest {
 
 	InputStream getInputStream();
 
+	/**
+	 * Returns name of the transport which received this request.
+	 * 
+	 * @return transport name or null if unknown
+	 */
+	default String getTransportName() {
+		return null;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.api;
+
+import java.io.IOException;
+
+/**
+ * TiesDB streaming response API.
+ * 
+ * <P>Defines response which is sent as a sequence of messages, so a large
+ * result could be sent part by part without holding it all in memory.
+ */
+public interface TiesStreamingResponse extends TiesResponse {
+
+	/**
+	 * Sends everything written to the output stream since the previous call
+	 * as a separate message. Further writes go to the next message, which is
+	 * sent on the next call or when the response is closed.
+	 * 
+	 * <P>Blocks while the transport can't accept more data.
+	 * 
+	 * @throws IOException
+	 *             if the message can't be sent, e.g. the connection is closed
+	 */
+	void flushMessage() throws IOException;
+
+}
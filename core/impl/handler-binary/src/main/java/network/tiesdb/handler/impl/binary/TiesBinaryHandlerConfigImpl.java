@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import network.tiesdb.context.api.TiesHandlerConfig;
+import network.tiesdb.context.api.annotation.TiesConfigElement;
+
+/**
+ * TiesDB binary handler configuration implementation.
+ */
+@TiesConfigElement({ TiesBinaryHandlerConfigImpl.BINDING, TiesBinaryHandlerConfigImpl.SHORT_BINDING })
+public class TiesBinaryHandlerConfigImpl implements TiesHandlerConfig {
+
+	static final String BINDING = "network.tiesdb.service.BinaryHandler";
+	static final String SHORT_BINDING = "TiesBinaryHandler";
+
+	public TiesBinaryHandlerConfigImpl() {
+		// NOP Is not empty config values
+	}
+
+	public TiesBinaryHandlerConfigImpl(String value) {
+		// NOP If this constructor is called then config values is empty and we
+		// should use default
+	}
+
+	@Override
+	public TiesBinaryHandlerFactoryImpl getTiesHandlerFactory() {
+		return new TiesBinaryHandlerFactoryImpl(this);
+	}
+
+	private int maxFieldLength = 16 * 1024 * 1024;
+
+	private int pageSize = 1000;
+
+	private int maxPageSize = 10000;
+
+	private boolean requireSignatures = false;
+
+	public int getMaxFieldLength() {
+		return maxFieldLength;
+	}
+
+	public void setMaxFieldLength(int maxFieldLength) {
+		this.maxFieldLength = maxFieldLength;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public int getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	public void setMaxPageSize(int maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	public boolean isRequireSignatures() {
+		return requireSignatures;
+	}
+
+	public void setRequireSignatures(boolean requireSignatures) {
+		this.requireSignatures = requireSignatures;
+	}
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.api.TiesVersion;
+import network.tiesdb.context.api.TiesHandlerConfig;
+import network.tiesdb.exception.TiesException;
+import network.tiesdb.exception.TiesHandleException;
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.handler.api.TiesAsyncHandler;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryFormatException;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryReader;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryWriter;
+import network.tiesdb.handler.impl.binary.codec.TiesBinarySchema;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestInsert;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestRoot;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestSelect;
+import network.tiesdb.handler.impl.binary.response.TiesBinaryResponseRoot;
+import network.tiesdb.service.api.TiesService;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.storage.api.TiesStoragePage;
+import network.tiesdb.storage.api.TiesStorageQuery;
+import network.tiesdb.transport.api.TiesAsyncResponse;
+import network.tiesdb.transport.api.TiesBinaryResponse;
+import network.tiesdb.transport.api.TiesRequest;
+import network.tiesdb.transport.api.TiesResponse;
+import network.tiesdb.transport.api.TiesStreamingResponse;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+import network.tiesdb.util.metrics.TiesRequestMetrics;
+
+/**
+ * TiesDB binary handler implementation.
+ * 
+ * <P>Speaks the compact format described by {@link TiesBinarySchemas} and
+ * replies with binary content if the transport supports it. Inserts and
+ * selects go to the storage of the service the same way JSON requests do,
+ * test requests without a table are echoed back.
+ * 
+ * <P>Selected rows are sent page by page, each page in a separate message if
+ * the response supports streaming. Storage errors are reported as the last
+ * message of the response.
+ * 
+ * <P>The binary format has no fields for row signatures yet. So when
+ * {@code requireSignatures} is set, as it should be whenever it is set for the
+ * JSON handlers of the node, inserts of rows are rejected and signed rows
+ * should be sent to a JSON handler.
+ */
+public class TiesBinaryHandlerImpl implements TiesAsyncHandler {
+
+	private static final TiesBinaryHandlerImplVersion IMPLEMENTATION_VERSION = TiesBinaryHandlerImplVersion.v_0_0_1_prealpha;
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesBinaryHandlerImpl.class);
+
+	private static final TiesRequestMetrics REQUEST_METRICS = new TiesRequestMetrics(TiesMetricRegistry.getDefault());
+
+	private final TiesService service;
+
+	private final TiesBinaryHandlerConfigImpl config;
+
+	private final int pageSize;
+
+	private final int maxPageSize;
+
+	private final boolean requireSignatures;
+
+	public TiesBinaryHandlerImpl(TiesService service, TiesBinaryHandlerConfigImpl config) {
+		if (null == config) {
+			throw new NullPointerException("The config should not be null");
+		}
+		if (null == service) {
+			throw new NullPointerException("The service should not be null");
+		}
+		this.service = service;
+		this.config = config;
+		this.pageSize = config.getPageSize();
+		this.maxPageSize = config.getMaxPageSize();
+		this.requireSignatures = config.isRequireSignatures();
+		if (this.pageSize < 1) {
+			throw new IllegalArgumentException("The pageSize " + this.pageSize + " should be positive");
+		}
+		if (this.maxPageSize < this.pageSize) {
+			throw new IllegalArgumentException(
+					"The maxPageSize " + this.maxPageSize + " should not be less than pageSize " + this.pageSize);
+		}
+	}
+
+	@Override
+	public void handle(TiesRequest request, TiesResponse response) throws TiesException {
+		logger.trace("Call to network.tiesdb.handler.impl.binary.TiesBinaryHandlerImpl.handle(request, response)");
+		TiesRequestMetrics.Timer timer = REQUEST_METRICS.start(request.getTransportName());
+		boolean failed = true;
+		try {
+			handleInternal(request, response, timer);
+			failed = false;
+		} catch (IOException e) {
+			throw new TiesException("Can't process request", e);
+		} finally {
+			timer.completed(failed);
+		}
+	}
+
+	@Override
+	public CompletionStage<Void> handleAsync(TiesRequest request, TiesResponse response) {
+		logger.trace("Call to network.tiesdb.handler.impl.binary.TiesBinaryHandlerImpl.handleAsync(request, response)");
+		TiesRequestMetrics.Timer timer = REQUEST_METRICS.start(request.getTransportName());
+		try {
+			handleInternal(request, response, timer);
+		} catch (Throwable e) {
+			timer.completed(true);
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new TiesException("Can't process request", e));
+			return failed;
+		}
+		CompletionStage<Void> completion = response instanceof TiesAsyncResponse //
+				? ((TiesAsyncResponse) response).getCompletion()
+				: CompletableFuture.<Void>completedFuture(null);
+		return completion.whenComplete((result, cause) -> timer.completed(null != cause));
+	}
+
+	protected void handleInternal(TiesRequest request, TiesResponse response, TiesRequestMetrics.Timer timer)
+			throws IOException {
+		try {
+			TiesBinaryRequestRoot binaryRequest = readRequest(request.getInputStream());
+			timer.decoded(null == binaryRequest.getType() ? null : binaryRequest.getType().name());
+			if (isStorageSelect(binaryRequest)) {
+				select(binaryRequest, response);
+			} else if (isStorageInsert(binaryRequest)) {
+				insert(binaryRequest, response);
+			} else {
+				write(response, TiesBinarySchemas.ROOT, binaryRequest);
+			}
+		} catch (TiesBinaryFormatException e) {
+			logger.warn("Can't process", e);
+			write(response, TiesBinarySchemas.ERROR, TiesBinaryRequestError.create(e));
+		}
+		timer.executed();
+	}
+
+	private static boolean isStorageInsert(TiesBinaryRequestRoot binaryRequest) {
+		return TiesBinaryRequestRoot.RequestType.INSERT == binaryRequest.getType()
+				&& null != binaryRequest.getInsert().table;
+	}
+
+	private static boolean isStorageSelect(TiesBinaryRequestRoot binaryRequest) {
+		return TiesBinaryRequestRoot.RequestType.SELECT == binaryRequest.getType()
+				&& null != binaryRequest.getSelect().table;
+	}
+
+	protected void insert(TiesBinaryRequestRoot binaryRequest, TiesResponse response) throws IOException {
+		TiesBinaryRequestInsert insert = binaryRequest.getInsert();
+		List<Map<String, Object>> rows = null == insert.rows ? Collections.<Map<String, Object>>emptyList()
+				: insert.rows;
+		try {
+			if (requireSignatures && !rows.isEmpty()) {
+				throw new TiesHandleException("Rows should be signed, signed rows are accepted only by TiesHandler");
+			}
+			TiesBinaryResponseRoot binaryResponse = new TiesBinaryResponseRoot();
+			binaryResponse.id = binaryRequest.getId();
+			binaryResponse.count = getStorage().insert(insert.keyspace, insert.table, rows);
+			write(response, TiesBinarySchemas.RESPONSE, binaryResponse);
+		} catch (TiesHandleException | TiesStorageException e) {
+			logger.debug("Can't insert", e);
+			write(response, TiesBinarySchemas.ERROR, TiesBinaryRequestError.create(binaryRequest.getId(), e));
+		}
+	}
+
+	protected void select(TiesBinaryRequestRoot binaryRequest, TiesResponse response) throws IOException {
+		TiesBinaryRequestSelect select = binaryRequest.getSelect();
+		TiesBinaryResponseRoot binaryResponse = new TiesBinaryResponseRoot();
+		binaryResponse.id = binaryRequest.getId();
+		try (OutputStream os = getOutputStream(response)) {
+			TiesBinaryWriter writer = new TiesBinaryWriter(os);
+			try {
+				TiesStorage storage = getStorage();
+				TiesStorageQuery query = new TiesStorageQuery(select.keyspace, select.table, select.columns,
+						select.where);
+				int size = null == select.pageSize ? pageSize : Math.min(select.pageSize, maxPageSize);
+				TiesStoragePage page = storage.select(query, size, null);
+				if (response instanceof TiesStreamingResponse) {
+					while (!page.isLast()) {
+						binaryResponse.rows = page.getRows();
+						binaryResponse.more = true;
+						TiesBinarySchemas.RESPONSE.write(writer, binaryResponse);
+						((TiesStreamingResponse) response).flushMessage();
+						page = storage.select(query, size, page.getPagingState());
+					}
+					binaryResponse.rows = page.getRows();
+				} else {
+					List<Map<String, Object>> rows = new ArrayList<>(page.getRows());
+					while (!page.isLast()) {
+						page = storage.select(query, size, page.getPagingState());
+						rows.addAll(page.getRows());
+					}
+					binaryResponse.rows = rows;
+				}
+				binaryResponse.more = false;
+				TiesBinarySchemas.RESPONSE.write(writer, binaryResponse);
+			} catch (TiesStorageException e) {
+				logger.debug("Can't select", e);
+				TiesBinarySchemas.ERROR.write(writer, TiesBinaryRequestError.create(binaryRequest.getId(), e));
+			}
+		}
+	}
+
+	private TiesStorage getStorage() throws TiesStorageException {
+		TiesStorage storage = service.getStorage();
+		if (null == storage) {
+			throw new TiesStorageException("Storage is not available");
+		}
+		return storage;
+	}
+
+	private static <T> void write(TiesResponse response, TiesBinarySchema<T> schema, T bean) throws IOException {
+		try (OutputStream os = getOutputStream(response)) {
+			schema.write(new TiesBinaryWriter(os), bean);
+		}
+	}
+
+	protected TiesBinaryRequestRoot readRequest(InputStream is) throws IOException {
+		return TiesBinarySchemas.ROOT.read(new TiesBinaryReader(is, config.getMaxFieldLength()));
+	}
+
+	private static OutputStream getOutputStream(TiesResponse response) {
+		return response instanceof TiesBinaryResponse //
+				? ((TiesBinaryResponse) response).getBinaryOutputStream()
+				: response.getOutputStream();
+	}
+
+	public TiesService getService() {
+		return service;
+	}
+
+	@Override
+	public TiesVersion getVersion() {
+		return IMPLEMENTATION_VERSION;
+	}
+
+	@Override
+	public TiesHandlerConfig getTiesHandlerConfig() {
+		return config;
+	}
+
+}
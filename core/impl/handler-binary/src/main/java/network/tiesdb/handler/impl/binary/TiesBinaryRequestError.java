@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryFormatException;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestRoot;
+
+public class TiesBinaryRequestError {
+	public String message;
+	public String id;
+
+	TiesBinaryRequestError() {
+	}
+
+	private TiesBinaryRequestError(String message) {
+		this.message = message;
+	}
+
+	public static TiesBinaryRequestError create(String id, Exception e) {
+		TiesBinaryRequestError error = new TiesBinaryRequestError(e.getMessage());
+		error.id = id;
+		return error;
+	}
+
+	public static TiesBinaryRequestError create(TiesBinaryFormatException e) {
+		TiesBinaryRequestError error;
+		switch (e.getReason()) {
+		case UNRECOGNIZED_FIELD:
+			error = new TiesBinaryRequestError("Unrecognized field " + e.getPath());
+			break;
+		case ILLEGAL_VALUE:
+			error = new TiesBinaryRequestError("Illegal value of field " + e.getPath());
+			break;
+		default:
+			error = new TiesBinaryRequestError("Unexpected exception");
+		}
+		Object root = e.getSource();
+		error.id = root instanceof TiesBinaryRequestRoot ? ((TiesBinaryRequestRoot) root).getId() : null;
+		return error;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import java.util.List;
+import java.util.Map;
+
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryFieldType;
+import network.tiesdb.handler.impl.binary.codec.TiesBinarySchema;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestInsert;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestRoot;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestSelect;
+import network.tiesdb.handler.impl.binary.response.TiesBinaryResponseRoot;
+
+/**
+ * Schemas of TiesDB binary protocol messages.
+ * 
+ * <P>Tags of existing fields must never be changed or reused, otherwise older
+ * clients will be misunderstood. Responses of test requests echo the request
+ * in the same schema, other responses are written in the {@link #RESPONSE}
+ * schema, which does not share tags with the requests except the id. An
+ * error response has the error field and the request id if it was read
+ * before the error.
+ */
+public final class TiesBinarySchemas {
+
+	private static final TiesBinaryFieldType<List<Map<String, Object>>> ROWS = TiesBinaryFieldType
+			.listOf(TiesBinaryFieldType.mapOf(TiesBinaryFieldType.VALUE));
+
+	public static final TiesBinarySchema<TiesBinaryRequestSelect> SELECT = TiesBinarySchema
+			.builder(TiesBinaryRequestSelect::new) //
+			.field(1, "hello", TiesBinaryFieldType.STRING, r -> r.hello, (r, v) -> r.hello = v) //
+			.field(2, "keyspace", TiesBinaryFieldType.STRING, r -> r.keyspace, (r, v) -> r.keyspace = v) //
+			.field(3, "table", TiesBinaryFieldType.STRING, r -> r.table, (r, v) -> r.table = v) //
+			.field(4, "columns", TiesBinaryFieldType.listOf(TiesBinaryFieldType.STRING), r -> r.columns,
+					(r, v) -> r.columns = v) //
+			.field(5, "where", TiesBinaryFieldType.mapOf(TiesBinaryFieldType.VALUE), r -> r.where,
+					(r, v) -> r.where = v) //
+			.field(6, "pageSize", TiesBinaryFieldType.INTEGER, r -> r.pageSize, (r, v) -> r.pageSize = v) //
+			.build();
+
+	public static final TiesBinarySchema<TiesBinaryRequestInsert> INSERT = TiesBinarySchema
+			.builder(TiesBinaryRequestInsert::new) //
+			.field(1, "test", TiesBinaryFieldType.STRING, r -> r.test, (r, v) -> r.test = v) //
+			.field(2, "select", SELECT, r -> r.select, (r, v) -> r.select = v) //
+			.field(3, "keyspace", TiesBinaryFieldType.STRING, r -> r.keyspace, (r, v) -> r.keyspace = v) //
+			.field(4, "table", TiesBinaryFieldType.STRING, r -> r.table, (r, v) -> r.table = v) //
+			.field(5, "rows", ROWS, r -> r.rows, (r, v) -> r.rows = v) //
+			.build();
+
+	public static final TiesBinarySchema<TiesBinaryRequestRoot> ROOT = TiesBinarySchema
+			.builder(TiesBinaryRequestRoot::new) //
+			.field(3, "id", TiesBinaryFieldType.STRING, TiesBinaryRequestRoot::getId, TiesBinaryRequestRoot::setId) //
+			.field(1, "insert", INSERT, TiesBinaryRequestRoot::getInsert, TiesBinaryRequestRoot::setInsert) //
+			.field(2, "select", SELECT, TiesBinaryRequestRoot::getSelect, TiesBinaryRequestRoot::setSelect) //
+			.build();
+
+	public static final TiesBinarySchema<TiesBinaryResponseRoot> RESPONSE = TiesBinarySchema
+			.builder(TiesBinaryResponseRoot::new) //
+			.field(3, "id", TiesBinaryFieldType.STRING, r -> r.id, (r, v) -> r.id = v) //
+			.field(4, "count", TiesBinaryFieldType.INTEGER, r -> r.count, (r, v) -> r.count = v) //
+			.field(5, "rows", ROWS, r -> r.rows, (r, v) -> r.rows = v) //
+			.field(6, "more", TiesBinaryFieldType.BOOLEAN, r -> r.more, (r, v) -> r.more = v) //
+			.build();
+
+	public static final TiesBinarySchema<TiesBinaryRequestError> ERROR = TiesBinarySchema
+			.builder(TiesBinaryRequestError::new) //
+			.field(3, "id", TiesBinaryFieldType.STRING, r -> r.id, (r, v) -> r.id = v) //
+			.field(127, "error", TiesBinaryFieldType.STRING, r -> r.message, (r, v) -> r.message = v) //
+			.build();
+
+	private TiesBinarySchemas() {
+	}
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec of a field value in TiesDB binary format.
+ * 
+ * @param <V>
+ *            type of the value
+ */
+public interface TiesBinaryFieldType<V> {
+
+	TiesBinaryFieldType<String> STRING = new TiesBinaryFieldType<String>() {
+
+		@Override
+		public String read(TiesBinaryReader reader) throws IOException {
+			return reader.readString();
+		}
+
+		@Override
+		public void write(TiesBinaryWriter writer, String value) throws IOException {
+			writer.writeString(value);
+		}
+
+	};
+
+	TiesBinaryFieldType<Integer> INTEGER = new TiesBinaryFieldType<Integer>() {
+
+		@Override
+		public Integer read(TiesBinaryReader reader) throws IOException {
+			return reader.readVarInt();
+		}
+
+		@Override
+		public void write(TiesBinaryWriter writer, Integer value) throws IOException {
+			writer.writeVarInt(value);
+		}
+
+	};
+
+	TiesBinaryFieldType<Boolean> BOOLEAN = new TiesBinaryFieldType<Boolean>() {
+
+		@Override
+		public Boolean read(TiesBinaryReader reader) throws IOException {
+			int b = reader.readByte();
+			if (b > 1) {
+				throw TiesBinaryFormatException.illegalValue("Illegal boolean " + b);
+			}
+			return 1 == b;
+		}
+
+		@Override
+		public void write(TiesBinaryWriter writer, Boolean value) throws IOException {
+			writer.writeByte(value ? 1 : 0);
+		}
+
+	};
+
+	/**
+	 * Column value of any type, see {@link TiesBinaryValueType}.
+	 */
+	TiesBinaryFieldType<Object> VALUE = new TiesBinaryValueType();
+
+	/**
+	 * Returns type of a list encoded as a varint count followed by its
+	 * elements.
+	 */
+	static <V> TiesBinaryFieldType<List<V>> listOf(TiesBinaryFieldType<V> type) {
+		if (null == type) {
+			throw new NullPointerException("The type should not be null");
+		}
+		return new TiesBinaryFieldType<List<V>>() {
+
+			@Override
+			public List<V> read(TiesBinaryReader reader) throws IOException {
+				int count = reader.readCount();
+				List<V> list = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					try {
+						list.add(type.read(reader));
+					} catch (TiesBinaryFormatException e) {
+						throw e.withPath("[" + i + "]");
+					}
+				}
+				return list;
+			}
+
+			@Override
+			public void write(TiesBinaryWriter writer, List<V> value) throws IOException {
+				writer.writeVarInt(value.size());
+				for (V element : value) {
+					type.write(writer, element);
+				}
+			}
+
+		};
+	}
+
+	/**
+	 * Returns type of a map with string keys encoded as a varint count
+	 * followed by its keys and values.
+	 */
+	static <V> TiesBinaryFieldType<Map<String, V>> mapOf(TiesBinaryFieldType<V> type) {
+		if (null == type) {
+			throw new NullPointerException("The type should not be null");
+		}
+		return new TiesBinaryFieldType<Map<String, V>>() {
+
+			@Override
+			public Map<String, V> read(TiesBinaryReader reader) throws IOException {
+				int count = reader.readCount();
+				Map<String, V> map = new LinkedHashMap<>();
+				for (int i = 0; i < count; i++) {
+					String key = reader.readString();
+					try {
+						map.put(key, type.read(reader));
+					} catch (TiesBinaryFormatException e) {
+						throw e.withPath(key);
+					}
+				}
+				return map;
+			}
+
+			@Override
+			public void write(TiesBinaryWriter writer, Map<String, V> value) throws IOException {
+				writer.writeVarInt(value.size());
+				for (Map.Entry<String, V> entry : value.entrySet()) {
+					writer.writeString(entry.getKey());
+					type.write(writer, entry.getValue());
+				}
+			}
+
+		};
+	}
+
+	V read(TiesBinaryReader reader) throws IOException;
+
+	void write(TiesBinaryWriter writer, V value) throws IOException;
+
+}
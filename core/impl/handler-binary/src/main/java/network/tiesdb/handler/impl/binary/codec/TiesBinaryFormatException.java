@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Exception of TiesDB binary format.
+ * 
+ * <P>Keeps the path of fields to the place where the error was found, the same
+ * way JSON mapping exceptions do.
+ */
+public class TiesBinaryFormatException extends IOException {
+
+	private static final long serialVersionUID = 4405624412385095291L;
+
+	public static enum Reason {
+		UNRECOGNIZED_FIELD, ILLEGAL_VALUE
+	}
+
+	private final Reason reason;
+	private final Deque<String> path = new ArrayDeque<>();
+	private transient Object source;
+
+	public TiesBinaryFormatException(Reason reason, String message) {
+		super(message);
+		if (null == reason) {
+			throw new NullPointerException("The reason should not be null");
+		}
+		this.reason = reason;
+	}
+
+	public static TiesBinaryFormatException unrecognizedField(String field) {
+		return new TiesBinaryFormatException(Reason.UNRECOGNIZED_FIELD, "Unrecognized field").withPath(field);
+	}
+
+	public static TiesBinaryFormatException illegalValue(String message) {
+		return new TiesBinaryFormatException(Reason.ILLEGAL_VALUE, message);
+	}
+
+	public TiesBinaryFormatException withPath(String field) {
+		path.addFirst(field);
+		return this;
+	}
+
+	/**
+	 * Sets the object which was being read. Each enclosing schema replaces
+	 * it, so after propagation it is the outermost (root) object with all
+	 * fields read before the error.
+	 */
+	public TiesBinaryFormatException withSource(Object source) {
+		this.source = source;
+		return this;
+	}
+
+	public Object getSource() {
+		return source;
+	}
+
+	public Reason getReason() {
+		return reason;
+	}
+
+	public String getPath() {
+		return String.join(".", path);
+	}
+
+	@Override
+	public String getMessage() {
+		return path.isEmpty() ? super.getMessage() : super.getMessage() + " " + getPath();
+	}
+
+}
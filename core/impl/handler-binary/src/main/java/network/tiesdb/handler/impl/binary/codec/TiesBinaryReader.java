@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of TiesDB binary format primitives.
+ * 
+ * <P>Integers are read as unsigned LEB128 varints, longs as zigzag LEB128
+ * varints, doubles as 8 bytes of IEEE 754 in big-endian order and strings as
+ * a varint length followed by UTF-8 bytes. Lengths and counts are limited by
+ * {@code maxFieldLength}.
+ */
+public class TiesBinaryReader {
+
+	private final InputStream is;
+	private final int maxFieldLength;
+
+	public TiesBinaryReader(InputStream is, int maxFieldLength) {
+		if (null == is) {
+			throw new NullPointerException("The is should not be null");
+		}
+		this.is = is;
+		this.maxFieldLength = maxFieldLength;
+	}
+
+	public int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7f) << shift;
+			if (0 == (b & 0x80)) {
+				if (shift == 28 && b > 0x0f) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw TiesBinaryFormatException.illegalValue("Varint is too long");
+	}
+
+	public long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if (0 == (b & 0x80)) {
+				if (shift == 63 && b > 0x01) {
+					break;
+				}
+				return (value >>> 1) ^ -(value & 1);
+			}
+		}
+		throw TiesBinaryFormatException.illegalValue("Varint is too long");
+	}
+
+	public double readDouble() throws IOException {
+		long bits = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			bits = bits << 8 | readByte();
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	public int readCount() throws IOException {
+		int count = readVarInt();
+		if (count < 0 || count > maxFieldLength) {
+			throw TiesBinaryFormatException
+					.illegalValue("Field length " + (count & 0xffffffffL) + " exceeds " + maxFieldLength);
+		}
+		return count;
+	}
+
+	public String readString() throws IOException {
+		int length = readCount();
+		byte[] bytes = new byte[length];
+		for (int off = 0; off < length;) {
+			int count = is.read(bytes, off, length - off);
+			if (count < 0) {
+				throw new EOFException("Unexpected end of input in a field of " + length + " bytes");
+			}
+			off += count;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int readByte() throws IOException {
+		int b = is.read();
+		if (b < 0) {
+			throw new EOFException("Unexpected end of input");
+		}
+		return b;
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Schema of an object in TiesDB binary format.
+ * 
+ * <P>Object is encoded as a sequence of fields terminated by a zero tag. Each
+ * field is a varint tag followed by its value, which is encoded by the field
+ * type known from the schema. Null fields are omitted. Tags are small numbers,
+ * so field names are never sent over the wire.
+ * 
+ * <pre>
+ * object := { tag value } 0
+ * value  := string | object
+ * string := length UTF-8-bytes
+ * </pre>
+ * 
+ * @param <T>
+ *            type of the object bean
+ */
+public final class TiesBinarySchema<T> implements TiesBinaryFieldType<T> {
+
+	private static final int END_TAG = 0;
+	private static final int MAX_TAG = 127;
+
+	private static final class Field<T, V> {
+
+		private final int tag;
+		private final String name;
+		private final TiesBinaryFieldType<V> type;
+		private final Function<T, V> getter;
+		private final BiConsumer<T, V> setter;
+
+		private Field(int tag, String name, TiesBinaryFieldType<V> type, Function<T, V> getter,
+				BiConsumer<T, V> setter) {
+			this.tag = tag;
+			this.name = name;
+			this.type = type;
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		private void read(TiesBinaryReader reader, T bean) throws IOException {
+			setter.accept(bean, type.read(reader));
+		}
+
+		private void write(TiesBinaryWriter writer, T bean) throws IOException {
+			V value = getter.apply(bean);
+			if (null != value) {
+				writer.writeVarInt(tag);
+				type.write(writer, value);
+			}
+		}
+	}
+
+	public static final class Builder<T> {
+
+		private final Supplier<T> factory;
+		private final List<Field<T, ?>> fields = new ArrayList<>();
+
+		private Builder(Supplier<T> factory) {
+			this.factory = factory;
+		}
+
+		public <V> Builder<T> field(int tag, String name, TiesBinaryFieldType<V> type, Function<T, V> getter,
+				BiConsumer<T, V> setter) {
+			if (tag <= END_TAG || tag > MAX_TAG) {
+				throw new IllegalArgumentException("The tag " + tag + " should be in range 1.." + MAX_TAG);
+			}
+			for (Field<T, ?> field : fields) {
+				if (field.tag == tag) {
+					throw new IllegalArgumentException("The tag " + tag + " is already used by " + field.name);
+				}
+			}
+			fields.add(new Field<>(tag, name, type, getter, setter));
+			return this;
+		}
+
+		public TiesBinarySchema<T> build() {
+			return new TiesBinarySchema<>(factory, fields);
+		}
+	}
+
+	private final Supplier<T> factory;
+	private final Field<T, ?>[] fields;
+	private final Field<T, ?>[] fieldsByTag;
+
+	private TiesBinarySchema(Supplier<T> factory, List<Field<T, ?>> fields) {
+		if (null == factory) {
+			throw new NullPointerException("The factory should not be null");
+		}
+		this.factory = factory;
+		@SuppressWarnings("unchecked")
+		Field<T, ?>[] fieldsArray = (Field<T, ?>[]) fields.toArray(new Field<?, ?>[fields.size()]);
+		@SuppressWarnings("unchecked")
+		Field<T, ?>[] fieldsByTag = (Field<T, ?>[]) new Field<?, ?>[MAX_TAG + 1];
+		this.fields = fieldsArray;
+		this.fieldsByTag = fieldsByTag;
+		for (Field<T, ?> field : fields) {
+			fieldsByTag[field.tag] = field;
+		}
+	}
+
+	public static <T> Builder<T> builder(Supplier<T> factory) {
+		return new Builder<>(factory);
+	}
+
+	@Override
+	public T read(TiesBinaryReader reader) throws IOException {
+		T bean = factory.get();
+		try {
+			for (int tag = reader.readVarInt(); END_TAG != tag; tag = reader.readVarInt()) {
+				Field<T, ?> field = tag > 0 && tag <= MAX_TAG ? fieldsByTag[tag] : null;
+				if (null == field) {
+					throw TiesBinaryFormatException.unrecognizedField("#" + (tag & 0xffffffffL));
+				}
+				try {
+					field.read(reader, bean);
+				} catch (TiesBinaryFormatException e) {
+					throw e.withPath(field.name);
+				}
+			}
+		} catch (TiesBinaryFormatException e) {
+			throw e.withSource(bean);
+		}
+		return bean;
+	}
+
+	@Override
+	public void write(TiesBinaryWriter writer, T bean) throws IOException {
+		for (Field<T, ?> field : fields) {
+			field.write(writer, bean);
+		}
+		writer.writeVarInt(END_TAG);
+	}
+
+}
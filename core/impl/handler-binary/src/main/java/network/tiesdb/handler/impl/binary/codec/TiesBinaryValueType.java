@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec of a column value in TiesDB binary format.
+ * 
+ * <P>Value is a kind byte followed by the payload of the kind. Values are
+ * read as the same objects the JSON handler gives to the storage, so columns
+ * are converted the same way whatever the request format is.
+ * 
+ * <pre>
+ * value   := kind payload
+ * NULL    := 0
+ * STRING  := 1 string
+ * INTEGER := 2 zigzag-varlong
+ * DOUBLE  := 3 8-bytes
+ * FALSE   := 4
+ * TRUE    := 5
+ * LIST    := 6 count { value }
+ * MAP     := 7 count { string value }
+ * DECIMAL := 8 string
+ * </pre>
+ * 
+ * <P>Integers read as {@link Integer} if they fit, as {@link Long}
+ * otherwise. Decimals are sent as their string form, so no precision is lost.
+ * Dates are sent as integer milliseconds since epoch.
+ */
+public class TiesBinaryValueType implements TiesBinaryFieldType<Object> {
+
+	private static final int NULL = 0;
+	private static final int STRING = 1;
+	private static final int INTEGER = 2;
+	private static final int DOUBLE = 3;
+	private static final int FALSE = 4;
+	private static final int TRUE = 5;
+	private static final int LIST = 6;
+	private static final int MAP = 7;
+	private static final int DECIMAL = 8;
+
+	private static final int MAX_DEPTH = 32;
+
+	TiesBinaryValueType() {
+	}
+
+	@Override
+	public Object read(TiesBinaryReader reader) throws IOException {
+		return read(reader, 0);
+	}
+
+	private Object read(TiesBinaryReader reader, int depth) throws IOException {
+		int kind = reader.readByte();
+		switch (kind) {
+		case NULL:
+			return null;
+		case STRING:
+			return reader.readString();
+		case INTEGER:
+			long value = reader.readVarLong();
+			return value == (int) value ? (Object) (int) value : (Object) value;
+		case DOUBLE:
+			return reader.readDouble();
+		case FALSE:
+			return false;
+		case TRUE:
+			return true;
+		case DECIMAL:
+			String decimal = reader.readString();
+			try {
+				return new BigDecimal(decimal);
+			} catch (NumberFormatException e) {
+				throw TiesBinaryFormatException.illegalValue("Illegal decimal " + decimal);
+			}
+		case LIST:
+		case MAP:
+			if (depth >= MAX_DEPTH) {
+				throw TiesBinaryFormatException.illegalValue("Value nesting exceeds " + MAX_DEPTH);
+			}
+			return LIST == kind ? readList(reader, depth + 1) : readMap(reader, depth + 1);
+		default:
+			throw TiesBinaryFormatException.illegalValue("Illegal value kind " + kind);
+		}
+	}
+
+	private List<Object> readList(TiesBinaryReader reader, int depth) throws IOException {
+		int count = reader.readCount();
+		List<Object> list = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(read(reader, depth));
+		}
+		return list;
+	}
+
+	private Map<String, Object> readMap(TiesBinaryReader reader, int depth) throws IOException {
+		int count = reader.readCount();
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (int i = 0; i < count; i++) {
+			map.put(reader.readString(), read(reader, depth));
+		}
+		return map;
+	}
+
+	@Override
+	public void write(TiesBinaryWriter writer, Object value) throws IOException {
+		if (null == value) {
+			writer.writeByte(NULL);
+		} else if (value instanceof Boolean) {
+			writer.writeByte((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte) {
+			writer.writeByte(INTEGER);
+			writer.writeVarLong(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			writer.writeByte(DOUBLE);
+			writer.writeDouble(((Number) value).doubleValue());
+		} else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE) {
+			writer.writeByte(INTEGER);
+			writer.writeVarLong(((BigInteger) value).longValue());
+		} else if (value instanceof Number) {
+			writer.writeByte(DECIMAL);
+			writer.writeString(value.toString());
+		} else if (value instanceof Date) {
+			writer.writeByte(INTEGER);
+			writer.writeVarLong(((Date) value).getTime());
+		} else if (value instanceof Collection) {
+			writer.writeByte(LIST);
+			writer.writeVarInt(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value) {
+				write(writer, element);
+			}
+		} else if (value instanceof Map) {
+			writer.writeByte(MAP);
+			writer.writeVarInt(((Map<?, ?>) value).size());
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				writer.writeString(String.valueOf(entry.getKey()));
+				write(writer, entry.getValue());
+			}
+		} else {
+			writer.writeByte(STRING);
+			writer.writeString(value.toString());
+		}
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of TiesDB binary format primitives.
+ * 
+ * @see TiesBinaryReader
+ */
+public class TiesBinaryWriter {
+
+	private final OutputStream os;
+
+	public TiesBinaryWriter(OutputStream os) {
+		if (null == os) {
+			throw new NullPointerException("The os should not be null");
+		}
+		this.os = os;
+	}
+
+	public void writeVarInt(int value) throws IOException {
+		while (0 != (value & ~0x7f)) {
+			os.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		os.write(value);
+	}
+
+	public void writeVarLong(long value) throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while (0 != (zigzag & ~0x7fL)) {
+			os.write((int) (zigzag & 0x7f) | 0x80);
+			zigzag >>>= 7;
+		}
+		os.write((int) zigzag);
+	}
+
+	public void writeDouble(double value) throws IOException {
+		long bits = Double.doubleToLongBits(value);
+		for (int shift = Long.SIZE - 8; shift >= 0; shift -= 8) {
+			os.write((int) (bits >>> shift));
+		}
+	}
+
+	public void writeByte(int value) throws IOException {
+		os.write(value);
+	}
+
+	public void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+		os.write(bytes);
+	}
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.request;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Root class for TiesDB binary "insert" request.
+ * 
+ * <P>Inserts {@code rows} into the {@code table} of the {@code keyspace}, the
+ * same way the JSON insert request does. Request without a table is a test
+ * request, which is echoed back.
+ */
+public class TiesBinaryRequestInsert {
+	public String test;
+	public TiesBinaryRequestSelect select;
+	public String keyspace;
+	public String table;
+	public List<Map<String, Object>> rows;
+}
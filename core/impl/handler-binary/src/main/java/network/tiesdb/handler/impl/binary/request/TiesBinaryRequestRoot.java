@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.request;
+
+/**
+ * Root of TiesDB binary request.
+ * 
+ * <P>Holds exactly one request of any supported type and an optional client
+ * chosen request id, which is echoed back to correlate the response.
+ */
+public class TiesBinaryRequestRoot {
+
+	public enum RequestType {
+		INSERT, SELECT
+	}
+
+	private String id;
+	private Object request;
+	private RequestType type;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	private void setRequest(Object request, RequestType type) {
+		this.request = request;
+		this.type = type;
+	}
+
+	public void setInsert(TiesBinaryRequestInsert request) {
+		setRequest(request, RequestType.INSERT);
+	}
+
+	public void setSelect(TiesBinaryRequestSelect request) {
+		setRequest(request, RequestType.SELECT);
+	}
+
+	public TiesBinaryRequestInsert getInsert() {
+		return RequestType.INSERT == type ? (TiesBinaryRequestInsert) request : null;
+	}
+
+	public TiesBinaryRequestSelect getSelect() {
+		return RequestType.SELECT == type ? (TiesBinaryRequestSelect) request : null;
+	}
+
+	public Object getRequest() {
+		return request;
+	}
+
+	public RequestType getType() {
+		return type;
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.request;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Root class for TiesDB binary "select" request.
+ * 
+ * <P>Selects {@code columns} of the {@code table} rows where columns are
+ * equal to the {@code where} values, the same way the JSON select request
+ * does. Rows are read by pages of {@code pageSize} rows, each page is sent in
+ * a separate message if the transport supports it. Request without a table is
+ * a test request, which is echoed back.
+ */
+public class TiesBinaryRequestSelect {
+	public String hello;
+	public String keyspace;
+	public String table;
+	public List<String> columns;
+	public Map<String, Object> where;
+	public Integer pageSize;
+}
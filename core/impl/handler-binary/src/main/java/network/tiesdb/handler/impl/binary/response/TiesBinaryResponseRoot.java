@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.response;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Root of TiesDB binary response.
+ * 
+ * <P>Holds the request id and the {@code count} of inserted rows or the
+ * selected {@code rows}. The {@code more} flag of selected rows tells the
+ * client whether to wait for the next message of the response.
+ */
+public class TiesBinaryResponseRoot {
+	public String id;
+	public Integer count;
+	public List<Map<String, Object>> rows;
+	public Boolean more;
+}
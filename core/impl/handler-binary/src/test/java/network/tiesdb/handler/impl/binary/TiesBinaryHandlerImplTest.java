@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import network.tiesdb.api.TiesVersion;
+import network.tiesdb.context.api.TiesServiceConfig;
+import network.tiesdb.exception.TiesException;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryReader;
+import network.tiesdb.handler.impl.binary.codec.TiesBinarySchema;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryWriter;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestInsert;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestRoot;
+import network.tiesdb.handler.impl.binary.response.TiesBinaryResponseRoot;
+import network.tiesdb.service.api.TiesService;
+import network.tiesdb.service.api.TiesServiceDaemon;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.transport.api.TiesRequest;
+import network.tiesdb.transport.api.TiesResponse;
+import network.tiesdb.transport.api.TiesTransport;
+
+/**
+ * Tests of {@link TiesBinaryHandlerImpl} inserts.
+ */
+public class TiesBinaryHandlerImplTest {
+
+	private final List<List<Map<String, Object>>> inserted = new ArrayList<>();
+
+	private final TiesStorage storage = (TiesStorage) Proxy.newProxyInstance(TiesStorage.class.getClassLoader(),
+			new Class<?>[] { TiesStorage.class }, (proxy, method, args) -> {
+				if (!"insert".equals(method.getName())) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+				@SuppressWarnings("unchecked")
+				List<Map<String, Object>> rows = (List<Map<String, Object>>) args[2];
+				inserted.add(rows);
+				return rows.size();
+			});
+
+	@Test
+	public void testInsertsRows() throws Exception {
+		TiesBinaryResponseRoot response = read(TiesBinarySchemas.RESPONSE, handle(false, insert(2)));
+		assertEquals("1", response.id);
+		assertEquals(Integer.valueOf(2), response.count);
+		assertEquals(1, inserted.size());
+	}
+
+	@Test
+	public void testRejectsUnsignedRowsIfSignaturesAreRequired() throws Exception {
+		TiesBinaryRequestError error = read(TiesBinarySchemas.ERROR, handle(true, insert(2)));
+		assertEquals("1", error.id);
+		assertEquals("Rows should be signed, signed rows are accepted only by TiesHandler", error.message);
+		assertEquals(0, inserted.size());
+	}
+
+	@Test
+	public void testInsertsNoRowsIfSignaturesAreRequired() throws Exception {
+		TiesBinaryResponseRoot response = read(TiesBinarySchemas.RESPONSE, handle(true, insert(0)));
+		assertEquals(Integer.valueOf(0), response.count);
+		assertNull(response.rows);
+	}
+
+	private byte[] handle(boolean requireSignatures, TiesBinaryRequestRoot request) throws TiesException, IOException {
+		TiesBinaryHandlerConfigImpl config = new TiesBinaryHandlerConfigImpl();
+		config.setRequireSignatures(requireSignatures);
+		TiesBinaryHandlerImpl handler = new TiesBinaryHandlerImpl(new TiesService() {
+
+			@Override
+			public TiesServiceDaemon getDaemon() {
+				return null;
+			}
+
+			@Override
+			public List<TiesTransport> getTransports() {
+				return Collections.emptyList();
+			}
+
+			@Override
+			public TiesServiceConfig getTiesServiceConfig() {
+				return null;
+			}
+
+			@Override
+			public TiesStorage getStorage() {
+				return storage;
+			}
+
+			@Override
+			public TiesVersion getVersion() {
+				return null;
+			}
+
+		}, config);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		TiesBinarySchemas.ROOT.write(new TiesBinaryWriter(os), request);
+		byte[] bytes = os.toByteArray();
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		handler.handle(new TiesRequest() {
+			@Override
+			public InputStream getInputStream() {
+				return new ByteArrayInputStream(bytes);
+			}
+		}, new TiesResponse() {
+			@Override
+			public OutputStream getOutputStream() {
+				return response;
+			}
+		});
+		return response.toByteArray();
+	}
+
+	private static TiesBinaryRequestRoot insert(int count) {
+		TiesBinaryRequestInsert insert = new TiesBinaryRequestInsert();
+		insert.keyspace = "ks";
+		insert.table = "tbl";
+		insert.rows = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			insert.rows.add(Collections.singletonMap("id", i));
+		}
+		TiesBinaryRequestRoot root = new TiesBinaryRequestRoot();
+		root.setId("1");
+		root.setInsert(insert);
+		return root;
+	}
+
+	private static <T> T read(TiesBinarySchema<T> schema, byte[] bytes) throws IOException {
+		return schema.read(new TiesBinaryReader(new ByteArrayInputStream(bytes), Integer.MAX_VALUE));
+	}
+
+}
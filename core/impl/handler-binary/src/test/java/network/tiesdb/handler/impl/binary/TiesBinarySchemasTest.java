@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryFormatException;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryReader;
+import network.tiesdb.handler.impl.binary.codec.TiesBinarySchema;
+import network.tiesdb.handler.impl.binary.codec.TiesBinaryWriter;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestInsert;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestRoot;
+import network.tiesdb.handler.impl.binary.request.TiesBinaryRequestSelect;
+import network.tiesdb.handler.impl.binary.response.TiesBinaryResponseRoot;
+
+/**
+ * Tests of TiesDB binary protocol messages of {@link TiesBinarySchemas}.
+ */
+public class TiesBinarySchemasTest {
+
+	@Test
+	public void testRoundTripsInsertRequest() throws IOException {
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("id", 1);
+		row.put("name", "first");
+		row.put("score", 2.5);
+		row.put("tags", Arrays.asList("a", "b"));
+		TiesBinaryRequestInsert insert = new TiesBinaryRequestInsert();
+		insert.keyspace = "ks";
+		insert.table = "tbl";
+		insert.rows = Collections.singletonList(row);
+		TiesBinaryRequestRoot root = new TiesBinaryRequestRoot();
+		root.setId("42");
+		root.setInsert(insert);
+
+		TiesBinaryRequestRoot read = roundTrip(TiesBinarySchemas.ROOT, root);
+		assertEquals("42", read.getId());
+		assertSame(TiesBinaryRequestRoot.RequestType.INSERT, read.getType());
+		assertEquals("ks", read.getInsert().keyspace);
+		assertEquals("tbl", read.getInsert().table);
+		assertEquals(Collections.singletonList(row), read.getInsert().rows);
+		assertNull(read.getInsert().test);
+		assertNull(read.getSelect());
+	}
+
+	@Test
+	public void testRoundTripsSelectRequest() throws IOException {
+		TiesBinaryRequestSelect select = new TiesBinaryRequestSelect();
+		select.keyspace = "ks";
+		select.table = "tbl";
+		select.columns = Arrays.asList("id", "name");
+		select.where = Collections.singletonMap("id", (Object) 5000000000L);
+		select.pageSize = 100;
+		TiesBinaryRequestRoot root = new TiesBinaryRequestRoot();
+		root.setSelect(select);
+
+		TiesBinaryRequestRoot read = roundTrip(TiesBinarySchemas.ROOT, root);
+		assertNull(read.getId());
+		assertSame(TiesBinaryRequestRoot.RequestType.SELECT, read.getType());
+		assertEquals(Arrays.asList("id", "name"), read.getSelect().columns);
+		assertEquals(Collections.singletonMap("id", 5000000000L), read.getSelect().where);
+		assertEquals(Integer.valueOf(100), read.getSelect().pageSize);
+	}
+
+	@Test
+	public void testRoundTripsTestRequest() throws IOException {
+		TiesBinaryRequestSelect select = new TiesBinaryRequestSelect();
+		select.hello = "world";
+		TiesBinaryRequestInsert insert = new TiesBinaryRequestInsert();
+		insert.test = "test";
+		insert.select = select;
+
+		TiesBinaryRequestInsert read = roundTrip(TiesBinarySchemas.INSERT, insert);
+		assertEquals("test", read.test);
+		assertEquals("world", read.select.hello);
+		assertNull(read.table);
+	}
+
+	@Test
+	public void testRoundTripsResponse() throws IOException {
+		TiesBinaryResponseRoot response = new TiesBinaryResponseRoot();
+		response.id = "7";
+		response.rows = Arrays.asList(Collections.singletonMap("id", (Object) 1),
+				Collections.singletonMap("id", (Object) null));
+		response.more = true;
+
+		TiesBinaryResponseRoot read = roundTrip(TiesBinarySchemas.RESPONSE, response);
+		assertEquals("7", read.id);
+		assertNull(read.count);
+		assertEquals(response.rows, read.rows);
+		assertEquals(Boolean.TRUE, read.more);
+	}
+
+	@Test
+	public void testWritesIdFirstWithSharedTag() throws IOException {
+		TiesBinaryResponseRoot response = new TiesBinaryResponseRoot();
+		response.id = "1";
+		response.count = 3;
+		TiesBinaryRequestError error = new TiesBinaryRequestError();
+		error.id = "2";
+		error.message = "failed";
+		// Clients tell the responses by the id before they know the message type
+		assertArrayEquals(new byte[] { 3, 1, '1', 4, 3, 0 }, write(TiesBinarySchemas.RESPONSE, response));
+		assertArrayEquals(new byte[] { 3, 1, '2', 127, 6, 'f', 'a', 'i', 'l', 'e', 'd', 0 },
+				write(TiesBinarySchemas.ERROR, error));
+		assertEquals("failed", roundTrip(TiesBinarySchemas.ERROR, error).message);
+	}
+
+	@Test
+	public void testKeepsIdReadBeforeError() throws IOException {
+		// Root with id "9" and an insert with an unknown field
+		byte[] bytes = { 3, 1, '9', 1, 100, 0, 0 };
+		try {
+			read(TiesBinarySchemas.ROOT, bytes);
+			fail("Unrecognized field should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertEquals("insert.#100", e.getPath());
+			assertEquals("9", ((TiesBinaryRequestRoot) e.getSource()).getId());
+			assertEquals("9", TiesBinaryRequestError.create(e).id);
+		}
+	}
+
+	private static <T> T roundTrip(TiesBinarySchema<T> schema, T bean) throws IOException {
+		return read(schema, write(schema, bean));
+	}
+
+	private static <T> byte[] write(TiesBinarySchema<T> schema, T bean) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		schema.write(new TiesBinaryWriter(os), bean);
+		return os.toByteArray();
+	}
+
+	private static <T> T read(TiesBinarySchema<T> schema, byte[] bytes) throws IOException {
+		ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+		T bean = schema.read(new TiesBinaryReader(is, Integer.MAX_VALUE));
+		assertEquals("Message should be read entirely", 0, is.available());
+		return bean;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TiesBinaryReader} and {@link TiesBinaryWriter} primitives.
+ */
+public class TiesBinaryReaderTest {
+
+	@Test
+	public void testWritesVarIntsAsLeb128() throws IOException {
+		assertArrayEquals(bytes(0x00), write(w -> w.writeVarInt(0)));
+		assertArrayEquals(bytes(0x7f), write(w -> w.writeVarInt(127)));
+		assertArrayEquals(bytes(0x80, 0x01), write(w -> w.writeVarInt(128)));
+		assertArrayEquals(bytes(0xac, 0x02), write(w -> w.writeVarInt(300)));
+		assertArrayEquals(bytes(0xff, 0xff, 0xff, 0xff, 0x0f), write(w -> w.writeVarInt(-1)));
+	}
+
+	@Test
+	public void testRoundTripsVarInts() throws IOException {
+		for (int value : new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Integer.MIN_VALUE, -1 }) {
+			assertEquals(value, reader(write(w -> w.writeVarInt(value))).readVarInt());
+		}
+	}
+
+	@Test
+	public void testWritesVarLongsAsZigZag() throws IOException {
+		assertArrayEquals(bytes(0x00), write(w -> w.writeVarLong(0)));
+		assertArrayEquals(bytes(0x01), write(w -> w.writeVarLong(-1)));
+		assertArrayEquals(bytes(0x02), write(w -> w.writeVarLong(1)));
+		assertArrayEquals(bytes(0x7f), write(w -> w.writeVarLong(-64)));
+		assertArrayEquals(bytes(0x80, 0x01), write(w -> w.writeVarLong(64)));
+		assertEquals(10, write(w -> w.writeVarLong(Long.MIN_VALUE)).length);
+	}
+
+	@Test
+	public void testRoundTripsVarLongs() throws IOException {
+		for (long value : new long[] { 0, 1, -1, 63, -64, 64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+				Long.MIN_VALUE }) {
+			assertEquals(value, reader(write(w -> w.writeVarLong(value))).readVarLong());
+		}
+	}
+
+	@Test
+	public void testRejectsTooLongVarInts() throws IOException {
+		assertIllegal(bytes(0xff, 0xff, 0xff, 0xff, 0x1f), r -> r.readVarInt());
+		assertIllegal(bytes(0x80, 0x80, 0x80, 0x80, 0x80, 0x00), r -> r.readVarInt());
+		assertIllegal(bytes(0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x03), r -> r.readVarLong());
+		assertIllegal(bytes(0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x00), r -> r.readVarLong());
+	}
+
+	@Test
+	public void testRoundTripsDoubles() throws IOException {
+		assertArrayEquals(bytes(0x3f, 0xf0, 0, 0, 0, 0, 0, 0), write(w -> w.writeDouble(1.0)));
+		for (double value : new double[] { 0.0, -0.0, 1.5, -Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN,
+				Double.NEGATIVE_INFINITY }) {
+			assertEquals(Double.doubleToRawLongBits(value),
+					Double.doubleToRawLongBits(reader(write(w -> w.writeDouble(value))).readDouble()));
+		}
+	}
+
+	@Test
+	public void testRoundTripsStrings() throws IOException {
+		assertArrayEquals(bytes(0x02, 'h', 'i'), write(w -> w.writeString("hi")));
+		for (String value : new String[] { "", "TiesDB", "\u00e9t\u00e9", "\ud83d\ude00" }) {
+			assertEquals(value, reader(write(w -> w.writeString(value))).readString());
+		}
+	}
+
+	@Test
+	public void testLimitsFieldLength() throws IOException {
+		assertEquals(4, new TiesBinaryReader(new ByteArrayInputStream(bytes(0x04)), 4).readCount());
+		assertIllegal(new TiesBinaryReader(new ByteArrayInputStream(bytes(0x05)), 4), r -> r.readCount());
+		assertIllegal(new TiesBinaryReader(new ByteArrayInputStream(bytes(0xff, 0xff, 0xff, 0xff, 0x0f)), 4),
+				r -> r.readCount());
+		assertIllegal(new TiesBinaryReader(new ByteArrayInputStream(bytes(0x05, 'a', 'b', 'c', 'd', 'e')), 4),
+				r -> r.readString());
+	}
+
+	@Test
+	public void testFailsOnTruncatedInput() throws IOException {
+		assertEndOfInput(bytes(), r -> r.readByte());
+		assertEndOfInput(bytes(0x80), r -> r.readVarInt());
+		assertEndOfInput(bytes(0x80, 0x80), r -> r.readVarLong());
+		assertEndOfInput(bytes(0x3f, 0xf0), r -> r.readDouble());
+		assertEndOfInput(bytes(0x03, 'a', 'b'), r -> r.readString());
+	}
+
+	private interface Write {
+		void write(TiesBinaryWriter writer) throws IOException;
+	}
+
+	private interface Read {
+		void read(TiesBinaryReader reader) throws IOException;
+	}
+
+	private static byte[] write(Write write) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		write.write(new TiesBinaryWriter(os));
+		return os.toByteArray();
+	}
+
+	private static TiesBinaryReader reader(byte[] bytes) {
+		return new TiesBinaryReader(new ByteArrayInputStream(bytes), Integer.MAX_VALUE);
+	}
+
+	private static void assertIllegal(byte[] bytes, Read read) throws IOException {
+		assertIllegal(reader(bytes), read);
+	}
+
+	private static void assertIllegal(TiesBinaryReader reader, Read read) throws IOException {
+		try {
+			read.read(reader);
+			fail("Illegal value should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertEquals(TiesBinaryFormatException.Reason.ILLEGAL_VALUE, e.getReason());
+		}
+	}
+
+	private static void assertEndOfInput(byte[] bytes, Read read) throws IOException {
+		try {
+			read.read(reader(bytes));
+			fail("Truncated input should be rejected");
+		} catch (EOFException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TiesBinarySchema}.
+ */
+public class TiesBinarySchemaTest {
+
+	private static class Item {
+		private String name;
+		private Integer count;
+		private Boolean flag;
+		private Item child;
+		private List<Item> children;
+	}
+
+	private static final TiesBinarySchema<Item> LEAF = TiesBinarySchema.builder(Item::new) //
+			.field(1, "name", TiesBinaryFieldType.STRING, i -> i.name, (i, v) -> i.name = v) //
+			.field(2, "count", TiesBinaryFieldType.INTEGER, i -> i.count, (i, v) -> i.count = v) //
+			.field(127, "flag", TiesBinaryFieldType.BOOLEAN, i -> i.flag, (i, v) -> i.flag = v) //
+			.build();
+
+	private static final TiesBinarySchema<Item> ITEM = TiesBinarySchema.builder(Item::new) //
+			.field(1, "name", TiesBinaryFieldType.STRING, i -> i.name, (i, v) -> i.name = v) //
+			.field(3, "child", LEAF, i -> i.child, (i, v) -> i.child = v) //
+			.field(4, "children", TiesBinaryFieldType.listOf(LEAF), i -> i.children, (i, v) -> i.children = v) //
+			.build();
+
+	@Test
+	public void testWritesTaggedFieldsAndEndTag() throws IOException {
+		Item item = new Item();
+		item.name = "a";
+		item.count = 300;
+		item.flag = true;
+		assertArrayEquals(new byte[] { 1, 1, 'a', 2, (byte) 0xac, 0x02, 127, 1, 0 }, write(LEAF, item));
+	}
+
+	@Test
+	public void testOmitsNullFields() throws IOException {
+		Item item = new Item();
+		item.count = 1;
+		assertArrayEquals(new byte[] { 2, 1, 0 }, write(LEAF, item));
+		Item read = read(LEAF, write(LEAF, item));
+		assertNull(read.name);
+		assertEquals(Integer.valueOf(1), read.count);
+		assertNull(read.flag);
+	}
+
+	@Test
+	public void testRoundTripsNestedObjects() throws IOException {
+		Item item = new Item();
+		item.name = "root";
+		item.child = new Item();
+		item.child.name = "child";
+		item.child.flag = false;
+		item.children = Arrays.asList(new Item(), new Item());
+		item.children.get(1).count = 2;
+		Item read = read(ITEM, write(ITEM, item));
+		assertEquals("root", read.name);
+		assertEquals("child", read.child.name);
+		assertEquals(Boolean.FALSE, read.child.flag);
+		assertEquals(2, read.children.size());
+		assertNull(read.children.get(0).count);
+		assertEquals(Integer.valueOf(2), read.children.get(1).count);
+	}
+
+	@Test
+	public void testReadsFieldsInAnyOrder() throws IOException {
+		Item read = read(LEAF, new byte[] { 127, 0, 2, 5, 1, 1, 'b', 0 });
+		assertEquals("b", read.name);
+		assertEquals(Integer.valueOf(5), read.count);
+		assertEquals(Boolean.FALSE, read.flag);
+	}
+
+	@Test
+	public void testReportsPathOfUnrecognizedField() throws IOException {
+		// Field #9 of the second child
+		byte[] bytes = { 1, 1, 'r', 4, 2, 0, 9, 0 };
+		try {
+			read(ITEM, bytes);
+			fail("Unrecognized field should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertEquals(TiesBinaryFormatException.Reason.UNRECOGNIZED_FIELD, e.getReason());
+			assertEquals("children.[1].#9", e.getPath());
+			// Source is the root object with the fields read before the error
+			assertEquals("r", ((Item) e.getSource()).name);
+		}
+	}
+
+	@Test
+	public void testReportsPathOfIllegalValue() throws IOException {
+		try {
+			read(ITEM, new byte[] { 3, 127, 2, 0 });
+			fail("Illegal value should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertEquals(TiesBinaryFormatException.Reason.ILLEGAL_VALUE, e.getReason());
+			assertEquals("child.flag", e.getPath());
+			assertEquals("Illegal boolean 2 child.flag", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testRejectsIllegalTags() {
+		for (int tag : new int[] { 0, 128, -1 }) {
+			try {
+				TiesBinarySchema.builder(Item::new).field(tag, "name", TiesBinaryFieldType.STRING, i -> i.name,
+						(i, v) -> i.name = v);
+				fail("Tag " + tag + " should be rejected");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsDuplicateTags() {
+		TiesBinarySchema.builder(Item::new) //
+				.field(1, "name", TiesBinaryFieldType.STRING, i -> i.name, (i, v) -> i.name = v) //
+				.field(1, "count", TiesBinaryFieldType.INTEGER, i -> i.count, (i, v) -> i.count = v);
+	}
+
+	@Test
+	public void testReadsEmptyObject() throws IOException {
+		Item read = read(ITEM, new byte[] { 0 });
+		assertNull(read.name);
+		assertSame(null, read.children);
+	}
+
+	private static <T> byte[] write(TiesBinarySchema<T> schema, T bean) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		schema.write(new TiesBinaryWriter(os), bean);
+		return os.toByteArray();
+	}
+
+	private static <T> T read(TiesBinarySchema<T> schema, byte[] bytes) throws IOException {
+		ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+		T bean = schema.read(new TiesBinaryReader(is, Integer.MAX_VALUE));
+		assertEquals("Object should be read entirely", 0, is.available());
+		return bean;
+	}
+
+}
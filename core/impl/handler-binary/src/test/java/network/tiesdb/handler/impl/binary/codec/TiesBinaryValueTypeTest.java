@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.binary.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TiesBinaryValueType}.
+ */
+public class TiesBinaryValueTypeTest {
+
+	private static final TiesBinaryValueType TYPE = new TiesBinaryValueType();
+
+	@Test
+	public void testRoundTripsScalars() throws IOException {
+		assertNull(roundTrip(null));
+		assertEquals("text", roundTrip("text"));
+		assertEquals(Boolean.TRUE, roundTrip(true));
+		assertEquals(Boolean.FALSE, roundTrip(false));
+		assertEquals(1.25, roundTrip(1.25));
+		assertEquals(new BigDecimal("12345678901234567890.123456789"),
+				roundTrip(new BigDecimal("12345678901234567890.123456789")));
+	}
+
+	@Test
+	public void testReadsIntegersAsJsonDoes() throws IOException {
+		assertEquals(Integer.valueOf(42), roundTrip(42));
+		assertEquals(Integer.valueOf(-42), roundTrip(-42L));
+		assertEquals(Integer.valueOf(7), roundTrip((short) 7));
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE), roundTrip((long) Integer.MIN_VALUE));
+		assertEquals(Long.valueOf(Integer.MAX_VALUE + 1L), roundTrip(Integer.MAX_VALUE + 1L));
+		assertEquals(Long.valueOf(Long.MIN_VALUE), roundTrip(Long.MIN_VALUE));
+		assertEquals(Long.valueOf(Long.MAX_VALUE), roundTrip(BigInteger.valueOf(Long.MAX_VALUE)));
+		BigInteger big = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE);
+		assertEquals(new BigDecimal(big), roundTrip(big));
+	}
+
+	@Test
+	public void testWritesFloatsAndDatesAsNumbers() throws IOException {
+		assertEquals(0.5, roundTrip(0.5f));
+		assertEquals(Long.valueOf(1500000000000L), roundTrip(new Date(1500000000000L)));
+	}
+
+	@Test
+	public void testRoundTripsNestedValues() throws IOException {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("list", Arrays.asList(1, "two", null, Arrays.asList(3.0)));
+		map.put("map", Collections.singletonMap("key", false));
+		map.put("empty", Collections.emptyList());
+		assertEquals(map, roundTrip(map));
+	}
+
+	@Test
+	public void testWritesOtherObjectsAsStrings() throws IOException {
+		assertEquals("ILLEGAL_VALUE", roundTrip(TiesBinaryFormatException.Reason.ILLEGAL_VALUE));
+		assertEquals(Collections.singletonMap("1", "x"), roundTrip(Collections.singletonMap(1, "x")));
+	}
+
+	@Test
+	public void testLimitsNesting() throws IOException {
+		Object value = "leaf";
+		for (int i = 0; i < 32; i++) {
+			value = Collections.singletonList(value);
+		}
+		Object nested = value;
+		assertEquals(nested, roundTrip(nested));
+		assertIllegal(write(Collections.singletonList(nested)));
+	}
+
+	@Test
+	public void testRejectsIllegalValues() throws IOException {
+		assertIllegal(new byte[] { 9 });
+		assertIllegal(new byte[] { 8, 3, 'a', 'b', 'c' });
+		try {
+			new TiesBinaryValueType().read(new TiesBinaryReader(new ByteArrayInputStream(new byte[] { 6, 3 }), 2));
+			fail("Too long list should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("exceeds 2"));
+		}
+	}
+
+	private static Object roundTrip(Object value) throws IOException {
+		return read(write(value));
+	}
+
+	private static byte[] write(Object value) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		TYPE.write(new TiesBinaryWriter(os), value);
+		return os.toByteArray();
+	}
+
+	private static Object read(byte[] bytes) throws IOException {
+		ByteArrayInputStream is = new ByteArrayInputStream(bytes);
+		Object value = TYPE.read(new TiesBinaryReader(is, Integer.MAX_VALUE));
+		assertEquals("Value should be read entirely", 0, is.available());
+		return value;
+	}
+
+	private static void assertIllegal(byte[] bytes) throws IOException {
+		try {
+			read(bytes);
+			fail("Illegal value should be rejected");
+		} catch (TiesBinaryFormatException e) {
+			assertEquals(TiesBinaryFormatException.Reason.ILLEGAL_VALUE, e.getReason());
+		}
+	}
+
+}
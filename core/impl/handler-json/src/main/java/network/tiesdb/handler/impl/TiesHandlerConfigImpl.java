@@ -45,6 +45,20 @@ public class TiesHandlerConfigImpl implements TiesHandlerConfig {
 
 	private String charset = "UTF-8";
 
+	private boolean streamingParser = true;
+
+	private Integer pageSize = 1000;
+
+	private Integer maxPageSize = 10000;
+
+	private boolean requireSignatures = false;
+
+	private Integer signatureParallelism = null;
+
+	private Integer signatureCacheSize = 10000;
+
+	private String cursorKey = null;
+
 	public String getCharset() {
 		return charset;
 	}
@@ -53,4 +67,60 @@ public class TiesHandlerConfigImpl implements TiesHandlerConfig {
 		this.charset = charset;
 	}
 
+	public boolean isStreamingParser() {
+		return streamingParser;
+	}
+
+	public void setStreamingParser(boolean streamingParser) {
+		this.streamingParser = streamingParser;
+	}
+
+	public Integer getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(Integer pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public Integer getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	public void setMaxPageSize(Integer maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	public boolean isRequireSignatures() {
+		return requireSignatures;
+	}
+
+	public void setRequireSignatures(boolean requireSignatures) {
+		this.requireSignatures = requireSignatures;
+	}
+
+	public Integer getSignatureParallelism() {
+		return signatureParallelism;
+	}
+
+	public void setSignatureParallelism(Integer signatureParallelism) {
+		this.signatureParallelism = signatureParallelism;
+	}
+
+	public Integer getSignatureCacheSize() {
+		return signatureCacheSize;
+	}
+
+	public void setSignatureCacheSize(Integer signatureCacheSize) {
+		this.signatureCacheSize = signatureCacheSize;
+	}
+
+	public String getCursorKey() {
+		return cursorKey;
+	}
+
+	public void setCursorKey(String cursorKey) {
+		this.cursorKey = cursorKey;
+	}
+
 }
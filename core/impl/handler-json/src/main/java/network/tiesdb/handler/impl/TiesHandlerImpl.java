@@ -18,16 +18,24 @@ package network.tiesdb.handler.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import org.codehaus.jackson.JsonParser.Feature;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
 import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,29 +44,86 @@ import network.tiesdb.api.TiesVersion;
 import network.tiesdb.api.TiesVersion.ToString;
 import network.tiesdb.context.api.TiesHandlerConfig;
 import network.tiesdb.exception.TiesException;
-import network.tiesdb.handler.api.TiesHandler;
+import network.tiesdb.exception.TiesHandleException;
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.handler.api.TiesAsyncHandler;
+import network.tiesdb.handler.impl.json.TiesJsonCursor;
 import network.tiesdb.handler.impl.json.TiesJsonRequestError;
+import network.tiesdb.handler.impl.json.TiesJsonRequestParser;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestAggregate;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestDigest;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestFetch;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestInsert;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRange;
 import network.tiesdb.handler.impl.json.request.TiesJsonRequestRoot;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestSearch;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestSelect;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseCell;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseDigest;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseEntry;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseExplain;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseFetch;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseInsert;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseProof;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseRoot;
+import network.tiesdb.handler.impl.json.response.TiesJsonResponseSelect;
 import network.tiesdb.service.api.TiesService;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStorageCells;
+import network.tiesdb.storage.api.TiesStorageDigest;
+import network.tiesdb.storage.api.TiesStorageEntry;
+import network.tiesdb.storage.api.TiesStoragePage;
+import network.tiesdb.storage.api.TiesStoragePlan;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageProof;
+import network.tiesdb.storage.api.TiesStorageQuery;
+import network.tiesdb.transport.api.TiesAsyncResponse;
 import network.tiesdb.transport.api.TiesRequest;
 import network.tiesdb.transport.api.TiesResponse;
+import network.tiesdb.transport.api.TiesStreamingResponse;
 import network.tiesdb.transport.api.TiesTransport;
+import network.tiesdb.util.crypto.Secp256k1;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+import network.tiesdb.util.metrics.TiesRequestMetrics;
 
 /**
  * TiesDB handler implementation.
  * 
  * @author Anton Filatov (filatov@ties.network)
  */
-public class TiesHandlerImpl implements TiesHandler {
+public class TiesHandlerImpl implements TiesAsyncHandler {
 
 	private static final TiesHandlerImplVersion IMPLEMENTATION_VERSION = TiesHandlerImplVersion.v_0_0_1_prealpha;
 
 	private static final Logger logger = LoggerFactory.getLogger(TiesHandlerImpl.class);
 
+	/*
+	 * ObjectMapper, ObjectReader and ObjectWriter are thread-safe once
+	 * configured, so they are built once and shared between requests to keep
+	 * serializer and deserializer caches warm.
+	 */
+	private static final ObjectMapper MAPPER = createConfiguredMapper();
+	private static final ObjectReader REQUEST_READER = MAPPER.reader(TiesJsonRequestRoot.class);
+	private static final ObjectWriter RESPONSE_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+	private static final TiesJsonRequestParser REQUEST_PARSER = new TiesJsonRequestParser(MAPPER.getJsonFactory());
+
+	private static final TiesRequestMetrics REQUEST_METRICS = new TiesRequestMetrics(TiesMetricRegistry.getDefault());
+
 	private final TiesService service;
 
 	private final TiesHandlerConfigImpl config;
 
+	private final int pageSize;
+
+	private final int maxPageSize;
+
+	private final boolean requireSignatures;
+
+	private final TiesSignatureVerifier verifier;
+
+	private final TiesJsonCursor cursor;
+
 	public TiesHandlerImpl(TiesService service, TiesHandlerConfigImpl config) {
 		if (null == config) {
 			throw new NullPointerException("The config should not be null");
@@ -68,35 +133,460 @@ public class TiesHandlerImpl implements TiesHandler {
 		}
 		this.service = service;
 		this.config = config;
+		this.pageSize = null == config.getPageSize() ? 1000 : config.getPageSize();
+		this.maxPageSize = null == config.getMaxPageSize() ? 10000 : config.getMaxPageSize();
+		if (this.pageSize < 1) {
+			throw new IllegalArgumentException("The pageSize " + this.pageSize + " should be positive");
+		}
+		if (this.maxPageSize < this.pageSize) {
+			throw new IllegalArgumentException(
+					"The maxPageSize " + this.maxPageSize + " should not be less than pageSize " + this.pageSize);
+		}
+		this.requireSignatures = config.isRequireSignatures();
+		this.verifier = new TiesSignatureVerifier(MAPPER.writer(),
+				null == config.getSignatureParallelism() //
+						? Runtime.getRuntime().availableProcessors()
+						: config.getSignatureParallelism(),
+				null == config.getSignatureCacheSize() //
+						? TiesSignatureVerifier.DEFAULT_CACHE_SIZE
+						: config.getSignatureCacheSize());
+		this.cursor = new TiesJsonCursor(getCursorKey(config));
 	};
 
+	private static byte[] getCursorKey(TiesHandlerConfigImpl config) {
+		if (null != config.getCursorKey()) {
+			return config.getCursorKey().getBytes(StandardCharsets.UTF_8);
+		}
+		logger.info("Cursor key is not set, cursors could be resumed only on this node until it is restarted");
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		return key;
+	}
+
 	@Override
 	public void handle(final TiesRequest request, final TiesResponse response) throws TiesException {
 		logger.trace("Call to network.tiesdb.handler.impl.TiesHandlerImpl.handle(request, response)");
+		TiesRequestMetrics.Timer timer = REQUEST_METRICS.start(request.getTransportName());
+		boolean failed = true;
 		try {
-			handleInternal1(request, response);
+			handleInternal1(request, response, timer);
+			failed = false;
 		} catch (IOException e) {
 			throw new TiesException("Can't process request", e);
+		} finally {
+			timer.completed(failed);
 		}
 	}
 
-	protected void handleInternal1(TiesRequest request, TiesResponse response)
+	@Override
+	public CompletionStage<Void> handleAsync(TiesRequest request, TiesResponse response) {
+		logger.trace("Call to network.tiesdb.handler.impl.TiesHandlerImpl.handleAsync(request, response)");
+		TiesRequestMetrics.Timer timer = REQUEST_METRICS.start(request.getTransportName());
+		try {
+			handleInternal1(request, response, timer);
+		} catch (Throwable e) {
+			timer.completed(true);
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new TiesException("Can't process request", e));
+			return failed;
+		}
+		CompletionStage<Void> completion = response instanceof TiesAsyncResponse //
+				? ((TiesAsyncResponse) response).getCompletion()
+				: CompletableFuture.<Void>completedFuture(null);
+		return completion.whenComplete((result, cause) -> timer.completed(null != cause));
+	}
+
+	protected void handleInternal1(TiesRequest request, TiesResponse response, TiesRequestMetrics.Timer timer)
 			throws IOException {
-		ObjectMapper mapper = createConfiguredMapper();
 		try {
-			TiesJsonRequestRoot jsonRequest = mapper.readValue(request.getInputStream(), TiesJsonRequestRoot.class);
+			TiesJsonRequestRoot jsonRequest = readRequest(request.getInputStream());
+			timer.decoded(null == jsonRequest || null == jsonRequest.getType() ? null : jsonRequest.getType().name());
+			if (isStorageSelect(jsonRequest)) {
+				select(jsonRequest, response);
+				timer.executed();
+				return;
+			}
+			Object jsonResponse;
+			try {
+				jsonResponse = execute(jsonRequest);
+			} catch (TiesStorageException | TiesHandleException e) {
+				logger.debug("Can't execute", e);
+				jsonResponse = TiesJsonRequestError.create(jsonRequest.getId(), e);
+			}
 			try (OutputStream os = response.getOutputStream()) {
-				mapper.writerWithDefaultPrettyPrinter().writeValue(response.getOutputStream(), jsonRequest);
+				RESPONSE_WRITER.writeValue(os, jsonResponse);
 			}
 		} catch (JsonMappingException e) {
 			logger.warn("Can't process", e);
 			try (OutputStream os = response.getOutputStream()) {
-				mapper.writerWithDefaultPrettyPrinter().writeValue(response.getOutputStream(), TiesJsonRequestError.create(e));
+				RESPONSE_WRITER.writeValue(os, TiesJsonRequestError.create(e));
+			}
+		}
+		timer.executed();
+	}
+
+	protected Object execute(TiesJsonRequestRoot jsonRequest) throws TiesStorageException, TiesHandleException {
+		if (null == jsonRequest || null == jsonRequest.getType()) {
+			return jsonRequest;
+		}
+		switch (jsonRequest.getType()) {
+		case INSERT:
+			TiesJsonRequestInsert insert = (TiesJsonRequestInsert) jsonRequest.getRequest();
+			if (null == insert.table) {
+				// Test request without a target table is echoed back
+				return jsonRequest;
+			}
+			List<Map<String, Object>> rows = null == insert.rows //
+					? Collections.<Map<String, Object>>emptyList()
+					: insert.rows;
+			verifySignatures(insert, rows);
+			TiesJsonResponseRoot jsonResponse = new TiesJsonResponseRoot();
+			jsonResponse.id = jsonRequest.getId();
+			jsonResponse.insert = new TiesJsonResponseInsert();
+			jsonResponse.insert.count = getStorage().insert(insert.keyspace, insert.table, rows);
+			return jsonResponse;
+		case DIGEST:
+			TiesJsonRequestDigest digest = (TiesJsonRequestDigest) jsonRequest.getRequest();
+			if (null == digest.table) {
+				// Test request without a target table is echoed back
+				return jsonRequest;
+			}
+			boolean entries = Boolean.TRUE.equals(digest.entries);
+			if (entries && null == digest.nodes) {
+				throw new TiesHandleException("Nodes should be set to read entries");
+			}
+			jsonResponse = new TiesJsonResponseRoot();
+			jsonResponse.id = jsonRequest.getId();
+			TiesStorageDigest storageDigest = getStorage().digest(digest.keyspace, digest.table,
+					null == digest.level ? 0 : digest.level, digest.nodes,
+					null == digest.keys ? Collections.<Map<String, Object>>emptyList() : digest.keys);
+			jsonResponse.digest = toDigest(storageDigest);
+			if (entries) {
+				if (storageDigest.getLevel() != storageDigest.getDepth()) {
+					throw new TiesHandleException("Entries should be read at level " + storageDigest.getDepth());
+				}
+				jsonResponse.digest.entries = new ArrayList<>();
+				for (Integer bucket : digest.nodes) {
+					for (TiesStorageEntry entry : getStorage().entries(digest.keyspace, digest.table, bucket)) {
+						TiesJsonResponseEntry jsonEntry = new TiesJsonResponseEntry();
+						jsonEntry.bucket = bucket;
+						jsonEntry.id = toHex(entry.getId());
+						jsonEntry.hash = toHex(entry.getHash());
+						jsonEntry.key = entry.getKey();
+						jsonEntry.rawKey = toHex(entry.getRawKey());
+						jsonResponse.digest.entries.add(jsonEntry);
+					}
+				}
+			}
+			return jsonResponse;
+		case FETCH:
+			TiesJsonRequestFetch fetch = (TiesJsonRequestFetch) jsonRequest.getRequest();
+			if (null == fetch.table) {
+				// Test request without a target table is echoed back
+				return jsonRequest;
+			}
+			if (null == fetch.keys) {
+				throw new TiesHandleException("Keys should be set to fetch rows");
+			}
+			if (fetch.keys.size() > maxPageSize) {
+				throw new TiesHandleException("Keys count should not exceed " + maxPageSize);
+			}
+			List<byte[]> keys = new ArrayList<>(fetch.keys.size());
+			for (String key : fetch.keys) {
+				byte[] bytes = null == key ? null : parseHex(key);
+				if (null == bytes) {
+					throw new TiesHandleException("Illegal key " + keys.size());
+				}
+				keys.add(bytes);
+			}
+			jsonResponse = new TiesJsonResponseRoot();
+			jsonResponse.id = jsonRequest.getId();
+			jsonResponse.fetch = new TiesJsonResponseFetch();
+			jsonResponse.fetch.rows = new ArrayList<>();
+			for (TiesStorageCells row : getStorage().fetch(fetch.keyspace, fetch.table, keys)) {
+				Map<String, TiesJsonResponseCell> jsonRow = new LinkedHashMap<>();
+				for (Entry<String, byte[]> cell : row.getValues().entrySet()) {
+					TiesJsonResponseCell jsonCell = new TiesJsonResponseCell();
+					jsonCell.value = toHex(cell.getValue());
+					jsonCell.timestamp = row.getTimestamps().get(cell.getKey());
+					jsonRow.put(cell.getKey(), jsonCell);
+				}
+				jsonResponse.fetch.rows.add(jsonRow);
+			}
+			return jsonResponse;
+		default:
+			return jsonRequest;
+		}
+	}
+
+	private void verifySignatures(TiesJsonRequestInsert insert, List<Map<String, Object>> rows)
+			throws TiesHandleException {
+		if (null == insert.signer && null == insert.signatures) {
+			if (requireSignatures && !rows.isEmpty()) {
+				throw new TiesHandleException("Rows should be signed");
+			}
+			return;
+		}
+		if (null == insert.signer) {
+			throw new TiesHandleException("Signer of the rows should be set");
+		}
+		if (null == insert.signatures) {
+			throw new TiesHandleException("Signatures of the rows should be set");
+		}
+		byte[] signer = parseHex(insert.signer, Secp256k1.PUBLIC_KEY_LENGTH);
+		if (null == signer) {
+			throw new TiesHandleException("Illegal signer");
+		}
+		List<byte[]> signatures = new ArrayList<>(insert.signatures.size());
+		for (String signature : insert.signatures) {
+			byte[] bytes = null == signature ? null : parseHex(signature, Secp256k1.SIGNATURE_LENGTH);
+			if (null == bytes) {
+				throw new TiesHandleException("Illegal signature of row " + signatures.size());
+			}
+			signatures.add(bytes);
+		}
+		verifier.verify(insert.keyspace, insert.table, rows, signatures, signer);
+	}
+
+	private static TiesJsonResponseDigest toDigest(TiesStorageDigest digest) {
+		TiesJsonResponseDigest jsonDigest = new TiesJsonResponseDigest();
+		jsonDigest.depth = digest.getDepth();
+		jsonDigest.level = digest.getLevel();
+		jsonDigest.root = toHex(digest.getRoot());
+		jsonDigest.hashes = new ArrayList<>(digest.getHashes().size());
+		for (byte[] hash : digest.getHashes()) {
+			jsonDigest.hashes.add(toHex(hash));
+		}
+		if (!digest.getProofs().isEmpty()) {
+			jsonDigest.proofs = new ArrayList<>(digest.getProofs().size());
+			for (TiesStorageProof proof : digest.getProofs()) {
+				TiesJsonResponseProof jsonProof = new TiesJsonResponseProof();
+				jsonProof.key = proof.getKey();
+				jsonProof.bucket = proof.getBucket();
+				if (proof.isFound()) {
+					jsonProof.rowHash = toHex(proof.getRowHash());
+					jsonProof.path = new ArrayList<>(proof.getPath().size());
+					for (TiesStorageProof.Step step : proof.getPath()) {
+						TiesJsonResponseProof.Step jsonStep = new TiesJsonResponseProof.Step();
+						if (step.isLeft()) {
+							jsonStep.left = toHex(step.getHash());
+						} else {
+							jsonStep.right = toHex(step.getHash());
+						}
+						jsonProof.path.add(jsonStep);
+					}
+				}
+				jsonDigest.proofs.add(jsonProof);
 			}
 		}
+		return jsonDigest;
 	}
 
-	private ObjectMapper createConfiguredMapper() {
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static byte[] parseHex(String hex) {
+		int length = hex.length() - (hex.startsWith("0x") ? 2 : 0);
+		return 0 != length % 2 ? null : parseHex(hex, length / 2);
+	}
+
+	/*
+	 * Returns bytes of the hex string with optional 0x prefix or null if it is
+	 * not the hex of the given length.
+	 */
+	private static byte[] parseHex(String hex, int length) {
+		int offset = hex.startsWith("0x") ? 2 : 0;
+		if (hex.length() - offset != length * 2) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			int high = Character.digit(hex.charAt(offset + i * 2), 16);
+			int low = Character.digit(hex.charAt(offset + i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return null;
+			}
+			bytes[i] = (byte) (high << 4 | low);
+		}
+		return bytes;
+	}
+
+	private static boolean isStorageSelect(TiesJsonRequestRoot jsonRequest) {
+		return null != jsonRequest //
+				&& TiesJsonRequestRoot.RequestType.SELECT == jsonRequest.getType()
+				&& null != ((TiesJsonRequestSelect) jsonRequest.getRequest()).table;
+	}
+
+	/**
+	 * Writes select results page by page.
+	 * 
+	 * <P>Each page is sent as a separate message when the response supports
+	 * streaming, so only one page of rows is held in memory at a time. The
+	 * {@code more} flag of the page tells the client whether to wait for the
+	 * next one and its {@code cursor} lets the client resume the scan from the
+	 * next page later. Otherwise all pages are gathered into a single message.
+	 * 
+	 * <P>Storage errors are reported as the last message of the response.
+	 */
+	protected void select(TiesJsonRequestRoot jsonRequest, TiesResponse response) throws IOException {
+		TiesJsonRequestSelect select = (TiesJsonRequestSelect) jsonRequest.getRequest();
+		TiesJsonResponseRoot jsonResponse = new TiesJsonResponseRoot();
+		jsonResponse.id = jsonRequest.getId();
+		jsonResponse.select = new TiesJsonResponseSelect();
+		try (OutputStream os = response.getOutputStream()) {
+			try {
+				TiesStorage storage = getStorage();
+				TiesStorageQuery query = new TiesStorageQuery(select.keyspace, select.table, select.columns, select.where,
+						toPredicates(select.search), select.keys);
+				if (null != select.exclude) {
+					query = query.withExcludedColumns(select.exclude);
+				}
+				if (null != select.aggregate || null != select.groupBy) {
+					query = query.withAggregation(toAggregates(select.aggregate), select.groupBy);
+				}
+				if (Boolean.TRUE.equals(select.explain)) {
+					jsonResponse.select = null;
+					jsonResponse.explain = toExplain(storage.explain(query));
+					os.write(RESPONSE_WRITER.writeValueAsBytes(jsonResponse));
+					return;
+				}
+				int size = null == select.pageSize ? pageSize : Math.min(select.pageSize, maxPageSize);
+				if (response instanceof TiesStreamingResponse) {
+					TiesStreamingResponse streamingResponse = (TiesStreamingResponse) response;
+					TiesStoragePage page = storage.select(query, size, cursor.decode(query, select.cursor));
+					while (!page.isLast()) {
+						jsonResponse.select.rows = page.getRows();
+						jsonResponse.select.more = true;
+						jsonResponse.select.cursor = cursor.encode(query, page.getPagingState());
+						os.write(RESPONSE_WRITER.writeValueAsBytes(jsonResponse));
+						streamingResponse.flushMessage();
+						page = storage.select(query, size, page.getPagingState());
+					}
+					jsonResponse.select.rows = page.getRows();
+				} else {
+					List<Map<String, Object>> rows = new ArrayList<>();
+					TiesStoragePage page = storage.select(query, size, cursor.decode(query, select.cursor));
+					rows.addAll(page.getRows());
+					while (!page.isLast()) {
+						page = storage.select(query, size, page.getPagingState());
+						rows.addAll(page.getRows());
+					}
+					jsonResponse.select.rows = rows;
+				}
+				jsonResponse.select.more = false;
+				jsonResponse.select.cursor = null;
+				os.write(RESPONSE_WRITER.writeValueAsBytes(jsonResponse));
+			} catch (TiesStorageException e) {
+				logger.debug("Can't select", e);
+				os.write(RESPONSE_WRITER.writeValueAsBytes(TiesJsonRequestError.create(jsonRequest.getId(), e)));
+			}
+		}
+	}
+
+	private static TiesJsonResponseExplain toExplain(TiesStoragePlan plan) {
+		TiesJsonResponseExplain explain = new TiesJsonResponseExplain();
+		explain.accessPath = plan.getAccessPath().name();
+		if (plan.isRejected()) {
+			explain.rejected = plan.getRejected();
+		} else {
+			explain.description = plan.getDescription();
+			explain.cost = plan.getCost();
+			explain.estimatedRows = plan.getEstimatedRows();
+		}
+		if (!plan.getAlternatives().isEmpty()) {
+			explain.alternatives = new ArrayList<>(plan.getAlternatives().size());
+			for (TiesStoragePlan alternative : plan.getAlternatives()) {
+				explain.alternatives.add(toExplain(alternative));
+			}
+		}
+		return explain;
+	}
+
+	private static List<TiesStorageAggregate> toAggregates(List<TiesJsonRequestAggregate> aggregates)
+			throws TiesStorageException {
+		if (null == aggregates) {
+			return null;
+		}
+		List<TiesStorageAggregate> result = new ArrayList<>(aggregates.size());
+		for (TiesJsonRequestAggregate aggregate : aggregates) {
+			if (null == aggregate || null == aggregate.function) {
+				throw new TiesStorageException("Aggregate function should be specified");
+			}
+			TiesStorageAggregate.Function function;
+			try {
+				function = TiesStorageAggregate.Function.valueOf(aggregate.function.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				throw new TiesStorageException("Unknown aggregate function " + aggregate.function, e);
+			}
+			if (null == aggregate.column && TiesStorageAggregate.Function.COUNT != function) {
+				throw new TiesStorageException("Aggregate function " + aggregate.function + " needs a column");
+			}
+			result.add(new TiesStorageAggregate(function, aggregate.column, aggregate.as));
+		}
+		return result;
+	}
+
+	private static List<TiesStoragePredicate> toPredicates(TiesJsonRequestSearch search) throws TiesStorageException {
+		if (null == search) {
+			return null;
+		}
+		List<TiesStoragePredicate> predicates = new ArrayList<>();
+		if (null != search.term) {
+			for (Entry<String, Object> entry : search.term.entrySet()) {
+				predicates.add(TiesStoragePredicate.term(entry.getKey(), entry.getValue()));
+			}
+		}
+		if (null != search.prefix) {
+			for (Entry<String, String> entry : search.prefix.entrySet()) {
+				if (null == entry.getValue()) {
+					throw new TiesStorageException("Prefix of column " + entry.getKey() + " should not be null");
+				}
+				predicates.add(TiesStoragePredicate.prefix(entry.getKey(), entry.getValue()));
+			}
+		}
+		if (null != search.match) {
+			for (Entry<String, String> entry : search.match.entrySet()) {
+				if (null == entry.getValue()) {
+					throw new TiesStorageException("Match of column " + entry.getKey() + " should not be null");
+				}
+				predicates.add(TiesStoragePredicate.match(entry.getKey(), entry.getValue()));
+			}
+		}
+		if (null != search.range) {
+			for (Entry<String, TiesJsonRequestRange> entry : search.range.entrySet()) {
+				TiesJsonRequestRange range = entry.getValue();
+				if (null == range || (null != range.gt && null != range.gte) || (null != range.lt && null != range.lte)) {
+					throw new TiesStorageException("Range of column " + entry.getKey()
+							+ " should have at most one lower and one upper bound");
+				}
+				predicates.add(TiesStoragePredicate.range(entry.getKey(), //
+						null != range.gte ? range.gte : range.gt, null != range.gte, //
+						null != range.lte ? range.lte : range.lt, null != range.lte));
+			}
+		}
+		return predicates;
+	}
+
+	private TiesStorage getStorage() throws TiesStorageException {
+		TiesStorage storage = service.getStorage();
+		if (null == storage) {
+			throw new TiesStorageException("Storage is not available");
+		}
+		return storage;
+	}
+
+	protected TiesJsonRequestRoot readRequest(InputStream is) throws IOException {
+		return config.isStreamingParser() //
+				? REQUEST_PARSER.parse(is)
+				: REQUEST_READER.<TiesJsonRequestRoot>readValue(is);
+	}
+
+	static ObjectMapper createConfiguredMapper() {
 		ObjectMapper mapper = new ObjectMapper();
 		mapper.configure(Feature.ALLOW_UNQUOTED_FIELD_NAMES, true);
 		mapper.configure(Feature.ALLOW_COMMENTS, true);
@@ -105,10 +595,9 @@ public class TiesHandlerImpl implements TiesHandler {
 	}
 
 	protected void handleInternal(TiesRequest request, TiesResponse response) {
-		ObjectMapper mapper = createConfiguredMapper();
 		try (InputStream is = request.getInputStream()) {
 			@SuppressWarnings("unchecked")
-			Map<String, Object> jsonMap = mapper.readValue(is, Map.class);
+			Map<String, Object> jsonMap = MAPPER.readValue(is, Map.class);
 			Iterator<Entry<String, Object>> iter = jsonMap.entrySet().iterator();
 			while (iter.hasNext()) {
 				Entry<String, Object> entry = iter.next();
@@ -122,17 +611,19 @@ public class TiesHandlerImpl implements TiesHandler {
 			for (TiesTransport t : service.getTransports()) {
 				HashMap<Object, Object> map = new HashMap<>();
 				map.put("transportVersion", ToString.format(t.getVersion()));
-				map.put("handlerVersion", ToString.format(t.getHandler().getVersion()));
+				if (null != t.getHandler()) {
+					map.put("handlerVersion", ToString.format(t.getHandler().getVersion()));
+				}
 				transportsVersions.add(map);
 			}
 			jsonMap.put("transportsVersions", transportsVersions);
 			try (OutputStream os = response.getOutputStream()) {
-				os.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsString(jsonMap)
+				os.write(RESPONSE_WRITER.writeValueAsString(jsonMap)
 						.getBytes(config.getCharset()));
 			}
-			System.out.println(jsonMap);
+			logger.trace("Handled {}", jsonMap);
 		} catch (IOException e) {
-			e.printStackTrace();
+			logger.warn("Can't process", e);
 		}
 	}
 
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesHandleException;
+import network.tiesdb.util.crypto.Secp256k1;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesHistogram;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Verifier of signed rows.
+ * 
+ * <P>A row is signed by the secp256k1 signature of the SHA-256 hash of the
+ * compact JSON array {@code [keyspace, table, row]}, in which keys of all
+ * objects are sorted. The signature is valid if the public key recovered from
+ * it is the one of the signer.
+ * 
+ * <P>Rows of a batch are hashed and verified in parallel on a fork-join pool,
+ * small batches are verified by the calling thread. Keys recovered from
+ * (hash, signature) pairs are kept in a bounded cache, so retried and
+ * replayed rows are not recovered again. Time spent for hashing, recovery and
+ * whole batches is counted for throughput and latency statistics, which are
+ * published in {@link TiesMetricRegistry} as SignedRows, SignedBatches,
+ * SignatureCacheHits and SignatureRejections counters and SignatureLatency
+ * histograms of each stage in microseconds.
+ */
+public class TiesSignatureVerifier {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesSignatureVerifier.class);
+
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	private static final int ROWS_PER_TASK = 4;
+
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	});
+
+	private static final TiesCounter ROW_COUNT = TiesMetricRegistry.getDefault().counter("SignedRows");
+	private static final TiesCounter BATCH_COUNT = TiesMetricRegistry.getDefault().counter("SignedBatches");
+	private static final TiesCounter CACHE_HIT_COUNT = TiesMetricRegistry.getDefault().counter("SignatureCacheHits");
+	private static final TiesCounter REJECTED_COUNT = TiesMetricRegistry.getDefault().counter("SignatureRejections");
+	private static final TiesHistogram HASH_LATENCY = latency("hash");
+	private static final TiesHistogram RECOVERY_LATENCY = latency("recovery");
+	private static final TiesHistogram BATCH_LATENCY = latency("batch");
+
+	private static final class Key {
+
+		private final byte[] hash;
+		private final byte[] signature;
+
+		private Key(byte[] hash, byte[] signature) {
+			this.hash = hash;
+			this.signature = signature;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(hash) + Arrays.hashCode(signature);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return Arrays.equals(hash, other.hash) && Arrays.equals(signature, other.signature);
+		}
+
+	}
+
+	private final class Batch extends RecursiveAction {
+
+		private static final long serialVersionUID = -6474531925716713398L;
+
+		private final String keyspace;
+		private final String table;
+		private final List<Map<String, Object>> rows;
+		private final List<byte[]> signatures;
+		private final byte[] signer;
+		private final boolean[] valid;
+		private final int from;
+		private final int to;
+
+		private Batch(String keyspace, String table, List<Map<String, Object>> rows, List<byte[]> signatures,
+				byte[] signer, boolean[] valid, int from, int to) {
+			this.keyspace = keyspace;
+			this.table = table;
+			this.rows = rows;
+			this.signatures = signatures;
+			this.signer = signer;
+			this.valid = valid;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= ROWS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					valid[i] = verify(keyspace, table, rows.get(i), signatures.get(i), signer);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Batch(keyspace, table, rows, signatures, signer, valid, from, middle),
+					new Batch(keyspace, table, rows, signatures, signer, valid, middle, to));
+		}
+
+	}
+
+	private final ObjectWriter writer;
+
+	private final ForkJoinPool pool;
+
+	private final Map<Key, byte[]> recovered;
+
+	public TiesSignatureVerifier(ObjectWriter writer, int parallelism) {
+		this(writer, parallelism, DEFAULT_CACHE_SIZE);
+	}
+
+	public TiesSignatureVerifier(ObjectWriter writer, int parallelism, int cacheSize) {
+		if (null == writer) {
+			throw new NullPointerException("The writer should not be null");
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism " + parallelism + " should be positive");
+		}
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("The cacheSize " + cacheSize + " should not be negative");
+		}
+		this.writer = writer;
+		this.pool = new ForkJoinPool(parallelism, p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("TiesVerifier-" + t.getPoolIndex());
+			return t;
+		}, null, false);
+		this.recovered = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = -2281766186357380932L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	private static TiesHistogram latency(String stage) {
+		return TiesMetricRegistry.getDefault().histogram("SignatureLatency", "stage", stage);
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	/**
+	 * Checks that each row is signed by the signer with the signature of the
+	 * same index.
+	 */
+	public void verify(String keyspace, String table, List<Map<String, Object>> rows, List<byte[]> signatures,
+			byte[] signer) throws TiesHandleException {
+		if (null == rows) {
+			throw new NullPointerException("The rows should not be null");
+		}
+		if (null == signatures) {
+			throw new NullPointerException("The signatures should not be null");
+		}
+		if (null == signer) {
+			throw new NullPointerException("The signer should not be null");
+		}
+		if (signatures.size() != rows.size()) {
+			throw new TiesHandleException(
+					"The signatures count " + signatures.size() + " should be equal to rows count " + rows.size());
+		}
+		long start = System.nanoTime();
+		boolean[] valid = new boolean[rows.size()];
+		Batch batch = new Batch(keyspace, table, rows, signatures, signer, valid, 0, rows.size());
+		if (rows.size() <= ROWS_PER_TASK) {
+			batch.compute();
+		} else {
+			pool.invoke(batch);
+		}
+		BATCH_COUNT.increment();
+		BATCH_LATENCY.record(toMicros(System.nanoTime() - start));
+		for (int i = 0; i < valid.length; i++) {
+			if (!valid[i]) {
+				throw new TiesHandleException("Signature of row " + i + " is not valid");
+			}
+		}
+	}
+
+	private boolean verify(String keyspace, String table, Map<String, Object> row, byte[] signature, byte[] signer) {
+		ROW_COUNT.increment();
+		if (null == signature || signature.length != Secp256k1.SIGNATURE_LENGTH) {
+			REJECTED_COUNT.increment();
+			return false;
+		}
+		long start = System.nanoTime();
+		byte[] hash;
+		try {
+			hash = DIGEST.get().digest(writer.writeValueAsBytes(Arrays.asList(keyspace, table, canonical(row))));
+		} catch (IOException e) {
+			logger.debug("Can't hash row", e);
+			REJECTED_COUNT.increment();
+			return false;
+		}
+		long hashed = System.nanoTime();
+		HASH_LATENCY.record(toMicros(hashed - start));
+		Key key = new Key(hash, signature);
+		byte[] publicKey;
+		synchronized (recovered) {
+			publicKey = recovered.get(key);
+		}
+		if (null != publicKey) {
+			CACHE_HIT_COUNT.increment();
+		} else {
+			publicKey = Secp256k1.recover(hash, signature);
+			RECOVERY_LATENCY.record(toMicros(System.nanoTime() - hashed));
+			if (null != publicKey) {
+				synchronized (recovered) {
+					recovered.put(key, publicKey);
+				}
+			}
+		}
+		if (!Arrays.equals(signer, publicKey)) {
+			REJECTED_COUNT.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Replaces maps with sorted ones, so the same row is always written the
+	 * same way whatever order its fields were sent in.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object canonical(Object value) {
+		if (value instanceof Map) {
+			Map<String, Object> sorted = new TreeMap<>();
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				sorted.put(entry.getKey(), canonical(entry.getValue()));
+			}
+			return sorted;
+		}
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<>(((List<Object>) value).size());
+			for (Object item : (List<Object>) value) {
+				list.add(canonical(item));
+			}
+			return list;
+		}
+		return value;
+	}
+
+}
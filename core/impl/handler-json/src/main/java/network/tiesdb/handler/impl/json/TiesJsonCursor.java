@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Opaque cursor token of TiesDB JSON "select" paging.
+ * 
+ * <P>Wraps the storage paging state authenticated by HMAC-SHA256 under the
+ * server key. The MAC covers a fingerprint of the query the state belongs
+ * to, so a cursor of a different query is rejected, as well as any cursor
+ * which was not issued by a server with the same key. The fingerprint
+ * depends only on the query itself, so a client could resume the same query
+ * from the cursor on any connection, or on any node sharing the key.
+ * 
+ * <P>Token layout is a version byte, the paging state and
+ * {@value #MAC_LENGTH} bytes of the MAC, encoded with URL-safe Base64.
+ */
+public final class TiesJsonCursor {
+
+	private static final byte VERSION = 2;
+
+	private static final int MAC_LENGTH = 16;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+
+	private final SecretKeySpec key;
+
+	public TiesJsonCursor(byte[] key) {
+		if (null == key) {
+			throw new NullPointerException("The key should not be null");
+		}
+		if (0 == key.length) {
+			throw new IllegalArgumentException("The key should not be empty");
+		}
+		this.key = new SecretKeySpec(key, MAC_ALGORITHM);
+		// Fails early if the algorithm is not supported
+		mac(new byte[0], new byte[0]);
+	}
+
+	public String encode(TiesStorageQuery query, byte[] pagingState) {
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		if (null == pagingState) {
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(1 + pagingState.length + MAC_LENGTH);
+		buf.put(VERSION);
+		buf.put(pagingState);
+		buf.put(mac(fingerprint(query), pagingState));
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buf.array());
+	}
+
+	public byte[] decode(TiesStorageQuery query, String cursor) throws TiesStorageException {
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		if (null == cursor) {
+			return null;
+		}
+		byte[] token;
+		try {
+			token = Base64.getUrlDecoder().decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new TiesStorageException("Illegal cursor", e);
+		}
+		if (token.length <= 1 + MAC_LENGTH || VERSION != token[0]) {
+			throw new TiesStorageException("Illegal cursor");
+		}
+		byte[] pagingState = Arrays.copyOfRange(token, 1, token.length - MAC_LENGTH);
+		if (!MessageDigest.isEqual(mac(fingerprint(query), pagingState),
+				Arrays.copyOfRange(token, token.length - MAC_LENGTH, token.length))) {
+			throw new TiesStorageException("Cursor does not match the query");
+		}
+		return pagingState;
+	}
+
+	private byte[] mac(byte[] fingerprint, byte[] pagingState) {
+		try {
+			// Mac is not thread-safe, and its creation is cheap next to a page read
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(key);
+			mac.update(VERSION);
+			mac.update(fingerprint);
+			mac.update(pagingState);
+			return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " is not supported", e);
+		}
+	}
+
+	private static byte[] fingerprint(TiesStorageQuery query) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+		update(md, query.getKeyspace());
+		update(md, query.getTable());
+		update(md, query.getColumns());
+		update(md, query.getExcludedColumns());
+		// Restrictions are order independent, so they are sorted by column
+		update(md, new TreeMap<>(query.getWhere()));
+		for (TiesStoragePredicate predicate : query.getPredicates()) {
+			update(md, Arrays.asList(predicate.getKind().name(), predicate.getColumn(), predicate.getValue(),
+					predicate.getLower(), predicate.isIncludeLower(), predicate.getUpper(), predicate.isIncludeUpper()));
+		}
+		for (Map<String, Object> key : query.getKeys()) {
+			update(md, new TreeMap<>(key));
+		}
+		for (TiesStorageAggregate aggregate : query.getAggregates()) {
+			update(md, Arrays.asList(aggregate.getFunction().name(), aggregate.getColumn(), aggregate.getName()));
+		}
+		update(md, query.getGroupBy());
+		return md.digest();
+	}
+
+	private static void update(MessageDigest md, Object value) {
+		if (null == value) {
+			md.update((byte) 0);
+		} else if (value instanceof Iterable) {
+			md.update((byte) '[');
+			for (Object item : (Iterable<?>) value) {
+				update(md, item);
+			}
+			md.update((byte) ']');
+		} else if (value instanceof Map) {
+			md.update((byte) '{');
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				update(md, entry.getKey());
+				update(md, entry.getValue());
+			}
+			md.update((byte) '}');
+		} else {
+			// Type is hashed as well, so 1 and "1" are different values
+			byte[] type = value.getClass().getName().getBytes(StandardCharsets.UTF_8);
+			byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+			md.update(ByteBuffer.allocate(8).putInt(type.length).putInt(bytes.length).array());
+			md.update(type);
+			md.update(bytes);
+		}
+	}
+
+}
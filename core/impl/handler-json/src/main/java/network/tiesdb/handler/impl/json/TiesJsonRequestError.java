@@ -21,14 +21,28 @@ import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.JsonMappingException.Reference;
 import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
 
+import network.tiesdb.exception.TiesException;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRoot;
+
 public class TiesJsonRequestError {
 	public final boolean error = true;
 	public String message;
+	public String id;
 
 	private TiesJsonRequestError(String message) {
 		this.message = message;
 	}
 
+	private static String findRequestId(List<Reference> path) {
+		// Outermost reference points to the root bean, which has its id set
+		// if the id field was read before the failed one.
+		if (path.isEmpty()) {
+			return null;
+		}
+		Object root = path.get(0).getFrom();
+		return root instanceof TiesJsonRequestRoot ? ((TiesJsonRequestRoot) root).getId() : null;
+	}
+
 	private static String formatPath(List<Reference> path) {
 		StringBuilder sb = new StringBuilder();
 		for (Reference reference : path) {
@@ -40,9 +54,16 @@ public class TiesJsonRequestError {
 	}
 
 	public static Object create(JsonMappingException e) {
-		if (e instanceof UnrecognizedPropertyException) {
-			return new TiesJsonRequestError("Unrecognized field " + formatPath(e.getPath()));
-		}
-		return new TiesJsonRequestError("Unexpected exception");
+		TiesJsonRequestError error = e instanceof UnrecognizedPropertyException //
+				? new TiesJsonRequestError("Unrecognized field " + formatPath(e.getPath()))
+				: new TiesJsonRequestError("Unexpected exception");
+		error.id = findRequestId(e.getPath());
+		return error;
+	}
+
+	public static Object create(String id, TiesException e) {
+		TiesJsonRequestError error = new TiesJsonRequestError(e.getMessage());
+		error.id = id;
+		return error;
 	}
 }
@@ -0,0 +1,531 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonParser.NumberType;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
+
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestAggregate;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestDigest;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestFetch;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestInsert;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRange;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRoot;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestSearch;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestSelect;
+
+/**
+ * Streaming parser of TiesDB JSON requests.
+ * 
+ * <P>Builds request objects directly from the {@link JsonParser} token stream
+ * without bean introspection. Reports errors the same way the data binding
+ * does, so {@link TiesJsonRequestError} could be created for both paths.
+ * 
+ * <P>Scalar values are coerced as the data binding does: numbers and numeric
+ * strings are accepted for integer fields, numbers and "true" or "false"
+ * strings for boolean fields, and an empty string reads as {@code null}. The
+ * only known difference is the message reported for a scalar given in place
+ * of a request object, both paths fail with {@link JsonMappingException} there.
+ */
+public class TiesJsonRequestParser {
+
+	private interface FieldParser<T> {
+		boolean parseField(JsonParser jp, T bean, String name) throws IOException;
+	}
+
+	private final JsonFactory factory;
+
+	public TiesJsonRequestParser(JsonFactory factory) {
+		if (null == factory) {
+			throw new NullPointerException("The factory should not be null");
+		}
+		this.factory = factory;
+	}
+
+	public TiesJsonRequestRoot parse(InputStream is) throws IOException {
+		try (JsonParser jp = factory.createJsonParser(is)) {
+			JsonToken t = jp.nextToken();
+			if (null == t) {
+				throw new EOFException("No content to map to Object due to end of input");
+			}
+			return JsonToken.VALUE_NULL == t ? null : parseRoot(jp);
+		}
+	}
+
+	private static TiesJsonRequestRoot parseRoot(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestRoot(), TiesJsonRequestParser::parseRootField);
+	}
+
+	private static boolean parseRootField(JsonParser jp, TiesJsonRequestRoot root, String name) throws IOException {
+		switch (name) {
+		case "id":
+			root.setId(parseString(jp));
+			return true;
+		case "insert":
+			root.setInsert(isNull(jp) ? null : parseInsert(jp));
+			return true;
+		case "select":
+			root.setSelect(isNull(jp) ? null : parseSelect(jp));
+			return true;
+		case "digest":
+			root.setDigest(isNull(jp) ? null : parseDigest(jp));
+			return true;
+		case "fetch":
+			root.setFetch(isNull(jp) ? null : parseFetch(jp));
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static TiesJsonRequestInsert parseInsert(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestInsert(), TiesJsonRequestParser::parseInsertField);
+	}
+
+	private static boolean parseInsertField(JsonParser jp, TiesJsonRequestInsert insert, String name)
+			throws IOException {
+		switch (name) {
+		case "keyspace":
+			insert.keyspace = parseString(jp);
+			return true;
+		case "table":
+			insert.table = parseString(jp);
+			return true;
+		case "rows":
+			insert.rows = isNull(jp) ? null : parseRows(jp);
+			return true;
+		case "signer":
+			insert.signer = parseString(jp);
+			return true;
+		case "signatures":
+			insert.signatures = isNull(jp) ? null : parseStringList(jp);
+			return true;
+		case "test":
+			insert.test = parseString(jp);
+			return true;
+		case "select":
+			insert.select = isNull(jp) ? null : parseSelect(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static TiesJsonRequestDigest parseDigest(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestDigest(), TiesJsonRequestParser::parseDigestField);
+	}
+
+	private static boolean parseDigestField(JsonParser jp, TiesJsonRequestDigest digest, String name)
+			throws IOException {
+		switch (name) {
+		case "keyspace":
+			digest.keyspace = parseString(jp);
+			return true;
+		case "table":
+			digest.table = parseString(jp);
+			return true;
+		case "level":
+			digest.level = parseInteger(jp);
+			return true;
+		case "nodes":
+			digest.nodes = isNull(jp) ? null : parseIntegerList(jp);
+			return true;
+		case "entries":
+			digest.entries = parseBoolean(jp);
+			return true;
+		case "keys":
+			digest.keys = isNull(jp) ? null : parseRows(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static TiesJsonRequestFetch parseFetch(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestFetch(), TiesJsonRequestParser::parseFetchField);
+	}
+
+	private static boolean parseFetchField(JsonParser jp, TiesJsonRequestFetch fetch, String name)
+			throws IOException {
+		switch (name) {
+		case "keyspace":
+			fetch.keyspace = parseString(jp);
+			return true;
+		case "table":
+			fetch.table = parseString(jp);
+			return true;
+		case "keys":
+			fetch.keys = isNull(jp) ? null : parseStringList(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static TiesJsonRequestSelect parseSelect(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestSelect(), TiesJsonRequestParser::parseSelectField);
+	}
+
+	private static boolean parseSelectField(JsonParser jp, TiesJsonRequestSelect select, String name)
+			throws IOException {
+		switch (name) {
+		case "keyspace":
+			select.keyspace = parseString(jp);
+			return true;
+		case "table":
+			select.table = parseString(jp);
+			return true;
+		case "columns":
+			select.columns = isNull(jp) ? null : parseStringList(jp);
+			return true;
+		case "exclude":
+			select.exclude = isNull(jp) ? null : parseStringList(jp);
+			return true;
+		case "where":
+			select.where = isNull(jp) ? null : parseValueMap(jp);
+			return true;
+		case "search":
+			select.search = isNull(jp) ? null : parseSearch(jp);
+			return true;
+		case "keys":
+			select.keys = isNull(jp) ? null : parseRows(jp);
+			return true;
+		case "aggregate":
+			select.aggregate = isNull(jp) ? null : parseAggregates(jp);
+			return true;
+		case "groupBy":
+			select.groupBy = isNull(jp) ? null : parseStringList(jp);
+			return true;
+		case "pageSize":
+			select.pageSize = parseInteger(jp);
+			return true;
+		case "cursor":
+			select.cursor = parseString(jp);
+			return true;
+		case "explain":
+			select.explain = parseBoolean(jp);
+			return true;
+		case "hello":
+			select.hello = parseString(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static TiesJsonRequestSearch parseSearch(JsonParser jp) throws IOException {
+		return parseObject(jp, new TiesJsonRequestSearch(), TiesJsonRequestParser::parseSearchField);
+	}
+
+	private static boolean parseSearchField(JsonParser jp, TiesJsonRequestSearch search, String name)
+			throws IOException {
+		switch (name) {
+		case "term":
+			search.term = isNull(jp) ? null : parseValueMap(jp);
+			return true;
+		case "prefix":
+			search.prefix = isNull(jp) ? null : parseStringMap(jp);
+			return true;
+		case "match":
+			search.match = isNull(jp) ? null : parseStringMap(jp);
+			return true;
+		case "range":
+			search.range = isNull(jp) ? null : parseRanges(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static List<TiesJsonRequestAggregate> parseAggregates(JsonParser jp) throws IOException {
+		if (JsonToken.START_ARRAY != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, ArrayList.class);
+		}
+		List<TiesJsonRequestAggregate> list = new ArrayList<>();
+		while (JsonToken.END_ARRAY != jp.nextToken()) {
+			list.add(parseObject(jp, new TiesJsonRequestAggregate(), TiesJsonRequestParser::parseAggregateField));
+		}
+		return list;
+	}
+
+	private static boolean parseAggregateField(JsonParser jp, TiesJsonRequestAggregate aggregate, String name)
+			throws IOException {
+		switch (name) {
+		case "function":
+			aggregate.function = parseString(jp);
+			return true;
+		case "column":
+			aggregate.column = parseString(jp);
+			return true;
+		case "as":
+			aggregate.as = parseString(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static Map<String, TiesJsonRequestRange> parseRanges(JsonParser jp) throws IOException {
+		if (JsonToken.START_OBJECT != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, LinkedHashMap.class);
+		}
+		Map<String, TiesJsonRequestRange> map = new LinkedHashMap<>();
+		while (JsonToken.FIELD_NAME == jp.nextToken()) {
+			String name = jp.getCurrentName();
+			jp.nextToken();
+			map.put(name, isNull(jp) ? null
+					: parseObject(jp, new TiesJsonRequestRange(), TiesJsonRequestParser::parseRangeField));
+		}
+		return map;
+	}
+
+	private static boolean parseRangeField(JsonParser jp, TiesJsonRequestRange range, String name)
+			throws IOException {
+		switch (name) {
+		case "gt":
+			range.gt = parseValue(jp);
+			return true;
+		case "gte":
+			range.gte = parseValue(jp);
+			return true;
+		case "lt":
+			range.lt = parseValue(jp);
+			return true;
+		case "lte":
+			range.lte = parseValue(jp);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static Map<String, String> parseStringMap(JsonParser jp) throws IOException {
+		if (JsonToken.START_OBJECT != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, LinkedHashMap.class);
+		}
+		Map<String, String> map = new LinkedHashMap<>();
+		while (JsonToken.FIELD_NAME == jp.nextToken()) {
+			String name = jp.getCurrentName();
+			jp.nextToken();
+			map.put(name, parseString(jp));
+		}
+		return map;
+	}
+
+	private static List<Map<String, Object>> parseRows(JsonParser jp) throws IOException {
+		if (JsonToken.START_ARRAY != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, ArrayList.class);
+		}
+		List<Map<String, Object>> rows = new ArrayList<>();
+		while (JsonToken.END_ARRAY != jp.nextToken()) {
+			if (JsonToken.START_OBJECT != jp.getCurrentToken()) {
+				throw unexpectedToken(jp, LinkedHashMap.class);
+			}
+			rows.add(parseMap(jp));
+		}
+		return rows;
+	}
+
+	private static Map<String, Object> parseValueMap(JsonParser jp) throws IOException {
+		if (JsonToken.START_OBJECT != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, LinkedHashMap.class);
+		}
+		return parseMap(jp);
+	}
+
+	private static List<String> parseStringList(JsonParser jp) throws IOException {
+		if (JsonToken.START_ARRAY != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, ArrayList.class);
+		}
+		List<String> list = new ArrayList<>();
+		while (JsonToken.END_ARRAY != jp.nextToken()) {
+			list.add(parseString(jp));
+		}
+		return list;
+	}
+
+	private static List<Integer> parseIntegerList(JsonParser jp) throws IOException {
+		if (JsonToken.START_ARRAY != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, ArrayList.class);
+		}
+		List<Integer> list = new ArrayList<>();
+		while (JsonToken.END_ARRAY != jp.nextToken()) {
+			list.add(parseInteger(jp));
+		}
+		return list;
+	}
+
+	private static Map<String, Object> parseMap(JsonParser jp) throws IOException {
+		Map<String, Object> map = new LinkedHashMap<>();
+		while (JsonToken.FIELD_NAME == jp.nextToken()) {
+			String name = jp.getCurrentName();
+			jp.nextToken();
+			map.put(name, parseValue(jp));
+		}
+		return map;
+	}
+
+	private static Object parseValue(JsonParser jp) throws IOException {
+		switch (jp.getCurrentToken()) {
+		case START_OBJECT:
+			return parseMap(jp);
+		case START_ARRAY:
+			List<Object> list = new ArrayList<>();
+			while (JsonToken.END_ARRAY != jp.nextToken()) {
+				list.add(parseValue(jp));
+			}
+			return list;
+		case VALUE_STRING:
+			return jp.getText();
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return jp.getNumberValue();
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NULL:
+			return null;
+		default:
+			throw JsonMappingException.from(jp, "Unexpected " + jp.getCurrentToken() + " token");
+		}
+	}
+
+	private static <T> T parseObject(JsonParser jp, T bean, FieldParser<T> fieldParser) throws IOException {
+		startObject(jp, bean);
+		while (JsonToken.FIELD_NAME == jp.nextToken()) {
+			String name = jp.getCurrentName();
+			jp.nextToken();
+			boolean recognized;
+			try {
+				recognized = fieldParser.parseField(jp, bean, name);
+			} catch (JsonMappingException e) {
+				throw JsonMappingException.wrapWithPath(e, bean, name);
+			}
+			if (!recognized) {
+				throw UnrecognizedPropertyException.from(jp, bean, name);
+			}
+		}
+		return bean;
+	}
+
+	private static boolean isNull(JsonParser jp) {
+		return JsonToken.VALUE_NULL == jp.getCurrentToken();
+	}
+
+	private static void startObject(JsonParser jp, Object bean) throws JsonMappingException {
+		if (JsonToken.START_OBJECT != jp.getCurrentToken()) {
+			throw unexpectedToken(jp, bean.getClass());
+		}
+	}
+
+	private static Boolean parseBoolean(JsonParser jp) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		switch (t) {
+		case VALUE_NULL:
+			return null;
+		case VALUE_TRUE:
+			return Boolean.TRUE;
+		case VALUE_FALSE:
+			return Boolean.FALSE;
+		case VALUE_NUMBER_INT:
+			if (NumberType.INT == jp.getNumberType()) {
+				return 0 != jp.getIntValue();
+			}
+			if (NumberType.LONG == jp.getNumberType()) {
+				return 0L != jp.getLongValue();
+			}
+			return !"0".equals(jp.getText());
+		case VALUE_STRING:
+			String text = jp.getText().trim();
+			if ("true".equals(text)) {
+				return Boolean.TRUE;
+			}
+			if ("false".equals(text)) {
+				return Boolean.FALSE;
+			}
+			if (text.isEmpty()) {
+				return null;
+			}
+			throw weirdString(jp, Boolean.class, "only \"true\" or \"false\" recognized");
+		default:
+			throw unexpectedToken(jp, Boolean.class);
+		}
+	}
+
+	private static Integer parseInteger(JsonParser jp) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		switch (t) {
+		case VALUE_NULL:
+			return null;
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return jp.getIntValue();
+		case VALUE_STRING:
+			String text = jp.getText().trim();
+			if (text.isEmpty()) {
+				return null;
+			}
+			long value;
+			try {
+				value = Long.parseLong(text);
+			} catch (NumberFormatException e) {
+				throw weirdString(jp, Integer.class, "not a valid Integer value");
+			}
+			if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+				throw weirdString(jp, Integer.class, "Overflow: numeric value (" + text + ") out of range of Integer ("
+						+ Integer.MIN_VALUE + " - " + Integer.MAX_VALUE + ")");
+			}
+			return (int) value;
+		default:
+			throw unexpectedToken(jp, Integer.class);
+		}
+	}
+
+	private static JsonMappingException unexpectedToken(JsonParser jp, Class<?> type) {
+		return JsonMappingException.from(jp,
+				"Can not deserialize instance of " + type.getName() + " out of " + jp.getCurrentToken() + " token");
+	}
+
+	private static JsonMappingException weirdString(JsonParser jp, Class<?> type, String reason) throws IOException {
+		return JsonMappingException.from(jp, "Can not construct instance of " + type.getName() + " from String value '"
+				+ jp.getText() + "': " + reason);
+	}
+
+	private static String parseString(JsonParser jp) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		if (JsonToken.VALUE_NULL == t) {
+			return null;
+		}
+		if (!t.isScalarValue()) {
+			throw unexpectedToken(jp, String.class);
+		}
+		return jp.getText();
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.request;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Root class for TiesDB JSON "digest" request.
+ * 
+ * <P>Asks for the root hash of the table and the hashes of the tree nodes at
+ * {@code level}, each covering an equal range of the table token ring. Rows
+ * with the primary keys listed in {@code keys} are sent with the proofs of
+ * their inclusion. Request without table is echoed back.
+ * 
+ * <P>If {@code nodes} are listed, only hashes of the nodes of the level with
+ * those indexes are sent. Nodes of the deepest level are the buckets, their
+ * rows are sent as {@code entries} if asked, so two tables could be compared
+ * down to the rows they differ in.
+ */
+public class TiesJsonRequestDigest {
+	public String keyspace;
+	public String table;
+	public Integer level;
+	public List<Integer> nodes;
+	public Boolean entries;
+	public List<Map<String, Object>> keys;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.request;
+
+import java.util.List;
+
+/**
+ * Root class for TiesDB JSON "fetch" request.
+ * 
+ * <P>Asks for the stored rows of the table with the {@code keys}, which are
+ * the hex {@code rawKey} strings of the entries of a "digest" response. Rows
+ * are sent as stored cells along with their write timestamps, so they could
+ * be merged by another node as they were written.
+ */
+public class TiesJsonRequestFetch {
+	public String keyspace;
+	public String table;
+	public List<String> keys;
+}
@@ -15,12 +15,28 @@
  */
 package network.tiesdb.handler.impl.json.request;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Root class for TiesDB JSON "insert" request.
+ * 
+ * <P>Rows are written into the table as they are. Each row maps column names
+ * to values in Cassandra JSON format. Request without table is echoed back.
+ * 
+ * <P>Rows could be signed by the {@code signer}, given as hex of its 64 bytes
+ * public key, with hex {@code signatures} of the same order as the rows. See
+ * {@link network.tiesdb.handler.impl.TiesSignatureVerifier} for what is
+ * signed.
  *  
  * @author Anton Filatov (filatov@ties.network)
  */
 public class TiesJsonRequestInsert {
+	public String keyspace;
+	public String table;
+	public List<Map<String, Object>> rows;
+	public String signer;
+	public List<String> signatures;
 	public String test;
 	public TiesJsonRequestSelect select;
 }
@@ -15,22 +15,38 @@
  */
 package network.tiesdb.handler.impl.json.request;
 
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
 /**
  * Root of TiesDB JSON request.
  * 
  * <P>Any class implementing this interface can be a JSON request root.
+ * 
+ * <P>Optional request id is a client chosen correlation id. It is echoed back
+ * in the response so a client could match responses of concurrently executed
+ * requests sent over the same connection.
  *  
  * @author Anton Filatov (filatov@ties.network)
  */
+@JsonPropertyOrder({ "id" })
 public class TiesJsonRequestRoot {
 
 	public enum RequestType {
-		INSERT, SELECT
+		INSERT, SELECT, DIGEST, FETCH
 	}
 
+	private String id;
 	private Object request;
 	private RequestType type;
 
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
 	private void setRequest(Object request, RequestType type) {
 		this.request = request;
 		this.type = type;
@@ -44,6 +60,14 @@ public class TiesJsonRequestRoot {
 		setRequest(request, RequestType.SELECT);
 	}
 
+	public void setDigest(TiesJsonRequestDigest request) {
+		setRequest(request, RequestType.DIGEST);
+	}
+
+	public void setFetch(TiesJsonRequestFetch request) {
+		setRequest(request, RequestType.FETCH);
+	}
+
 	public Object getRequest() {
 		return request;
 	}
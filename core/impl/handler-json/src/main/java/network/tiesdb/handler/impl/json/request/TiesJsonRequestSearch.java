@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.request;
+
+import java.util.Map;
+
+/**
+ * Search predicates of TiesDB JSON "select" request.
+ * 
+ * <P>Each field maps columns to the predicate of its kind: {@code term} to
+ * exact values, {@code prefix} to string prefixes, {@code match} to
+ * full-text queries and {@code range} to bounds. Rows should satisfy all of
+ * the predicates, which are resolved by the search index of the table.
+ */
+public class TiesJsonRequestSearch {
+	public Map<String, Object> term;
+	public Map<String, String> prefix;
+	public Map<String, String> match;
+	public Map<String, TiesJsonRequestRange> range;
+}
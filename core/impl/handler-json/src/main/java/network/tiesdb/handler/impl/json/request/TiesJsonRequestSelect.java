@@ -15,11 +15,45 @@
  */
 package network.tiesdb.handler.impl.json.request;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Root class for TiesDB JSON "select" request.
+ * 
+ * <P>Selects columns of the table rows where columns are equal to the given
+ * values and matching the {@code search} predicates, from each of the
+ * partitions listed in {@code keys} if any. Results are sent in pages of
+ * about {@code pageSize} rows, each page in a separate message. Request
+ * without table is echoed back.
+ * 
+ * <P>Columns listed in {@code exclude} are left out of the selected ones,
+ * or out of all columns of the table if {@code columns} is not set.
+ * 
+ * <P>If {@code aggregate} or {@code groupBy} is set, a row per group of
+ * rows with equal values of {@code groupBy} columns is sent instead, all of
+ * them in a single page.
+ * 
+ * <P>Scan could be resumed from the page following the one that returned
+ * the {@code cursor}, if the same query is sent with it.
+ * 
+ * <P>If {@code explain} is set, the access path of the query is sent instead
+ * of its results.
  *  
  * @author Anton Filatov (filatov@ties.network)
  */
 public class TiesJsonRequestSelect {
+	public String keyspace;
+	public String table;
+	public List<String> columns;
+	public List<String> exclude;
+	public Map<String, Object> where;
+	public TiesJsonRequestSearch search;
+	public List<Map<String, Object>> keys;
+	public List<TiesJsonRequestAggregate> aggregate;
+	public List<String> groupBy;
+	public Integer pageSize;
+	public String cursor;
+	public Boolean explain;
 	public String hello;
 }
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+/**
+ * Cell of a row in TiesDB JSON "fetch" response.
+ * 
+ * <P>The {@code value} is a hex string of the serialized value of the column.
+ * The {@code timestamp} is the write timestamp of the cell in microseconds,
+ * it is missing for the primary key columns and non-frozen collections.
+ */
+public class TiesJsonResponseCell {
+	public String value;
+	public Long timestamp;
+}
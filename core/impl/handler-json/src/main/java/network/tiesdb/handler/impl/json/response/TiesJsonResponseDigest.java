@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import java.util.List;
+
+/**
+ * Digest of TiesDB JSON "digest" request.
+ * 
+ * <P>Hashes are hex strings. The {@code hashes} cover {@code 2^level} equal
+ * ranges of the table token ring in token order, or the requested nodes of
+ * the level in the order they were requested.
+ */
+public class TiesJsonResponseDigest {
+	public Integer depth;
+	public Integer level;
+	public String root;
+	public List<String> hashes;
+	public List<TiesJsonResponseProof> proofs;
+	public List<TiesJsonResponseEntry> entries;
+}
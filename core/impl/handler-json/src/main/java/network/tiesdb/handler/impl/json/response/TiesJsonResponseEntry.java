@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import java.util.Map;
+
+/**
+ * Row of a bucket in TiesDB JSON "digest" response.
+ * 
+ * <P>Entries of a bucket are sent in the order of their ids, the {@code id}
+ * and the {@code hash} are hex strings. The {@code rawKey} is a hex string of
+ * the serialized primary key the {@code id} is the hash of, the row is
+ * fetched by it.
+ */
+public class TiesJsonResponseEntry {
+	public Integer bucket;
+	public String id;
+	public String hash;
+	public Map<String, Object> key;
+	public String rawKey;
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import java.util.List;
+
+/**
+ * Access path of TiesDB JSON "select" request.
+ * 
+ * <P>Sent instead of the results when the request asks to explain it.
+ * Alternatives are the other access paths considered, the rejected ones
+ * have the reason instead of the cost.
+ */
+public class TiesJsonResponseExplain {
+	public String accessPath;
+	public String description;
+	public Double cost;
+	public Long estimatedRows;
+	public String rejected;
+	public List<TiesJsonResponseExplain> alternatives;
+}
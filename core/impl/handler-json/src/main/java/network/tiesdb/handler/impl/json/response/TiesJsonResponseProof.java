@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inclusion proof of a row in TiesDB JSON "digest" response.
+ * 
+ * <P>Starting with the {@code rowHash}, each step of the {@code path} is
+ * hashed with the current hash as its {@code left} or {@code right} sibling,
+ * which gives the root hash at the end. Proof of a row which is not found has
+ * neither the row hash nor the path.
+ */
+public class TiesJsonResponseProof {
+
+	public static class Step {
+		public String left;
+		public String right;
+	}
+
+	public Map<String, Object> key;
+	public Integer bucket;
+	public String rowHash;
+	public List<Step> path;
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Root of TiesDB JSON response.
+ * 
+ * <P>Holds the result of the executed request and the request id.
+ */
+@JsonPropertyOrder({ "id" })
+public class TiesJsonResponseRoot {
+	public String id;
+	public TiesJsonResponseInsert insert;
+	public TiesJsonResponseSelect select;
+	public TiesJsonResponseExplain explain;
+	public TiesJsonResponseDigest digest;
+	public TiesJsonResponseFetch fetch;
+}
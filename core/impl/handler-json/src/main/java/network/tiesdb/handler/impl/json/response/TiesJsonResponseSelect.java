@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json.response;
+
+import java.util.List;
+import java.util.Map;
+
+import network.tiesdb.handler.impl.json.TiesJsonCursor;
+
+/**
+ * Page of TiesDB JSON "select" results.
+ * 
+ * <P>More pages of the same request follow unless it is the last one. The {@code cursor} of the page resumes
+ * the query from the next page, see {@link TiesJsonCursor}.
+ */
+public class TiesJsonResponseSelect {
+	public List<Map<String, Object>> rows;
+	public boolean more;
+	public String cursor;
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import network.tiesdb.handler.impl.json.TiesJsonRequestParser;
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRoot;
+
+/**
+ * Benchmark of TiesDB JSON request decoding.
+ * 
+ * <P>Compares per-request {@link ObjectMapper} construction with a shared
+ * {@link ObjectReader} and with the streaming {@link TiesJsonRequestParser}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TiesHandlerImplBenchmark {
+
+	@Param({ "insert", "select" })
+	private String requestType;
+
+	private byte[] request;
+
+	private ObjectReader sharedReader;
+
+	private TiesJsonRequestParser streamingParser;
+
+	@Setup
+	public void setup() {
+		switch (requestType) {
+		case "insert":
+			request = "{insert:{test:\"test\",select:{hello:\"world\"}}}".getBytes(StandardCharsets.UTF_8);
+			break;
+		case "select":
+			request = "{select:{hello:\"world\"}}".getBytes(StandardCharsets.UTF_8);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown request type " + requestType);
+		}
+		ObjectMapper mapper = TiesHandlerImpl.createConfiguredMapper();
+		sharedReader = mapper.reader(TiesJsonRequestRoot.class);
+		streamingParser = new TiesJsonRequestParser(mapper.getJsonFactory());
+	}
+
+	@Benchmark
+	public TiesJsonRequestRoot mapperPerRequest() throws IOException {
+		return TiesHandlerImpl.createConfiguredMapper().readValue(new ByteArrayInputStream(request),
+				TiesJsonRequestRoot.class);
+	}
+
+	@Benchmark
+	public TiesJsonRequestRoot sharedReader() throws IOException {
+		return sharedReader.readValue(new ByteArrayInputStream(request));
+	}
+
+	@Benchmark
+	public TiesJsonRequestRoot streamingParser() throws IOException {
+		return streamingParser.parse(new ByteArrayInputStream(request));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(TiesHandlerImplBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesHandleException;
+import network.tiesdb.util.crypto.Secp256k1;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Tests of {@link TiesSignatureVerifier} over rows signed in the test.
+ */
+public class TiesSignatureVerifierTest {
+
+	private static final BigInteger N = new BigInteger(
+			"fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141", 16);
+
+	private static final BigInteger KEY = new BigInteger("1234567890abcdef", 16);
+	private static final BigInteger OTHER_KEY = new BigInteger("fedcba0987654321", 16);
+
+	private static final byte[] SIGNER = Secp256k1.publicKey(toBytes(KEY));
+	private static final byte[] OTHER_SIGNER = Secp256k1.publicKey(toBytes(OTHER_KEY));
+
+	private final TiesSignatureVerifier verifier = new TiesSignatureVerifier(
+			TiesHandlerImpl.createConfiguredMapper().writer(), 2, 16);
+
+	@Test
+	public void testSignsCanonicalRow() throws TiesHandleException {
+		// Fields are sorted, whatever order they were sent in
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("name", "a");
+		row.put("id", 1);
+		byte[] signature = sign("[\"ks\",\"tbl\",{\"id\":1,\"name\":\"a\"}]", KEY, 1);
+		verifier.verify("ks", "tbl", Arrays.asList(row), Arrays.asList(signature), SIGNER);
+	}
+
+	@Test
+	public void testAcceptsBatchesOfSignedRows() throws TiesHandleException {
+		for (int count : new int[] { 0, 1, 4, 5, 33 }) {
+			List<Map<String, Object>> rows = rows(count);
+			verifier.verify("ks", "tbl", rows, sign(rows, KEY), SIGNER);
+		}
+	}
+
+	@Test
+	public void testRejectsRowOfAnotherSigner() {
+		List<Map<String, Object>> rows = rows(9);
+		List<byte[]> signatures = sign(rows, KEY);
+		signatures.set(7, sign(rows.subList(7, 8), OTHER_KEY).get(0));
+		assertRejected(rows, signatures, SIGNER, "Signature of row 7 is not valid");
+		assertRejected(rows, sign(rows, KEY), OTHER_SIGNER, "Signature of row 0 is not valid");
+	}
+
+	@Test
+	public void testRejectsChangedRow() {
+		List<Map<String, Object>> rows = rows(3);
+		List<byte[]> signatures = sign(rows, KEY);
+		rows.get(1).put("name", "changed");
+		assertRejected(rows, signatures, SIGNER, "Signature of row 1 is not valid");
+	}
+
+	@Test
+	public void testRejectsRowOfAnotherTable() {
+		List<Map<String, Object>> rows = rows(1);
+		List<byte[]> signatures = sign(rows, KEY);
+		try {
+			verifier.verify("ks", "other", rows, signatures, SIGNER);
+			fail("Row of another table should be rejected");
+		} catch (TiesHandleException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRejectsMalformedSignatures() {
+		List<Map<String, Object>> rows = rows(3);
+		List<byte[]> signatures = sign(rows, KEY);
+		signatures.set(0, Arrays.copyOf(signatures.get(0), Secp256k1.SIGNATURE_LENGTH - 1));
+		assertRejected(rows, signatures, SIGNER, "Signature of row 0 is not valid");
+		signatures = sign(rows, KEY);
+		signatures.set(1, null);
+		assertRejected(rows, signatures, SIGNER, "Signature of row 1 is not valid");
+		signatures = sign(rows, KEY);
+		signatures.get(2)[Secp256k1.SIGNATURE_LENGTH - 1] = 9;
+		assertRejected(rows, signatures, SIGNER, "Signature of row 2 is not valid");
+		assertRejected(rows, sign(rows(2), KEY), SIGNER,
+				"The signatures count 2 should be equal to rows count 3");
+	}
+
+	@Test
+	public void testComparesSignerOfCachedKey() throws TiesHandleException {
+		TiesCounter hits = TiesMetricRegistry.getDefault().counter("SignatureCacheHits");
+		TiesCounter rejections = TiesMetricRegistry.getDefault().counter("SignatureRejections");
+		long hitCount = hits.getCount();
+		long rejectedCount = rejections.getCount();
+		List<Map<String, Object>> rows = rows(1);
+		List<byte[]> signatures = sign(rows, KEY);
+		verifier.verify("ks", "tbl", rows, signatures, SIGNER);
+		assertRejected(rows, signatures, OTHER_SIGNER, "Signature of row 0 is not valid");
+		assertEquals(hitCount + 1, hits.getCount());
+		assertEquals(rejectedCount + 1, rejections.getCount());
+		verifier.verify("ks", "tbl", rows, signatures, SIGNER);
+		assertEquals(hitCount + 2, hits.getCount());
+	}
+
+	private void assertRejected(List<Map<String, Object>> rows, List<byte[]> signatures, byte[] signer,
+			String message) {
+		try {
+			verifier.verify("ks", "tbl", rows, signatures, signer);
+			fail("Rows should be rejected");
+		} catch (TiesHandleException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	private static List<Map<String, Object>> rows(int count) {
+		List<Map<String, Object>> rows = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Map<String, Object> row = new LinkedHashMap<>();
+			row.put("id", i);
+			row.put("name", "row " + i);
+			row.put("tags", Arrays.asList("a", Collections.singletonMap("b", i)));
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private static List<byte[]> sign(List<Map<String, Object>> rows, BigInteger key) {
+		List<byte[]> signatures = new ArrayList<>(rows.size());
+		for (Map<String, Object> row : rows) {
+			signatures.add(sign("[\"ks\",\"tbl\",{\"id\":" + row.get("id") + ",\"name\":\"" + row.get("name")
+					+ "\",\"tags\":[\"a\",{\"b\":" + row.get("id") + "}]}]", key, signatures.size() + 1));
+		}
+		return signatures;
+	}
+
+	/*
+	 * Signs the SHA-256 hash of the message with the given nonce, which is
+	 * good enough for a test and keeps signatures reproducible.
+	 */
+	private static byte[] sign(String message, BigInteger key, int nonce) {
+		BigInteger k = BigInteger.valueOf(nonce).add(key);
+		byte[] point = Secp256k1.publicKey(toBytes(k));
+		BigInteger r = new BigInteger(1, Arrays.copyOf(point, 32)).mod(N);
+		BigInteger e = new BigInteger(1, sha256(message));
+		BigInteger s = k.modInverse(N).multiply(e.add(r.multiply(key))).mod(N);
+		byte[] signature = new byte[Secp256k1.SIGNATURE_LENGTH];
+		System.arraycopy(toBytes(r), 0, signature, 0, 32);
+		System.arraycopy(toBytes(s), 0, signature, 32, 32);
+		signature[64] = (byte) (point[Secp256k1.PUBLIC_KEY_LENGTH - 1] & 1);
+		return signature;
+	}
+
+	private static byte[] sha256(String message) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(message.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static byte[] toBytes(BigInteger value) {
+		byte[] bytes = value.toByteArray();
+		byte[] result = new byte[32];
+		int length = Math.min(bytes.length, 32);
+		System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+		return result;
+	}
+
+}
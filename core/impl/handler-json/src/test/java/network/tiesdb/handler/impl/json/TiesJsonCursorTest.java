@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Tests of {@link TiesJsonCursor} tokens.
+ */
+public class TiesJsonCursorTest {
+
+	private static final byte[] KEY = "server key".getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] STATE = { 1, 2, 3, 4, 5 };
+
+	private final TiesJsonCursor cursor = new TiesJsonCursor(KEY);
+
+	@Test
+	public void testRoundTripsPagingState() throws TiesStorageException {
+		String token = cursor.encode(query(), STATE);
+		assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+		assertArrayEquals(STATE, cursor.decode(query(), token));
+		// Any node sharing the key resumes the query
+		assertArrayEquals(STATE, new TiesJsonCursor(KEY.clone()).decode(query(), token));
+	}
+
+	@Test
+	public void testPassesMissingState() throws TiesStorageException {
+		assertNull(cursor.encode(query(), null));
+		assertNull(cursor.decode(query(), null));
+	}
+
+	@Test
+	public void testIgnoresOrderOfRestrictions() throws TiesStorageException {
+		Map<String, Object> where = new LinkedHashMap<>();
+		where.put("a", 1);
+		where.put("b", "x");
+		Map<String, Object> reversed = new LinkedHashMap<>();
+		reversed.put("b", "x");
+		reversed.put("a", 1);
+		String token = cursor.encode(new TiesStorageQuery("ks", "tbl", null, where), STATE);
+		assertArrayEquals(STATE, cursor.decode(new TiesStorageQuery("ks", "tbl", null, reversed), token));
+	}
+
+	@Test
+	public void testRejectsCursorOfAnotherQuery() {
+		String token = cursor.encode(query(), STATE);
+		assertRejected(new TiesStorageQuery("ks", "other", null, null), token);
+		assertRejected(new TiesStorageQuery("ks", "tbl", Arrays.asList("a"), null), token);
+		assertRejected(new TiesStorageQuery("ks", "tbl", null, Collections.singletonMap("a", (Object) 1)), token);
+		assertRejected(new TiesStorageQuery("ks", "tbl", null, null,
+				Arrays.asList(TiesStoragePredicate.term("a", 1))), token);
+		assertRejected(new TiesStorageQuery("ks", "tbl", null, null, null,
+				Arrays.asList(Collections.singletonMap("a", (Object) 1))), token);
+		assertRejected(query().withAggregation(
+				Arrays.asList(new TiesStorageAggregate(TiesStorageAggregate.Function.COUNT, null, "n")), null),
+				token);
+		assertRejected(query().withExcludedColumns(Arrays.asList("a")), token);
+	}
+
+	@Test
+	public void testTellsValuesOfDifferentTypes() {
+		String token = cursor.encode(new TiesStorageQuery("ks", "tbl", null, Collections.singletonMap("a", 1)),
+				STATE);
+		assertRejected(new TiesStorageQuery("ks", "tbl", null, Collections.singletonMap("a", "1")), token);
+		assertRejected(new TiesStorageQuery("ks", "tbl", null, Collections.singletonMap("a", 1L)), token);
+	}
+
+	@Test
+	public void testRejectsCursorOfAnotherKey() {
+		String token = new TiesJsonCursor("other key".getBytes(StandardCharsets.UTF_8)).encode(query(), STATE);
+		assertRejected(query(), token);
+	}
+
+	@Test
+	public void testRejectsTamperedCursor() {
+		byte[] token = Base64.getUrlDecoder().decode(cursor.encode(query(), STATE));
+		for (int i = 0; i < token.length; i++) {
+			byte[] tampered = token.clone();
+			tampered[i] ^= 1;
+			assertRejected(query(), Base64.getUrlEncoder().withoutPadding().encodeToString(tampered));
+		}
+		assertRejected(query(), Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(Arrays.copyOf(token, token.length - 1)));
+	}
+
+	@Test
+	public void testRejectsMalformedCursor() {
+		assertRejected(query(), "");
+		assertRejected(query(), "not base64!");
+		assertRejected(query(), Base64.getUrlEncoder().encodeToString(new byte[17]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsEmptyKey() {
+		new TiesJsonCursor(new byte[0]);
+	}
+
+	private static TiesStorageQuery query() {
+		return new TiesStorageQuery("ks", "tbl", null, null);
+	}
+
+	private void assertRejected(TiesStorageQuery query, String token) {
+		try {
+			cursor.decode(query, token);
+			fail("Cursor " + token + " should be rejected");
+		} catch (TiesStorageException e) {
+			// Expected
+		}
+	}
+
+}
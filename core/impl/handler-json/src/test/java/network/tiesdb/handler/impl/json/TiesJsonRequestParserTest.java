@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.handler.impl.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.codehaus.jackson.JsonParser.Feature;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.junit.Test;
+
+import network.tiesdb.handler.impl.json.request.TiesJsonRequestRoot;
+
+/**
+ * Tests of {@link TiesJsonRequestParser} parity with the {@link ObjectReader}
+ * data binding.
+ */
+public class TiesJsonRequestParserTest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	static {
+		MAPPER.configure(Feature.ALLOW_UNQUOTED_FIELD_NAMES, true);
+		MAPPER.configure(Feature.ALLOW_COMMENTS, true);
+	}
+
+	private final ObjectReader reader = MAPPER.reader(TiesJsonRequestRoot.class);
+
+	private final TiesJsonRequestParser parser = new TiesJsonRequestParser(MAPPER.getJsonFactory());
+
+	@Test
+	public void testParsesRequests() throws IOException {
+		assertParity("{id: 'r1', /* comment */ \"select\": {\"keyspace\": \"ks\", \"table\": \"t\","
+				+ " \"columns\": [\"a\", \"b\"], \"exclude\": [], \"where\": {\"a\": 1.5, \"b\": [1, {\"c\": null}]},"
+				+ " \"search\": {\"term\": {\"a\": 1}, \"prefix\": {\"b\": \"x\"}, \"match\": {\"c\": \"y\"},"
+				+ " \"range\": {\"d\": {\"gt\": 1, \"lte\": 12345678901234567890}}},"
+				+ " \"aggregate\": [{\"function\": \"count\", \"as\": \"n\"}], \"groupBy\": [\"a\"],"
+				+ " \"pageSize\": 10, \"cursor\": \"c\", \"explain\": true, \"hello\": \"h\"}}");
+		assertParity("{\"insert\": {\"keyspace\": \"ks\", \"table\": \"t\", \"rows\": [{\"a\": 1, \"b\": \"x\"}],"
+				+ " \"signer\": \"0x01\", \"signatures\": [\"0x02\"], \"test\": \"t\","
+				+ " \"select\": {\"table\": \"t\"}}}");
+		assertParity("{\"digest\": {\"level\": 2, \"nodes\": [1, 2], \"entries\": false, \"keys\": [{\"a\": 1}]}}");
+		assertParity("{\"fetch\": {\"keyspace\": \"ks\", \"table\": \"t\", \"keys\": [\"k\"]}}");
+		assertParity("{\"select\": null, \"insert\": {\"rows\": null}}");
+		assertParity("null");
+	}
+
+	@Test
+	public void testCoercesScalars() throws IOException {
+		assertParity("{\"select\": {\"pageSize\": \"5\"}}");
+		assertParity("{\"select\": {\"pageSize\": \" +5 \"}}");
+		assertParity("{\"select\": {\"pageSize\": \"-2147483648\"}}");
+		assertParity("{\"select\": {\"pageSize\": \"\"}}");
+		assertParity("{\"select\": {\"pageSize\": 5.7}}");
+		assertParity("{\"digest\": {\"nodes\": [\"1\", 2]}}");
+		assertParity("{\"select\": {\"explain\": 1}}");
+		assertParity("{\"select\": {\"explain\": 0}}");
+		assertParity("{\"select\": {\"explain\": 99999999999}}");
+		assertParity("{\"select\": {\"explain\": 999999999999999999999}}");
+		assertParity("{\"select\": {\"explain\": \" true \"}}");
+		assertParity("{\"select\": {\"explain\": \"false\"}}");
+		assertParity("{\"select\": {\"explain\": \"\"}}");
+		assertParity("{\"select\": {\"keyspace\": 5, \"table\": true}}");
+	}
+
+	@Test
+	public void testRejectsMalformedValues() throws IOException {
+		assertParity("{\"select\": {\"pageSize\": \"x\"}}");
+		assertParity("{\"select\": {\"pageSize\": \"5.0\"}}");
+		assertParity("{\"select\": {\"pageSize\": \"99999999999\"}}");
+		assertParity("{\"select\": {\"pageSize\": 99999999999}}");
+		assertParity("{\"select\": {\"pageSize\": true}}");
+		assertParity("{\"select\": {\"explain\": \"yes\"}}");
+		assertParity("{\"select\": {\"explain\": 1.0}}");
+		assertParity("{\"select\": {\"keyspace\": []}}");
+		assertParity("{\"select\": {\"columns\": \"a\"}}");
+		assertParity("{\"select\": {\"where\": 5}}");
+		assertParity("{\"select\": {\"keys\": [5]}}");
+		assertParity("{\"select\": {\"search\": {\"range\": 5}}}");
+		assertParity("{\"select\": {\"search\": {\"prefix\": []}}}");
+		assertParity("{\"select\": {\"aggregate\": {}}}");
+		assertParity("{\"insert\": {\"rows\": 5}}");
+		assertParity("{\"id\": {}}");
+		assertParity("{\"select\": {\"nope\": 1}}");
+		assertParity("[]");
+		assertParity("");
+		assertParity("{\"select\": ");
+	}
+
+	@Test
+	public void testRejectsScalarRequestObject() throws IOException {
+		// Messages differ here, the error type is the same
+		assertTrue(parse(reader::readValue, "{\"select\": 5}") instanceof JsonMappingException);
+		assertTrue(parse(parser::parse, "{\"select\": 5}") instanceof JsonMappingException);
+	}
+
+	@Test
+	public void testParsesNull() throws IOException {
+		assertNull(parser.parse(stream("null")));
+	}
+
+	private void assertParity(String json) throws IOException {
+		Object expected = parse(reader::readValue, json);
+		Object actual = parse(parser::parse, json);
+		if (expected instanceof Exception) {
+			if (!(actual instanceof Exception)) {
+				fail(json + " should fail with " + expected + " but was parsed as " + actual);
+			}
+			assertEquals(json, expected.getClass(), actual.getClass());
+			assertEquals(json, message((Exception) expected), message((Exception) actual));
+		} else {
+			assertEquals(json, expected, actual);
+		}
+	}
+
+	private interface Parse {
+		TiesJsonRequestRoot parse(InputStream is) throws IOException;
+	}
+
+	private static Object parse(Parse parse, String json) throws IOException {
+		TiesJsonRequestRoot root;
+		try {
+			root = parse.parse(stream(json));
+		} catch (IOException e) {
+			return e;
+		}
+		return null == root ? "null" : MAPPER.writeValueAsString(root);
+	}
+
+	private static String message(Exception e) {
+		// Drop the identity of the source stream
+		return e.getMessage().replaceAll("@[0-9a-f]+", "");
+	}
+
+	private static InputStream stream(String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -23,6 +23,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Apache Cassandra migration listener for TiesDB.
  * 
+ * <P>Keeps TiesDB schema snapshot up to date and invalidates prepared
+ * statements of changed keyspaces and tables. Hash trees of dropped tables
+ * are removed.
+ * 
  * @author Anton Filatov (filatov@ties.network)
  */
 public class TiesMigrationListenerImpl extends MigrationListener {
@@ -39,21 +43,77 @@ public class TiesMigrationListenerImpl extends MigrationListener {
 	@Override
 	public void onCreateKeyspace(String ksName) {
 		logger.debug("TiesDB keyspace created {}", ksName);
+		service.getSchema().reloadKeyspace(ksName);
 		super.onCreateKeyspace(ksName);
 	}
 
+	@Override
+	public void onUpdateKeyspace(String ksName) {
+		logger.debug("TiesDB keyspace updated {}", ksName);
+		service.getSchema().reloadKeyspace(ksName);
+		service.getStatementCache().invalidate(ksName);
+		super.onUpdateKeyspace(ksName);
+	}
+
 	@Override
 	public void onDropKeyspace(String ksName) {
 		logger.debug("TiesDB keyspace removed {}", ksName);
+		service.getSchema().dropKeyspace(ksName);
+		service.getStatementCache().invalidate(ksName);
+		service.getMerkleTrees().drop(ksName);
 		super.onDropKeyspace(ksName);
 	}
 
+	@Override
+	public void onCreateColumnFamily(String ksName, String cfName) {
+		logger.debug("TiesDB table created {}.{}", ksName, cfName);
+		service.getSchema().reloadTable(ksName, cfName);
+		super.onCreateColumnFamily(ksName, cfName);
+	}
+
+	@Override
+	public void onUpdateColumnFamily(String ksName, String cfName, boolean affectsStatements) {
+		logger.debug("TiesDB table updated {}.{}", ksName, cfName);
+		service.getSchema().reloadTable(ksName, cfName);
+		service.getStatementCache().invalidate(ksName, cfName);
+		// Dropped columns change the hashes of the stored rows
+		service.getMerkleTrees().drop(ksName, cfName);
+		super.onUpdateColumnFamily(ksName, cfName, affectsStatements);
+	}
+
+	@Override
+	public void onDropColumnFamily(String ksName, String cfName) {
+		logger.debug("TiesDB table removed {}.{}", ksName, cfName);
+		service.getSchema().dropTable(ksName, cfName);
+		service.getStatementCache().invalidate(ksName, cfName);
+		service.getMerkleTrees().drop(ksName, cfName);
+		super.onDropColumnFamily(ksName, cfName);
+	}
+
+	@Override
+	public void onUpdateUserType(String ksName, String typeName) {
+		logger.debug("TiesDB user type updated {}.{}", ksName, typeName);
+		service.getSchema().reloadKeyspace(ksName);
+		service.getStatementCache().invalidate(ksName);
+		super.onUpdateUserType(ksName, typeName);
+	}
+
+	@Override
+	public void onDropUserType(String ksName, String typeName) {
+		logger.debug("TiesDB user type removed {}.{}", ksName, typeName);
+		service.getSchema().reloadKeyspace(ksName);
+		service.getStatementCache().invalidate(ksName);
+		super.onDropUserType(ksName, typeName);
+	}
+
 	void registerMigrationListener() {
 		logger.trace("Waiting for MigrationManager is ready...");
 		MigrationManager.waitUntilReadyForBootstrap();
 		logger.trace("MigrationManager is ready");
 		logger.trace("Registering {}...", TiesMigrationListenerImpl.class.getSimpleName());
 		MigrationManager.instance.register(this);
+		// Loaded after registration so no schema change could be missed
+		service.getSchema().reload();
 		logger.debug("{} registered successfully for {}", this, service);
 	}
 
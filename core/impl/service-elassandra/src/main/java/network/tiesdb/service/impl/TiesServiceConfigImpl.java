@@ -35,6 +35,24 @@ public class TiesServiceConfigImpl implements TiesServiceConfig {
 
 	private boolean serviceStopCritical = true;
 
+	private Integer maxBatchSize = 64;
+
+	private String writeConsistencyLevel = "ONE";
+
+	private String readConsistencyLevel = "ONE";
+
+	private Integer statementCacheSize = 1024;
+
+	private Long maxScanPartitions = 100000L;
+
+	private Integer fanOutParallelism = 16;
+
+	private Integer fanOutQueueSize = 256;
+
+	private Integer maxAggregationGroups = 10000;
+
+	private Integer merkleDepth = 12;
+
 	private List<TiesTransportConfig> transports;
 
 	public TiesServiceConfigImpl() {
@@ -60,6 +78,78 @@ public class TiesServiceConfigImpl implements TiesServiceConfig {
 		this.serviceStopCritical = serviceStopCritical;
 	}
 
+	public Integer getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(Integer maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public String getWriteConsistencyLevel() {
+		return writeConsistencyLevel;
+	}
+
+	public void setWriteConsistencyLevel(String writeConsistencyLevel) {
+		this.writeConsistencyLevel = writeConsistencyLevel;
+	}
+
+	public String getReadConsistencyLevel() {
+		return readConsistencyLevel;
+	}
+
+	public void setReadConsistencyLevel(String readConsistencyLevel) {
+		this.readConsistencyLevel = readConsistencyLevel;
+	}
+
+	public Integer getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public void setStatementCacheSize(Integer statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public Long getMaxScanPartitions() {
+		return maxScanPartitions;
+	}
+
+	public void setMaxScanPartitions(Long maxScanPartitions) {
+		this.maxScanPartitions = maxScanPartitions;
+	}
+
+	public Integer getFanOutParallelism() {
+		return fanOutParallelism;
+	}
+
+	public void setFanOutParallelism(Integer fanOutParallelism) {
+		this.fanOutParallelism = fanOutParallelism;
+	}
+
+	public Integer getFanOutQueueSize() {
+		return fanOutQueueSize;
+	}
+
+	public void setFanOutQueueSize(Integer fanOutQueueSize) {
+		this.fanOutQueueSize = fanOutQueueSize;
+	}
+
+	public Integer getMaxAggregationGroups() {
+		return maxAggregationGroups;
+	}
+
+	public void setMaxAggregationGroups(Integer maxAggregationGroups) {
+		this.maxAggregationGroups = maxAggregationGroups;
+	}
+
+	public Integer getMerkleDepth() {
+		return merkleDepth;
+	}
+
+	public void setMerkleDepth(Integer merkleDepth) {
+		this.merkleDepth = merkleDepth;
+	}
+
 	@Override
 	public List<TiesTransportConfig> getTransportConfigs() {
 		return transports;
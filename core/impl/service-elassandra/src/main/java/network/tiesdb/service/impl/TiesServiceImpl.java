@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.cassandra.db.ConsistencyLevel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,7 +31,14 @@ import network.tiesdb.context.api.TiesServiceConfig;
 import network.tiesdb.context.api.TiesTransportConfig;
 import network.tiesdb.exception.TiesConfigurationException;
 import network.tiesdb.exception.TiesException;
+import network.tiesdb.exception.util.MessageHelper;
 import network.tiesdb.service.api.TiesService;
+import network.tiesdb.service.impl.storage.TiesMerkleTrees;
+import network.tiesdb.service.impl.storage.TiesPartitionFanOut;
+import network.tiesdb.service.impl.storage.TiesQueryPlanner;
+import network.tiesdb.service.impl.storage.TiesSchema;
+import network.tiesdb.service.impl.storage.TiesStatementCache;
+import network.tiesdb.service.impl.storage.TiesStorageImpl;
 import network.tiesdb.transport.api.TiesTransport;
 import network.tiesdb.transport.api.TiesTransportDaemon;
 
@@ -51,6 +59,12 @@ public abstract class TiesServiceImpl implements TiesService, Runnable {
 
 	private final AtomicReference<List<TiesTransport>> transportsRef = new AtomicReference<>();
 	private final TiesMigrationListenerImpl migrationListener;
+	private final TiesSchema schema = new TiesSchema();
+	private final TiesStatementCache statementCache;
+	private final TiesQueryPlanner queryPlanner;
+	private final TiesPartitionFanOut partitionFanOut;
+	private final TiesMerkleTrees merkleTrees;
+	private final TiesStorageImpl storage;
 
 	public TiesServiceImpl(String name, TiesServiceConfig config) {
 		if (null == config) {
@@ -59,17 +73,92 @@ public abstract class TiesServiceImpl implements TiesService, Runnable {
 		this.config = config;
 		this.name = name;
 		this.migrationListener = createTiesMigrationListener();
+		this.statementCache = createTiesStatementCache();
+		this.queryPlanner = createTiesQueryPlanner();
+		this.partitionFanOut = createTiesPartitionFanOut();
+		this.merkleTrees = createTiesMerkleTrees();
+		this.storage = createTiesStorage();
 	}
 
 	protected TiesMigrationListenerImpl createTiesMigrationListener() {
 		return new TiesMigrationListenerImpl(this);
 	}
 
+	protected TiesStatementCache createTiesStatementCache() {
+		if (config instanceof TiesServiceConfigImpl) {
+			return new TiesStatementCache(nullsafe(((TiesServiceConfigImpl) config).getStatementCacheSize()));
+		}
+		logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesServiceConfigImpl.class),
+				"Using default statement cache size");
+		return new TiesStatementCache();
+	}
+
+	protected TiesQueryPlanner createTiesQueryPlanner() {
+		if (config instanceof TiesServiceConfigImpl) {
+			return new TiesQueryPlanner(nullsafe(((TiesServiceConfigImpl) config).getMaxScanPartitions()));
+		}
+		logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesServiceConfigImpl.class),
+				"Using default query planner settings");
+		return new TiesQueryPlanner(TiesQueryPlanner.DEFAULT_MAX_SCAN_PARTITIONS);
+	}
+
+	protected TiesPartitionFanOut createTiesPartitionFanOut() {
+		if (config instanceof TiesServiceConfigImpl) {
+			TiesServiceConfigImpl extConfig = (TiesServiceConfigImpl) config;
+			return new TiesPartitionFanOut(nullsafe(extConfig.getFanOutParallelism()),
+					nullsafe(extConfig.getFanOutQueueSize()));
+		}
+		logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesServiceConfigImpl.class),
+				"Using default fan-out settings");
+		return new TiesPartitionFanOut();
+	}
+
+	protected TiesMerkleTrees createTiesMerkleTrees() {
+		if (config instanceof TiesServiceConfigImpl) {
+			return new TiesMerkleTrees(nullsafe(((TiesServiceConfigImpl) config).getMerkleDepth()));
+		}
+		logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesServiceConfigImpl.class),
+				"Using default hash tree depth");
+		return new TiesMerkleTrees();
+	}
+
+	protected TiesStorageImpl createTiesStorage() {
+		if (config instanceof TiesServiceConfigImpl) {
+			TiesServiceConfigImpl extConfig = (TiesServiceConfigImpl) config;
+			return new TiesStorageImpl(schema, statementCache, queryPlanner, partitionFanOut, merkleTrees,
+					nullsafe(extConfig.getMaxBatchSize()), nullsafe(extConfig.getMaxAggregationGroups()),
+					ConsistencyLevel.valueOf(nullsafe(extConfig.getWriteConsistencyLevel()).toUpperCase()),
+					ConsistencyLevel.valueOf(nullsafe(extConfig.getReadConsistencyLevel()).toUpperCase()));
+		}
+		logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesServiceConfigImpl.class),
+				"Using default storage settings");
+		return new TiesStorageImpl(schema, statementCache, queryPlanner, partitionFanOut, merkleTrees,
+				TiesStorageImpl.DEFAULT_MAX_BATCH_SIZE, TiesStorageImpl.DEFAULT_MAX_AGGREGATION_GROUPS,
+				TiesStorageImpl.DEFAULT_WRITE_CONSISTENCY_LEVEL, TiesStorageImpl.DEFAULT_READ_CONSISTENCY_LEVEL);
+	}
+
 	@Override
 	public TiesServiceConfig getTiesServiceConfig() {
 		return config;
 	}
 
+	@Override
+	public TiesStorageImpl getStorage() {
+		return storage;
+	}
+
+	public TiesSchema getSchema() {
+		return schema;
+	}
+
+	public TiesStatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	public TiesMerkleTrees getMerkleTrees() {
+		return merkleTrees;
+	}
+
 	public void run() {
 		try {
 			logger.trace("Running TiesDB Service...");
@@ -121,6 +210,8 @@ public abstract class TiesServiceImpl implements TiesService, Runnable {
 			}
 		}
 		migrationListener.unregisterMigrationListener();
+		partitionFanOut.shutdown();
+		merkleTrees.shutdown();
 	}
 
 	private void runInternal() throws TiesException {
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+
+/**
+ * Incremental aggregator of query rows.
+ * 
+ * <P>Rows are added one by one as the pages of the query are read and only
+ * the accumulated values of each group are kept, so memory depends on the
+ * count of groups, which is limited by {@code maxGroups}, rather than the
+ * count of rows. Sums of integral values are exact, sums of any floating
+ * point value are approximate.
+ */
+public class TiesAggregator {
+
+	private static interface Accumulator {
+
+		void add(Object value) throws TiesStorageException;
+
+		Object get();
+
+	}
+
+	private static final class Count implements Accumulator {
+
+		private long count;
+
+		@Override
+		public void add(Object value) {
+			count++;
+		}
+
+		@Override
+		public Object get() {
+			return count;
+		}
+
+	}
+
+	private static final class Sum implements Accumulator {
+
+		private final String column;
+		private boolean empty = true;
+		private long sum;
+		private BigDecimal exactSum;
+		private double approximateSum;
+		private boolean approximate;
+
+		private Sum(String column) {
+			this.column = column;
+		}
+
+		@Override
+		public void add(Object value) throws TiesStorageException {
+			if (!(value instanceof Number)) {
+				throw new TiesStorageException("Column " + column + " is not numeric");
+			}
+			empty = false;
+			if (value instanceof Double || value instanceof Float) {
+				approximate = true;
+				approximateSum += ((Number) value).doubleValue();
+			} else if (null == exactSum && (value instanceof Long || value instanceof Integer
+					|| value instanceof Short || value instanceof Byte)) {
+				long v = ((Number) value).longValue();
+				long s = sum + v;
+				if (((sum ^ s) & (v ^ s)) < 0) {
+					// Overflow, continue with arbitrary precision
+					exactSum = BigDecimal.valueOf(sum).add(BigDecimal.valueOf(v));
+				} else {
+					sum = s;
+				}
+			} else {
+				if (null == exactSum) {
+					exactSum = BigDecimal.valueOf(sum);
+				}
+				exactSum = exactSum.add(value instanceof BigDecimal ? (BigDecimal) value
+						: value instanceof BigInteger ? new BigDecimal((BigInteger) value)
+								: new BigDecimal(value.toString()));
+			}
+		}
+
+		@Override
+		public Object get() {
+			if (empty) {
+				return null;
+			}
+			if (approximate) {
+				return approximateSum + (null == exactSum ? sum : exactSum.doubleValue());
+			}
+			return null == exactSum ? (Object) sum : exactSum;
+		}
+
+	}
+
+	private static final class Extremum implements Accumulator {
+
+		private final String column;
+		private final int sign;
+		private Comparable<Object> extremum;
+
+		private Extremum(String column, boolean max) {
+			this.column = column;
+			this.sign = max ? 1 : -1;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void add(Object value) throws TiesStorageException {
+			if (!(value instanceof Comparable)) {
+				throw new TiesStorageException("Column " + column + " is not comparable");
+			}
+			try {
+				if (null == extremum || sign * extremum.compareTo(value) < 0) {
+					extremum = (Comparable<Object>) value;
+				}
+			} catch (ClassCastException e) {
+				throw new TiesStorageException("Column " + column + " has values of different types", e);
+			}
+		}
+
+		@Override
+		public Object get() {
+			return extremum;
+		}
+
+	}
+
+	private final List<TiesStorageAggregate> aggregates;
+	private final List<String> groupBy;
+	private final int maxGroups;
+	private final Map<List<Object>, Accumulator[]> groups = new LinkedHashMap<>();
+
+	public TiesAggregator(List<TiesStorageAggregate> aggregates, List<String> groupBy, int maxGroups) {
+		if (null == aggregates) {
+			throw new NullPointerException("The aggregates should not be null");
+		}
+		if (null == groupBy) {
+			throw new NullPointerException("The groupBy should not be null");
+		}
+		if (maxGroups < 1) {
+			throw new IllegalArgumentException("The maxGroups " + maxGroups + " should be positive");
+		}
+		this.aggregates = aggregates;
+		this.groupBy = groupBy;
+		this.maxGroups = maxGroups;
+	}
+
+	public void add(Map<String, Object> row) throws TiesStorageException {
+		Object[] group = new Object[groupBy.size()];
+		for (int i = 0; i < group.length; i++) {
+			group[i] = row.get(groupBy.get(i));
+		}
+		List<Object> key = Arrays.asList(group);
+		Accumulator[] accumulators = groups.get(key);
+		if (null == accumulators) {
+			if (groups.size() >= maxGroups) {
+				throw new TiesStorageException("Aggregation exceeds the limit of " + maxGroups + " groups");
+			}
+			accumulators = createAccumulators();
+			groups.put(key, accumulators);
+		}
+		for (int i = 0; i < accumulators.length; i++) {
+			String column = aggregates.get(i).getColumn();
+			if (null == column) {
+				accumulators[i].add(null);
+			} else {
+				Object value = row.get(column);
+				if (null != value) {
+					accumulators[i].add(value);
+				}
+			}
+		}
+	}
+
+	public List<Map<String, Object>> getRows() {
+		if (groups.isEmpty() && groupBy.isEmpty()) {
+			// Aggregates of no rows are still reported
+			groups.put(Collections.emptyList(), createAccumulators());
+		}
+		List<Map<String, Object>> rows = new ArrayList<>(groups.size());
+		for (Map.Entry<List<Object>, Accumulator[]> group : groups.entrySet()) {
+			Map<String, Object> row = new LinkedHashMap<>();
+			for (int i = 0; i < groupBy.size(); i++) {
+				row.put(groupBy.get(i), group.getKey().get(i));
+			}
+			for (int i = 0; i < aggregates.size(); i++) {
+				row.put(aggregates.get(i).getName(), group.getValue()[i].get());
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	private Accumulator[] createAccumulators() {
+		Accumulator[] accumulators = new Accumulator[aggregates.size()];
+		for (int i = 0; i < accumulators.length; i++) {
+			TiesStorageAggregate aggregate = aggregates.get(i);
+			switch (aggregate.getFunction()) {
+			case COUNT:
+				accumulators[i] = new Count();
+				break;
+			case SUM:
+				accumulators[i] = new Sum(aggregate.getColumn());
+				break;
+			case MIN:
+				accumulators[i] = new Extremum(aggregate.getColumn(), false);
+				break;
+			case MAX:
+				accumulators[i] = new Extremum(aggregate.getColumn(), true);
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported aggregate function " + aggregate.getFunction());
+			}
+		}
+		return accumulators;
+	}
+
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.AsciiType;
+import org.apache.cassandra.db.marshal.ByteType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.FloatType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.ReversedType;
+import org.apache.cassandra.db.marshal.ShortType;
+import org.apache.cassandra.db.marshal.TimeUUIDType;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.marshal.UUIDType;
+import org.apache.cassandra.service.ElassandraDaemon;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AbstractAggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.missing.Missing;
+import org.elasticsearch.search.aggregations.bucket.missing.MissingBuilder;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsBuilder;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.aggregations.metrics.min.Min;
+import org.elasticsearch.search.aggregations.metrics.sum.Sum;
+import org.elasticsearch.search.aggregations.metrics.valuecount.ValueCount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStoragePage;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Search of table rows by Elasticsearch index of Elassandra.
+ * 
+ * <P>Elassandra maps an index to the keyspace of the same name and its
+ * document types to the tables of the keyspace, so a query with search
+ * predicates is resolved by the co-located index instead of a table scan.
+ * Equality restrictions become term filters and full-text predicates affect
+ * the score of the matching rows. Rows are read from the document source,
+ * which contains the columns mapped by the index.
+ * 
+ * <P>Pages are fetched by the scroll API, so paging state is the scroll id and
+ * each page costs the same however deep it is. The scroll reads a snapshot
+ * of the index taken by the first page, so rows are neither skipped nor
+ * repeated under concurrent writes. Scroll context is kept alive for
+ * {@link #SCROLL_KEEP_ALIVE} after each page, a query continued later fails.
+ * The context is cleared when the last page is read.
+ * 
+ * <P>Aggregated queries are resolved by Elasticsearch aggregations if their
+ * result is exact.
+ */
+public class TiesIndexSearch {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesIndexSearch.class);
+
+	private static final String GROUP_PREFIX = "group";
+	private static final String MISSING_PREFIX = "missing";
+	private static final String METRIC_PREFIX = "metric";
+	private static final String COUNT_PREFIX = "count";
+
+	/*
+	 * Integers up to this magnitude are exact in double precision
+	 */
+	private static final long MAX_EXACT_SUM = 1L << 53;
+
+	public static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+	public TiesStoragePage select(TiesTableSchema tableSchema, TiesStorageQuery query, int pageSize,
+			byte[] pagingState) throws TiesStorageException {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		Client client = getClient();
+		SearchResponse response;
+		if (null == pagingState) {
+			SearchRequestBuilder request = client.prepareSearch(tableSchema.getKeyspace())
+					.setTypes(tableSchema.getName()).setQuery(toQuery(tableSchema, query)).setSize(pageSize)
+					.setScroll(SCROLL_KEEP_ALIVE);
+			if (!query.getColumns().isEmpty()) {
+				for (String name : query.getColumns()) {
+					TiesStorageImpl.getColumn(tableSchema, name);
+				}
+				request.setFetchSource(query.getColumns().toArray(new String[query.getColumns().size()]), null);
+			}
+			response = execute(tableSchema, request);
+		} else {
+			// Scroll keeps the page size of its first request
+			response = execute(tableSchema,
+					client.prepareSearchScroll(decodePagingState(pagingState)).setScroll(SCROLL_KEEP_ALIVE));
+		}
+		SearchHits hits = response.getHits();
+		List<Map<String, Object>> rows = new ArrayList<>(hits.getHits().length);
+		for (SearchHit hit : hits.getHits()) {
+			Map<String, Object> source = hit.getSource();
+			rows.add(null == source ? Collections.<String, Object>emptyMap() : source);
+		}
+		String scrollId = response.getScrollId();
+		if (rows.isEmpty() || rows.size() < pageSize || null == scrollId) {
+			clearScroll(client, scrollId);
+			return new TiesStoragePage(rows, null);
+		}
+		return new TiesStoragePage(rows, scrollId.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void clearScroll(Client client, String scrollId) {
+		if (null == scrollId) {
+			return;
+		}
+		try {
+			client.prepareClearScroll().addScrollId(scrollId).get();
+		} catch (ElasticsearchException e) {
+			// Context is freed anyway when its keep alive expires
+			logger.debug("Can't clear scroll {}", scrollId, e);
+		}
+	}
+
+	/**
+	 * Aggregates rows of the query by Elasticsearch aggregations.
+	 * 
+	 * <P>Each group by column is a nested terms aggregation of at most
+	 * {@code maxGroups} terms and a missing aggregation of rows with null
+	 * value of the column, aggregates are metrics of the innermost ones. Terms
+	 * beyond the limit are detected rather than truncated.
+	 * 
+	 * <P>Values are converted to the types of their columns, so the result is
+	 * the same as of {@link TiesAggregator}. Metrics of the index are double
+	 * precision, so only columns with values exact in it are supported and
+	 * sums of integral values are exact only for a limited count of them.
+	 * 
+	 * @return rows of the groups or null if the index can't aggregate the query
+	 *         exactly and its rows should be aggregated instead
+	 */
+	public List<Map<String, Object>> aggregate(TiesTableSchema tableSchema, TiesStorageQuery query, int maxGroups)
+			throws TiesStorageException {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		List<String> groupBy = query.getGroupBy();
+		List<TiesStorageAggregate> aggregates = query.getAggregates();
+		List<AbstractType<?>> groupTypes = new ArrayList<>(groupBy.size());
+		for (String name : groupBy) {
+			AbstractType<?> type = getType(tableSchema, name);
+			if (!isGroupSupported(type)) {
+				return null;
+			}
+			groupTypes.add(type);
+		}
+		List<AbstractType<?>> metricTypes = new ArrayList<>(aggregates.size());
+		for (TiesStorageAggregate aggregate : aggregates) {
+			AbstractType<?> type = null == aggregate.getColumn() ? null : getType(tableSchema, aggregate.getColumn());
+			if (!isMetricSupported(aggregate, type)) {
+				return null;
+			}
+			metricTypes.add(type);
+		}
+		SearchRequestBuilder request = getClient().prepareSearch(tableSchema.getKeyspace())
+				.setTypes(tableSchema.getName()).setQuery(toQuery(tableSchema, query)).setSize(0);
+		for (AbstractAggregationBuilder aggregation : toAggregations(groupBy, aggregates, 0, maxGroups)) {
+			request.addAggregation(aggregation);
+		}
+		SearchResponse response = execute(tableSchema, request);
+		List<Map<String, Object>> rows = new ArrayList<>();
+		if (groupBy.isEmpty()) {
+			Map<String, Object> row = toAggregateRow(aggregates, metricTypes, new LinkedHashMap<String, Object>(),
+					response.getHits().getTotalHits(), response.getAggregations());
+			if (null == row) {
+				return null;
+			}
+			rows.add(row);
+		} else if (!addGroupRows(groupBy, groupTypes, aggregates, metricTypes, 0, new LinkedHashMap<String, Object>(),
+				response.getAggregations(), rows, maxGroups)) {
+			return null;
+		}
+		return rows;
+	}
+
+	private static List<AbstractAggregationBuilder> toAggregations(List<String> groupBy,
+			List<TiesStorageAggregate> aggregates, int level, int maxGroups) {
+		List<AbstractAggregationBuilder> aggregations = new ArrayList<>();
+		if (level == groupBy.size()) {
+			for (int i = 0; i < aggregates.size(); i++) {
+				aggregations.addAll(toMetrics(i, aggregates.get(i)));
+			}
+			return aggregations;
+		}
+		// One more term than allowed reveals the excess
+		TermsBuilder terms = AggregationBuilders.terms(GROUP_PREFIX + level).field(groupBy.get(level))
+				.size(maxGroups < Integer.MAX_VALUE ? maxGroups + 1 : maxGroups);
+		MissingBuilder missing = AggregationBuilders.missing(MISSING_PREFIX + level).field(groupBy.get(level));
+		for (AbstractAggregationBuilder child : toAggregations(groupBy, aggregates, level + 1, maxGroups)) {
+			terms.subAggregation(child);
+		}
+		for (AbstractAggregationBuilder child : toAggregations(groupBy, aggregates, level + 1, maxGroups)) {
+			missing.subAggregation(child);
+		}
+		aggregations.add(terms);
+		aggregations.add(missing);
+		return aggregations;
+	}
+
+	private static boolean addGroupRows(List<String> groupBy, List<AbstractType<?>> groupTypes,
+			List<TiesStorageAggregate> aggregates, List<AbstractType<?>> metricTypes, int level,
+			Map<String, Object> group, Aggregations aggregations, List<Map<String, Object>> rows, int maxGroups)
+			throws TiesStorageException {
+		Terms terms = aggregations.get(GROUP_PREFIX + level);
+		if (terms.getBuckets().size() > maxGroups || terms.getSumOfOtherDocCounts() > 0) {
+			throw new TiesStorageException("Aggregation exceeds the limit of " + maxGroups + " groups");
+		}
+		int size = terms.getBuckets().size() + 1;
+		List<Object> keys = new ArrayList<>(size);
+		List<Long> counts = new ArrayList<>(size);
+		List<Aggregations> children = new ArrayList<>(size);
+		for (Terms.Bucket bucket : terms.getBuckets()) {
+			keys.add(toColumnValue(groupTypes.get(level), bucket.getKey()));
+			counts.add(bucket.getDocCount());
+			children.add(bucket.getAggregations());
+		}
+		Missing missing = aggregations.get(MISSING_PREFIX + level);
+		if (missing.getDocCount() > 0) {
+			keys.add(null);
+			counts.add(missing.getDocCount());
+			children.add(missing.getAggregations());
+		}
+		for (int i = 0; i < keys.size(); i++) {
+			Map<String, Object> row = new LinkedHashMap<>(group);
+			row.put(groupBy.get(level), keys.get(i));
+			if (level + 1 < groupBy.size()) {
+				if (!addGroupRows(groupBy, groupTypes, aggregates, metricTypes, level + 1, row,
+						children.get(i), rows, maxGroups)) {
+					return false;
+				}
+			} else {
+				if (rows.size() >= maxGroups) {
+					throw new TiesStorageException("Aggregation exceeds the limit of " + maxGroups + " groups");
+				}
+				row = toAggregateRow(aggregates, metricTypes, row, counts.get(i), children.get(i));
+				if (null == row) {
+					return false;
+				}
+				rows.add(row);
+			}
+		}
+		return true;
+	}
+
+	private static List<AbstractAggregationBuilder> toMetrics(int index, TiesStorageAggregate aggregate) {
+		String name = METRIC_PREFIX + index;
+		switch (aggregate.getFunction()) {
+		case COUNT:
+			// Count of rows is the count of documents
+			return null == aggregate.getColumn() ? Collections.<AbstractAggregationBuilder>emptyList()
+					: Collections.<AbstractAggregationBuilder>singletonList(
+							AggregationBuilders.count(name).field(aggregate.getColumn()));
+		case SUM:
+			// Sum of no values is null and exactness depends on their count
+			return Arrays.<AbstractAggregationBuilder>asList(AggregationBuilders.sum(name).field(aggregate.getColumn()),
+					AggregationBuilders.count(COUNT_PREFIX + index).field(aggregate.getColumn()));
+		case MIN:
+			return Collections.<AbstractAggregationBuilder>singletonList(
+					AggregationBuilders.min(name).field(aggregate.getColumn()));
+		case MAX:
+			return Collections.<AbstractAggregationBuilder>singletonList(
+					AggregationBuilders.max(name).field(aggregate.getColumn()));
+		default:
+			throw new IllegalArgumentException("Unsupported aggregate function " + aggregate.getFunction());
+		}
+	}
+
+	private static Map<String, Object> toAggregateRow(List<TiesStorageAggregate> aggregates,
+			List<AbstractType<?>> metricTypes, Map<String, Object> row, long count, Aggregations aggregations) {
+		for (int i = 0; i < aggregates.size(); i++) {
+			TiesStorageAggregate aggregate = aggregates.get(i);
+			AbstractType<?> type = metricTypes.get(i);
+			String name = METRIC_PREFIX + i;
+			Object value;
+			switch (aggregate.getFunction()) {
+			case COUNT:
+				value = null == aggregate.getColumn() ? count : aggregations.<ValueCount>get(name).getValue();
+				break;
+			case SUM:
+				long values = aggregations.<ValueCount>get(COUNT_PREFIX + i).getValue();
+				double sum = aggregations.<Sum>get(name).getValue();
+				if (0 == values) {
+					value = null;
+				} else if (FloatType.instance == type || DoubleType.instance == type) {
+					value = sum;
+				} else if (values <= MAX_EXACT_SUM >> getIntegralBits(type)) {
+					value = (long) sum;
+				} else {
+					return null;
+				}
+				break;
+			case MIN:
+				value = toExtremum(type, aggregations.<Min>get(name).getValue());
+				break;
+			case MAX:
+				value = toExtremum(type, aggregations.<Max>get(name).getValue());
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported aggregate function " + aggregate.getFunction());
+			}
+			row.put(aggregate.getName(), value);
+		}
+		return row;
+	}
+
+	private static Object toExtremum(AbstractType<?> type, double value) {
+		// Extremum of no values is infinite
+		return Double.isInfinite(value) ? null : toColumnValue(type, value);
+	}
+
+	private static AbstractType<?> getType(TiesTableSchema tableSchema, String name) throws TiesStorageException {
+		AbstractType<?> type = TiesStorageImpl.getColumn(tableSchema, name).type;
+		return type instanceof ReversedType ? ((ReversedType<?>) type).baseType : type;
+	}
+
+	private static boolean isGroupSupported(AbstractType<?> type) {
+		return isNumeric(type) || LongType.instance == type || TimestampType.instance == type
+				|| UTF8Type.instance == type || AsciiType.instance == type || UUIDType.instance == type
+				|| TimeUUIDType.instance == type;
+	}
+
+	private static boolean isMetricSupported(TiesStorageAggregate aggregate, AbstractType<?> type) {
+		switch (aggregate.getFunction()) {
+		case COUNT:
+			return true;
+		case SUM:
+			return isNumeric(type);
+		case MIN:
+		case MAX:
+			return isNumeric(type) || TimestampType.instance == type;
+		default:
+			return false;
+		}
+	}
+
+	/*
+	 * Values of these types are exact in double precision
+	 */
+	private static boolean isNumeric(AbstractType<?> type) {
+		return Int32Type.instance == type || ShortType.instance == type || ByteType.instance == type
+				|| FloatType.instance == type || DoubleType.instance == type;
+	}
+
+	private static int getIntegralBits(AbstractType<?> type) {
+		return ByteType.instance == type ? Byte.SIZE - 1
+				: ShortType.instance == type ? Short.SIZE - 1 : Integer.SIZE - 1;
+	}
+
+	static Object toColumnValue(AbstractType<?> type, Object value) {
+		if (!(value instanceof Number)) {
+			return value;
+		}
+		Number number = (Number) value;
+		if (Int32Type.instance == type) {
+			return number.intValue();
+		} else if (ShortType.instance == type) {
+			return number.shortValue();
+		} else if (ByteType.instance == type) {
+			return number.byteValue();
+		} else if (LongType.instance == type) {
+			return number.longValue();
+		} else if (FloatType.instance == type) {
+			return number.floatValue();
+		} else if (DoubleType.instance == type) {
+			return number.doubleValue();
+		} else if (TimestampType.instance == type) {
+			return new Date(number.longValue());
+		}
+		return value;
+	}
+
+	private static SearchResponse execute(TiesTableSchema tableSchema,
+			ActionRequestBuilder<?, SearchResponse, ?> request) throws TiesStorageException {
+		try {
+			return request.get();
+		} catch (IndexNotFoundException e) {
+			throw new TiesStorageException(
+					"Table " + tableSchema.getKeyspace() + "." + tableSchema.getName() + " is not indexed", e);
+		} catch (ElasticsearchException e) {
+			throw new TiesStorageException("Search failed: " + e.getMessage(), e);
+		}
+	}
+
+	static BoolQueryBuilder toQuery(TiesTableSchema tableSchema, TiesStorageQuery query)
+			throws TiesStorageException {
+		BoolQueryBuilder bool = QueryBuilders.boolQuery();
+		for (Map.Entry<String, Object> entry : query.getWhere().entrySet()) {
+			TiesStorageImpl.getColumn(tableSchema, entry.getKey());
+			if (null == entry.getValue()) {
+				throw new TiesStorageException("Value of column " + entry.getKey() + " should not be null");
+			}
+			bool.filter(QueryBuilders.termQuery(entry.getKey(), entry.getValue()));
+		}
+		for (TiesStoragePredicate predicate : query.getPredicates()) {
+			String name = predicate.getColumn();
+			TiesStorageImpl.getColumn(tableSchema, name);
+			switch (predicate.getKind()) {
+			case TERM:
+				if (null == predicate.getValue()) {
+					throw new TiesStorageException("Term of column " + name + " should not be null");
+				}
+				bool.filter(QueryBuilders.termQuery(name, predicate.getValue()));
+				break;
+			case PREFIX:
+				bool.filter(QueryBuilders.prefixQuery(name, (String) predicate.getValue()));
+				break;
+			case MATCH:
+				bool.must(QueryBuilders.matchQuery(name, predicate.getValue()));
+				break;
+			case RANGE:
+				bool.filter(QueryBuilders.rangeQuery(name) //
+						.from(predicate.getLower()).includeLower(predicate.isIncludeLower())
+						.to(predicate.getUpper()).includeUpper(predicate.isIncludeUpper()));
+				break;
+			default:
+				throw new TiesStorageException("Unsupported predicate " + predicate);
+			}
+		}
+		return bool;
+	}
+
+	static Client getClient() throws TiesStorageException {
+		ElassandraDaemon daemon = ElassandraDaemon.instance;
+		Node node = null == daemon ? null : daemon.node();
+		if (null == node) {
+			throw new TiesStorageException("Search is not available");
+		}
+		return node.client();
+	}
+
+	private static String decodePagingState(byte[] pagingState) throws TiesStorageException {
+		if (0 == pagingState.length) {
+			throw new TiesStorageException("Illegal paging state");
+		}
+		return new String(pagingState, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import network.tiesdb.storage.api.TiesStorageProof.Step;
+
+/**
+ * Binary hash tree over the buckets of a table token ring.
+ * 
+ * <P>Leaves are the root hashes of the buckets, the tree is complete and
+ * kept as an array in heap order, so a change of a bucket rehashes only the
+ * {@code depth} nodes on its path to the root. Inner node is the SHA-256 hash
+ * of byte 1 followed by the hashes of its children, an empty bucket is 32
+ * zero bytes.
+ * 
+ * <P>Hashes of the rows of a bucket are combined into its root hash the same
+ * way, an odd node of a level is moved to the next level as it is.
+ * 
+ * <P>A bucket is dirty if its leaf is unknown or its rows were changed after
+ * the leaf was hashed. The leaf of a dirty bucket is kept until the bucket is
+ * rehashed, a change stamp of the bucket tells whether it was changed again
+ * while its rows were being hashed.
+ */
+class TiesMerkleTree {
+
+	static final int HASH_LENGTH = 32;
+
+	static final byte[] EMPTY = new byte[HASH_LENGTH];
+
+	private static final byte NODE_PREFIX = 1;
+
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	});
+
+	private final int depth;
+
+	private final byte[][] nodes;
+
+	private final int[] stamps;
+
+	private final BitSet dirty;
+
+	/**
+	 * Creates the tree, buckets of unknown leaves are dirty.
+	 */
+	TiesMerkleTree(int depth, byte[][] leaves) {
+		if (depth < 0 || depth > 30) {
+			throw new IllegalArgumentException("The depth " + depth + " should be in range 0..30");
+		}
+		if (leaves.length != 1 << depth) {
+			throw new IllegalArgumentException("The leaves count " + leaves.length + " should be " + (1 << depth));
+		}
+		this.depth = depth;
+		this.nodes = new byte[2 << depth][];
+		this.stamps = new int[leaves.length];
+		this.dirty = new BitSet(leaves.length);
+		for (int i = 0; i < leaves.length; i++) {
+			nodes[leaves.length + i] = null == leaves[i] ? EMPTY : leaves[i];
+			dirty.set(i, null == leaves[i]);
+		}
+		for (int i = leaves.length - 1; i > 0; i--) {
+			nodes[i] = hash(nodes[2 * i], nodes[2 * i + 1]);
+		}
+	}
+
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the bucket of the token, buckets split the ring into equal
+	 * ranges in token order.
+	 */
+	int getBucket(long token) {
+		return 0 == depth ? 0 : (int) ((token - Long.MIN_VALUE) >>> (Long.SIZE - depth));
+	}
+
+	long getFirstToken(int bucket) {
+		return 0 == depth ? Long.MIN_VALUE : Long.MIN_VALUE + ((long) bucket << (Long.SIZE - depth));
+	}
+
+	long getLastToken(int bucket) {
+		return 0 == depth ? Long.MAX_VALUE : getFirstToken(bucket) + (1L << (Long.SIZE - depth)) - 1;
+	}
+
+	synchronized byte[] getLeaf(int bucket) {
+		return nodes[(1 << depth) + bucket];
+	}
+
+	/**
+	 * Returns the leaves of the buckets, null for the dirty ones.
+	 */
+	synchronized byte[][] getLeaves() {
+		byte[][] leaves = Arrays.copyOfRange(nodes, 1 << depth, 2 << depth);
+		for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			leaves[i] = null;
+		}
+		return leaves;
+	}
+
+	synchronized void invalidate(int bucket) {
+		stamps[bucket]++;
+		dirty.set(bucket);
+	}
+
+	synchronized int getStamp(int bucket) {
+		return stamps[bucket];
+	}
+
+	synchronized List<Integer> getDirtyBuckets() {
+		List<Integer> buckets = new ArrayList<>(dirty.cardinality());
+		for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			buckets.add(i);
+		}
+		return buckets;
+	}
+
+	/**
+	 * Sets the leaf of the bucket hashed since the given change stamp, the
+	 * bucket stays dirty if it was changed after.
+	 */
+	synchronized void setLeaf(int bucket, byte[] hash, int stamp) {
+		if (stamps[bucket] == stamp) {
+			dirty.clear(bucket);
+		}
+		int i = (1 << depth) + bucket;
+		nodes[i] = hash;
+		for (i >>>= 1; i > 0; i >>>= 1) {
+			nodes[i] = hash(nodes[2 * i], nodes[2 * i + 1]);
+		}
+	}
+
+	synchronized byte[] getRoot() {
+		return nodes[1];
+	}
+
+	synchronized List<byte[]> getHashes(int level) {
+		if (level < 0 || level > depth) {
+			throw new IllegalArgumentException("The level " + level + " should be in range 0.." + depth);
+		}
+		return new ArrayList<>(Arrays.asList(nodes).subList(1 << level, 2 << level));
+	}
+
+	/**
+	 * Returns hashes of the nodes of the level with the given indexes.
+	 */
+	synchronized List<byte[]> getHashes(int level, List<Integer> indexes) {
+		if (level < 0 || level > depth) {
+			throw new IllegalArgumentException("The level " + level + " should be in range 0.." + depth);
+		}
+		List<byte[]> hashes = new ArrayList<>(indexes.size());
+		for (int index : indexes) {
+			if (index < 0 || index >= 1 << level) {
+				throw new IllegalArgumentException(
+						"The index " + index + " should be in range 0.." + ((1 << level) - 1));
+			}
+			hashes.add(nodes[(1 << level) + index]);
+		}
+		return hashes;
+	}
+
+	/**
+	 * Returns the path from the bucket to the root.
+	 */
+	synchronized List<Step> getPath(int bucket) {
+		List<Step> path = new ArrayList<>(depth);
+		for (int i = (1 << depth) + bucket; i > 1; i >>>= 1) {
+			path.add(new Step((i & 1) == 1, nodes[i ^ 1]));
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the root hash of the bucket rows.
+	 */
+	static byte[] getRoot(List<byte[]> hashes) {
+		if (hashes.isEmpty()) {
+			return EMPTY;
+		}
+		List<byte[]> level = hashes;
+		while (level.size() > 1) {
+			level = getNextLevel(level);
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Returns the path from the row with the given index to the root of the
+	 * bucket rows.
+	 */
+	static List<Step> getPath(List<byte[]> hashes, int index) {
+		List<Step> path = new ArrayList<>();
+		List<byte[]> level = hashes;
+		for (; level.size() > 1; index >>>= 1) {
+			if ((index & 1) == 1) {
+				path.add(new Step(true, level.get(index - 1)));
+			} else if (index + 1 < level.size()) {
+				path.add(new Step(false, level.get(index + 1)));
+			}
+			level = getNextLevel(level);
+		}
+		return path;
+	}
+
+	private static List<byte[]> getNextLevel(List<byte[]> level) {
+		List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+		for (int i = 0; i < level.size(); i += 2) {
+			next.add(i + 1 < level.size() ? hash(level.get(i), level.get(i + 1)) : level.get(i));
+		}
+		return next;
+	}
+
+	static byte[] hash(byte[] left, byte[] right) {
+		MessageDigest digest = DIGEST.get();
+		digest.update(NODE_PREFIX);
+		digest.update(left);
+		digest.update(right);
+		return digest.digest();
+	}
+
+	static MessageDigest getDigest() {
+		return DIGEST.get();
+	}
+
+}
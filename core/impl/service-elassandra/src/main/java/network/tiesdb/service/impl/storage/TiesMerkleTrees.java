@@ -0,0 +1,569 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageDigest;
+import network.tiesdb.storage.api.TiesStorageEntry;
+import network.tiesdb.storage.api.TiesStorageProof;
+import network.tiesdb.storage.api.TiesStorageProof.Step;
+
+/**
+ * Incrementally updated hash trees of the tables.
+ * 
+ * <P>Each table has a {@link TiesMerkleTree} over {@code 2^depth} buckets of
+ * its token ring. A row is identified by the SHA-256 hash of its primary key
+ * values and hashed as SHA-256 of byte 0, the id and the names and values of
+ * its non-null columns in name order, each prefixed by its length. Null
+ * columns are not hashed, so a row hashes the same no matter whether its
+ * columns are null or missing.
+ * 
+ * <P>Hashes are derived from the rows of this node's copy of the table, as
+ * the tree proves the contents of the node itself, and are kept in memory
+ * only. A write marks the buckets of its partitions dirty, so its cost
+ * depends neither on the bucket size nor on the columns written, and a dirty
+ * bucket is rehashed by a local scan of its token range when the tree is
+ * read. Rows of a bucket are scanned whenever its entries are read, so the
+ * leaf of a bucket changed bypassing TiesDB, e.g. by repair, is corrected
+ * as soon as a sync finds it differs.
+ * 
+ * <P>Leaves are saved to the {@value #DIRECTORY} directory of the data
+ * directory on shutdown and the file of a tree is removed when the tree is
+ * loaded. So after an unclean shutdown or a change of depth all of the
+ * buckets are dirty and the tree is rebuilt from the table.
+ */
+public class TiesMerkleTrees {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesMerkleTrees.class);
+
+	public static final String DIRECTORY = "tiesdb_merkle";
+
+	public static final int DEFAULT_DEPTH = 12;
+
+	public static final int MAX_DEPTH = 20;
+
+	private static final String FILE_SUFFIX = ".tree";
+
+	private static final int FILE_VERSION = 1;
+
+	private static final int PAGE_SIZE = 10000;
+
+	private static final byte ROW_PREFIX = 0;
+
+	/**
+	 * Columns of a row bound to their values.
+	 */
+	public static final class Row {
+
+		private final DecoratedKey key;
+		private final List<ColumnDefinition> columns;
+		private final List<ByteBuffer> values;
+
+		public Row(DecoratedKey key, List<ColumnDefinition> columns, List<ByteBuffer> values) {
+			this.key = key;
+			this.columns = columns;
+			this.values = values;
+		}
+
+	}
+
+	private static final class Entry {
+
+		private final ByteBuffer id;
+		private final List<ByteBuffer> key;
+		private final byte[] hash;
+
+		private Entry(ByteBuffer id, List<ByteBuffer> key, byte[] hash) {
+			this.id = id;
+			this.key = key;
+			this.hash = hash;
+		}
+
+	}
+
+	private final int depth;
+
+	private final ConcurrentMap<String, TiesMerkleTree> trees = new ConcurrentHashMap<>();
+
+	public TiesMerkleTrees() {
+		this(DEFAULT_DEPTH);
+	}
+
+	public TiesMerkleTrees(int depth) {
+		if (depth < 0 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("The depth " + depth + " should be in range 0.." + MAX_DEPTH);
+		}
+		this.depth = depth;
+	}
+
+	/**
+	 * Marks the buckets of the written partitions dirty.
+	 */
+	public void invalidate(TiesTableSchema tableSchema, Collection<DecoratedKey> keys) {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		if (null == keys) {
+			throw new NullPointerException("The keys should not be null");
+		}
+		TiesMerkleTree tree = getTree(tableSchema.getKeyspace(), tableSchema.getName());
+		for (DecoratedKey key : keys) {
+			tree.invalidate(tree.getBucket(getToken(key)));
+		}
+	}
+
+	/**
+	 * Returns the digest of the table with inclusion proofs of the rows with the
+	 * given primary keys.
+	 * 
+	 * @param nodes
+	 *            indexes of the nodes of the level or {@code null} for all of
+	 *            them
+	 * @param keys
+	 *            primary keys of the rows as requested
+	 * @param rows
+	 *            primary key columns of the rows bound to their values
+	 */
+	public TiesStorageDigest digest(TiesTableSchema tableSchema, int level, List<Integer> nodes,
+			List<Map<String, Object>> keys, List<Row> rows) throws TiesStorageException {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		if (null == keys) {
+			throw new NullPointerException("The keys should not be null");
+		}
+		if (null == rows) {
+			throw new NullPointerException("The rows should not be null");
+		}
+		if (keys.size() != rows.size()) {
+			throw new IllegalArgumentException("The rows count " + rows.size() + " should be " + keys.size());
+		}
+		TiesMerkleTree tree = getTree(tableSchema.getKeyspace(), tableSchema.getName());
+		if (level < 0 || level > tree.getDepth()) {
+			throw new TiesStorageException("Level should be in range 0.." + tree.getDepth());
+		}
+		if (null != nodes) {
+			for (Integer node : nodes) {
+				if (null == node || node < 0 || node >= 1 << level) {
+					throw new TiesStorageException(
+							"Node " + node + " should be in range 0.." + ((1 << level) - 1));
+				}
+			}
+		}
+		List<Integer> dirty = tree.getDirtyBuckets();
+		if (!dirty.isEmpty()) {
+			logger.debug("Rehashing {} buckets of {}.{}", dirty.size(), tableSchema.getKeyspace(),
+					tableSchema.getName());
+		}
+		for (int bucket : dirty) {
+			rehash(tableSchema, tree, bucket);
+		}
+		Map<Integer, List<Entry>> buckets = new HashMap<>();
+		for (Row row : rows) {
+			int bucket = tree.getBucket(getToken(row.key));
+			if (!buckets.containsKey(bucket)) {
+				buckets.put(bucket, rehash(tableSchema, tree, bucket));
+			}
+		}
+		// Proofs are taken from the same state of the tree as its hashes
+		synchronized (tree) {
+			List<TiesStorageProof> proofs = new ArrayList<>(keys.size());
+			for (int i = 0; i < keys.size(); i++) {
+				Row row = rows.get(i);
+				int bucket = tree.getBucket(getToken(row.key));
+				ByteBuffer id = ByteBuffer.wrap(getDigest(getKey(tableSchema, row.columns, row.values)));
+				List<Entry> entries = buckets.get(bucket);
+				List<byte[]> hashes = getHashes(entries);
+				int index = 0;
+				while (index < entries.size() && !entries.get(index).id.equals(id)) {
+					index++;
+				}
+				if (index == entries.size()) {
+					proofs.add(TiesStorageProof.notFound(keys.get(i), bucket));
+					continue;
+				}
+				List<Step> path = TiesMerkleTree.getPath(hashes, index);
+				path.addAll(tree.getPath(bucket));
+				proofs.add(TiesStorageProof.found(keys.get(i), bucket, hashes.get(index), path));
+			}
+			return new TiesStorageDigest(tree.getDepth(), level, tree.getRoot(),
+					null == nodes ? tree.getHashes(level) : tree.getHashes(level, nodes), proofs);
+		}
+	}
+
+	/**
+	 * Returns the entries of the rows of the bucket in the order of their ids.
+	 */
+	public List<TiesStorageEntry> entries(TiesTableSchema tableSchema, int bucket) throws TiesStorageException {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		TiesMerkleTree tree = getTree(tableSchema.getKeyspace(), tableSchema.getName());
+		if (bucket < 0 || bucket >= 1 << tree.getDepth()) {
+			throw new TiesStorageException("Bucket should be in range 0.." + ((1 << tree.getDepth()) - 1));
+		}
+		List<ColumnDefinition> keyColumns = getKeyColumns(tableSchema);
+		List<TiesStorageEntry> entries = new ArrayList<>();
+		for (Entry entry : rehash(tableSchema, tree, bucket)) {
+			Map<String, Object> values = new LinkedHashMap<>();
+			for (int i = 0; i < keyColumns.size(); i++) {
+				ColumnDefinition column = keyColumns.get(i);
+				values.put(column.name.toString(), TiesStorageImpl.toValue(column.type, entry.key.get(i)));
+			}
+			entries.add(new TiesStorageEntry(values, ByteBufferUtil.getArray(getKey(entry.key)),
+					ByteBufferUtil.getArray(entry.id), entry.hash));
+		}
+		return entries;
+	}
+
+	/**
+	 * Forgets the tree of the dropped table and removes its saved leaves.
+	 */
+	public void drop(String keyspace, String table) {
+		String name = getName(keyspace, table);
+		trees.remove(name);
+		delete(getFile(name));
+	}
+
+	/**
+	 * Forgets the trees of the tables of the dropped keyspace and removes their
+	 * saved leaves.
+	 */
+	public void drop(String keyspace) {
+		String prefix = getName(keyspace, "");
+		trees.keySet().removeIf(name -> name.startsWith(prefix));
+		File[] files = getDirectory().listFiles((dir, name) -> name.startsWith(prefix));
+		if (null != files) {
+			for (File file : files) {
+				delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Saves the leaves of the trees, so they are not rebuilt on the next start.
+	 */
+	public void shutdown() {
+		synchronized (trees) {
+			for (Map.Entry<String, TiesMerkleTree> tree : trees.entrySet()) {
+				save(tree.getKey(), tree.getValue());
+			}
+			trees.clear();
+		}
+	}
+
+	private TiesMerkleTree getTree(String keyspace, String table) {
+		String name = getName(keyspace, table);
+		TiesMerkleTree tree = trees.get(name);
+		if (null != tree) {
+			return tree;
+		}
+		synchronized (trees) {
+			tree = trees.get(name);
+			if (null == tree) {
+				tree = load(name);
+				trees.put(name, tree);
+			}
+			return tree;
+		}
+	}
+
+	private TiesMerkleTree load(String name) {
+		File file = getFile(name);
+		byte[][] leaves = null;
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				if (FILE_VERSION == in.readInt() && depth == in.readInt()) {
+					leaves = new byte[1 << depth][];
+					for (int i = 0; i < leaves.length; i++) {
+						if (in.readBoolean()) {
+							leaves[i] = new byte[TiesMerkleTree.HASH_LENGTH];
+							in.readFully(leaves[i]);
+						}
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Can't load hash tree of {}", name, e);
+				leaves = null;
+			}
+			// Saved leaves are valid only until the table is written again
+			if (!delete(file)) {
+				leaves = null;
+			}
+		}
+		if (null == leaves) {
+			logger.debug("Rebuilding hash tree of {} with depth {}", name, depth);
+			return new TiesMerkleTree(depth, new byte[1 << depth][]);
+		}
+		logger.debug("Loaded hash tree of {} with depth {}", name, depth);
+		return new TiesMerkleTree(depth, leaves);
+	}
+
+	private void save(String name, TiesMerkleTree tree) {
+		File file = getFile(name);
+		File temp = new File(file.getPath() + ".tmp");
+		byte[][] leaves = tree.getLeaves();
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(FILE_VERSION);
+				out.writeInt(tree.getDepth());
+				for (byte[] leaf : leaves) {
+					out.writeBoolean(null != leaf);
+					if (null != leaf) {
+						out.write(leaf);
+					}
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.warn("Can't save hash tree of {}", name, e);
+			delete(temp);
+		}
+	}
+
+	private static boolean delete(File file) {
+		if (!file.delete() && file.exists()) {
+			logger.warn("Can't delete {}", file);
+			return false;
+		}
+		return true;
+	}
+
+	protected File getDirectory() {
+		return new File(DatabaseDescriptor.getAllDataFileLocations()[0], DIRECTORY);
+	}
+
+	private File getFile(String name) {
+		return new File(getDirectory(), name + FILE_SUFFIX);
+	}
+
+	/*
+	 * Leaf is set from the rows read after the change stamp, so a bucket
+	 * written during the scan stays dirty.
+	 */
+	private static List<Entry> rehash(TiesTableSchema tableSchema, TiesMerkleTree tree, int bucket)
+			throws TiesStorageException {
+		int stamp = tree.getStamp(bucket);
+		List<Entry> entries = readBucket(tableSchema, tree, bucket);
+		tree.setLeaf(bucket, TiesMerkleTree.getRoot(getHashes(entries)), stamp);
+		return entries;
+	}
+
+	/*
+	 * Rows of a bucket are read from its token range, or filtered from all of
+	 * the rows if the partitioner has no long tokens. Entries are sorted by
+	 * their ids, which is the order of the bucket leaves.
+	 */
+	private static List<Entry> readBucket(TiesTableSchema tableSchema, TiesMerkleTree tree, int bucket)
+			throws TiesStorageException {
+		List<ColumnDefinition> keyColumns = getKeyColumns(tableSchema);
+		List<ColumnDefinition> columns = new ArrayList<>(tableSchema.getColumns().values());
+		boolean ranged = tableSchema.getMetadata().partitioner instanceof Murmur3Partitioner;
+		StringBuilder query = new StringBuilder("SELECT * FROM ")
+				.append(TiesStorageImpl.quote(tableSchema.getKeyspace())).append('.')
+				.append(TiesStorageImpl.quote(tableSchema.getName()));
+		Object[] values = {};
+		if (ranged) {
+			StringBuilder token = new StringBuilder("token(");
+			for (ColumnDefinition column : tableSchema.getPartitionKeyColumns()) {
+				token.append(token.length() > 6 ? ", " : "").append(TiesStorageImpl.quote(column.name.toString()));
+			}
+			token.append(')');
+			query.append(" WHERE ").append(token).append(" >= ? AND ").append(token).append(" <= ?");
+			values = new Object[] { tree.getFirstToken(bucket), tree.getLastToken(bucket) };
+		}
+		List<Entry> entries = new ArrayList<>();
+		rows: for (UntypedResultSet.Row row : executeWithPaging(query.toString(), values)) {
+			List<ByteBuffer> rowValues = new ArrayList<>(columns.size());
+			for (ColumnDefinition column : columns) {
+				String name = column.name.toString();
+				rowValues.add(row.has(name) ? row.getBytes(name) : null);
+			}
+			List<ByteBuffer> key = new ArrayList<>(keyColumns.size());
+			for (ColumnDefinition column : keyColumns) {
+				ByteBuffer value = rowValues.get(columns.indexOf(column));
+				if (null == value) {
+					// Partition of static columns only has no rows
+					continue rows;
+				}
+				key.add(value);
+			}
+			if (!ranged && bucket != tree.getBucket(getToken(tableSchema.getMetadata()
+					.decorateKey(TiesStorageImpl.getPartitionKey(tableSchema, columns, rowValues))))) {
+				continue;
+			}
+			byte[] id = getDigest(getKey(key));
+			entries.add(new Entry(ByteBuffer.wrap(id), key, getRowHash(id, columns, rowValues)));
+		}
+		entries.sort((a, b) -> ByteBufferUtil.compareUnsigned(a.id, b.id));
+		return entries;
+	}
+
+	private static List<byte[]> getHashes(List<Entry> entries) {
+		List<byte[]> hashes = new ArrayList<>(entries.size());
+		for (Entry entry : entries) {
+			hashes.add(entry.hash);
+		}
+		return hashes;
+	}
+
+	private static List<ColumnDefinition> getKeyColumns(TiesTableSchema tableSchema) {
+		List<ColumnDefinition> keyColumns = new ArrayList<>(tableSchema.getPartitionKeyColumns());
+		keyColumns.addAll(tableSchema.getClusteringColumns());
+		return keyColumns;
+	}
+
+	private static UntypedResultSet executeWithPaging(String query, Object... values) throws TiesStorageException {
+		try {
+			return QueryProcessor.executeInternalWithPaging(query, PAGE_SIZE, values);
+		} catch (RuntimeException e) {
+			throw new TiesStorageException("Hash tree read failed: " + e.getMessage(), e);
+		}
+	}
+
+	private static String getName(String keyspace, String table) {
+		return keyspace + '.' + table;
+	}
+
+	private static long getToken(DecoratedKey key) {
+		Object token = key.getToken().getTokenValue();
+		if (token instanceof Long) {
+			return (Long) token;
+		}
+		// Other partitioners are bucketed by the hash of the key
+		return ByteBuffer.wrap(getDigest(key.getKey())).getLong();
+	}
+
+	/*
+	 * Primary key values are serialized as length prefixed values in primary
+	 * key order.
+	 */
+	private static ByteBuffer getKey(TiesTableSchema tableSchema, List<ColumnDefinition> columns,
+			List<ByteBuffer> values) throws TiesStorageException {
+		List<ByteBuffer> key = new ArrayList<>();
+		for (List<ColumnDefinition> keyColumns : Arrays.asList(tableSchema.getPartitionKeyColumns(),
+				tableSchema.getClusteringColumns())) {
+			for (ColumnDefinition column : keyColumns) {
+				int index = columns.indexOf(column);
+				if (index < 0 || null == values.get(index)) {
+					throw new TiesStorageException("Missing primary key column " + column.name);
+				}
+				key.add(values.get(index));
+			}
+		}
+		return getKey(key);
+	}
+
+	private static ByteBuffer getKey(List<ByteBuffer> values) {
+		int length = 0;
+		for (ByteBuffer value : values) {
+			length += Integer.BYTES + value.remaining();
+		}
+		ByteBuffer key = ByteBuffer.allocate(length);
+		for (ByteBuffer value : values) {
+			key.putInt(value.remaining()).put(value.duplicate());
+		}
+		key.flip();
+		return key;
+	}
+
+	/**
+	 * Returns primary key values of the serialized key.
+	 */
+	static List<ByteBuffer> getKeyValues(ByteBuffer key, int count) throws TiesStorageException {
+		ByteBuffer buf = key.duplicate();
+		List<ByteBuffer> values = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int length = buf.remaining() < Integer.BYTES ? -1 : buf.getInt();
+			if (length < 0 || length > buf.remaining()) {
+				throw new TiesStorageException("Illegal key");
+			}
+			ByteBuffer value = buf.slice();
+			value.limit(length);
+			buf.position(buf.position() + length);
+			values.add(value);
+		}
+		if (buf.hasRemaining()) {
+			throw new TiesStorageException("Illegal key");
+		}
+		return values;
+	}
+
+	private static byte[] getRowHash(byte[] id, List<ColumnDefinition> columns, List<ByteBuffer> values) {
+		Map<String, ByteBuffer> sorted = new TreeMap<>();
+		for (int i = 0; i < columns.size(); i++) {
+			if (null != values.get(i)) {
+				sorted.put(columns.get(i).name.toString(), values.get(i));
+			}
+		}
+		MessageDigest digest = TiesMerkleTree.getDigest();
+		digest.update(ROW_PREFIX);
+		digest.update(id);
+		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+		for (Map.Entry<String, ByteBuffer> column : sorted.entrySet()) {
+			byte[] name = column.getKey().getBytes(StandardCharsets.UTF_8);
+			digest.update((ByteBuffer) length.putInt(0, name.length).rewind());
+			digest.update(name);
+			ByteBuffer value = column.getValue();
+			digest.update((ByteBuffer) length.putInt(0, value.remaining()).rewind());
+			digest.update(value.duplicate());
+		}
+		return digest.digest();
+	}
+
+	private static byte[] getDigest(ByteBuffer value) {
+		MessageDigest digest = TiesMerkleTree.getDigest();
+		digest.update(value.duplicate());
+		return digest.digest();
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.service.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStoragePage;
+
+/**
+ * Concurrent reader of many partitions of a query.
+ * 
+ * <P>Partitions of a page are grouped by their primary replica and split
+ * into at most {@code parallelism} slices, each of which is read by a
+ * separate thread one partition after another. Results are merged in the
+ * order the keys were requested in, so the page is the same as the one of
+ * serial reads.
+ * 
+ * <P>Partitions are read in waves of at most {@code parallelism} of them and
+ * each partition of a wave reads at most an equal share of the rows left to
+ * the page, so neither a page nor a wave holds more than {@code pageSize}
+ * rows. A partition which has more rows ends its wave and is continued alone
+ * with the rest of the page, partitions read after it are read again by the
+ * next wave. Paging state of a page is the index of the next partition and
+ * the paging state within it.
+ * 
+ * <P>Slices wait for a thread in a queue of at most {@code queueSize} of
+ * them, a slice which doesn't fit is read by the caller thread.
+ */
+public class TiesPartitionFanOut {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesPartitionFanOut.class);
+
+	public static final int DEFAULT_PARALLELISM = 16;
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+
+	public static interface Reader {
+		/**
+		 * Reads a page of at most {@code limit} rows of the partition with the
+		 * given index.
+		 */
+		TiesStoragePage read(int index, int limit, byte[] pagingState) throws TiesStorageException;
+	}
+
+	private final int parallelism;
+
+	private final ThreadPoolExecutor executor;
+
+	public TiesPartitionFanOut() {
+		this(DEFAULT_PARALLELISM, DEFAULT_QUEUE_SIZE);
+	}
+
+	public TiesPartitionFanOut(int parallelism, int queueSize) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism " + parallelism + " should be positive");
+		}
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("The queueSize " + queueSize + " should be positive");
+		}
+		this.parallelism = parallelism;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueSize), r -> {
+					Thread t = new Thread(r, "TiesFanOut-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	public TiesStoragePage select(String keyspace, List<DecoratedKey> keys, int pageSize, byte[] pagingState,
+			Reader reader) throws TiesStorageException {
+		if (null == keys) {
+			throw new NullPointerException("The keys should not be null");
+		}
+		if (null == reader) {
+			throw new NullPointerException("The reader should not be null");
+		}
+		int from = 0;
+		byte[] state = null;
+		if (null != pagingState) {
+			ByteBuffer buf = ByteBuffer.wrap(pagingState);
+			if (buf.remaining() < Integer.BYTES || (from = buf.getInt()) < 0 || from >= keys.size()) {
+				throw new TiesStorageException("Illegal paging state");
+			}
+			state = buf.hasRemaining() ? Arrays.copyOfRange(pagingState, buf.position(), pagingState.length) : null;
+		}
+		List<Map<String, Object>> rows = new ArrayList<>();
+		wave: while (from < keys.size() && rows.size() < pageSize) {
+			int budget = pageSize - rows.size();
+			// Continued partition is read alone with the whole rest of the page
+			int count = null != state ? 1 : Math.min(Math.min(parallelism, keys.size() - from), budget);
+			int to = from + count;
+			TiesStoragePage[] pages = read(keyspace, keys, from, to, state, budget / count, reader);
+			state = null;
+			for (int i = from; i < to; i++) {
+				TiesStoragePage page = pages[i - from];
+				rows.addAll(page.getRows());
+				if (!page.isLast()) {
+					from = i;
+					state = page.getPagingState();
+					continue wave;
+				}
+			}
+			from = to;
+		}
+		if (null != state) {
+			return new TiesStoragePage(rows, encodePagingState(from, state));
+		}
+		return new TiesStoragePage(rows, from < keys.size() ? encodePagingState(from, null) : null);
+	}
+
+	private TiesStoragePage[] read(String keyspace, List<DecoratedKey> keys, int from, int to, byte[] state,
+			int limit, Reader reader) throws TiesStorageException {
+		TiesStoragePage[] pages = new TiesStoragePage[to - from];
+		List<int[]> slices = slice(keyspace, keys, from, to);
+		logger.debug("Reading {} partitions of {} in {} slices", to - from, keyspace, slices.size());
+		if (1 == slices.size()) {
+			// Single slice is read by the caller thread without a hand-off
+			readSlice(slices.get(0), from, state, limit, reader, pages);
+			return pages;
+		}
+		List<CompletableFuture<Void>> futures = new ArrayList<>(slices.size());
+		for (int[] slice : slices) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				try {
+					readSlice(slice, from, state, limit, reader, pages);
+				} catch (TiesStorageException e) {
+					throw new CompletionException(e);
+				}
+			}, executor));
+		}
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof TiesStorageException) {
+				throw (TiesStorageException) e.getCause();
+			}
+			throw new TiesStorageException("Read failed: " + e.getCause().getMessage(), e.getCause());
+		}
+		return pages;
+	}
+
+	private static void readSlice(int[] slice, int from, byte[] state, int limit, Reader reader,
+			TiesStoragePage[] pages) throws TiesStorageException {
+		for (int index : slice) {
+			pages[index - from] = reader.read(index, limit, index == from ? state : null);
+		}
+	}
+
+	List<int[]> slice(String keyspace, List<DecoratedKey> keys, int from, int to) {
+		int count = to - from;
+		Integer[] order = new Integer[count];
+		String[] replicas = new String[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = from + i;
+			replicas[i] = getPrimaryReplica(keyspace, keys.get(from + i));
+		}
+		// Neighbouring partitions of a replica go to the same slice
+		Arrays.sort(order, Comparator.<Integer, String>comparing(i -> replicas[i - from])
+				.thenComparing(i -> keys.get(i)));
+		int sliceCount = Math.min(parallelism, count);
+		List<int[]> slices = new ArrayList<>(sliceCount);
+		for (int s = 0, start = 0; s < sliceCount; s++) {
+			int end = start + (count - start) / (sliceCount - s);
+			int[] slice = new int[end - start];
+			for (int i = start; i < end; i++) {
+				slice[i - start] = order[i];
+			}
+			slices.add(slice);
+			start = end;
+		}
+		return slices;
+	}
+
+	/*
+	 * Package-private to be stubbed by tests
+	 */
+	String getPrimaryReplica(String keyspace, DecoratedKey key) {
+		List<InetAddress> endpoints = StorageService.instance.getNaturalEndpoints(keyspace, key);
+		return endpoints.isEmpty() ? "" : endpoints.get(0).getHostAddress();
+	}
+
+	private static byte[] encodePagingState(int index, byte[] pagingState) {
+		ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES + (null == pagingState ? 0 : pagingState.length));
+		buf.putInt(index);
+		if (null != pagingState) {
+			buf.put(pagingState);
+		}
+		return buf.array();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
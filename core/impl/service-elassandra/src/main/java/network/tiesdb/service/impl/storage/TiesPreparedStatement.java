@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.util.List;
+
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.CQLStatement;
+
+/**
+ * CQL statement prepared by TiesDB storage.
+ * 
+ * <P>Keeps the query text along with the statement for logging and the
+ * columns in the order of statement bind variables.
+ */
+public final class TiesPreparedStatement {
+
+	private final String query;
+	private final CQLStatement statement;
+	private final List<ColumnDefinition> columns;
+
+	public TiesPreparedStatement(String query, CQLStatement statement, List<ColumnDefinition> columns) {
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		if (null == statement) {
+			throw new NullPointerException("The statement should not be null");
+		}
+		if (null == columns) {
+			throw new NullPointerException("The columns should not be null");
+		}
+		this.query = query;
+		this.statement = statement;
+		this.columns = columns;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	public CQLStatement getStatement() {
+		return statement;
+	}
+
+	public List<ColumnDefinition> getColumns() {
+		return columns;
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.admin.indices.stats.IndexStats;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStoragePlan;
+import network.tiesdb.storage.api.TiesStoragePlan.AccessPath;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Cost-based planner of TiesDB storage queries.
+ * 
+ * <P>Every access path able to answer the query is costed and the cheapest
+ * one is chosen:
+ * <ul>
+ * <li>partition lookup or clustering slice, if the partition key is
+ * restricted by equality and the rest of restrictions form a clustering
+ * prefix, optionally ended by a range;</li>
+ * <li>search of the Elasticsearch index of the table, if it is indexed;</li>
+ * <li>scan of the table filtering rows one by one, if it has at most
+ * {@code maxScanPartitions} partitions.</li>
+ * </ul>
+ * Only the index could resolve prefix and full-text predicates.
+ * 
+ * <P>Row counts are estimated by local table statistics and by document
+ * count of the index, which is refreshed every
+ * {@value #STATS_TTL_MILLIS}ms. Selectivity of a predicate is a fixed
+ * fraction depending on its kind.
+ */
+public class TiesQueryPlanner {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesQueryPlanner.class);
+
+	// Costs are relative to reading a partition from its replicas
+	private static final double PARTITION_COST = 1;
+	private static final double SEARCH_COST = 10;
+	private static final double ROW_COST = 0.01;
+	// Rows aggregated by the index are not read
+	private static final double AGGREGATED_ROW_COST = 0.001;
+
+	private static final double TERM_SELECTIVITY = 0.01;
+	private static final double PREFIX_SELECTIVITY = 0.05;
+	private static final double MATCH_SELECTIVITY = 0.1;
+	private static final double RANGE_SELECTIVITY = 0.3;
+
+	private static final long STATS_TTL_MILLIS = 30000;
+
+	public static final long DEFAULT_MAX_SCAN_PARTITIONS = 100000;
+
+	private static final class IndexDocs {
+
+		private final long count;
+		private final long expiration;
+
+		private IndexDocs(long count, long expiration) {
+			this.count = count;
+			this.expiration = expiration;
+		}
+
+	}
+
+	static final long NOT_INDEXED = -1;
+
+	private static final String KEYS_REJECTION = "Keys are read by partition lookups";
+
+	private final long maxScanPartitions;
+
+	private final ConcurrentMap<String, IndexDocs> indexDocs = new ConcurrentHashMap<>();
+
+	public TiesQueryPlanner(long maxScanPartitions) {
+		if (maxScanPartitions < 0) {
+			throw new IllegalArgumentException(
+					"The maxScanPartitions " + maxScanPartitions + " should not be negative");
+		}
+		this.maxScanPartitions = maxScanPartitions;
+	}
+
+	public TiesStoragePlan plan(TiesTableSchema tableSchema, TiesStorageQuery query) throws TiesStorageException {
+		if (null == tableSchema) {
+			throw new NullPointerException("The tableSchema should not be null");
+		}
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		Set<String> equal = new HashSet<>();
+		Set<String> ranged = new HashSet<>();
+		boolean text = false;
+		double selectivity = 1;
+		for (String name : query.getWhere().keySet()) {
+			TiesStorageImpl.getColumn(tableSchema, name);
+			equal.add(name);
+			selectivity *= TERM_SELECTIVITY;
+		}
+		int keys = query.getKeys().size();
+		if (keys > 0) {
+			Set<String> keyColumns = query.getKeys().get(0).keySet();
+			for (Map<String, Object> key : query.getKeys()) {
+				if (!keyColumns.equals(key.keySet())) {
+					throw new TiesStorageException("Keys should have the same columns " + keyColumns);
+				}
+			}
+			for (String name : keyColumns) {
+				TiesStorageImpl.getColumn(tableSchema, name);
+				equal.add(name);
+			}
+		}
+		for (TiesStoragePredicate predicate : query.getPredicates()) {
+			TiesStorageImpl.getColumn(tableSchema, predicate.getColumn());
+			switch (predicate.getKind()) {
+			case TERM:
+				equal.add(predicate.getColumn());
+				selectivity *= TERM_SELECTIVITY;
+				break;
+			case RANGE:
+				ranged.add(predicate.getColumn());
+				selectivity *= RANGE_SELECTIVITY;
+				break;
+			case PREFIX:
+				text = true;
+				selectivity *= PREFIX_SELECTIVITY;
+				break;
+			case MATCH:
+				text = true;
+				selectivity *= MATCH_SELECTIVITY;
+				break;
+			default:
+				throw new TiesStorageException("Unsupported predicate " + predicate);
+			}
+		}
+		long partitions = estimatePartitions(tableSchema);
+		double partitionRows = estimatePartitionRows(tableSchema);
+
+		List<TiesStoragePlan> candidates = new ArrayList<>(3);
+		candidates.add(planKeyAccess(tableSchema, equal, ranged, text, Math.max(1, keys), partitionRows));
+		if (keys > 0) {
+			candidates.add(TiesStoragePlan.rejected(AccessPath.INDEX, KEYS_REJECTION));
+			candidates.add(TiesStoragePlan.rejected(AccessPath.SCAN, KEYS_REJECTION));
+		} else {
+			candidates.add(planIndex(tableSchema, selectivity, query.isAggregated()));
+			candidates.add(planScan(text, partitions, partitionRows, selectivity));
+		}
+		TiesStoragePlan best = null;
+		for (TiesStoragePlan candidate : candidates) {
+			if (!candidate.isRejected() && (null == best || candidate.getCost() < best.getCost())) {
+				best = candidate;
+			}
+		}
+		if (null == best) {
+			throw new TiesStorageException("No access path for the query: " + candidates);
+		}
+		candidates.remove(best);
+		logger.debug("Query {}.{} planned as {}", tableSchema.getKeyspace(), tableSchema.getName(), best);
+		return best.withAlternatives(candidates);
+	}
+
+	private static TiesStoragePlan planKeyAccess(TiesTableSchema tableSchema, Set<String> equal, Set<String> ranged,
+			boolean text, int keys, double partitionRows) {
+		if (text) {
+			return TiesStoragePlan.rejected(AccessPath.PARTITION_LOOKUP, "Prefix and match predicates need index");
+		}
+		Set<String> restricted = new HashSet<>(equal);
+		restricted.addAll(ranged);
+		StringBuilder description = new StringBuilder(1 == keys ? "partition key" : keys + " partition keys");
+		for (ColumnDefinition column : tableSchema.getPartitionKeyColumns()) {
+			String name = column.name.toString();
+			if (!equal.contains(name) || ranged.contains(name)) {
+				return TiesStoragePlan.rejected(AccessPath.PARTITION_LOOKUP,
+						"Partition key column " + name + " is not restricted by equality");
+			}
+			restricted.remove(name);
+			description.append(' ').append(name);
+		}
+		double rows = partitionRows;
+		boolean slice = false;
+		for (ColumnDefinition column : tableSchema.getClusteringColumns()) {
+			String name = column.name.toString();
+			if (!restricted.remove(name)) {
+				break;
+			}
+			slice = true;
+			if (ranged.contains(name)) {
+				description.append(", clustering range ").append(name);
+				rows *= RANGE_SELECTIVITY;
+				break;
+			}
+			description.append(", clustering ").append(name);
+			rows *= TERM_SELECTIVITY;
+		}
+		AccessPath accessPath = slice ? AccessPath.CLUSTERING_SLICE : AccessPath.PARTITION_LOOKUP;
+		if (!restricted.isEmpty()) {
+			return TiesStoragePlan.rejected(accessPath, "Columns " + restricted + " need filtering");
+		}
+		rows = Math.max(1, rows) * keys;
+		return TiesStoragePlan.of(accessPath, keys * PARTITION_COST + rows * ROW_COST, Math.round(rows),
+				description.toString());
+	}
+
+	private TiesStoragePlan planIndex(TiesTableSchema tableSchema, double selectivity, boolean aggregated) {
+		long docs = getIndexDocs(tableSchema);
+		if (NOT_INDEXED == docs) {
+			return TiesStoragePlan.rejected(AccessPath.INDEX, "Table is not indexed");
+		}
+		double rows = docs * selectivity;
+		return TiesStoragePlan.of(AccessPath.INDEX,
+				SEARCH_COST + rows * (aggregated ? AGGREGATED_ROW_COST : ROW_COST), Math.round(rows),
+				(aggregated ? "aggregation of index " : "index ") + tableSchema.getKeyspace() + " of " + docs
+						+ " documents");
+	}
+
+	private TiesStoragePlan planScan(boolean text, long partitions, double partitionRows, double selectivity) {
+		if (text) {
+			return TiesStoragePlan.rejected(AccessPath.SCAN, "Prefix and match predicates need index");
+		}
+		if (partitions > maxScanPartitions) {
+			return TiesStoragePlan.rejected(AccessPath.SCAN,
+					"About " + partitions + " partitions exceed scan limit of " + maxScanPartitions);
+		}
+		double rows = partitions * partitionRows;
+		return TiesStoragePlan.of(AccessPath.SCAN, partitions * PARTITION_COST + rows * ROW_COST,
+				Math.round(rows * selectivity), "scan of about " + partitions + " partitions");
+	}
+
+	/*
+	 * Table statistics are package-private to be stubbed by tests
+	 */
+	long estimatePartitions(TiesTableSchema tableSchema) {
+		ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(tableSchema.getKeyspace(), tableSchema.getName());
+		return null == cfs ? 0 : Math.max(0, cfs.estimateKeys());
+	}
+
+	double estimatePartitionRows(TiesTableSchema tableSchema) {
+		if (tableSchema.getClusteringColumns().isEmpty()) {
+			return 1;
+		}
+		ColumnFamilyStore cfs = ColumnFamilyStore.getIfExists(tableSchema.getKeyspace(), tableSchema.getName());
+		if (null == cfs) {
+			return 1;
+		}
+		int cells = Math.max(1, tableSchema.getMetadata().partitionColumns().regulars.size());
+		return Math.max(1, (double) cfs.getMeanColumns() / cells);
+	}
+
+	long getIndexDocs(TiesTableSchema tableSchema) {
+		String index = tableSchema.getKeyspace();
+		String key = index + '.' + tableSchema.getName();
+		long now = System.currentTimeMillis();
+		IndexDocs docs = indexDocs.get(key);
+		if (null == docs || docs.expiration < now) {
+			docs = loadIndexDocs(index, tableSchema.getName(), now + STATS_TTL_MILLIS);
+			indexDocs.put(key, docs);
+		}
+		return docs.count;
+	}
+
+	private static IndexDocs loadIndexDocs(String index, String type, long expiration) {
+		try {
+			Client client = TiesIndexSearch.getClient();
+			if (!client.admin().indices().prepareTypesExists(index).setTypes(type).get().isExists()) {
+				return new IndexDocs(NOT_INDEXED, expiration);
+			}
+			IndexStats stats = client.admin().indices().prepareStats(index).setDocs(true).get().getIndex(index);
+			return new IndexDocs(null == stats ? 0 : stats.getPrimaries().getDocs().getCount(), expiration);
+		} catch (TiesStorageException | ElasticsearchException e) {
+			logger.debug("Index statistics of {}.{} are not available", index, type, e);
+			return new IndexDocs(NOT_INDEXED, expiration);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.schema.KeyspaceMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of the schema available to TiesDB.
+ * 
+ * <P>Holds immutable metadata of the tables of user keyspaces. Readers get
+ * the current snapshot without locking. Writers are serialized and replace
+ * the snapshot with a copy, where only the changed keyspace is rebuilt. It
+ * is updated by schema change notifications, see
+ * {@link network.tiesdb.service.impl.TiesMigrationListenerImpl}.
+ */
+public class TiesSchema {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesSchema.class);
+
+	private volatile Map<String, Map<String, TiesTableSchema>> keyspaces = Collections.emptyMap();
+
+	public TiesTableSchema getTable(String keyspace, String table) {
+		Map<String, TiesTableSchema> tables = keyspaces.get(keyspace);
+		return null == tables ? null : tables.get(table);
+	}
+
+	public synchronized void reload() {
+		Map<String, Map<String, TiesTableSchema>> keyspaces = new HashMap<>();
+		for (String keyspace : Schema.instance.getUserKeyspaces()) {
+			Map<String, TiesTableSchema> tables = loadKeyspace(keyspace);
+			if (null != tables) {
+				keyspaces.put(keyspace, tables);
+			}
+		}
+		this.keyspaces = Collections.unmodifiableMap(keyspaces);
+		logger.debug("TiesDB schema loaded for keyspaces {}", keyspaces.keySet());
+	}
+
+	public synchronized void reloadKeyspace(String keyspace) {
+		Map<String, TiesTableSchema> tables = Schema.instance.getUserKeyspaces().contains(keyspace)
+				? loadKeyspace(keyspace)
+				: null;
+		update(keyspace, tables);
+	}
+
+	public synchronized void dropKeyspace(String keyspace) {
+		update(keyspace, null);
+	}
+
+	public synchronized void reloadTable(String keyspace, String table) {
+		Map<String, TiesTableSchema> tables = keyspaces.get(keyspace);
+		if (null == tables) {
+			reloadKeyspace(keyspace);
+			return;
+		}
+		CFMetaData metadata = Schema.instance.getCFMetaData(keyspace, table);
+		tables = new HashMap<>(tables);
+		if (null == metadata || metadata.isView()) {
+			tables.remove(table);
+		} else {
+			tables.put(table, new TiesTableSchema(metadata));
+		}
+		update(keyspace, Collections.unmodifiableMap(tables));
+	}
+
+	public synchronized void dropTable(String keyspace, String table) {
+		Map<String, TiesTableSchema> tables = keyspaces.get(keyspace);
+		if (null != tables && tables.containsKey(table)) {
+			tables = new HashMap<>(tables);
+			tables.remove(table);
+			update(keyspace, Collections.unmodifiableMap(tables));
+		}
+	}
+
+	private void update(String keyspace, Map<String, TiesTableSchema> tables) {
+		Map<String, Map<String, TiesTableSchema>> keyspaces = new HashMap<>(this.keyspaces);
+		if (null == tables) {
+			keyspaces.remove(keyspace);
+		} else {
+			keyspaces.put(keyspace, tables);
+		}
+		this.keyspaces = Collections.unmodifiableMap(keyspaces);
+	}
+
+	private static Map<String, TiesTableSchema> loadKeyspace(String keyspace) {
+		KeyspaceMetadata metadata = Schema.instance.getKSMetaData(keyspace);
+		if (null == metadata) {
+			return null;
+		}
+		Map<String, TiesTableSchema> tables = new HashMap<>();
+		for (CFMetaData table : metadata.tables) {
+			tables.put(table.cfName, new TiesTableSchema(table));
+		}
+		return Collections.unmodifiableMap(tables);
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Bounded cache of prepared statements.
+ * 
+ * <P>Statements are cached by keyspace, table, operation, set of columns and
+ * set of restricted columns and the least recently used one is evicted when
+ * the cache is full. Entries of a table must be invalidated when its schema
+ * changes, because a prepared statement keeps the table metadata it was
+ * prepared with. A statement which was being prepared while its table was
+ * invalidated is returned, but not cached.
+ * 
+ * <P>Hits and misses of all caches are counted in {@link TiesMetricRegistry}
+ * as StatementCacheRequests, and the size of the latest cache is reported as
+ * StatementCacheSize.
+ */
+public class TiesStatementCache {
+
+	public static final int DEFAULT_MAX_SIZE = 1024;
+
+	public static enum Operation {
+		INSERT, MERGE, SELECT, SCAN
+	}
+
+	public static interface Loader {
+		TiesPreparedStatement load() throws TiesStorageException;
+	}
+
+	private static final class Key {
+
+		private final String keyspace;
+		private final String table;
+		private final Operation operation;
+		private final Set<String> columns;
+		private final Set<String> restrictions;
+
+		private Key(String keyspace, String table, Operation operation, Set<String> columns,
+				Set<String> restrictions) {
+			this.keyspace = keyspace;
+			this.table = table;
+			this.operation = operation;
+			this.columns = columns;
+			this.restrictions = restrictions;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(keyspace, table, operation, columns, restrictions);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return keyspace.equals(other.keyspace) && table.equals(other.table) && operation == other.operation
+					&& columns.equals(other.columns) && restrictions.equals(other.restrictions);
+		}
+
+	}
+
+	private static final TiesCounter HIT_COUNT = TiesMetricRegistry.getDefault().counter("StatementCacheRequests",
+			"result", "hit");
+	private static final TiesCounter MISS_COUNT = TiesMetricRegistry.getDefault().counter("StatementCacheRequests",
+			"result", "miss");
+
+	private final Map<Key, TiesPreparedStatement> statements;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private long generation = 0;
+
+	public TiesStatementCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public TiesStatementCache(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("The maxSize " + maxSize + " should not be negative");
+		}
+		this.statements = new LinkedHashMap<Key, TiesPreparedStatement>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 2930419412287785305L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, TiesPreparedStatement> eldest) {
+				return size() > maxSize;
+			}
+		};
+		TiesMetricRegistry.getDefault().gauge("StatementCacheSize", this::size);
+	}
+
+	public TiesPreparedStatement get(String keyspace, String table, Operation operation, Set<String> columns,
+			Loader loader) throws TiesStorageException {
+		return get(keyspace, table, operation, columns, Collections.<String>emptySet(), loader);
+	}
+
+	public TiesPreparedStatement get(String keyspace, String table, Operation operation, Set<String> columns,
+			Set<String> restrictions, Loader loader) throws TiesStorageException {
+		if (null == keyspace) {
+			throw new NullPointerException("The keyspace should not be null");
+		}
+		if (null == table) {
+			throw new NullPointerException("The table should not be null");
+		}
+		if (null == operation) {
+			throw new NullPointerException("The operation should not be null");
+		}
+		if (null == columns) {
+			throw new NullPointerException("The columns should not be null");
+		}
+		if (null == restrictions) {
+			throw new NullPointerException("The restrictions should not be null");
+		}
+		if (null == loader) {
+			throw new NullPointerException("The loader should not be null");
+		}
+		Key key = new Key(keyspace, table, operation, columns, restrictions);
+		long loadGeneration;
+		synchronized (statements) {
+			TiesPreparedStatement statement = statements.get(key);
+			if (null != statement) {
+				hitCount.incrementAndGet();
+				HIT_COUNT.increment();
+				return statement;
+			}
+			loadGeneration = generation;
+		}
+		missCount.incrementAndGet();
+		MISS_COUNT.increment();
+		// Statement is prepared outside of the lock, so concurrent misses of
+		// the same key might prepare it twice, which is harmless
+		TiesPreparedStatement statement = loader.load();
+		synchronized (statements) {
+			if (loadGeneration == generation) {
+				statements.put(new Key(keyspace, table, operation, Collections.unmodifiableSet(new HashSet<>(columns)),
+						Collections.unmodifiableSet(new HashSet<>(restrictions))), statement);
+			}
+		}
+		return statement;
+	}
+
+	public void invalidate(String keyspace) {
+		invalidate(keyspace, null);
+	}
+
+	public void invalidate(String keyspace, String table) {
+		synchronized (statements) {
+			generation++;
+			Iterator<Key> iter = statements.keySet().iterator();
+			while (iter.hasNext()) {
+				Key key = iter.next();
+				if (key.keyspace.equals(keyspace) && (null == table || key.table.equals(table))) {
+					iter.remove();
+				}
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (statements) {
+			generation++;
+			statements.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (statements) {
+			return statements.size();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "TiesStatementCache [size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+	}
+
+}
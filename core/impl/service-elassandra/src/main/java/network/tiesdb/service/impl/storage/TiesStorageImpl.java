@@ -0,0 +1,956 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.cql3.Attributes;
+import org.apache.cassandra.cql3.BatchQueryOptions;
+import org.apache.cassandra.cql3.ColumnSpecification;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.ResultSet;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.cql3.statements.BatchStatement;
+import org.apache.cassandra.cql3.statements.ModificationStatement;
+import org.apache.cassandra.cql3.statements.SelectStatement;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.partitions.PartitionIterator;
+import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.serializers.MarshalException;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.pager.PagingState;
+import org.apache.cassandra.service.pager.QueryPager;
+import org.apache.cassandra.transport.Server;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.service.impl.storage.TiesStatementCache.Operation;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStorageCells;
+import network.tiesdb.storage.api.TiesStorageDigest;
+import network.tiesdb.storage.api.TiesStorageEntry;
+import network.tiesdb.storage.api.TiesStoragePage;
+import network.tiesdb.storage.api.TiesStoragePlan;
+import network.tiesdb.storage.api.TiesStoragePlan.AccessPath;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+import network.tiesdb.util.metrics.TiesHistogram;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * TiesDB storage implementation on top of embedded Apache Cassandra.
+ * 
+ * <P>Rows of an insert are grouped by partition key and each partition is
+ * written by unlogged batches of at most {@code maxBatchSize} statements. All
+ * statements of such a batch go to the same replicas and are applied as a
+ * single mutation, so the write costs one round trip per batch instead of one
+ * per row. Partitions are written in token order.
+ * 
+ * <P>Access path of a query is chosen by {@link TiesQueryPlanner}. Key
+ * lookups, slices and scans are read page by page with Cassandra query pager,
+ * index queries are resolved by {@link TiesIndexSearch}. Paging state of a
+ * page is serialized along with its access path, so the query could be
+ * continued from it by any request the same way it was started.
+ * 
+ * <P>Queries of many partitions are read concurrently by
+ * {@link TiesPartitionFanOut}.
+ * 
+ * <P>Aggregated queries return all of the groups at once, at most
+ * {@code maxAggregationGroups} of them. They are aggregated by the index if
+ * it is the access path chosen and its result is exact, or by
+ * {@link TiesAggregator} otherwise, with the same result.
+ * 
+ * <P>Buckets of the table hash tree of {@link TiesMerkleTrees} are marked
+ * changed after a partition is written and are rehashed from the stored rows
+ * when the tree is read, the tree gives the digest of the table with
+ * inclusion proofs of its rows.
+ * 
+ * <P>Rows are fetched for synchronization as stored cells with their write
+ * timestamps and are merged by inserts using the same timestamps, so the
+ * newest write of each cell wins on every node.
+ * 
+ * <P>Tables are resolved by {@link TiesSchema} snapshot and prepared
+ * statements are taken from {@link TiesStatementCache}.
+ * 
+ * <P>Latency of each storage operation is recorded in microseconds to the
+ * {@code StorageLatency} histogram of the operation in the default
+ * {@link TiesMetricRegistry}.
+ */
+public class TiesStorageImpl implements TiesStorage {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesStorageImpl.class);
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+	public static final int DEFAULT_MAX_AGGREGATION_GROUPS = 10000;
+	public static final ConsistencyLevel DEFAULT_WRITE_CONSISTENCY_LEVEL = ConsistencyLevel.ONE;
+	public static final ConsistencyLevel DEFAULT_READ_CONSISTENCY_LEVEL = ConsistencyLevel.ONE;
+
+	private static final TiesHistogram INSERT_LATENCY = getLatency("INSERT");
+	private static final TiesHistogram SELECT_LATENCY = getLatency("SELECT");
+	private static final TiesHistogram EXPLAIN_LATENCY = getLatency("EXPLAIN");
+	private static final TiesHistogram DIGEST_LATENCY = getLatency("DIGEST");
+	private static final TiesHistogram ENTRIES_LATENCY = getLatency("ENTRIES");
+	private static final TiesHistogram FETCH_LATENCY = getLatency("FETCH");
+	private static final TiesHistogram MERGE_LATENCY = getLatency("MERGE");
+
+	private static final class BoundInsert {
+
+		private final TiesPreparedStatement insert;
+		private final List<ByteBuffer> values;
+
+		private BoundInsert(TiesPreparedStatement insert, List<ByteBuffer> values) {
+			this.insert = insert;
+			this.values = values;
+		}
+
+	}
+
+	private final TiesSchema schema;
+	private final TiesStatementCache statementCache;
+	private final int maxBatchSize;
+	private final ConsistencyLevel writeConsistencyLevel;
+	private final ConsistencyLevel readConsistencyLevel;
+	private final TiesQueryPlanner planner;
+	private final TiesPartitionFanOut fanOut;
+	private final TiesMerkleTrees merkleTrees;
+	private final int maxAggregationGroups;
+	private final TiesIndexSearch indexSearch = new TiesIndexSearch();
+
+	public TiesStorageImpl(TiesSchema schema, TiesStatementCache statementCache, TiesQueryPlanner planner,
+			TiesPartitionFanOut fanOut, TiesMerkleTrees merkleTrees, int maxBatchSize, int maxAggregationGroups,
+			ConsistencyLevel writeConsistencyLevel, ConsistencyLevel readConsistencyLevel) {
+		if (null == schema) {
+			throw new NullPointerException("The schema should not be null");
+		}
+		if (null == statementCache) {
+			throw new NullPointerException("The statementCache should not be null");
+		}
+		if (null == planner) {
+			throw new NullPointerException("The planner should not be null");
+		}
+		if (null == fanOut) {
+			throw new NullPointerException("The fanOut should not be null");
+		}
+		if (null == merkleTrees) {
+			throw new NullPointerException("The merkleTrees should not be null");
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("The maxBatchSize " + maxBatchSize + " should be positive");
+		}
+		if (maxAggregationGroups < 1) {
+			throw new IllegalArgumentException(
+					"The maxAggregationGroups " + maxAggregationGroups + " should be positive");
+		}
+		if (null == writeConsistencyLevel) {
+			throw new NullPointerException("The writeConsistencyLevel should not be null");
+		}
+		if (null == readConsistencyLevel) {
+			throw new NullPointerException("The readConsistencyLevel should not be null");
+		}
+		this.schema = schema;
+		this.statementCache = statementCache;
+		this.planner = planner;
+		this.fanOut = fanOut;
+		this.merkleTrees = merkleTrees;
+		this.maxBatchSize = maxBatchSize;
+		this.maxAggregationGroups = maxAggregationGroups;
+		this.writeConsistencyLevel = writeConsistencyLevel;
+		this.readConsistencyLevel = readConsistencyLevel;
+	}
+
+	private static TiesHistogram getLatency(String operation) {
+		return TiesMetricRegistry.getDefault().histogram("StorageLatency", "operation", operation);
+	}
+
+	private static void record(TiesHistogram latency, long started) {
+		latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+	}
+
+	@Override
+	public int insert(String keyspace, String table, List<Map<String, Object>> rows) throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return doInsert(keyspace, table, rows);
+		} finally {
+			record(INSERT_LATENCY, started);
+		}
+	}
+
+	@Override
+	public TiesStoragePage select(TiesStorageQuery query, int pageSize, byte[] pagingState)
+			throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return doSelect(query, pageSize, pagingState);
+		} finally {
+			record(SELECT_LATENCY, started);
+		}
+	}
+
+	@Override
+	public TiesStoragePlan explain(TiesStorageQuery query) throws TiesStorageException {
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		long started = System.nanoTime();
+		try {
+			return planner.plan(getTable(query.getKeyspace(), query.getTable()), query);
+		} finally {
+			record(EXPLAIN_LATENCY, started);
+		}
+	}
+
+	@Override
+	public TiesStorageDigest digest(String keyspace, String table, int level, List<Integer> nodes,
+			List<Map<String, Object>> keys) throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return doDigest(keyspace, table, level, nodes, keys);
+		} finally {
+			record(DIGEST_LATENCY, started);
+		}
+	}
+
+	@Override
+	public List<TiesStorageEntry> entries(String keyspace, String table, int bucket) throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return merkleTrees.entries(getTable(keyspace, table), bucket);
+		} finally {
+			record(ENTRIES_LATENCY, started);
+		}
+	}
+
+	@Override
+	public List<TiesStorageCells> fetch(String keyspace, String table, List<byte[]> keys)
+			throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return doFetch(keyspace, table, keys);
+		} finally {
+			record(FETCH_LATENCY, started);
+		}
+	}
+
+	@Override
+	public int merge(String keyspace, String table, List<TiesStorageCells> rows) throws TiesStorageException {
+		long started = System.nanoTime();
+		try {
+			return doMerge(keyspace, table, rows);
+		} finally {
+			record(MERGE_LATENCY, started);
+		}
+	}
+
+	private int doInsert(String keyspace, String table, List<Map<String, Object>> rows) throws TiesStorageException {
+		if (null == rows) {
+			throw new NullPointerException("The rows should not be null");
+		}
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		TiesTableSchema tableSchema = getTable(keyspace, table);
+		Map<DecoratedKey, List<BoundInsert>> partitions = new TreeMap<>(DecoratedKey.comparator);
+		for (Map<String, Object> row : rows) {
+			if (null == row || row.isEmpty()) {
+				throw new TiesStorageException("Row should not be empty");
+			}
+			Set<String> names = row.keySet();
+			TiesPreparedStatement insert = statementCache.get(keyspace, table, Operation.INSERT, names,
+					() -> prepareInsert(tableSchema, names, false));
+			List<ByteBuffer> values = bind(insert.getColumns(), row);
+			DecoratedKey key = tableSchema.getMetadata()
+					.decorateKey(getPartitionKey(tableSchema, insert.getColumns(), values));
+			partitions.computeIfAbsent(key, k -> new ArrayList<>()).add(new BoundInsert(insert, values));
+		}
+		logger.debug("Inserting {} rows into {} partitions of {}.{}", rows.size(), partitions.size(), keyspace, table);
+		write(tableSchema, partitions);
+		return rows.size();
+	}
+
+	/*
+	 * Rows are read from this node, which the entries their keys are taken
+	 * from belong to.
+	 */
+	private List<TiesStorageCells> doFetch(String keyspace, String table, List<byte[]> keys)
+			throws TiesStorageException {
+		if (null == keys) {
+			throw new NullPointerException("The keys should not be null");
+		}
+		TiesTableSchema tableSchema = getTable(keyspace, table);
+		List<ColumnDefinition> keyColumns = new ArrayList<>(tableSchema.getPartitionKeyColumns());
+		keyColumns.addAll(tableSchema.getClusteringColumns());
+		List<ColumnDefinition> columns = new ArrayList<>(tableSchema.getColumns().values());
+		StringBuilder query = new StringBuilder("SELECT ");
+		for (ColumnDefinition column : columns) {
+			String name = column.name.toString();
+			query.append(query.length() > 7 ? ", " : "").append(quote(name));
+			if (isTimestamped(column)) {
+				query.append(", writetime(").append(quote(name)).append(") AS ").append(quote(getTimestampAlias(name)));
+			}
+		}
+		query.append(" FROM ").append(quote(keyspace)).append('.').append(quote(table));
+		for (int i = 0; i < keyColumns.size(); i++) {
+			query.append(0 == i ? " WHERE " : " AND ").append(quote(keyColumns.get(i).name.toString())).append(" = ?");
+		}
+		List<TiesStorageCells> rows = new ArrayList<>(keys.size());
+		for (byte[] key : keys) {
+			if (null == key) {
+				throw new TiesStorageException("Key should not be null");
+			}
+			List<ByteBuffer> values = TiesMerkleTrees.getKeyValues(ByteBuffer.wrap(key), keyColumns.size());
+			for (int i = 0; i < values.size(); i++) {
+				validate(keyColumns.get(i), values.get(i));
+			}
+			UntypedResultSet result;
+			try {
+				result = QueryProcessor.executeInternal(query.toString(), values.toArray());
+			} catch (RuntimeException e) {
+				throw new TiesStorageException("Read failed: " + e.getMessage(), e);
+			}
+			for (UntypedResultSet.Row row : result) {
+				Map<String, byte[]> cells = new LinkedHashMap<>();
+				Map<String, Long> timestamps = new LinkedHashMap<>();
+				for (ColumnDefinition column : columns) {
+					String name = column.name.toString();
+					if (row.has(name)) {
+						cells.put(name, ByteBufferUtil.getArray(row.getBytes(name)));
+						if (isTimestamped(column) && row.has(getTimestampAlias(name))) {
+							timestamps.put(name, row.getLong(getTimestampAlias(name)));
+						}
+					}
+				}
+				rows.add(new TiesStorageCells(cells, timestamps));
+			}
+		}
+		return rows;
+	}
+
+	/*
+	 * Cells of a row written at the same time are inserted together using
+	 * their timestamp, see groupByTimestamp.
+	 */
+	private int doMerge(String keyspace, String table, List<TiesStorageCells> rows) throws TiesStorageException {
+		if (null == rows) {
+			throw new NullPointerException("The rows should not be null");
+		}
+		if (rows.isEmpty()) {
+			return 0;
+		}
+		TiesTableSchema tableSchema = getTable(keyspace, table);
+		Map<DecoratedKey, List<BoundInsert>> partitions = new TreeMap<>(DecoratedKey.comparator);
+		for (TiesStorageCells row : rows) {
+			if (null == row || row.getValues().isEmpty()) {
+				throw new TiesStorageException("Row should not be empty");
+			}
+			Map<String, ByteBuffer> values = new LinkedHashMap<>();
+			Set<String> keyNames = new LinkedHashSet<>();
+			for (Map.Entry<String, byte[]> cell : row.getValues().entrySet()) {
+				ColumnDefinition column = getColumn(tableSchema, cell.getKey());
+				if (null == cell.getValue()) {
+					throw new TiesStorageException("Value of column " + column.name + " should not be null");
+				}
+				ByteBuffer value = ByteBuffer.wrap(cell.getValue());
+				validate(column, value);
+				values.put(cell.getKey(), value);
+				if (column.isPrimaryKeyColumn()) {
+					keyNames.add(cell.getKey());
+				}
+			}
+			DecoratedKey key = null;
+			for (Map.Entry<Long, Set<String>> group : groupByTimestamp(tableSchema, row).entrySet()) {
+				Set<String> names = new LinkedHashSet<>(keyNames);
+				names.addAll(group.getValue());
+				boolean timestamped = null != group.getKey();
+				TiesPreparedStatement insert = statementCache.get(keyspace, table,
+						timestamped ? Operation.MERGE : Operation.INSERT, names,
+						() -> prepareInsert(tableSchema, names, timestamped));
+				List<ByteBuffer> bound = new ArrayList<>(names.size() + 1);
+				for (String name : names) {
+					bound.add(values.get(name));
+				}
+				if (null == key) {
+					key = tableSchema.getMetadata()
+							.decorateKey(getPartitionKey(tableSchema, insert.getColumns(), bound));
+				}
+				if (timestamped) {
+					bound.add(LongType.instance.decompose(group.getKey()));
+				}
+				partitions.computeIfAbsent(key, k -> new ArrayList<>()).add(new BoundInsert(insert, bound));
+			}
+		}
+		logger.debug("Merging {} rows into {} partitions of {}.{}", rows.size(), partitions.size(), keyspace, table);
+		write(tableSchema, partitions);
+		return rows.size();
+	}
+
+	/*
+	 * Non-key cells of the row by their timestamps in ascending order. Cells
+	 * of unknown timestamp are written as of the newest cell of the row, or as
+	 * of now under the null timestamp if no cell has it.
+	 */
+	static SortedMap<Long, Set<String>> groupByTimestamp(TiesTableSchema tableSchema, TiesStorageCells row)
+			throws TiesStorageException {
+		SortedMap<Long, Set<String>> groups = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+		Set<String> untimed = new TreeSet<>();
+		for (String name : row.getValues().keySet()) {
+			if (getColumn(tableSchema, name).isPrimaryKeyColumn()) {
+				continue;
+			}
+			Long timestamp = row.getTimestamps().get(name);
+			if (null == timestamp) {
+				untimed.add(name);
+			} else {
+				groups.computeIfAbsent(timestamp, k -> new TreeSet<>()).add(name);
+			}
+		}
+		if (groups.isEmpty()) {
+			groups.put(null, untimed);
+		} else {
+			groups.get(groups.lastKey()).addAll(untimed);
+		}
+		return groups;
+	}
+
+	private void write(TiesTableSchema tableSchema, Map<DecoratedKey, List<BoundInsert>> partitions)
+			throws TiesStorageException {
+		for (Map.Entry<DecoratedKey, List<BoundInsert>> partition : partitions.entrySet()) {
+			List<BoundInsert> inserts = partition.getValue();
+			try {
+				for (int i = 0; i < inserts.size(); i += maxBatchSize) {
+					executeBatch(inserts.subList(i, Math.min(inserts.size(), i + maxBatchSize)));
+				}
+			} finally {
+				// Partition could be written in part even if a batch failed
+				merkleTrees.invalidate(tableSchema, Collections.singleton(partition.getKey()));
+			}
+		}
+	}
+
+	/*
+	 * Cells of non-frozen collections have timestamps of their own
+	 */
+	private static boolean isTimestamped(ColumnDefinition column) {
+		return !column.isPrimaryKeyColumn() && !column.type.isMultiCell();
+	}
+
+	private static String getTimestampAlias(String name) {
+		return "writetime(" + name + ")";
+	}
+
+	private static void validate(ColumnDefinition column, ByteBuffer value) throws TiesStorageException {
+		try {
+			column.type.validate(value);
+		} catch (MarshalException e) {
+			throw new TiesStorageException("Illegal value of column " + column.name + ": " + e.getMessage(), e);
+		}
+	}
+
+	private TiesStoragePage doSelect(TiesStorageQuery query, int pageSize, byte[] pagingState)
+			throws TiesStorageException {
+		if (null == query) {
+			throw new NullPointerException("The query should not be null");
+		}
+		if (pageSize < 1) {
+			throw new TiesStorageException("Page size should be positive");
+		}
+		TiesTableSchema tableSchema = getTable(query.getKeyspace(), query.getTable());
+		if (!query.getExcludedColumns().isEmpty()) {
+			query = query.withColumns(getProjection(tableSchema, query));
+		}
+		if (query.isAggregated()) {
+			if (null != pagingState) {
+				throw new TiesStorageException("Illegal paging state");
+			}
+			return new TiesStoragePage(aggregate(tableSchema, query, pageSize), null);
+		}
+		// Query is planned again when continued, as the paging state comes from
+		// the client. It keeps the access path its paging state belongs to if
+		// the planner still allows that path for the query.
+		TiesStoragePlan plan = planner.plan(tableSchema, query);
+		AccessPath accessPath = null == pagingState ? plan.getAccessPath() : decodeAccessPath(pagingState);
+		if (!isAllowed(plan, accessPath)) {
+			throw new TiesStorageException("Illegal paging state");
+		}
+		byte[] state = null == pagingState ? null : Arrays.copyOfRange(pagingState, 1, pagingState.length);
+		TiesStoragePage page = selectPage(tableSchema, query, accessPath, pageSize, state);
+		return null == page.getPagingState() //
+				? page
+				: new TiesStoragePage(page.getRows(), encodeAccessPath(accessPath, page.getPagingState()));
+	}
+
+	/*
+	 * Excluded columns are resolved to the list of the rest of the columns, so
+	 * they are never read neither by CQL nor from index document source.
+	 */
+	static List<String> getProjection(TiesTableSchema tableSchema, TiesStorageQuery query)
+			throws TiesStorageException {
+		Set<String> excluded = new HashSet<>(query.getExcludedColumns());
+		for (String name : excluded) {
+			getColumn(tableSchema, name);
+		}
+		List<String> projection = new ArrayList<>();
+		for (String name : query.getColumns().isEmpty() ? tableSchema.getColumnNames() : query.getColumns()) {
+			if (!excluded.contains(name)) {
+				projection.add(name);
+			}
+		}
+		if (projection.isEmpty()) {
+			throw new TiesStorageException("All columns are excluded");
+		}
+		return projection;
+	}
+
+	/*
+	 * Aggregates are computed by the index if it is chosen and can compute them
+	 * exactly, otherwise rows are read page by page and aggregated incrementally.
+	 */
+	private List<Map<String, Object>> aggregate(TiesTableSchema tableSchema, TiesStorageQuery query, int pageSize)
+			throws TiesStorageException {
+		Set<String> names = new LinkedHashSet<>(query.getGroupBy());
+		for (TiesStorageAggregate aggregate : query.getAggregates()) {
+			if (null != aggregate.getColumn()) {
+				names.add(aggregate.getColumn());
+			}
+		}
+		for (String name : names) {
+			getColumn(tableSchema, name);
+		}
+		AccessPath accessPath = planner.plan(tableSchema, query).getAccessPath();
+		if (AccessPath.INDEX == accessPath) {
+			List<Map<String, Object>> rows = indexSearch.aggregate(tableSchema, query, maxAggregationGroups);
+			if (null != rows) {
+				return rows;
+			}
+		}
+		if (names.isEmpty()) {
+			// Only rows are counted, so read as little of them as possible
+			for (ColumnDefinition column : tableSchema.getPartitionKeyColumns()) {
+				names.add(column.name.toString());
+			}
+		}
+		TiesStorageQuery rowsQuery = new TiesStorageQuery(query.getKeyspace(), query.getTable(),
+				new ArrayList<>(names), query.getWhere(), query.getPredicates(), query.getKeys());
+		TiesAggregator aggregator = new TiesAggregator(query.getAggregates(), query.getGroupBy(),
+				maxAggregationGroups);
+		byte[] state = null;
+		do {
+			TiesStoragePage page = selectPage(tableSchema, rowsQuery, accessPath, pageSize, state);
+			for (Map<String, Object> row : page.getRows()) {
+				aggregator.add(row);
+			}
+			state = page.getPagingState();
+		} while (null != state);
+		return aggregator.getRows();
+	}
+
+	private TiesStoragePage selectPage(TiesTableSchema tableSchema, TiesStorageQuery query, AccessPath accessPath,
+			int pageSize, byte[] pagingState) throws TiesStorageException {
+		if (!query.getKeys().isEmpty()) {
+			if (AccessPath.PARTITION_LOOKUP != accessPath && AccessPath.CLUSTERING_SLICE != accessPath) {
+				throw new TiesStorageException("Illegal paging state");
+			}
+			return selectKeys(tableSchema, query, pageSize, pagingState);
+		} else if (AccessPath.INDEX == accessPath) {
+			return indexSearch.select(tableSchema, query, pageSize, pagingState);
+		} else {
+			return selectRows(tableSchema, query, AccessPath.SCAN == accessPath, pageSize, pagingState);
+		}
+	}
+
+	private TiesStorageDigest doDigest(String keyspace, String table, int level, List<Integer> nodes,
+			List<Map<String, Object>> keys) throws TiesStorageException {
+		if (null == keys) {
+			throw new NullPointerException("The keys should not be null");
+		}
+		TiesTableSchema tableSchema = getTable(keyspace, table);
+		List<ColumnDefinition> keyColumns = new ArrayList<>(tableSchema.getPartitionKeyColumns());
+		keyColumns.addAll(tableSchema.getClusteringColumns());
+		List<TiesMerkleTrees.Row> rows = new ArrayList<>(keys.size());
+		for (Map<String, Object> key : keys) {
+			for (String name : key.keySet()) {
+				if (!keyColumns.contains(getColumn(tableSchema, name))) {
+					throw new TiesStorageException("Column " + name + " is not a primary key column");
+				}
+			}
+			List<ByteBuffer> values = bind(keyColumns, key);
+			rows.add(new TiesMerkleTrees.Row(
+					tableSchema.getMetadata().decorateKey(getPartitionKey(tableSchema, keyColumns, values)),
+					keyColumns, values));
+		}
+		return merkleTrees.digest(tableSchema, level, nodes, keys, rows);
+	}
+
+	private TiesStoragePage selectKeys(TiesTableSchema tableSchema, TiesStorageQuery query, int pageSize,
+			byte[] pagingState) throws TiesStorageException {
+		List<Map<String, Object>> keys = query.getKeys();
+		List<ColumnDefinition> keyColumns = tableSchema.getPartitionKeyColumns();
+		List<DecoratedKey> partitions = new ArrayList<>(keys.size());
+		for (Map<String, Object> key : keys) {
+			partitions.add(tableSchema.getMetadata()
+					.decorateKey(getPartitionKey(tableSchema, keyColumns, bind(keyColumns, key))));
+		}
+		return fanOut.select(query.getKeyspace(), partitions, pageSize, pagingState,
+				(index, limit, state) -> selectRows(tableSchema, getKeyQuery(query, keys.get(index)), false, limit,
+						state));
+	}
+
+	private static TiesStorageQuery getKeyQuery(TiesStorageQuery query, Map<String, Object> key)
+			throws TiesStorageException {
+		Map<String, Object> where = new LinkedHashMap<>(query.getWhere());
+		for (Map.Entry<String, Object> entry : key.entrySet()) {
+			if (null != where.putIfAbsent(entry.getKey(), entry.getValue())) {
+				throw new TiesStorageException("Column " + entry.getKey() + " is restricted by both key and where");
+			}
+		}
+		return new TiesStorageQuery(query.getKeyspace(), query.getTable(), query.getColumns(), where,
+				query.getPredicates());
+	}
+
+	private TiesStoragePage selectRows(TiesTableSchema tableSchema, TiesStorageQuery query, boolean scan,
+			int pageSize, byte[] pagingState) throws TiesStorageException {
+		Set<String> names = new LinkedHashSet<>(query.getColumns());
+		SortedMap<String, Object> restrictions = getRestrictions(query);
+		TiesPreparedStatement select = statementCache.get(query.getKeyspace(), query.getTable(),
+				scan ? Operation.SCAN : Operation.SELECT, names, restrictions.keySet(),
+				() -> prepareSelect(tableSchema, names, restrictions.keySet(), scan));
+		List<ByteBuffer> values = bind(select.getColumns(), restrictions.values());
+		SelectStatement statement = (SelectStatement) select.getStatement();
+		int nowInSec = FBUtilities.nowInSeconds();
+		try {
+			QueryPager pager = statement.getQuery(QueryOptions.forInternalCalls(readConsistencyLevel, values), nowInSec)
+					.getPager(decodePagingState(pagingState), Server.CURRENT_VERSION);
+			ResultSet result;
+			try (PartitionIterator partitions = pager.fetchPage(pageSize, readConsistencyLevel,
+					ClientState.forInternalCalls())) {
+				result = statement.process(partitions, nowInSec);
+			}
+			PagingState nextPagingState = pager.isExhausted() ? null : pager.state();
+			return new TiesStoragePage(toRows(result),
+					null == nextPagingState ? null : encodePagingState(nextPagingState));
+		} catch (RequestValidationException e) {
+			throw new TiesStorageException(e.getMessage(), e);
+		} catch (RequestExecutionException e) {
+			throw new TiesStorageException("Read failed: " + e.getMessage(), e);
+		}
+	}
+
+	/*
+	 * Restrictions are keyed by column name and operator and sorted, so
+	 * statements prepared for equal sets of restrictions have the same order
+	 * of bind variables.
+	 */
+	private static SortedMap<String, Object> getRestrictions(TiesStorageQuery query) throws TiesStorageException {
+		SortedMap<String, Object> restrictions = new TreeMap<>();
+		for (Map.Entry<String, Object> entry : query.getWhere().entrySet()) {
+			restrictions.put(entry.getKey() + " =", entry.getValue());
+		}
+		for (TiesStoragePredicate predicate : query.getPredicates()) {
+			String name = predicate.getColumn();
+			switch (predicate.getKind()) {
+			case TERM:
+				addRestriction(restrictions, name + " =", predicate.getValue());
+				break;
+			case RANGE:
+				if (null != predicate.getLower()) {
+					addRestriction(restrictions, name + (predicate.isIncludeLower() ? " >=" : " >"),
+							predicate.getLower());
+				}
+				if (null != predicate.getUpper()) {
+					addRestriction(restrictions, name + (predicate.isIncludeUpper() ? " <=" : " <"),
+							predicate.getUpper());
+				}
+				break;
+			default:
+				throw new TiesStorageException("Predicate " + predicate + " needs index");
+			}
+		}
+		return restrictions;
+	}
+
+	private static void addRestriction(Map<String, Object> restrictions, String restriction, Object value)
+			throws TiesStorageException {
+		if (null != restrictions.putIfAbsent(restriction, value)) {
+			throw new TiesStorageException("Restriction " + restriction + " is specified more than once");
+		}
+	}
+
+	private TiesTableSchema getTable(String keyspace, String table) throws TiesStorageException {
+		if (null == keyspace) {
+			throw new TiesStorageException("Keyspace should be specified");
+		}
+		if (null == table) {
+			throw new TiesStorageException("Table should be specified");
+		}
+		TiesTableSchema tableSchema = schema.getTable(keyspace, table);
+		if (null == tableSchema) {
+			throw new TiesStorageException("Table " + keyspace + "." + table + " does not exist");
+		}
+		return tableSchema;
+	}
+
+	private static TiesPreparedStatement prepareInsert(TiesTableSchema tableSchema, Set<String> names,
+			boolean timestamped) throws TiesStorageException {
+		List<ColumnDefinition> columns = new ArrayList<>(names.size());
+		StringBuilder query = new StringBuilder("INSERT INTO ").append(quote(tableSchema.getKeyspace())).append('.')
+				.append(quote(tableSchema.getName())).append(" (");
+		for (String name : names) {
+			query.append(columns.isEmpty() ? "" : ", ").append(quote(name));
+			columns.add(getColumn(tableSchema, name));
+		}
+		query.append(") VALUES (");
+		for (int i = 0; i < columns.size(); i++) {
+			query.append(0 == i ? "?" : ", ?");
+		}
+		query.append(')');
+		if (timestamped) {
+			// Timestamp is bound after the values of the columns
+			query.append(" USING TIMESTAMP ?");
+		}
+		return prepare(query.toString(), columns);
+	}
+
+	private static TiesPreparedStatement prepareSelect(TiesTableSchema tableSchema, Set<String> names,
+			Set<String> restrictions, boolean allowFiltering) throws TiesStorageException {
+		StringBuilder query = new StringBuilder("SELECT ");
+		if (names.isEmpty()) {
+			query.append('*');
+		}
+		for (String name : names) {
+			getColumn(tableSchema, name);
+			query.append(query.length() > 7 ? ", " : "").append(quote(name));
+		}
+		query.append(" FROM ").append(quote(tableSchema.getKeyspace())).append('.')
+				.append(quote(tableSchema.getName()));
+		List<ColumnDefinition> columns = new ArrayList<>(restrictions.size());
+		for (String restriction : restrictions) {
+			int i = restriction.lastIndexOf(' ');
+			String name = restriction.substring(0, i);
+			query.append(columns.isEmpty() ? " WHERE " : " AND ").append(quote(name))
+					.append(restriction.substring(i)).append(" ?");
+			columns.add(getColumn(tableSchema, name));
+		}
+		if (allowFiltering) {
+			query.append(" ALLOW FILTERING");
+		}
+		return prepare(query.toString(), columns);
+	}
+
+	static ColumnDefinition getColumn(TiesTableSchema tableSchema, String name) throws TiesStorageException {
+		ColumnDefinition column = tableSchema.getColumn(name);
+		if (null == column) {
+			throw new TiesStorageException("Unknown column " + name);
+		}
+		return column;
+	}
+
+	private static TiesPreparedStatement prepare(String query, List<ColumnDefinition> columns)
+			throws TiesStorageException {
+		try {
+			return new TiesPreparedStatement(query,
+					QueryProcessor.getStatement(query, ClientState.forInternalCalls()).statement,
+					Collections.unmodifiableList(columns));
+		} catch (RequestValidationException e) {
+			throw new TiesStorageException(e.getMessage(), e);
+		}
+	}
+
+	private static List<ByteBuffer> bind(List<ColumnDefinition> columns, Map<String, Object> row)
+			throws TiesStorageException {
+		List<ByteBuffer> values = new ArrayList<>(columns.size());
+		for (ColumnDefinition column : columns) {
+			values.add(bind(column, row.get(column.name.toString())));
+		}
+		return values;
+	}
+
+	private static ByteBuffer bind(ColumnDefinition column, Object value) throws TiesStorageException {
+		try {
+			return null == value ? null : column.type.fromJSONObject(value).bindAndGet(QueryOptions.DEFAULT);
+		} catch (MarshalException | RequestValidationException e) {
+			throw new TiesStorageException("Illegal value of column " + column.name + ": " + e.getMessage(), e);
+		}
+	}
+
+	static ByteBuffer getPartitionKey(TiesTableSchema tableSchema, List<ColumnDefinition> columns,
+			List<ByteBuffer> values) throws TiesStorageException {
+		List<ColumnDefinition> keyColumns = tableSchema.getPartitionKeyColumns();
+		ByteBuffer[] components = new ByteBuffer[keyColumns.size()];
+		for (int i = 0; i < components.length; i++) {
+			int index = columns.indexOf(keyColumns.get(i));
+			components[i] = index < 0 ? null : values.get(index);
+			if (null == components[i]) {
+				throw new TiesStorageException("Missing partition key column " + keyColumns.get(i).name);
+			}
+		}
+		return 1 == components.length ? components[0] : CompositeType.build(components);
+	}
+
+	private static List<ByteBuffer> bind(List<ColumnDefinition> columns, Collection<Object> restrictions)
+			throws TiesStorageException {
+		List<ByteBuffer> values = new ArrayList<>(columns.size());
+		Iterator<Object> iter = restrictions.iterator();
+		for (ColumnDefinition column : columns) {
+			values.add(bind(column, iter.next()));
+		}
+		return values;
+	}
+
+	private static boolean isAllowed(TiesStoragePlan plan, AccessPath accessPath) {
+		if (plan.getAccessPath() == accessPath) {
+			return true;
+		}
+		for (TiesStoragePlan alternative : plan.getAlternatives()) {
+			if (alternative.getAccessPath() == accessPath && !alternative.isRejected()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static AccessPath decodeAccessPath(byte[] pagingState) throws TiesStorageException {
+		if (pagingState.length < 1 || pagingState[0] < 0 || pagingState[0] >= AccessPath.values().length) {
+			throw new TiesStorageException("Illegal paging state");
+		}
+		return AccessPath.values()[pagingState[0]];
+	}
+
+	private static byte[] encodeAccessPath(AccessPath accessPath, byte[] pagingState) {
+		byte[] encoded = new byte[pagingState.length + 1];
+		encoded[0] = (byte) accessPath.ordinal();
+		System.arraycopy(pagingState, 0, encoded, 1, pagingState.length);
+		return encoded;
+	}
+
+	private static PagingState decodePagingState(byte[] pagingState) throws TiesStorageException {
+		if (null == pagingState) {
+			return null;
+		}
+		try {
+			return PagingState.deserialize(ByteBuffer.wrap(pagingState), Server.CURRENT_VERSION);
+		} catch (RuntimeException e) {
+			throw new TiesStorageException("Illegal paging state", e);
+		}
+	}
+
+	private static byte[] encodePagingState(PagingState pagingState) {
+		return ByteBufferUtil.getArray(pagingState.serialize(Server.CURRENT_VERSION));
+	}
+
+	private static List<Map<String, Object>> toRows(ResultSet result) {
+		List<ColumnSpecification> names = result.metadata.requestNames();
+		List<Map<String, Object>> rows = new ArrayList<>(result.rows.size());
+		for (List<ByteBuffer> values : result.rows) {
+			Map<String, Object> row = new LinkedHashMap<>();
+			for (int i = 0; i < names.size(); i++) {
+				ColumnSpecification name = names.get(i);
+				row.put(name.name.toString(), toValue(name.type, values.get(i)));
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	static Object toValue(AbstractType<?> type, ByteBuffer value) {
+		return null == value ? null : toValue(type.compose(value));
+	}
+
+	private static Object toValue(Object value) {
+		// Values are returned as JSON compatible objects
+		if (null == value || value instanceof Number || value instanceof String || value instanceof Boolean
+				|| value instanceof Date) {
+			return value;
+		}
+		if (value instanceof ByteBuffer) {
+			return "0x" + ByteBufferUtil.bytesToHex((ByteBuffer) value);
+		}
+		if (value instanceof Collection) {
+			List<Object> list = new ArrayList<>(((Collection<?>) value).size());
+			for (Object element : (Collection<?>) value) {
+				list.add(toValue(element));
+			}
+			return list;
+		}
+		if (value instanceof Map) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				map.put(String.valueOf(toValue(entry.getKey())), toValue(entry.getValue()));
+			}
+			return map;
+		}
+		return value.toString();
+	}
+
+	private void executeBatch(List<BoundInsert> inserts) throws TiesStorageException {
+		List<ModificationStatement> statements = new ArrayList<>(inserts.size());
+		List<List<ByteBuffer>> values = new ArrayList<>(inserts.size());
+		List<Object> queries = new ArrayList<>(inserts.size());
+		int boundTerms = 0;
+		for (BoundInsert insert : inserts) {
+			ModificationStatement statement = (ModificationStatement) insert.insert.getStatement();
+			statements.add(statement);
+			values.add(insert.values);
+			queries.add(insert.insert.getQuery());
+			boundTerms += statement.getBoundTerms();
+		}
+		BatchStatement batch = new BatchStatement(boundTerms, BatchStatement.Type.UNLOGGED, statements,
+				Attributes.none());
+		BatchQueryOptions options = BatchQueryOptions.withPerStatementVariables(
+				QueryOptions.forInternalCalls(writeConsistencyLevel, Collections.<ByteBuffer>emptyList()), values,
+				queries);
+		try {
+			QueryProcessor.instance.processBatch(batch, QueryState.forInternalCalls(), options);
+		} catch (RequestValidationException e) {
+			throw new TiesStorageException(e.getMessage(), e);
+		} catch (RequestExecutionException e) {
+			throw new TiesStorageException("Write failed: " + e.getMessage(), e);
+		}
+	}
+
+	static String quote(String name) {
+		return '"' + name.replace("\"", "\"\"") + '"';
+	}
+
+}
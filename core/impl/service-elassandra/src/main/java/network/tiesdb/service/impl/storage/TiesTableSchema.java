@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+
+/**
+ * Immutable metadata of a table available to TiesDB.
+ * 
+ * <P>Columns are indexed by name, so columns of a request are resolved
+ * without {@link org.apache.cassandra.cql3.ColumnIdentifier} creation.
+ */
+public final class TiesTableSchema {
+
+	private final CFMetaData metadata;
+	private final Map<String, ColumnDefinition> columns;
+	private final List<String> columnNames;
+	private final List<ColumnDefinition> partitionKeyColumns;
+	private final List<ColumnDefinition> clusteringColumns;
+
+	public TiesTableSchema(CFMetaData metadata) {
+		if (null == metadata) {
+			throw new NullPointerException("The metadata should not be null");
+		}
+		this.metadata = metadata;
+		Map<String, ColumnDefinition> columns = new HashMap<>();
+		for (ColumnDefinition column : metadata.allColumns()) {
+			columns.put(column.name.toString(), column);
+		}
+		this.columns = Collections.unmodifiableMap(columns);
+		List<String> columnNames = new ArrayList<>(columns.size());
+		for (Iterator<ColumnDefinition> iter = metadata.allColumnsInSelectOrder(); iter.hasNext();) {
+			columnNames.add(iter.next().name.toString());
+		}
+		this.columnNames = Collections.unmodifiableList(columnNames);
+		this.partitionKeyColumns = Collections.unmodifiableList(metadata.partitionKeyColumns());
+		this.clusteringColumns = Collections.unmodifiableList(metadata.clusteringColumns());
+	}
+
+	public String getKeyspace() {
+		return metadata.ksName;
+	}
+
+	public String getName() {
+		return metadata.cfName;
+	}
+
+	public CFMetaData getMetadata() {
+		return metadata;
+	}
+
+	public ColumnDefinition getColumn(String name) {
+		return columns.get(name);
+	}
+
+	public Map<String, ColumnDefinition> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Names of the columns in the order of {@code SELECT *}.
+	 */
+	public List<String> getColumnNames() {
+		return columnNames;
+	}
+
+	public List<ColumnDefinition> getPartitionKeyColumns() {
+		return partitionKeyColumns;
+	}
+
+	public List<ColumnDefinition> getClusteringColumns() {
+		return clusteringColumns;
+	}
+
+}
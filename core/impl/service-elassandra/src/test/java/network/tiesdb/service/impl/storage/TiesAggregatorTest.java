@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStorageAggregate.Function;
+
+/**
+ * Tests of {@link TiesAggregator} results over pages of rows.
+ */
+public class TiesAggregatorTest {
+
+	private static final List<TiesStorageAggregate> AGGREGATES = Arrays.asList( //
+			new TiesStorageAggregate(Function.COUNT, null, null), //
+			new TiesStorageAggregate(Function.COUNT, "v", null), //
+			new TiesStorageAggregate(Function.SUM, "v", null), //
+			new TiesStorageAggregate(Function.MIN, "v", null), //
+			new TiesStorageAggregate(Function.MAX, "s", null));
+
+	@Test
+	public void testAggregatesGroupsOverPages() throws TiesStorageException {
+		List<Map<String, Object>> rows = Arrays.asList( //
+				row("a", 3, "x"), row("b", 5, "y"), row("a", null, "z"), row(null, 7, "w"), //
+				row("b", -2, "v"), row("a", 4, null), row(null, 1, "u"));
+		List<Map<String, Object>> expected = Arrays.asList( //
+				result("a", 3L, 2L, 7L, 3, "z"), //
+				result("b", 2L, 2L, 3L, -2, "y"), //
+				result(null, 2L, 2L, 8L, 1, "w"));
+		for (int pageSize = 1; pageSize <= rows.size(); pageSize++) {
+			assertEquals("Page size " + pageSize, expected, aggregate(10, Arrays.asList("g"), rows, pageSize));
+		}
+	}
+
+	@Test
+	public void testAggregatesAllRows() throws TiesStorageException {
+		List<Map<String, Object>> rows = Arrays.asList(row("a", 3, "x"), row("b", 5, "y"), row("c", null, null));
+		Map<String, Object> expected = result(null, 3L, 2L, 8L, 3, "y");
+		expected.remove("g");
+		assertEquals(Arrays.asList(expected), aggregate(10, Collections.<String>emptyList(), rows, 2));
+	}
+
+	@Test
+	public void testReportsAggregatesOfNoRows() throws TiesStorageException {
+		Map<String, Object> expected = new LinkedHashMap<>();
+		expected.put("count", 0L);
+		expected.put("count(v)", 0L);
+		expected.put("sum(v)", null);
+		expected.put("min(v)", null);
+		expected.put("max(s)", null);
+		assertEquals(Arrays.asList(expected), aggregate(10, Collections.<String>emptyList(),
+				Collections.<Map<String, Object>>emptyList(), 1));
+		assertEquals(Collections.emptyList(), aggregate(10, Arrays.asList("g"),
+				Collections.<Map<String, Object>>emptyList(), 1));
+	}
+
+	@Test
+	public void testSumsExactlyBeyondLongRange() throws TiesStorageException {
+		assertEquals(new BigDecimal(Long.MAX_VALUE).add(BigDecimal.valueOf(3)),
+				sum(Long.MAX_VALUE, 1, 2L, (short) 0));
+		assertEquals(new BigDecimal("1.5").add(BigDecimal.valueOf(2)), sum(new BigDecimal("1.5"), 2));
+		assertEquals(-5L, sum(-2, -3L));
+	}
+
+	@Test
+	public void testSumsFloatingPointApproximately() throws TiesStorageException {
+		assertEquals(3.5, sum(1, 2.5));
+		assertEquals(3.5, sum(1.0f, new BigDecimal("2.5")));
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testLimitsGroups() throws TiesStorageException {
+		aggregate(2, Arrays.asList("g"), Arrays.asList(row("a", 1, "x"), row("b", 1, "x"), row("c", 1, "x")), 3);
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsSumOfText() throws TiesStorageException {
+		sum(1, "2");
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsExtremumOfMixedTypes() throws TiesStorageException {
+		aggregate(10, Collections.<String>emptyList(), Arrays.asList(row("a", 1, "x"), row("a", 1, 2)), 2);
+	}
+
+	private static Object sum(Object... values) throws TiesStorageException {
+		TiesAggregator aggregator = new TiesAggregator(
+				Arrays.asList(new TiesStorageAggregate(Function.SUM, "v", null)), Collections.<String>emptyList(), 1);
+		for (Object value : values) {
+			aggregator.add(Collections.singletonMap("v", value));
+		}
+		return aggregator.getRows().get(0).get("sum(v)");
+	}
+
+	private static List<Map<String, Object>> aggregate(int maxGroups, List<String> groupBy,
+			List<Map<String, Object>> rows, int pageSize) throws TiesStorageException {
+		TiesAggregator aggregator = new TiesAggregator(AGGREGATES, groupBy, maxGroups);
+		for (int from = 0; from < rows.size(); from += pageSize) {
+			for (Map<String, Object> row : rows.subList(from, Math.min(rows.size(), from + pageSize))) {
+				aggregator.add(row);
+			}
+		}
+		return aggregator.getRows();
+	}
+
+	private static Map<String, Object> row(String group, Integer value, Object text) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("g", group);
+		row.put("v", value);
+		row.put("s", text);
+		return row;
+	}
+
+	private static Map<String, Object> result(String group, Object count, Object valueCount, Object sum, Object min,
+			Object max) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("g", group);
+		result.put("count", count);
+		result.put("count(v)", valueCount);
+		result.put("sum(v)", sum);
+		result.put("min(v)", min);
+		result.put("max(s)", max);
+		return result;
+	}
+
+}
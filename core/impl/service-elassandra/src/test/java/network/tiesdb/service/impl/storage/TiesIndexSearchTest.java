@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.db.marshal.BytesType;
+import org.apache.cassandra.db.marshal.DoubleType;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.LongType;
+import org.apache.cassandra.db.marshal.ShortType;
+import org.apache.cassandra.db.marshal.TimestampType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageAggregate;
+import network.tiesdb.storage.api.TiesStorageAggregate.Function;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Tests of {@link TiesIndexSearch} queries and aggregation support.
+ */
+public class TiesIndexSearchTest {
+
+	private static TiesTableSchema tableSchema;
+
+	@BeforeClass
+	public static void createTableSchema() {
+		// Table metadata is built without the node configuration
+		Config.setClientMode(true);
+		tableSchema = new TiesTableSchema(CFMetaData.Builder.create("ks", "t") //
+				.addPartitionKey("id", Int32Type.instance) //
+				.addClusteringColumn("c", UTF8Type.instance) //
+				.addRegularColumn("v", Int32Type.instance) //
+				.addRegularColumn("l", LongType.instance) //
+				.addRegularColumn("d", DoubleType.instance) //
+				.addRegularColumn("b", BytesType.instance) //
+				.withId(UUID.randomUUID()).build());
+	}
+
+	private final TiesIndexSearch indexSearch = new TiesIndexSearch();
+
+	@Test
+	public void testFiltersByTermsAndScoresByMatch() throws TiesStorageException {
+		Map<String, Object> where = new LinkedHashMap<>();
+		where.put("id", 1);
+		Map<String, Object> bool = toQuery(new TiesStorageQuery("ks", "t", null, where, Arrays.asList( //
+				TiesStoragePredicate.term("v", 2), //
+				TiesStoragePredicate.prefix("c", "ab"), //
+				TiesStoragePredicate.match("c", "word"), //
+				TiesStoragePredicate.range("d", 1.5, true, null, false))));
+		assertEquals(Arrays.asList( //
+				map("term", map("id", 1)), //
+				map("term", map("v", 2)), //
+				map("prefix", map("c", "ab")), //
+				map("range", map("d", range(1.5, true, null, false)))), bool.get("filter"));
+		assertEquals(map("match", map("c", match("word"))), bool.get("must"));
+	}
+
+	@Test
+	public void testRejectsNullTerms() {
+		assertRejected(new TiesStorageQuery("ks", "t", null, Collections.<String, Object>singletonMap("v", null)));
+		assertRejected(new TiesStorageQuery("ks", "t", null, null,
+				Arrays.asList(TiesStoragePredicate.term("v", null))));
+	}
+
+	@Test
+	public void testRejectsUnknownColumns() {
+		assertRejected(new TiesStorageQuery("ks", "t", null, Collections.<String, Object>singletonMap("x", 1)));
+		assertRejected(new TiesStorageQuery("ks", "t", null, null,
+				Arrays.asList(TiesStoragePredicate.match("x", "word"))));
+	}
+
+	@Test
+	public void testConvertsValuesToColumnTypes() {
+		assertEquals(5, TiesIndexSearch.toColumnValue(Int32Type.instance, 5L));
+		assertEquals((short) 5, TiesIndexSearch.toColumnValue(ShortType.instance, 5.0));
+		assertEquals(5L, TiesIndexSearch.toColumnValue(LongType.instance, 5.0));
+		assertEquals(2.5, TiesIndexSearch.toColumnValue(DoubleType.instance, 2.5));
+		assertEquals(new Date(1000), TiesIndexSearch.toColumnValue(TimestampType.instance, 1000.0));
+		assertEquals("a", TiesIndexSearch.toColumnValue(UTF8Type.instance, "a"));
+	}
+
+	@Test
+	public void testLeavesInexactAggregationsToRows() throws TiesStorageException {
+		// Index metrics are double precision, so neither is exact
+		assertNull(indexSearch.aggregate(tableSchema, aggregation(Function.SUM, "l"), 10));
+		assertNull(indexSearch.aggregate(tableSchema, aggregation(Function.MAX, "c"), 10));
+		assertNull(indexSearch.aggregate(tableSchema, aggregation(Function.COUNT, null, "b"), 10));
+	}
+
+	@Test
+	public void testRequiresSearch() {
+		try {
+			indexSearch.aggregate(tableSchema, aggregation(Function.SUM, "v", "c"), 10);
+			fail("Aggregation should not be resolved without search");
+		} catch (TiesStorageException e) {
+			assertEquals("Search is not available", e.getMessage());
+		}
+	}
+
+	private static TiesStorageQuery aggregation(Function function, String column, String... groupBy) {
+		List<TiesStorageAggregate> aggregates = Arrays.asList(new TiesStorageAggregate(function, column, null));
+		return new TiesStorageQuery("ks", "t", null, null).withAggregation(aggregates, Arrays.asList(groupBy));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> toQuery(TiesStorageQuery query) throws TiesStorageException {
+		Map<String, Object> json = XContentHelper
+				.convertToMap(TiesIndexSearch.toQuery(tableSchema, query).buildAsBytes(), true).v2();
+		return (Map<String, Object>) json.get("bool");
+	}
+
+	private static void assertRejected(TiesStorageQuery query) {
+		try {
+			TiesIndexSearch.toQuery(tableSchema, query);
+			fail("Query " + query + " should be rejected");
+		} catch (TiesStorageException e) {
+			// expected
+		}
+	}
+
+	private static Map<String, Object> range(Object from, boolean includeLower, Object to, boolean includeUpper) {
+		Map<String, Object> range = new LinkedHashMap<>();
+		range.put("from", from);
+		range.put("to", to);
+		range.put("include_lower", includeLower);
+		range.put("include_upper", includeUpper);
+		return range;
+	}
+
+	private static Map<String, Object> match(String query) {
+		Map<String, Object> match = new LinkedHashMap<>();
+		match.put("query", query);
+		match.put("type", "boolean");
+		return match;
+	}
+
+	private static Map<String, Object> map(String name, Object value) {
+		return Collections.singletonMap(name, value);
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import network.tiesdb.storage.api.TiesStorageProof.Step;
+
+/**
+ * Tests of {@link TiesMerkleTree} hashes and inclusion proofs.
+ */
+public class TiesMerkleTreeTest {
+
+	@Test
+	public void testHashesInnerNodesWithPrefix() throws NoSuchAlgorithmException {
+		byte[] left = hash(1);
+		byte[] right = hash(2);
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update((byte) 1);
+		digest.update(left);
+		digest.update(right);
+		assertArrayEquals(digest.digest(), TiesMerkleTree.hash(left, right));
+		assertFalse(Arrays.equals(TiesMerkleTree.hash(left, right), TiesMerkleTree.hash(right, left)));
+	}
+
+	@Test
+	public void testHashesBucketRows() {
+		assertSame(TiesMerkleTree.EMPTY, TiesMerkleTree.getRoot(Collections.<byte[]>emptyList()));
+		assertArrayEquals(hash(0), TiesMerkleTree.getRoot(hashes(1)));
+		assertArrayEquals(TiesMerkleTree.hash(hash(0), hash(1)), TiesMerkleTree.getRoot(hashes(2)));
+		// Odd node is moved to the next level as it is
+		assertArrayEquals(TiesMerkleTree.hash(TiesMerkleTree.hash(hash(0), hash(1)), hash(2)),
+				TiesMerkleTree.getRoot(hashes(3)));
+	}
+
+	@Test
+	public void testProvesEveryRowOfBucket() {
+		for (int count = 1; count <= 17; count++) {
+			List<byte[]> rows = hashes(count);
+			byte[] root = TiesMerkleTree.getRoot(rows);
+			for (int i = 0; i < count; i++) {
+				List<Step> path = TiesMerkleTree.getPath(rows, i);
+				assertArrayEquals("Row " + i + " of " + count, root, verify(rows.get(i), path));
+				assertTrue(path.size() <= 32 - Integer.numberOfLeadingZeros(count - 1));
+			}
+		}
+	}
+
+	@Test
+	public void testProvesRowsUpToTreeRoot() {
+		int depth = 3;
+		byte[][] leaves = new byte[1 << depth][];
+		List<List<byte[]>> buckets = new ArrayList<>();
+		for (int bucket = 0; bucket < leaves.length; bucket++) {
+			List<byte[]> rows = hashes(bucket * 10, bucket % 4);
+			buckets.add(rows);
+			leaves[bucket] = TiesMerkleTree.getRoot(rows);
+		}
+		TiesMerkleTree tree = new TiesMerkleTree(depth, leaves);
+		for (int bucket = 0; bucket < leaves.length; bucket++) {
+			List<byte[]> rows = buckets.get(bucket);
+			for (int i = 0; i < rows.size(); i++) {
+				List<Step> path = new ArrayList<>(TiesMerkleTree.getPath(rows, i));
+				path.addAll(tree.getPath(bucket));
+				assertArrayEquals(tree.getRoot(), verify(rows.get(i), path));
+			}
+			assertEquals(depth, tree.getPath(bucket).size());
+		}
+	}
+
+	@Test
+	public void testRejectsChangedRow() {
+		List<byte[]> rows = hashes(5);
+		byte[] root = TiesMerkleTree.getRoot(rows);
+		List<Step> path = TiesMerkleTree.getPath(rows, 3);
+		assertFalse(Arrays.equals(root, verify(hash(100), path)));
+		// Path of another row does not prove the row
+		assertFalse(Arrays.equals(root, verify(rows.get(3), TiesMerkleTree.getPath(rows, 2))));
+	}
+
+	@Test
+	public void testUpdatesRootWithLeaf() {
+		byte[][] leaves = { hash(0), hash(1), hash(2), hash(3) };
+		TiesMerkleTree tree = new TiesMerkleTree(2, leaves.clone());
+		assertArrayEquals(TiesMerkleTree.hash(TiesMerkleTree.hash(leaves[0], leaves[1]),
+				TiesMerkleTree.hash(leaves[2], leaves[3])), tree.getRoot());
+		tree.setLeaf(2, hash(20), tree.getStamp(2));
+		leaves[2] = hash(20);
+		assertArrayEquals(new TiesMerkleTree(2, leaves).getRoot(), tree.getRoot());
+		assertArrayEquals(tree.getRoot(), verify(hash(20), tree.getPath(2)));
+		assertEquals(2, tree.getHashes(1).size());
+		assertArrayEquals(TiesMerkleTree.hash(leaves[2], leaves[3]), tree.getHashes(1).get(1));
+		assertArrayEquals(leaves[2], tree.getHashes(2, Collections.singletonList(2)).get(0));
+	}
+
+	@Test
+	public void testTracksDirtyBuckets() {
+		TiesMerkleTree tree = new TiesMerkleTree(2, new byte[][] { hash(0), null, hash(2), null });
+		assertEquals(Arrays.asList(1, 3), tree.getDirtyBuckets());
+		assertArrayEquals(TiesMerkleTree.EMPTY, tree.getLeaf(1));
+		assertNull(tree.getLeaves()[1]);
+		assertArrayEquals(hash(0), tree.getLeaves()[0]);
+
+		int stamp = tree.getStamp(0);
+		tree.invalidate(0);
+		assertEquals(stamp + 1, tree.getStamp(0));
+		// Leaf is kept until the bucket is rehashed
+		assertArrayEquals(hash(0), tree.getLeaf(0));
+		assertEquals(Arrays.asList(0, 1, 3), tree.getDirtyBuckets());
+
+		// Bucket changed while it was hashed stays dirty
+		tree.setLeaf(0, hash(10), stamp);
+		assertArrayEquals(hash(10), tree.getLeaf(0));
+		assertEquals(Arrays.asList(0, 1, 3), tree.getDirtyBuckets());
+		tree.setLeaf(0, hash(11), tree.getStamp(0));
+		tree.setLeaf(1, hash(1), tree.getStamp(1));
+		assertEquals(Arrays.asList(3), tree.getDirtyBuckets());
+	}
+
+	@Test
+	public void testSplitsTokenRingIntoBuckets() {
+		TiesMerkleTree tree = new TiesMerkleTree(4, new byte[16][]);
+		assertEquals(Long.MIN_VALUE, tree.getFirstToken(0));
+		assertEquals(Long.MAX_VALUE, tree.getLastToken(15));
+		for (int bucket = 0; bucket < 16; bucket++) {
+			assertEquals(bucket, tree.getBucket(tree.getFirstToken(bucket)));
+			assertEquals(bucket, tree.getBucket(tree.getLastToken(bucket)));
+			if (bucket > 0) {
+				assertEquals(tree.getLastToken(bucket - 1) + 1, tree.getFirstToken(bucket));
+			}
+		}
+		assertEquals(8, tree.getBucket(0));
+
+		TiesMerkleTree single = new TiesMerkleTree(0, new byte[1][]);
+		assertEquals(0, single.getBucket(Long.MIN_VALUE));
+		assertEquals(0, single.getBucket(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, single.getLastToken(0));
+		assertTrue(single.getPath(0).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsWrongLeavesCount() {
+		new TiesMerkleTree(2, new byte[3][]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsIllegalIndex() {
+		new TiesMerkleTree(2, new byte[4][]).getHashes(1, Collections.singletonList(2));
+	}
+
+	/*
+	 * Returns the root proven by the path, the way a client verifies it
+	 */
+	private static byte[] verify(byte[] hash, List<Step> path) {
+		for (Step step : path) {
+			hash = step.isLeft() ? TiesMerkleTree.hash(step.getHash(), hash)
+					: TiesMerkleTree.hash(hash, step.getHash());
+		}
+		return hash;
+	}
+
+	private static List<byte[]> hashes(int count) {
+		return hashes(0, count);
+	}
+
+	private static List<byte[]> hashes(int first, int count) {
+		List<byte[]> hashes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			hashes.add(hash(first + i));
+		}
+		return hashes;
+	}
+
+	private static byte[] hash(int value) {
+		byte[] hash = new byte[TiesMerkleTree.HASH_LENGTH];
+		hash[0] = (byte) (value >> 8);
+		hash[1] = (byte) value;
+		hash[2] = 1;
+		return hash;
+	}
+
+}
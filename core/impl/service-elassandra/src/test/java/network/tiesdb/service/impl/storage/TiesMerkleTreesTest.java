@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+
+/**
+ * Tests of the serialized primary keys of {@link TiesMerkleTrees}.
+ */
+public class TiesMerkleTreesTest {
+
+	@Test
+	public void testReadsKeyValues() throws TiesStorageException {
+		ByteBuffer key = key(new byte[] { 1, 2 }, new byte[0], new byte[] { 3 });
+		List<ByteBuffer> values = TiesMerkleTrees.getKeyValues(key, 3);
+		assertEquals(Arrays.asList(ByteBuffer.wrap(new byte[] { 1, 2 }), ByteBuffer.allocate(0),
+				ByteBuffer.wrap(new byte[] { 3 })), values);
+		assertEquals("Key should not be consumed", 0, key.position());
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsMissingValues() throws TiesStorageException {
+		TiesMerkleTrees.getKeyValues(key(new byte[] { 1 }), 2);
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsExtraBytes() throws TiesStorageException {
+		TiesMerkleTrees.getKeyValues(key(new byte[] { 1 }, new byte[] { 2 }), 1);
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsTruncatedValue() throws TiesStorageException {
+		TiesMerkleTrees.getKeyValues(ByteBuffer.wrap(new byte[] { 0, 0, 0, 3, 1, 2 }), 1);
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsNegativeLength() throws TiesStorageException {
+		TiesMerkleTrees.getKeyValues(ByteBuffer.wrap(new byte[] { (byte) 0xff, 0, 0, 0 }), 1);
+	}
+
+	private static ByteBuffer key(byte[]... values) {
+		int length = 0;
+		for (byte[] value : values) {
+			length += Integer.BYTES + value.length;
+		}
+		ByteBuffer key = ByteBuffer.allocate(length);
+		for (byte[] value : values) {
+			key.putInt(value.length).put(value);
+		}
+		key.flip();
+		return key;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.db.BufferDecoratedKey;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStoragePage;
+
+/**
+ * Tests of {@link TiesPartitionFanOut} slicing, merging and paging.
+ */
+public class TiesPartitionFanOutTest {
+
+	private final TiesPartitionFanOut fanOut = new TiesPartitionFanOut(2, 4) {
+		@Override
+		String getPrimaryReplica(String keyspace, DecoratedKey key) {
+			// Partitions of odd tokens are on one replica, of even on another
+			return 0 == (Long) key.getToken().getTokenValue() % 2 ? "even" : "odd";
+		}
+	};
+
+	@After
+	public void shutdown() {
+		fanOut.shutdown();
+	}
+
+	@Test
+	public void testSlicesByReplicaAndKeyOrder() {
+		List<DecoratedKey> keys = keys(5, 1, 4, 2, 3);
+		List<int[]> slices = fanOut.slice("ks", keys, 0, keys.size());
+		assertEquals(2, slices.size());
+		// Tokens 2, 4 of even replica, then 1, 3, 5 of odd one
+		assertArrayEquals(new int[] { 3, 2 }, slices.get(0));
+		assertArrayEquals(new int[] { 1, 4, 0 }, slices.get(1));
+	}
+
+	@Test
+	public void testSlicesPartOfKeys() {
+		List<DecoratedKey> keys = keys(5, 1, 4, 2, 3);
+		List<int[]> slices = fanOut.slice("ks", keys, 2, 4);
+		assertEquals(2, slices.size());
+		assertArrayEquals(new int[] { 3 }, slices.get(0));
+		assertArrayEquals(new int[] { 2 }, slices.get(1));
+	}
+
+	@Test
+	public void testMergesRowsInRequestedOrder() throws TiesStorageException {
+		List<DecoratedKey> keys = keys(9, 3, 8, 1, 7, 2, 6, 4, 5);
+		TiesStoragePage page = fanOut.select("ks", keys, 100, null, reader(1));
+		assertEquals(rows(keys.size(), 1), page.getRows());
+		assertTrue(page.isLast());
+	}
+
+	@Test
+	public void testPagesPartitionsAcrossWaves() throws TiesStorageException {
+		List<DecoratedKey> keys = keys(9, 3, 8, 1, 7);
+		List<Map<String, Object>> rows = new ArrayList<>();
+		byte[] state = null;
+		int pages = 0;
+		do {
+			TiesStoragePage page = fanOut.select("ks", keys, 4, state, reader(3));
+			assertTrue(page.getRows().size() <= 4);
+			rows.addAll(page.getRows());
+			state = page.getPagingState();
+			pages++;
+		} while (null != state);
+		assertEquals(rows(keys.size(), 3), rows);
+		assertEquals(4, pages);
+	}
+
+	@Test
+	public void testReturnsEmptyPageOfNoKeys() throws TiesStorageException {
+		TiesStoragePage page = fanOut.select("ks", Collections.<DecoratedKey>emptyList(), 10, null, reader(1));
+		assertTrue(page.getRows().isEmpty());
+		assertNull(page.getPagingState());
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsIllegalPagingState() throws TiesStorageException {
+		fanOut.select("ks", keys(1, 2), 10, ByteBuffer.allocate(Integer.BYTES).putInt(2).array(), reader(1));
+	}
+
+	@Test
+	public void testPropagatesReadFailure() {
+		TiesStorageException failure = new TiesStorageException("Read failed");
+		try {
+			fanOut.select("ks", keys(1, 2, 3, 4), 10, null, (index, limit, pagingState) -> {
+				if (2 == index) {
+					throw failure;
+				}
+				return new TiesStoragePage(Collections.<Map<String, Object>>emptyList(), null);
+			});
+			fail("Read should fail");
+		} catch (TiesStorageException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	/*
+	 * Reads partitions of the given count of rows, paging state is the offset
+	 * of the next row
+	 */
+	private static TiesPartitionFanOut.Reader reader(int partitionRows) {
+		return (index, limit, pagingState) -> {
+			int offset = null == pagingState ? 0 : ByteBuffer.wrap(pagingState).getInt();
+			int end = Math.min(partitionRows, offset + limit);
+			List<Map<String, Object>> rows = new ArrayList<>();
+			for (int i = offset; i < end; i++) {
+				rows.add(row(index, i));
+			}
+			return new TiesStoragePage(rows,
+					end < partitionRows ? ByteBuffer.allocate(Integer.BYTES).putInt(end).array() : null);
+		};
+	}
+
+	private static List<Map<String, Object>> rows(int partitions, int partitionRows) {
+		List<Map<String, Object>> rows = new ArrayList<>();
+		for (int index = 0; index < partitions; index++) {
+			for (int i = 0; i < partitionRows; i++) {
+				rows.add(row(index, i));
+			}
+		}
+		return rows;
+	}
+
+	private static Map<String, Object> row(int index, int i) {
+		return Collections.<String, Object>singletonMap("row", index + "." + i);
+	}
+
+	private static List<DecoratedKey> keys(long... tokens) {
+		List<DecoratedKey> keys = new ArrayList<>(tokens.length);
+		for (long token : tokens) {
+			keys.add(new BufferDecoratedKey(new LongToken(token), ByteBufferUtil.bytes(token)));
+		}
+		return keys;
+	}
+
+}
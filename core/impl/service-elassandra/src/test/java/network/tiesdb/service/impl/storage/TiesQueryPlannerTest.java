@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStoragePlan;
+import network.tiesdb.storage.api.TiesStoragePlan.AccessPath;
+import network.tiesdb.storage.api.TiesStoragePredicate;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Tests of {@link TiesQueryPlanner} access path choice.
+ */
+public class TiesQueryPlannerTest {
+
+	private static final long MAX_SCAN_PARTITIONS = 10000;
+
+	private static TiesTableSchema tableSchema;
+
+	@BeforeClass
+	public static void createTableSchema() {
+		// Table metadata is built without the node configuration
+		Config.setClientMode(true);
+		tableSchema = new TiesTableSchema(CFMetaData.Builder.create("ks", "t") //
+				.addPartitionKey("id", Int32Type.instance) //
+				.addClusteringColumn("c", UTF8Type.instance) //
+				.addRegularColumn("v", Int32Type.instance) //
+				.withId(UUID.randomUUID()).build());
+	}
+
+	@Test
+	public void testLooksUpPartitionWithoutIndex() throws TiesStorageException {
+		TiesStoragePlan plan = plan(1000, TiesQueryPlanner.NOT_INDEXED, where("id", 1), predicates());
+		assertEquals(AccessPath.PARTITION_LOOKUP, plan.getAccessPath());
+		assertRejected(plan, AccessPath.INDEX, "Table is not indexed");
+	}
+
+	@Test
+	public void testSlicesClusteringRange() throws TiesStorageException {
+		TiesStoragePlan plan = plan(1000, 1000, where("id", 1), predicates( //
+				TiesStoragePredicate.range("c", "a", true, "b", false)));
+		assertEquals(AccessPath.CLUSTERING_SLICE, plan.getAccessPath());
+		assertEquals("partition key id, clustering range c", plan.getDescription());
+	}
+
+	@Test
+	public void testSearchesIndexInsteadOfScan() throws TiesStorageException {
+		TiesStoragePlan plan = plan(1000, 1000, where("v", 1), predicates());
+		assertEquals(AccessPath.INDEX, plan.getAccessPath());
+		assertEquals(10, plan.getEstimatedRows());
+		assertRejected(plan, AccessPath.PARTITION_LOOKUP, "Partition key column id is not restricted by equality");
+		assertEquals(AccessPath.SCAN, plan.getAlternatives().get(1).getAccessPath());
+		assertTrue(plan.getCost() < plan.getAlternatives().get(1).getCost());
+	}
+
+	@Test
+	public void testScansWithoutIndex() throws TiesStorageException {
+		TiesStoragePlan plan = plan(1000, TiesQueryPlanner.NOT_INDEXED, where("v", 1), predicates());
+		assertEquals(AccessPath.SCAN, plan.getAccessPath());
+		assertEquals(10, plan.getEstimatedRows());
+	}
+
+	@Test
+	public void testScansSmallTableDespiteIndex() throws TiesStorageException {
+		TiesStoragePlan plan = plan(5, 5, where("v", 1), predicates());
+		assertEquals(AccessPath.SCAN, plan.getAccessPath());
+		assertEquals(AccessPath.INDEX, plan.getAlternatives().get(1).getAccessPath());
+	}
+
+	@Test
+	public void testSearchesIndexForText() throws TiesStorageException {
+		TiesStoragePlan plan = plan(5, 5, where("id", 1), predicates(TiesStoragePredicate.prefix("c", "a")));
+		assertEquals(AccessPath.INDEX, plan.getAccessPath());
+		assertRejected(plan, AccessPath.PARTITION_LOOKUP, "Prefix and match predicates need index");
+	}
+
+	@Test
+	public void testRejectsQueryWithoutAccessPath() {
+		assertNoAccessPath(plan -> plan.plan(tableSchema, new TiesStorageQuery("ks", "t", null, null,
+				predicates(TiesStoragePredicate.match("c", "word")))), TiesQueryPlanner.NOT_INDEXED);
+		assertNoAccessPath(plan -> plan.plan(tableSchema, new TiesStorageQuery("ks", "t", null, where("v", 1))),
+				TiesQueryPlanner.NOT_INDEXED);
+	}
+
+	@Test
+	public void testLooksUpKeys() throws TiesStorageException {
+		TiesStoragePlan plan = planner(1000, 1000).plan(tableSchema, new TiesStorageQuery("ks", "t", null, null,
+				null, Arrays.asList(where("id", 1), where("id", 2))));
+		assertEquals(AccessPath.PARTITION_LOOKUP, plan.getAccessPath());
+		assertEquals("2 partition keys id", plan.getDescription());
+		assertRejected(plan, AccessPath.INDEX, "Keys are read by partition lookups");
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsUnknownColumn() throws TiesStorageException {
+		plan(1000, 1000, where("x", 1), predicates());
+	}
+
+	private interface Planning {
+		TiesStoragePlan plan(TiesQueryPlanner planner) throws TiesStorageException;
+	}
+
+	private static void assertNoAccessPath(Planning planning, long indexDocs) {
+		try {
+			planning.plan(planner(MAX_SCAN_PARTITIONS + 1, indexDocs));
+			fail("Query should have no access path");
+		} catch (TiesStorageException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("No access path for the query"));
+		}
+	}
+
+	private static void assertRejected(TiesStoragePlan plan, AccessPath accessPath, String reason) {
+		for (TiesStoragePlan alternative : plan.getAlternatives()) {
+			if (accessPath == alternative.getAccessPath()) {
+				assertEquals(reason, alternative.getRejected());
+				return;
+			}
+		}
+		fail("Plan " + plan + " has no alternative " + accessPath);
+	}
+
+	private static TiesStoragePlan plan(long partitions, long indexDocs, Map<String, Object> where,
+			List<TiesStoragePredicate> predicates) throws TiesStorageException {
+		return planner(partitions, indexDocs).plan(tableSchema,
+				new TiesStorageQuery("ks", "t", null, where, predicates));
+	}
+
+	private static TiesQueryPlanner planner(long partitions, long indexDocs) {
+		return new TiesQueryPlanner(MAX_SCAN_PARTITIONS) {
+
+			@Override
+			long estimatePartitions(TiesTableSchema tableSchema) {
+				return partitions;
+			}
+
+			@Override
+			double estimatePartitionRows(TiesTableSchema tableSchema) {
+				return 1;
+			}
+
+			@Override
+			long getIndexDocs(TiesTableSchema tableSchema) {
+				return indexDocs;
+			}
+
+		};
+	}
+
+	private static Map<String, Object> where(String name, Object value) {
+		Map<String, Object> where = new LinkedHashMap<>();
+		where.put(name, value);
+		return where;
+	}
+
+	private static List<TiesStoragePredicate> predicates(TiesStoragePredicate... predicates) {
+		return Arrays.asList(predicates);
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.cql3.CQLStatement;
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.functions.Function;
+import org.apache.cassandra.service.ClientState;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.transport.messages.ResultMessage;
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.service.impl.storage.TiesStatementCache.Loader;
+import network.tiesdb.service.impl.storage.TiesStatementCache.Operation;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesGauge;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Tests of {@link TiesStatementCache} eviction and invalidation.
+ */
+public class TiesStatementCacheTest {
+
+	private static final CQLStatement STATEMENT = new CQLStatement() {
+
+		@Override
+		public int getBoundTerms() {
+			return 0;
+		}
+
+		@Override
+		public void checkAccess(ClientState state) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void validate(ClientState state) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ResultMessage execute(QueryState state, QueryOptions options) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ResultMessage executeInternal(QueryState state, QueryOptions options) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Iterable<Function> getFunctions() {
+			return Collections.emptyList();
+		}
+
+	};
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@Test
+	public void testReturnsCachedStatement() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(4);
+		TiesPreparedStatement statement = get(cache, "t", "a", "b");
+		assertSame(statement, get(cache, "t", "a", "b"));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testIgnoresOrderOfColumns() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(4);
+		TiesPreparedStatement statement = cache.get("ks", "t", Operation.SELECT, columns("a", "b", "c"),
+				columns("x", "y"), this::load);
+		assertSame(statement,
+				cache.get("ks", "t", Operation.SELECT, columns("c", "a", "b"), columns("y", "x"), this::load));
+		assertSame(statement, cache.get("ks", "t", Operation.SELECT, new HashSet<>(Arrays.asList("b", "c", "a")),
+				new HashSet<>(Arrays.asList("x", "y")), this::load));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testTellsKeysApart() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(16);
+		TiesPreparedStatement statement = get(cache, "t", "a");
+		assertNotSame(statement, get(cache, "t", "a", "b"));
+		assertNotSame(statement, get(cache, "u", "a"));
+		assertNotSame(statement, cache.get("ks", "t", Operation.SCAN, columns("a"), this::load));
+		assertNotSame(statement, cache.get("ks", "t", Operation.INSERT, columns("a"), columns("a"), this::load));
+		assertNotSame(statement, cache.get("other", "t", Operation.INSERT, columns("a"), this::load));
+		assertEquals(6, loads.get());
+		assertEquals(6, cache.size());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedAtMaxSize() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(3);
+		TiesPreparedStatement a = get(cache, "a");
+		TiesPreparedStatement b = get(cache, "b");
+		get(cache, "c");
+		// Use of a makes b the eldest
+		assertSame(a, get(cache, "a"));
+		get(cache, "d");
+		assertEquals(3, cache.size());
+		assertEquals(4, loads.get());
+		assertSame(a, get(cache, "a"));
+		assertNotSame(b, get(cache, "b"));
+		assertEquals(5, loads.get());
+		assertEquals(3, cache.size());
+	}
+
+	@Test
+	public void testCachesNothingOfZeroSize() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(0);
+		assertNotSame(get(cache, "a"), get(cache, "a"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testInvalidatesTable() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(4);
+		TiesPreparedStatement t = get(cache, "t");
+		TiesPreparedStatement u = get(cache, "u");
+		cache.invalidate("ks", "t");
+		assertSame(u, get(cache, "u"));
+		assertNotSame(t, get(cache, "t"));
+		cache.invalidate("ks");
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testDropsStatementLoadedWhileInvalidated() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(4);
+		Loader loader = () -> {
+			TiesPreparedStatement statement = load();
+			// Schema changes while the statement is being prepared
+			cache.invalidate("ks", "other");
+			return statement;
+		};
+		TiesPreparedStatement stale = cache.get("ks", "t", Operation.INSERT, columns("a"), loader);
+		assertEquals(0, cache.size());
+		TiesPreparedStatement statement = get(cache, "t", "a");
+		assertNotSame(stale, statement);
+		assertSame(statement, get(cache, "t", "a"));
+		assertEquals(2, loads.get());
+	}
+
+	@Test
+	public void testDropsStatementLoadedWhileAllInvalidated() throws TiesStorageException {
+		TiesStatementCache cache = new TiesStatementCache(4);
+		cache.get("ks", "t", Operation.INSERT, columns("a"), () -> {
+			TiesPreparedStatement statement = load();
+			cache.invalidateAll();
+			return statement;
+		});
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testPublishesCounts() throws TiesStorageException {
+		TiesMetricRegistry registry = TiesMetricRegistry.getDefault();
+		TiesCounter hits = registry.counter("StatementCacheRequests", "result", "hit");
+		TiesCounter misses = registry.counter("StatementCacheRequests", "result", "miss");
+		long hitCount = hits.getCount();
+		long missCount = misses.getCount();
+		TiesStatementCache cache = new TiesStatementCache(4);
+		get(cache, "t");
+		get(cache, "t");
+		get(cache, "u");
+		assertEquals(hitCount + 1, hits.getCount());
+		assertEquals(missCount + 2, misses.getCount());
+		assertEquals(2, ((TiesGauge) registry.getMetrics().get("network.tiesdb:type=StatementCacheSize")).getValue());
+	}
+
+	private TiesPreparedStatement get(TiesStatementCache cache, String table, String... columns)
+			throws TiesStorageException {
+		return cache.get("ks", table, Operation.INSERT, columns(columns), this::load);
+	}
+
+	private TiesPreparedStatement load() {
+		return new TiesPreparedStatement("statement " + loads.incrementAndGet(), STATEMENT, Collections.emptyList());
+	}
+
+	private static Set<String> columns(String... columns) {
+		return new LinkedHashSet<>(Arrays.asList(columns));
+	}
+
+}
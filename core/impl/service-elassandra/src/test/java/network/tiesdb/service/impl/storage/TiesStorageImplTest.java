@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.service.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.UUID;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.Config;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import network.tiesdb.exception.TiesStorageException;
+import network.tiesdb.storage.api.TiesStorageCells;
+import network.tiesdb.storage.api.TiesStorageQuery;
+
+/**
+ * Tests of {@link TiesStorageImpl} projections and grouping of merged cells
+ * by timestamp.
+ */
+public class TiesStorageImplTest {
+
+	private static TiesTableSchema tableSchema;
+
+	@BeforeClass
+	public static void createTableSchema() {
+		// Table metadata is built without the node configuration
+		Config.setClientMode(true);
+		tableSchema = new TiesTableSchema(CFMetaData.Builder.create("ks", "t") //
+				.addPartitionKey("id", Int32Type.instance) //
+				.addClusteringColumn("c", UTF8Type.instance) //
+				.addRegularColumn("a", UTF8Type.instance) //
+				.addRegularColumn("b", UTF8Type.instance) //
+				.addRegularColumn("d", UTF8Type.instance) //
+				.withId(UUID.randomUUID()).build());
+	}
+
+	@Test
+	public void testGroupsCellsByAscendingTimestamp() throws TiesStorageException {
+		SortedMap<Long, Set<String>> groups = group(cells("id", null, "c", null, "d", 200L, "a", 100L, "b", 200L));
+		assertEquals(Arrays.asList(100L, 200L), Arrays.asList(groups.keySet().toArray()));
+		assertEquals(names("a"), groups.get(100L));
+		assertEquals(names("b", "d"), groups.get(200L));
+	}
+
+	@Test
+	public void testWritesUntimedCellsAsOfNewest() throws TiesStorageException {
+		SortedMap<Long, Set<String>> groups = group(cells("id", null, "b", null, "a", 300L, "d", 100L));
+		assertEquals(Arrays.asList(100L, 300L), Arrays.asList(groups.keySet().toArray()));
+		assertEquals(names("a", "b"), groups.get(300L));
+	}
+
+	@Test
+	public void testWritesUntimedRowAsOfNow() throws TiesStorageException {
+		assertEquals(Collections.singletonMap(null, names("a", "b")),
+				group(cells("id", null, "c", null, "b", null, "a", null)));
+	}
+
+	@Test
+	public void testIgnoresTimestampsOfKeyColumns() throws TiesStorageException {
+		assertEquals(Collections.singletonMap(null, names()), group(cells("id", 100L, "c", 200L)));
+		assertEquals(Collections.singletonMap(300L, names("a")), group(cells("id", 100L, "a", 300L)));
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsUnknownColumn() throws TiesStorageException {
+		group(cells("id", null, "x", 100L));
+	}
+
+	@Test
+	public void testProjectsAllColumnsButExcluded() throws TiesStorageException {
+		assertEquals(Arrays.asList("id", "c", "a", "d"),
+				TiesStorageImpl.getProjection(tableSchema, query(null, "b")));
+		assertEquals(Arrays.asList("c"),
+				TiesStorageImpl.getProjection(tableSchema, query(Arrays.asList("c", "a"), "a")));
+		assertEquals(Arrays.asList("a"), TiesStorageImpl.getProjection(tableSchema, query(Arrays.asList("a"))));
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsExclusionOfAllColumns() throws TiesStorageException {
+		TiesStorageImpl.getProjection(tableSchema, query(Arrays.asList("a"), "a", "b"));
+	}
+
+	@Test(expected = TiesStorageException.class)
+	public void testRejectsExclusionOfUnknownColumn() throws TiesStorageException {
+		TiesStorageImpl.getProjection(tableSchema, query(null, "x"));
+	}
+
+	private static TiesStorageQuery query(List<String> columns, String... excluded) {
+		return new TiesStorageQuery("ks", "t", columns, null).withExcludedColumns(Arrays.asList(excluded));
+	}
+
+	private static SortedMap<Long, Set<String>> group(TiesStorageCells row) throws TiesStorageException {
+		return TiesStorageImpl.groupByTimestamp(tableSchema, row);
+	}
+
+	/*
+	 * Cells of the given names and timestamps
+	 */
+	private static TiesStorageCells cells(Object... cells) {
+		Map<String, byte[]> values = new LinkedHashMap<>();
+		Map<String, Long> timestamps = new LinkedHashMap<>();
+		for (int i = 0; i < cells.length; i += 2) {
+			String name = (String) cells[i];
+			values.put(name, new byte[0]);
+			if (null != cells[i + 1]) {
+				timestamps.put(name, (Long) cells[i + 1]);
+			}
+		}
+		return new TiesStorageCells(values, timestamps);
+	}
+
+	private static Set<String> names(String... names) {
+		return new LinkedHashSet<>(Arrays.asList(names));
+	}
+
+}
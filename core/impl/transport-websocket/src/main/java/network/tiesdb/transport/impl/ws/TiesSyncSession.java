@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import network.tiesdb.exception.TiesException;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.storage.api.TiesStorageCells;
+import network.tiesdb.storage.api.TiesStorageDigest;
+import network.tiesdb.storage.api.TiesStorageEntry;
+import network.tiesdb.transport.impl.ws.netty.WebSocketSyncClient;
+
+/**
+ * Range sync of the tables of this node with a peer node.
+ * 
+ * <P>Hash trees of a table are compared top down, {@code levelsPerRequest}
+ * levels per round trip, and only the children of the nodes which differ are
+ * compared further. Entries of the buckets which differ are compared row by
+ * row, then the rows the peer has and this node lacks or has different are
+ * fetched from the peer by their serialized primary keys and merged into this
+ * node. So the count of requests and the amount of data transferred depend on
+ * how much the tables differ and not on the table size.
+ * 
+ * <P>Rows are fetched as stored cells along with their write timestamps and
+ * are merged using the same timestamps, so the newest write of each cell wins
+ * the same way it does between the replicas of Cassandra, no matter which of
+ * the nodes pulls it. Cells of non-frozen collections have no single
+ * timestamp and are merged as of the newest cell of the row.
+ */
+class TiesSyncSession {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final List<Map<String, Object>> NO_KEYS = Collections.emptyList();
+
+	private final TiesStorage storage;
+	private final WebSocketSyncClient client;
+	private final int levelsPerRequest;
+	private final int maxNodesPerRequest;
+	private final int maxBucketsPerRequest;
+	private final int maxRowsPerRequest;
+
+	private long requestCount = 0;
+
+	TiesSyncSession(TiesStorage storage, WebSocketSyncClient client, int levelsPerRequest, int maxNodesPerRequest,
+			int maxBucketsPerRequest, int maxRowsPerRequest) {
+		if (null == storage) {
+			throw new NullPointerException("The storage should not be null");
+		}
+		if (null == client) {
+			throw new NullPointerException("The client should not be null");
+		}
+		this.storage = storage;
+		this.client = client;
+		this.levelsPerRequest = levelsPerRequest;
+		this.maxNodesPerRequest = maxNodesPerRequest;
+		this.maxBucketsPerRequest = maxBucketsPerRequest;
+		this.maxRowsPerRequest = maxRowsPerRequest;
+	}
+
+	/**
+	 * Pulls the rows of the table which differ from the peer.
+	 * 
+	 * @return count of merged rows
+	 */
+	int sync(String keyspace, String table) throws TiesException {
+		TiesStorageDigest digest = storage.digest(keyspace, table, 0, null, NO_KEYS);
+		Map<?, ?> peerDigest = digest(keyspace, table, 0, null, false);
+		int depth = digest.getDepth();
+		if (!Integer.valueOf(depth).equals(peerDigest.get("depth"))) {
+			throw new TiesException("Hash tree depth " + peerDigest.get("depth") + " of the peer should be " + depth);
+		}
+		if (toHex(digest.getRoot()).equals(peerDigest.get("root"))) {
+			return 0;
+		}
+		List<Integer> nodes = Collections.singletonList(0);
+		for (int level = 0; level < depth && !nodes.isEmpty();) {
+			int next = Math.min(depth, level + levelsPerRequest);
+			List<Integer> children = new ArrayList<>(nodes.size() << (next - level));
+			for (int node : nodes) {
+				for (int child = node << (next - level); child < (node + 1) << (next - level); child++) {
+					children.add(child);
+				}
+			}
+			nodes = new ArrayList<>();
+			for (List<Integer> chunk : split(children, maxNodesPerRequest)) {
+				List<byte[]> hashes = storage.digest(keyspace, table, next, chunk, NO_KEYS).getHashes();
+				List<?> peerHashes = get(digest(keyspace, table, next, chunk, false), "hashes", List.class);
+				if (peerHashes.size() != chunk.size()) {
+					throw new TiesException(
+							"Hashes count " + peerHashes.size() + " of the peer should be " + chunk.size());
+				}
+				for (int i = 0; i < chunk.size(); i++) {
+					if (!toHex(hashes.get(i)).equals(peerHashes.get(i))) {
+						nodes.add(chunk.get(i));
+					}
+				}
+			}
+			level = next;
+		}
+		int count = 0;
+		for (List<Integer> buckets : split(nodes, maxBucketsPerRequest)) {
+			Map<String, String> hashes = new HashMap<>();
+			for (int bucket : buckets) {
+				for (TiesStorageEntry entry : storage.entries(keyspace, table, bucket)) {
+					hashes.put(toHex(entry.getId()), toHex(entry.getHash()));
+				}
+			}
+			List<String> keys = new ArrayList<>();
+			for (Object peerEntry : get(digest(keyspace, table, depth, buckets, true), "entries", List.class)) {
+				if (!(peerEntry instanceof Map)) {
+					throw new TiesException("Illegal entry in peer response");
+				}
+				String hash = hashes.get(((Map<?, ?>) peerEntry).get("id"));
+				if (!get((Map<?, ?>) peerEntry, "hash", String.class).equals(hash)) {
+					keys.add(get((Map<?, ?>) peerEntry, "rawKey", String.class));
+				}
+			}
+			for (List<String> chunk : split(keys, maxRowsPerRequest)) {
+				List<TiesStorageCells> rows = fetch(keyspace, table, chunk);
+				if (!rows.isEmpty()) {
+					count += storage.merge(keyspace, table, rows);
+				}
+			}
+		}
+		return count;
+	}
+
+	private Map<?, ?> digest(String keyspace, String table, int level, List<Integer> nodes, boolean entries)
+			throws TiesException {
+		Map<String, Object> request = new LinkedHashMap<>();
+		request.put("keyspace", keyspace);
+		request.put("table", table);
+		request.put("level", level);
+		if (null != nodes) {
+			request.put("nodes", nodes);
+		}
+		if (entries) {
+			request.put("entries", true);
+		}
+		return request("digest", request).get(0);
+	}
+
+	private List<TiesStorageCells> fetch(String keyspace, String table, List<String> keys) throws TiesException {
+		Map<String, Object> request = new LinkedHashMap<>();
+		request.put("keyspace", keyspace);
+		request.put("table", table);
+		request.put("keys", keys);
+		List<TiesStorageCells> rows = new ArrayList<>();
+		for (Object row : get(request("fetch", request).get(0), "rows", List.class)) {
+			if (!(row instanceof Map)) {
+				throw new TiesException("Illegal row in peer response");
+			}
+			Map<String, byte[]> values = new LinkedHashMap<>();
+			Map<String, Long> timestamps = new HashMap<>();
+			for (Map.Entry<?, ?> cell : ((Map<?, ?>) row).entrySet()) {
+				if (!(cell.getValue() instanceof Map)) {
+					throw new TiesException("Illegal cell in peer response");
+				}
+				String name = String.valueOf(cell.getKey());
+				byte[] value = parseHex(get((Map<?, ?>) cell.getValue(), "value", String.class));
+				if (null == value) {
+					throw new TiesException("Illegal value of " + name + " in peer response");
+				}
+				values.put(name, value);
+				Object timestamp = ((Map<?, ?>) cell.getValue()).get("timestamp");
+				if (null != timestamp) {
+					if (!(timestamp instanceof Integer || timestamp instanceof Long)) {
+						throw new TiesException("Illegal timestamp of " + name + " in peer response");
+					}
+					timestamps.put(name, ((Number) timestamp).longValue());
+				}
+			}
+			rows.add(new TiesStorageCells(values, timestamps));
+		}
+		return rows;
+	}
+
+	/*
+	 * Responses of the request are collected until the one which is not
+	 * followed by more. Late responses of the requests timed out before are
+	 * skipped by their ids.
+	 */
+	private List<Map<?, ?>> request(String type, Map<String, Object> request) throws TiesException {
+		String id = "sync-" + ++requestCount;
+		Map<String, Object> root = new LinkedHashMap<>();
+		root.put("id", id);
+		root.put(type, request);
+		client.send(write(root));
+		List<Map<?, ?>> responses = new ArrayList<>();
+		while (true) {
+			Map<?, ?> response = read(client.receive());
+			boolean own = id.equals(response.get("id"));
+			if (Boolean.TRUE.equals(response.get("error")) && (own || null == response.get("id"))) {
+				throw new TiesException("Peer failed to " + type + ": " + response.get("message"));
+			}
+			if (!own) {
+				continue;
+			}
+			Map<?, ?> result = get(response, type, Map.class);
+			responses.add(result);
+			if (!Boolean.TRUE.equals(result.get("more"))) {
+				return responses;
+			}
+		}
+	}
+
+	private static String write(Object value) throws TiesException {
+		try {
+			return MAPPER.writeValueAsString(value);
+		} catch (IOException e) {
+			throw new TiesException("Can't write request to the peer", e);
+		}
+	}
+
+	private static Map<?, ?> read(String message) throws TiesException {
+		try {
+			return MAPPER.readValue(message, Map.class);
+		} catch (IOException e) {
+			throw new TiesException("Can't read response of the peer", e);
+		}
+	}
+
+	private static <T> T get(Map<?, ?> map, String name, Class<T> type) throws TiesException {
+		Object value = map.get(name);
+		if (!type.isInstance(value)) {
+			throw new TiesException("Illegal " + name + " in peer response");
+		}
+		return type.cast(value);
+	}
+
+	private static <T> List<List<T>> split(List<T> list, int size) {
+		List<List<T>> chunks = new ArrayList<>((list.size() + size - 1) / size);
+		for (int i = 0; i < list.size(); i += size) {
+			chunks.add(list.subList(i, Math.min(list.size(), i + size)));
+		}
+		return chunks;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Returns bytes of the hex string or null if it is not a hex string.
+	 */
+	private static byte[] parseHex(String hex) {
+		if (0 != hex.length() % 2) {
+			return null;
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(i * 2), 16);
+			int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if (high < 0 || low < 0) {
+				return null;
+			}
+			bytes[i] = (byte) (high << 4 | low);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import network.tiesdb.context.api.TiesHandlerConfig;
+import network.tiesdb.context.api.TiesTransportConfig;
+import network.tiesdb.context.api.annotation.TiesConfigElement;
+import network.tiesdb.transport.api.TiesTransportFactory;
+
+/**
+ * TiesDB sync transport configuration implementation.
+ * 
+ * <P>Sync transport has no service address of its own, it connects to the
+ * WebSocket transports of the {@code peers} and pulls the rows of the
+ * {@code tables} this node lacks.
+ */
+@TiesConfigElement({ TiesSyncTransportConfigImpl.BINDING, TiesSyncTransportConfigImpl.SHORT_BINDING })
+public class TiesSyncTransportConfigImpl implements TiesTransportConfig {
+
+	static final String BINDING = "network.tiesdb.transport.Sync";
+	static final String SHORT_BINDING = "SyncTransport";
+
+	private List<String> peers = Collections.emptyList();
+	private List<String> tables = Collections.emptyList();
+	private long syncInterval = 60;
+	private String syncIntervalTimeUnit = TimeUnit.SECONDS.name();
+	private long requestTimeout = 30;
+	private String requestTimeoutUnit = TimeUnit.SECONDS.name();
+	private Integer levelsPerRequest = 4;
+	private Integer maxNodesPerRequest = 1024;
+	private Integer maxBucketsPerRequest = 16;
+	private Integer maxRowsPerRequest = 256;
+	private Integer maxMessageLength = 64 * 1024 * 1024;
+
+	public TiesSyncTransportConfigImpl() {
+		// NOP Is not empty config values
+	}
+
+	public TiesSyncTransportConfigImpl(String value) {
+		// NOP If this constructor is called then config values is empty and we
+		// should use default
+	}
+
+	@Override
+	public TiesTransportFactory getTiesTransportFactory() {
+		return new TiesSyncTransportFactoryImpl();
+	}
+
+	@Override
+	public TiesHandlerConfig getHandlerConfig() {
+		return null;
+	}
+
+	@Override
+	public Integer getServicePort() {
+		return null;
+	}
+
+	@Override
+	public String getServiceAddress() {
+		return null;
+	}
+
+	public List<String> getPeers() {
+		return peers;
+	}
+
+	public void setPeers(List<String> peers) {
+		this.peers = peers;
+	}
+
+	public List<String> getTables() {
+		return tables;
+	}
+
+	public void setTables(List<String> tables) {
+		this.tables = tables;
+	}
+
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+	public void setSyncInterval(long syncInterval) {
+		this.syncInterval = syncInterval;
+	}
+
+	public String getSyncIntervalTimeUnit() {
+		return syncIntervalTimeUnit;
+	}
+
+	public void setSyncIntervalTimeUnit(String syncIntervalTimeUnit) {
+		this.syncIntervalTimeUnit = syncIntervalTimeUnit;
+	}
+
+	public long getRequestTimeout() {
+		return requestTimeout;
+	}
+
+	public void setRequestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+	public String getRequestTimeoutUnit() {
+		return requestTimeoutUnit;
+	}
+
+	public void setRequestTimeoutUnit(String requestTimeoutUnit) {
+		this.requestTimeoutUnit = requestTimeoutUnit;
+	}
+
+	public Integer getLevelsPerRequest() {
+		return levelsPerRequest;
+	}
+
+	public void setLevelsPerRequest(Integer levelsPerRequest) {
+		this.levelsPerRequest = levelsPerRequest;
+	}
+
+	public Integer getMaxNodesPerRequest() {
+		return maxNodesPerRequest;
+	}
+
+	public void setMaxNodesPerRequest(Integer maxNodesPerRequest) {
+		this.maxNodesPerRequest = maxNodesPerRequest;
+	}
+
+	public Integer getMaxBucketsPerRequest() {
+		return maxBucketsPerRequest;
+	}
+
+	public void setMaxBucketsPerRequest(Integer maxBucketsPerRequest) {
+		this.maxBucketsPerRequest = maxBucketsPerRequest;
+	}
+
+	public Integer getMaxRowsPerRequest() {
+		return maxRowsPerRequest;
+	}
+
+	public void setMaxRowsPerRequest(Integer maxRowsPerRequest) {
+		this.maxRowsPerRequest = maxRowsPerRequest;
+	}
+
+	public Integer getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	public void setMaxMessageLength(Integer maxMessageLength) {
+		this.maxMessageLength = maxMessageLength;
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws;
+
+import static network.tiesdb.util.Safecheck.nullsafe;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import network.tiesdb.api.TiesVersion;
+import network.tiesdb.context.api.TiesTransportConfig;
+import network.tiesdb.exception.TiesException;
+import network.tiesdb.exception.util.MessageHelper;
+import network.tiesdb.handler.api.TiesHandler;
+import network.tiesdb.service.api.TiesService;
+import network.tiesdb.storage.api.TiesStorage;
+import network.tiesdb.transport.api.TiesTransport;
+import network.tiesdb.transport.impl.ws.netty.WebSocketSyncClient;
+
+/**
+ * TiesDB sync transport implementation.
+ * 
+ * <P>Node to node transport, which periodically syncs the configured tables
+ * with each of the peers in turn by {@link TiesSyncSession}. Peers are
+ * connected as WebSocket clients of their WebSocket transports, so it has no
+ * handler and serves no requests by itself. Both nodes of a pair should sync
+ * with each other to get equal tables.
+ */
+public abstract class TiesSyncTransportImpl implements TiesTransport {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesSyncTransportImpl.class);
+
+	private static final TiesTransportImplVersion IMPLEMENTATION_VERSION = TiesTransportImplVersion.v_0_0_1_prealpha;
+
+	private final TiesService service;
+	private final TiesTransportConfig config;
+	private final List<URI> peers;
+	private final List<String[]> tables;
+	private final long syncInterval;
+	private final TimeUnit syncIntervalTimeUnit;
+	private final long requestTimeout;
+	private final TimeUnit requestTimeoutUnit;
+	private final int levelsPerRequest;
+	private final int maxNodesPerRequest;
+	private final int maxBucketsPerRequest;
+	private final int maxRowsPerRequest;
+	private final int maxMessageLength;
+
+	private final AtomicReference<EventLoopGroup> groupRef = new AtomicReference<>();
+	private final AtomicReference<ScheduledExecutorService> schedulerRef = new AtomicReference<>();
+
+	public TiesSyncTransportImpl(TiesService service, TiesTransportConfig config) {
+		if (null == service) {
+			throw new NullPointerException("The service should not be null");
+		}
+		if (null == config) {
+			throw new NullPointerException("The config should not be null");
+		}
+		this.service = service;
+		this.config = config;
+		if (config instanceof TiesSyncTransportConfigImpl) {
+			TiesSyncTransportConfigImpl syncConfig = (TiesSyncTransportConfigImpl) config;
+			this.peers = new ArrayList<>();
+			for (String peer : nullsafe(syncConfig.getPeers())) {
+				peers.add(URI.create(peer));
+			}
+			this.tables = new ArrayList<>();
+			for (String table : nullsafe(syncConfig.getTables())) {
+				int i = null == table ? -1 : table.indexOf('.');
+				if (i < 1 || i == table.length() - 1) {
+					throw new IllegalArgumentException("The table " + table + " should be named as keyspace.table");
+				}
+				tables.add(new String[] { table.substring(0, i), table.substring(i + 1) });
+			}
+			this.syncInterval = syncConfig.getSyncInterval();
+			this.syncIntervalTimeUnit = TimeUnit.valueOf(nullsafe(syncConfig.getSyncIntervalTimeUnit()));
+			this.requestTimeout = syncConfig.getRequestTimeout();
+			this.requestTimeoutUnit = TimeUnit.valueOf(nullsafe(syncConfig.getRequestTimeoutUnit()));
+			this.levelsPerRequest = nullsafe(syncConfig.getLevelsPerRequest());
+			this.maxNodesPerRequest = nullsafe(syncConfig.getMaxNodesPerRequest());
+			this.maxBucketsPerRequest = nullsafe(syncConfig.getMaxBucketsPerRequest());
+			this.maxRowsPerRequest = nullsafe(syncConfig.getMaxRowsPerRequest());
+			this.maxMessageLength = nullsafe(syncConfig.getMaxMessageLength());
+		} else {
+			logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesSyncTransportConfigImpl.class),
+					"Using default settings for missing elements");
+			this.peers = Collections.emptyList();
+			this.tables = Collections.emptyList();
+			this.syncInterval = 60;
+			this.syncIntervalTimeUnit = TimeUnit.SECONDS;
+			this.requestTimeout = 30;
+			this.requestTimeoutUnit = TimeUnit.SECONDS;
+			this.levelsPerRequest = 4;
+			this.maxNodesPerRequest = 1024;
+			this.maxBucketsPerRequest = 16;
+			this.maxRowsPerRequest = 256;
+			this.maxMessageLength = 64 * 1024 * 1024;
+		}
+		if (syncInterval < 1) {
+			throw new IllegalArgumentException("The syncInterval " + syncInterval + " should be positive");
+		}
+		if (requestTimeout < 1) {
+			throw new IllegalArgumentException("The requestTimeout " + requestTimeout + " should be positive");
+		}
+		if (levelsPerRequest < 1) {
+			throw new IllegalArgumentException("The levelsPerRequest " + levelsPerRequest + " should be positive");
+		}
+		if (maxNodesPerRequest < 1) {
+			throw new IllegalArgumentException(
+					"The maxNodesPerRequest " + maxNodesPerRequest + " should be positive");
+		}
+		if (maxBucketsPerRequest < 1) {
+			throw new IllegalArgumentException(
+					"The maxBucketsPerRequest " + maxBucketsPerRequest + " should be positive");
+		}
+		if (maxRowsPerRequest < 1) {
+			throw new IllegalArgumentException("The maxRowsPerRequest " + maxRowsPerRequest + " should be positive");
+		}
+	}
+
+	@Override
+	public TiesTransportConfig getTiesTransportConfig() {
+		return config;
+	}
+
+	protected void initInternal() throws TiesException {
+		EventLoopGroup group = new NioEventLoopGroup(1, new DefaultThreadFactory("TiesSyncClient"));
+		if (!groupRef.compareAndSet(null, group)) {
+			group.shutdownGracefully();
+			throw new TiesException("TiesDB Sync Transport has already been initialized");
+		}
+	}
+
+	protected void startInternal() throws TiesException {
+		if (null == groupRef.get()) {
+			throw new TiesException("TiesDB Sync Transport has not been initialized");
+		}
+		if (peers.isEmpty() || tables.isEmpty()) {
+			logger.info("No peers or tables to sync");
+			return;
+		}
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor(new DefaultThreadFactory("TiesSync"));
+		if (!schedulerRef.compareAndSet(null, scheduler)) {
+			scheduler.shutdown();
+			throw new TiesException("TiesDB Sync Transport has already been started");
+		}
+		scheduler.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, syncIntervalTimeUnit);
+		logger.info("Syncing {} tables with {} peers every {} {}", tables.size(), peers.size(), syncInterval,
+				syncIntervalTimeUnit);
+	}
+
+	protected void stopInternal() throws TiesException {
+		ScheduledExecutorService scheduler = schedulerRef.getAndSet(null);
+		if (null != scheduler) {
+			scheduler.shutdownNow();
+			try {
+				if (!scheduler.awaitTermination(requestTimeout, requestTimeoutUnit)) {
+					logger.warn("Sync has not been stopped in time");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Can't stop sync", e);
+			}
+		}
+		EventLoopGroup group = groupRef.getAndSet(null);
+		if (null != group) {
+			try {
+				group.shutdownGracefully().sync();
+			} catch (InterruptedException e) {
+				logger.error("Can't stop sync client group", e);
+			}
+		}
+	}
+
+	/*
+	 * Failures are logged and never thrown, otherwise the scheduler would not
+	 * run the sync again.
+	 */
+	private void sync() {
+		try {
+			TiesStorage storage = service.getStorage();
+			EventLoopGroup group = groupRef.get();
+			if (null == storage || null == group) {
+				logger.debug("Sync is skipped as storage is not available");
+				return;
+			}
+			for (URI peer : peers) {
+				sync(storage, group, peer);
+			}
+		} catch (RuntimeException e) {
+			logger.error("Sync failed", e);
+		}
+	}
+
+	private void sync(TiesStorage storage, EventLoopGroup group, URI peer) {
+		try (WebSocketSyncClient client = WebSocketSyncClient.connect(group, peer, maxMessageLength, requestTimeout,
+				requestTimeoutUnit)) {
+			TiesSyncSession session = new TiesSyncSession(storage, client, levelsPerRequest, maxNodesPerRequest,
+					maxBucketsPerRequest, maxRowsPerRequest);
+			for (String[] table : tables) {
+				long start = System.nanoTime();
+				try {
+					int count = session.sync(table[0], table[1]);
+					logger.debug("Synced {}.{} with {} in {} ms, {} rows written", table[0], table[1], peer,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), count);
+				} catch (TiesException e) {
+					logger.warn("Can't sync {}.{} with {}", table[0], table[1], peer, e);
+				}
+			}
+		} catch (TiesException e) {
+			logger.warn("Can't sync with {}", peer, e);
+		}
+	}
+
+	@Override
+	public TiesVersion getVersion() {
+		return IMPLEMENTATION_VERSION;
+	}
+
+	/**
+	 * Returns {@code null}, this transport only sends requests to the peers.
+	 * 
+	 * <P>It accepts no connections, requests of the peers are served by the
+	 * handlers of their WebSocket transports, which callers of this method
+	 * should check for.
+	 */
+	@Override
+	public TiesHandler getHandler() {
+		return null;
+	}
+
+}
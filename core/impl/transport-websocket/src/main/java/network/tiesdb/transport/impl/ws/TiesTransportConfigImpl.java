@@ -48,14 +48,92 @@ public class TiesTransportConfigImpl implements TiesTransportConfig {
 		}
 	}
 
+	public static class TransportAdmissionConfig {
+
+		private Double globalRate = null;
+		private Integer globalBurst = null;
+		private Double connectionRate = null;
+		private Integer connectionBurst = null;
+		private Double clientRate = null;
+		private Integer clientBurst = null;
+
+		public Double getGlobalRate() {
+			return globalRate;
+		}
+
+		public void setGlobalRate(Double globalRate) {
+			this.globalRate = globalRate;
+		}
+
+		public Integer getGlobalBurst() {
+			return globalBurst;
+		}
+
+		public void setGlobalBurst(Integer globalBurst) {
+			this.globalBurst = globalBurst;
+		}
+
+		public Double getConnectionRate() {
+			return connectionRate;
+		}
+
+		public void setConnectionRate(Double connectionRate) {
+			this.connectionRate = connectionRate;
+		}
+
+		public Integer getConnectionBurst() {
+			return connectionBurst;
+		}
+
+		public void setConnectionBurst(Integer connectionBurst) {
+			this.connectionBurst = connectionBurst;
+		}
+
+		public Double getClientRate() {
+			return clientRate;
+		}
+
+		public void setClientRate(Double clientRate) {
+			this.clientRate = clientRate;
+		}
+
+		public Integer getClientBurst() {
+			return clientBurst;
+		}
+
+		public void setClientBurst(Integer clientBurst) {
+			this.clientBurst = clientBurst;
+		}
+	}
+
 	private TiesHandlerConfig handler;
 
 	private String serviceAddress = InetAddress.getLoopbackAddress().getHostAddress();
 	private Integer servicePort = 0;
 	private TransportSecurityConfig security = new TransportSecurityConfig();
+	private TransportAdmissionConfig admission = new TransportAdmissionConfig();
 	private Integer typeOfService = null;
 	private Integer acceptorThreadsCount = 1;
 	private Integer workerThreadsCount = Runtime.getRuntime().availableProcessors();
+	private Integer handlerThreadsCount = Runtime.getRuntime().availableProcessors() * 2;
+	private Integer handlerMaxPendingTasks = 1024;
+	private Integer maxInFlightRequests = 1;
+	private String transportKind = "auto";
+	private boolean reusePort = false;
+	private boolean pooledAllocator = true;
+	private Integer socketBacklog = null;
+	private Integer receiveBufferSize = null;
+	private Integer sendBufferSize = null;
+	private Integer writeBufferLowWaterMark = 32 * 1024;
+	private Integer writeBufferHighWaterMark = 64 * 1024;
+	private Integer maxHttpContentLength = 64 * 1024;
+	private Integer maxFramePayloadLength = null;
+	private Integer maxMessageLength = 64 * 1024 * 1024;
+	private Integer messageBufferLength = 1024 * 1024;
+	private boolean compression = false;
+	private Integer compressionLevel = 6;
+	private Integer compressionMinPayloadLength = 1024;
+	private Integer compressionWindowBits = 15;
 	private long idleReaderTime = 0;
 	private long idleWriterTime = 0;
 	private long idleTime = 180;
@@ -109,6 +187,14 @@ public class TiesTransportConfigImpl implements TiesTransportConfig {
 		this.security = security;
 	}
 
+	public TransportAdmissionConfig getAdmission() {
+		return admission;
+	}
+
+	public void setAdmission(TransportAdmissionConfig admission) {
+		this.admission = admission;
+	}
+
 	public Integer getTypeOfService() {
 		return this.typeOfService;
 	}
@@ -125,6 +211,22 @@ public class TiesTransportConfigImpl implements TiesTransportConfig {
 		this.workerThreadsCount = workerThreadsCount;
 	}
 
+	public Integer getHandlerThreadsCount() {
+		return handlerThreadsCount;
+	}
+
+	public void setHandlerThreadsCount(Integer handlerThreadsCount) {
+		this.handlerThreadsCount = handlerThreadsCount;
+	}
+
+	public Integer getHandlerMaxPendingTasks() {
+		return handlerMaxPendingTasks;
+	}
+
+	public void setHandlerMaxPendingTasks(Integer handlerMaxPendingTasks) {
+		this.handlerMaxPendingTasks = handlerMaxPendingTasks;
+	}
+
 	public Integer getAcceptorThreadsCount() {
 		return acceptorThreadsCount;
 	}
@@ -133,6 +235,142 @@ public class TiesTransportConfigImpl implements TiesTransportConfig {
 		this.acceptorThreadsCount = acceptorThreadsCount;
 	}
 
+	public Integer getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	public void setMaxInFlightRequests(Integer maxInFlightRequests) {
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	public String getTransportKind() {
+		return transportKind;
+	}
+
+	public void setTransportKind(String transportKind) {
+		this.transportKind = transportKind;
+	}
+
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	public void setReusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+	}
+
+	public boolean isPooledAllocator() {
+		return pooledAllocator;
+	}
+
+	public void setPooledAllocator(boolean pooledAllocator) {
+		this.pooledAllocator = pooledAllocator;
+	}
+
+	public Integer getSocketBacklog() {
+		return socketBacklog;
+	}
+
+	public void setSocketBacklog(Integer socketBacklog) {
+		this.socketBacklog = socketBacklog;
+	}
+
+	public Integer getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setReceiveBufferSize(Integer receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public Integer getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setSendBufferSize(Integer sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public Integer getWriteBufferLowWaterMark() {
+		return writeBufferLowWaterMark;
+	}
+
+	public void setWriteBufferLowWaterMark(Integer writeBufferLowWaterMark) {
+		this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+	}
+
+	public Integer getWriteBufferHighWaterMark() {
+		return writeBufferHighWaterMark;
+	}
+
+	public void setWriteBufferHighWaterMark(Integer writeBufferHighWaterMark) {
+		this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+	}
+
+	public Integer getMaxHttpContentLength() {
+		return maxHttpContentLength;
+	}
+
+	public void setMaxHttpContentLength(Integer maxHttpContentLength) {
+		this.maxHttpContentLength = maxHttpContentLength;
+	}
+
+	public Integer getMaxFramePayloadLength() {
+		return maxFramePayloadLength;
+	}
+
+	public void setMaxFramePayloadLength(Integer maxFramePayloadLength) {
+		this.maxFramePayloadLength = maxFramePayloadLength;
+	}
+
+	public Integer getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	public void setMaxMessageLength(Integer maxMessageLength) {
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	public Integer getMessageBufferLength() {
+		return messageBufferLength;
+	}
+
+	public void setMessageBufferLength(Integer messageBufferLength) {
+		this.messageBufferLength = messageBufferLength;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	public Integer getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public void setCompressionLevel(Integer compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public Integer getCompressionMinPayloadLength() {
+		return compressionMinPayloadLength;
+	}
+
+	public void setCompressionMinPayloadLength(Integer compressionMinPayloadLength) {
+		this.compressionMinPayloadLength = compressionMinPayloadLength;
+	}
+
+	public Integer getCompressionWindowBits() {
+		return compressionWindowBits;
+	}
+
+	public void setCompressionWindowBits(Integer compressionWindowBits) {
+		this.compressionWindowBits = compressionWindowBits;
+	}
+
 	public long getIdleReaderTime() {
 		return idleReaderTime;
 	}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2012 The Netty Project
+ * 
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Admission control of web socket requests.
+ * 
+ * <P>Requests are admitted at the rates limited globally, per connection and
+ * per client by {@link WebSocketTokenBucket}s. A request takes a token of each
+ * of the limited scopes, a scope without rate is not limited. Clients are
+ * identified by their certificates if they are authenticated by TLS, or by
+ * their addresses otherwise. Bucket of a client is shared by all of its
+ * connections and is forgotten when the last one is closed.
+ * 
+ * <P>Requests which have to wait for tokens are counted by the scope which held
+ * them, along with the time they have waited, so the limits could be sized by
+ * the counts. Counts of all admission controls are published in
+ * {@link TiesMetricRegistry} as AdmittedRequests, ThrottledRequests by scope
+ * and ThrottledTime in microseconds.
+ */
+public class WebSocketAdmissionControl {
+
+	public static enum Scope {
+		GLOBAL, CONNECTION, CLIENT
+	}
+
+	private static final class ClientBucket {
+
+		private final WebSocketTokenBucket bucket;
+		private int connections = 1;
+
+		private ClientBucket(WebSocketTokenBucket bucket) {
+			this.bucket = bucket;
+		}
+
+	}
+
+	private static final TiesCounter ADMITTED_COUNT = TiesMetricRegistry.getDefault().counter("AdmittedRequests",
+			"transport", WebSocketRequestHandler.TRANSPORT_NAME);
+	private static final TiesCounter[] THROTTLED_COUNTS = new TiesCounter[Scope.values().length];
+	private static final TiesCounter THROTTLED_MICROS = TiesMetricRegistry.getDefault().counter("ThrottledTime",
+			"transport", WebSocketRequestHandler.TRANSPORT_NAME);
+
+	static {
+		for (Scope scope : Scope.values()) {
+			THROTTLED_COUNTS[scope.ordinal()] = TiesMetricRegistry.getDefault().counter("ThrottledRequests",
+					"transport", WebSocketRequestHandler.TRANSPORT_NAME, "scope", scope.name().toLowerCase());
+		}
+	}
+
+	private final WebSocketTokenBucket globalBucket;
+	private final Double connectionRate;
+	private final int connectionBurst;
+	private final Double clientRate;
+	private final int clientBurst;
+
+	private final ConcurrentMap<String, ClientBucket> clientBuckets = new ConcurrentHashMap<>();
+
+	private final AtomicLong admittedCount = new AtomicLong();
+	private final AtomicLong[] throttledCounts = new AtomicLong[Scope.values().length];
+	private final AtomicLong throttledNanos = new AtomicLong();
+
+	/**
+	 * Creates admission control with the given limits.
+	 * 
+	 * <P>Rates are in requests per second, {@code null} rate leaves the scope
+	 * unlimited. Burst is the count of requests admitted at once after a pause,
+	 * it is the rate rounded up unless it is set.
+	 */
+	public WebSocketAdmissionControl(Double globalRate, Integer globalBurst, Double connectionRate,
+			Integer connectionBurst, Double clientRate, Integer clientBurst) {
+		checkLimit("global", globalRate, globalBurst);
+		checkLimit("connection", connectionRate, connectionBurst);
+		checkLimit("client", clientRate, clientBurst);
+		this.globalBucket = null == globalRate ? null
+				: new WebSocketTokenBucket(globalRate, getBurst(globalRate, globalBurst));
+		this.connectionRate = connectionRate;
+		this.connectionBurst = null == connectionRate ? 0 : getBurst(connectionRate, connectionBurst);
+		this.clientRate = clientRate;
+		this.clientBurst = null == clientRate ? 0 : getBurst(clientRate, clientBurst);
+		for (int i = 0; i < throttledCounts.length; i++) {
+			throttledCounts[i] = new AtomicLong();
+		}
+	}
+
+	private static void checkLimit(String scope, Double rate, Integer burst) {
+		if (null != rate && !(rate > 0)) {
+			throw new IllegalArgumentException("The " + scope + "Rate " + rate + " should be positive");
+		}
+		if (null != burst && burst < 1) {
+			throw new IllegalArgumentException("The " + scope + "Burst " + burst + " should be positive");
+		}
+	}
+
+	private static int getBurst(double rate, Integer burst) {
+		return null == burst ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(rate))) : burst;
+	}
+
+	/**
+	 * Returns true if any of the scopes is limited.
+	 */
+	public boolean isEnabled() {
+		return null != globalBucket || null != connectionRate || null != clientRate;
+	}
+
+	WebSocketTokenBucket newConnectionBucket() {
+		return null == connectionRate ? null : new WebSocketTokenBucket(connectionRate, connectionBurst);
+	}
+
+	WebSocketTokenBucket acquireClientBucket(String client) {
+		if (null == clientRate) {
+			return null;
+		}
+		return clientBuckets.compute(client, (key, clientBucket) -> {
+			if (null == clientBucket) {
+				return new ClientBucket(new WebSocketTokenBucket(clientRate, clientBurst));
+			}
+			clientBucket.connections++;
+			return clientBucket;
+		}).bucket;
+	}
+
+	void releaseClientBucket(String client) {
+		if (null == clientRate) {
+			return;
+		}
+		clientBuckets.computeIfPresent(client,
+				(key, clientBucket) -> 0 == --clientBucket.connections ? null : clientBucket);
+	}
+
+	/**
+	 * Takes tokens of all of the limited scopes or none of them.
+	 * 
+	 * @param count
+	 *            true to count the request as throttled if it has to wait
+	 * @return zero if the request is admitted or nanoseconds to wait before
+	 *         the next try otherwise
+	 */
+	long tryAcquire(WebSocketTokenBucket connectionBucket, WebSocketTokenBucket clientBucket, long now,
+			boolean count) {
+		long wait = null == connectionBucket ? 0 : connectionBucket.tryAcquire(now);
+		if (wait > 0) {
+			return throttled(Scope.CONNECTION, wait, count);
+		}
+		wait = null == clientBucket ? 0 : clientBucket.tryAcquire(now);
+		if (wait > 0) {
+			release(connectionBucket);
+			return throttled(Scope.CLIENT, wait, count);
+		}
+		wait = null == globalBucket ? 0 : globalBucket.tryAcquire(now);
+		if (wait > 0) {
+			release(connectionBucket);
+			release(clientBucket);
+			return throttled(Scope.GLOBAL, wait, count);
+		}
+		admittedCount.incrementAndGet();
+		ADMITTED_COUNT.increment();
+		return 0;
+	}
+
+	private long throttled(Scope scope, long wait, boolean count) {
+		if (count) {
+			throttledCounts[scope.ordinal()].incrementAndGet();
+			THROTTLED_COUNTS[scope.ordinal()].increment();
+		}
+		return wait;
+	}
+
+	private static void release(WebSocketTokenBucket bucket) {
+		if (null != bucket) {
+			bucket.release();
+		}
+	}
+
+	void waited(long nanos) {
+		throttledNanos.addAndGet(nanos);
+		THROTTLED_MICROS.add(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public long getAdmittedCount() {
+		return admittedCount.get();
+	}
+
+	public long getThrottledCount(Scope scope) {
+		return throttledCounts[scope.ordinal()].get();
+	}
+
+	public long getThrottledNanos() {
+		return throttledNanos.get();
+	}
+
+	public int getClientCount() {
+		return clientBuckets.size();
+	}
+
+	@Override
+	public String toString() {
+		return "admitted " + getAdmittedCount() + " requests, throttled " + getThrottledCount(Scope.GLOBAL)
+				+ " by global, " + getThrottledCount(Scope.CONNECTION) + " by connection and "
+				+ getThrottledCount(Scope.CLIENT) + " by client limits for "
+				+ TimeUnit.NANOSECONDS.toMillis(getThrottledNanos()) + " ms, " + getClientCount() + " clients";
+	}
+
+}
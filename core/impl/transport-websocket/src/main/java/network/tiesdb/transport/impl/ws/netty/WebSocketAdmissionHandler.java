@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 The Netty Project
+ * 
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import network.tiesdb.transport.impl.ws.netty.WebSocketReadSuspension.Reason;
+
+/**
+ * Admission of requests of the channel by {@link WebSocketAdmissionControl}.
+ * 
+ * <P>Requests which are not admitted are held back in arrival order and
+ * reading is suspended, so a client sending too fast is slowed down by TCP
+ * flow control and no request is dropped. Held requests are admitted by a
+ * timer when the tokens are there. Other messages keep their order with the
+ * requests.
+ */
+public class WebSocketAdmissionHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketAdmissionHandler.class);
+
+	private final WebSocketAdmissionControl control;
+	private final WebSocketTokenBucket connectionBucket;
+
+	private final Queue<Object> pending = new ArrayDeque<>();
+	private String client;
+	private WebSocketTokenBucket clientBucket;
+	private ScheduledFuture<?> timer;
+	private long throttledSince;
+	private boolean throttled = false;
+	private boolean closed = false;
+
+	public WebSocketAdmissionHandler(WebSocketAdmissionControl control) {
+		if (null == control) {
+			throw new NullPointerException("The control should not be null");
+		}
+		this.control = control;
+		this.connectionBucket = control.newConnectionBucket();
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (closed) {
+			discard(msg);
+			return;
+		}
+		if (pending.isEmpty() && !isRequest(msg)) {
+			ctx.fireChannelRead(msg);
+			return;
+		}
+		pending.add(msg);
+		admit(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		close();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		close();
+	}
+
+	private void admit(ChannelHandlerContext ctx) {
+		while (!closed && !pending.isEmpty()) {
+			if (isRequest(pending.peek())) {
+				if (null == client) {
+					client = getClient(ctx);
+					clientBucket = control.acquireClientBucket(client);
+				}
+				long now = System.nanoTime();
+				long wait = control.tryAcquire(connectionBucket, clientBucket, now, !throttled);
+				if (wait > 0) {
+					if (!throttled) {
+						logger.trace("{} request of {} throttled", ctx.channel(), client);
+						throttled = true;
+						throttledSince = now;
+					}
+					WebSocketReadSuspension.suspend(ctx.channel(), Reason.ADMISSION);
+					if (null == timer) {
+						timer = ctx.executor().schedule(() -> {
+							timer = null;
+							admit(ctx);
+						}, wait, TimeUnit.NANOSECONDS);
+					}
+					return;
+				}
+				if (throttled) {
+					control.waited(now - throttledSince);
+					throttled = false;
+				}
+			}
+			ctx.fireChannelRead(pending.poll());
+		}
+		WebSocketReadSuspension.resume(ctx.channel(), Reason.ADMISSION);
+	}
+
+	/*
+	 * Client authenticated by TLS is identified by its certificate, other
+	 * clients are identified by their addresses.
+	 */
+	private static String getClient(ChannelHandlerContext ctx) {
+		SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+		if (null != sslHandler) {
+			try {
+				return sslHandler.engine().getSession().getPeerPrincipal().getName();
+			} catch (SSLPeerUnverifiedException e) {
+				logger.trace("{} client is not authenticated", ctx.channel(), e);
+			}
+		}
+		SocketAddress address = ctx.channel().remoteAddress();
+		return address instanceof InetSocketAddress //
+				? ((InetSocketAddress) address).getAddress().getHostAddress()
+				: String.valueOf(address);
+	}
+
+	private static boolean isRequest(Object msg) {
+		return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+				|| msg instanceof WebSocketFrameInputStream;
+	}
+
+	private void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (null != timer) {
+			timer.cancel(false);
+			timer = null;
+		}
+		for (Object msg = pending.poll(); null != msg; msg = pending.poll()) {
+			discard(msg);
+		}
+		if (null != client) {
+			control.releaseClientBucket(client);
+		}
+	}
+
+	private static void discard(Object msg) {
+		if (msg instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) msg).close();
+			} catch (Exception e) {
+				logger.trace("Can't close discarded {}", msg, e);
+			}
+		} else {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler.Sharable;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import network.tiesdb.transport.impl.ws.netty.WebSocketReadSuspension.Reason;
+
+/**
+ * Write backpressure of the web socket channel.
+ * 
+ * <P>Stops reading from the channel when its outbound buffer grows over the
+ * high water mark and resumes when it drains below the low one, so a client
+ * that sends faster than it reads can't make the server buffer responses
+ * without limit.
+ */
+@Sharable
+public class WebSocketBackpressureHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketBackpressureHandler.class);
+
+	public static final WebSocketBackpressureHandler INSTANCE = new WebSocketBackpressureHandler();
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		Channel ch = ctx.channel();
+		boolean writable = ch.isWritable();
+		logger.trace("{} is {}", ch, writable ? "writable" : "unwritable");
+		if (writable) {
+			WebSocketReadSuspension.resume(ch, Reason.WRITE_BUFFER_FULL);
+		} else {
+			WebSocketReadSuspension.suspend(ch, Reason.WRITE_BUFFER_FULL);
+		}
+		ctx.fireChannelWritabilityChanged();
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Compression counters of the web socket channel.
+ * 
+ * <P>Counts payload bytes of compressed messages before and after compression
+ * in both directions. Messages sent uncompressed are counted separately, so
+ * the ratio shows what compression gives on the messages it was applied to.
+ * Totals of all channels are counted in {@link TiesMetricRegistry} as well.
+ */
+public class WebSocketCompressionStats {
+
+	private static final AttributeKey<WebSocketCompressionStats> KEY = AttributeKey
+			.valueOf(WebSocketCompressionStats.class.getName());
+
+	private static final TiesCounter RAW_BYTES_SENT = counter("sent", "raw");
+	private static final TiesCounter COMPRESSED_BYTES_SENT = counter("sent", "compressed");
+	private static final TiesCounter UNCOMPRESSED_BYTES_SENT = counter("sent", "uncompressed");
+	private static final TiesCounter RAW_BYTES_RECEIVED = counter("received", "raw");
+	private static final TiesCounter COMPRESSED_BYTES_RECEIVED = counter("received", "compressed");
+
+	private final AtomicLong rawBytesSent = new AtomicLong();
+	private final AtomicLong compressedBytesSent = new AtomicLong();
+	private final AtomicLong uncompressedBytesSent = new AtomicLong();
+	private final AtomicLong rawBytesReceived = new AtomicLong();
+	private final AtomicLong compressedBytesReceived = new AtomicLong();
+
+	/**
+	 * Returns compression counters of the channel or null if compression was not
+	 * negotiated for it.
+	 */
+	public static WebSocketCompressionStats get(Channel ch) {
+		return ch.attr(KEY).get();
+	}
+
+	private static TiesCounter counter(String direction, String form) {
+		return TiesMetricRegistry.getDefault().counter("CompressionBytes", "transport",
+				WebSocketRequestHandler.TRANSPORT_NAME, "direction", direction, "form", form);
+	}
+
+	static WebSocketCompressionStats attach(Channel ch) {
+		WebSocketCompressionStats stats = new WebSocketCompressionStats();
+		WebSocketCompressionStats existing = ch.attr(KEY).setIfAbsent(stats);
+		return null == existing ? stats : existing;
+	}
+
+	void sent(long raw, long compressed) {
+		rawBytesSent.addAndGet(raw);
+		compressedBytesSent.addAndGet(compressed);
+		RAW_BYTES_SENT.add(raw);
+		COMPRESSED_BYTES_SENT.add(compressed);
+	}
+
+	void sentUncompressed(long raw) {
+		uncompressedBytesSent.addAndGet(raw);
+		UNCOMPRESSED_BYTES_SENT.add(raw);
+	}
+
+	void received(long compressed, long raw) {
+		compressedBytesReceived.addAndGet(compressed);
+		rawBytesReceived.addAndGet(raw);
+		COMPRESSED_BYTES_RECEIVED.add(compressed);
+		RAW_BYTES_RECEIVED.add(raw);
+	}
+
+	public long getRawBytesSent() {
+		return rawBytesSent.get();
+	}
+
+	public long getCompressedBytesSent() {
+		return compressedBytesSent.get();
+	}
+
+	public long getUncompressedBytesSent() {
+		return uncompressedBytesSent.get();
+	}
+
+	public long getRawBytesReceived() {
+		return rawBytesReceived.get();
+	}
+
+	public long getCompressedBytesReceived() {
+		return compressedBytesReceived.get();
+	}
+
+	@Override
+	public String toString() {
+		return "sent " + getCompressedBytesSent() + "/" + getRawBytesSent() + " bytes compressed and "
+				+ getUncompressedBytesSent() + " bytes uncompressed, received " + getCompressedBytesReceived() + "/"
+				+ getRawBytesReceived() + " bytes compressed";
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static network.tiesdb.transport.impl.ws.netty.WebSocketDeflateEncoder.RSV1;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Decompressing decoder of permessage-deflate web socket extension (RFC 7692).
+ * 
+ * <P>Inflates messages which have RSV1 bit set on their first fragment. The
+ * inflated length of a message is limited by {@code maxMessageLength}, so a
+ * small compressed frame can't blow up the memory.
+ * 
+ * <P>Compressed text frames arrive as binary ones, see
+ * {@link WebSocketDeflateFrameMarker}, and are restored using its marks.
+ */
+public class WebSocketDeflateDecoder extends MessageToMessageDecoder<WebSocketFrame> {
+
+	private static final byte[] EMPTY_BLOCK_TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+	private static final int MIN_BUFFER_LENGTH = 256;
+
+	private final Inflater inflater;
+	private final long maxMessageLength;
+	private final boolean noContextTakeover;
+	private final WebSocketCompressionStats stats;
+	private final Queue<Boolean> textMarks;
+
+	private boolean decompressing = false;
+	private long messageLength = 0;
+
+	public WebSocketDeflateDecoder(long maxMessageLength, boolean noContextTakeover, WebSocketCompressionStats stats,
+			Queue<Boolean> textMarks) {
+		if (null == stats) {
+			throw new NullPointerException("The stats should not be null");
+		}
+		if (null == textMarks) {
+			throw new NullPointerException("The textMarks should not be null");
+		}
+		this.textMarks = textMarks;
+		this.inflater = new Inflater(true);
+		this.maxMessageLength = maxMessageLength;
+		this.noContextTakeover = noContextTakeover;
+		this.stats = stats;
+	}
+
+	@Override
+	public boolean acceptInboundMessage(Object msg) throws Exception {
+		return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+				|| msg instanceof ContinuationWebSocketFrame;
+	}
+
+	@Override
+	protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
+		boolean text = frame instanceof TextWebSocketFrame;
+		if (!(frame instanceof ContinuationWebSocketFrame)) {
+			decompressing = 0 != (frame.rsv() & RSV1);
+			messageLength = 0;
+			if (decompressing) {
+				text |= Boolean.TRUE.equals(textMarks.poll());
+			}
+		}
+		if (!decompressing) {
+			out.add(frame.retain());
+			return;
+		}
+		ByteBuf inflated = inflate(ctx, frame.content(), frame.isFinalFragment());
+		stats.received(frame.content().readableBytes(), inflated.readableBytes());
+		int rsv = frame.rsv() & ~RSV1;
+		if (frame instanceof ContinuationWebSocketFrame) {
+			out.add(new ContinuationWebSocketFrame(frame.isFinalFragment(), rsv, inflated));
+		} else if (text) {
+			out.add(new TextWebSocketFrame(frame.isFinalFragment(), rsv, inflated));
+		} else {
+			out.add(new BinaryWebSocketFrame(frame.isFinalFragment(), rsv, inflated));
+		}
+		if (frame.isFinalFragment()) {
+			decompressing = false;
+			if (noContextTakeover) {
+				inflater.reset();
+			}
+		}
+	}
+
+	private ByteBuf inflate(ChannelHandlerContext ctx, ByteBuf content, boolean finalFragment)
+			throws TooLongFrameException, CorruptedFrameException {
+		int length = content.readableBytes();
+		if (content.hasArray() && !finalFragment) {
+			inflater.setInput(content.array(), content.arrayOffset() + content.readerIndex(), length);
+		} else {
+			byte[] input = new byte[finalFragment ? length + EMPTY_BLOCK_TAIL.length : length];
+			content.getBytes(content.readerIndex(), input, 0, length);
+			if (finalFragment) {
+				System.arraycopy(EMPTY_BLOCK_TAIL, 0, input, length, EMPTY_BLOCK_TAIL.length);
+			}
+			inflater.setInput(input);
+		}
+		ByteBuf out = ctx.alloc().heapBuffer(Math.max(MIN_BUFFER_LENGTH, length * 2));
+		try {
+			while (true) {
+				out.ensureWritable(MIN_BUFFER_LENGTH);
+				int writable = out.writableBytes();
+				int written = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), writable);
+				out.writerIndex(out.writerIndex() + written);
+				messageLength += written;
+				if (maxMessageLength > 0 && messageLength > maxMessageLength) {
+					throw new TooLongFrameException("Inflated message is longer than " + maxMessageLength + " bytes");
+				}
+				if (inflater.needsDictionary()) {
+					throw new CorruptedFrameException("Preset dictionary is not supported");
+				}
+				if (inflater.finished()) {
+					// Peer has ended the deflate stream, so the next message starts a new one
+					inflater.reset();
+					break;
+				}
+				if (written < writable && inflater.needsInput()) {
+					break;
+				}
+			}
+			return out;
+		} catch (DataFormatException e) {
+			out.release();
+			throw new CorruptedFrameException("Invalid compressed message: " + e.getMessage(), e);
+		} catch (Throwable e) {
+			out.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		inflater.end();
+		super.handlerRemoved(ctx);
+	}
+
+}
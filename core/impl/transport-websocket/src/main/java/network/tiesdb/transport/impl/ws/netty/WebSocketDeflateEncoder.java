@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Compressing encoder of permessage-deflate web socket extension (RFC 7692).
+ * 
+ * <P>Messages shorter than {@code minPayloadLength} are sent as is. Whether a
+ * fragmented message is compressed is decided by its first fragment.
+ */
+public class WebSocketDeflateEncoder extends MessageToMessageEncoder<WebSocketFrame> {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketDeflateEncoder.class);
+
+	static final int RSV1 = 0x04;
+
+	private static final int MIN_BUFFER_LENGTH = 64;
+
+	private final Deflater deflater;
+	private final int minPayloadLength;
+	private final boolean noContextTakeover;
+	private final WebSocketCompressionStats stats;
+
+	private boolean compressing = false;
+
+	public WebSocketDeflateEncoder(int level, int minPayloadLength, boolean noContextTakeover,
+			WebSocketCompressionStats stats) {
+		if (null == stats) {
+			throw new NullPointerException("The stats should not be null");
+		}
+		this.deflater = new Deflater(level, true);
+		this.minPayloadLength = minPayloadLength;
+		this.noContextTakeover = noContextTakeover;
+		this.stats = stats;
+	}
+
+	@Override
+	public boolean acceptOutboundMessage(Object msg) throws Exception {
+		return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+				|| msg instanceof ContinuationWebSocketFrame;
+	}
+
+	@Override
+	protected void encode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
+		int length = frame.content().readableBytes();
+		if (!(frame instanceof ContinuationWebSocketFrame)) {
+			compressing = 0 == (frame.rsv() & RSV1) && length >= minPayloadLength;
+		}
+		if (!compressing) {
+			stats.sentUncompressed(length);
+			out.add(frame.retain());
+			return;
+		}
+		ByteBuf compressed = deflate(ctx, frame.content(), frame.isFinalFragment());
+		stats.sent(length, compressed.readableBytes());
+		if (frame instanceof TextWebSocketFrame) {
+			out.add(new TextWebSocketFrame(frame.isFinalFragment(), frame.rsv() | RSV1, compressed));
+		} else if (frame instanceof BinaryWebSocketFrame) {
+			out.add(new BinaryWebSocketFrame(frame.isFinalFragment(), frame.rsv() | RSV1, compressed));
+		} else {
+			out.add(new ContinuationWebSocketFrame(frame.isFinalFragment(), frame.rsv(), compressed));
+		}
+		if (frame.isFinalFragment()) {
+			compressing = false;
+			if (noContextTakeover) {
+				deflater.reset();
+			}
+		}
+	}
+
+	private ByteBuf deflate(ChannelHandlerContext ctx, ByteBuf content, boolean finalFragment) {
+		int length = content.readableBytes();
+		if (content.hasArray()) {
+			deflater.setInput(content.array(), content.arrayOffset() + content.readerIndex(), length);
+		} else {
+			byte[] input = new byte[length];
+			content.getBytes(content.readerIndex(), input);
+			deflater.setInput(input);
+		}
+		ByteBuf out = ctx.alloc().heapBuffer(Math.max(MIN_BUFFER_LENGTH, length / 2));
+		try {
+			int writable;
+			int written;
+			do {
+				out.ensureWritable(MIN_BUFFER_LENGTH);
+				writable = out.writableBytes();
+				written = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), writable,
+						Deflater.SYNC_FLUSH);
+				out.writerIndex(out.writerIndex() + written);
+			} while (written == writable);
+			// Message ends with an empty stored block which is implied by the protocol
+			if (finalFragment && out.readableBytes() >= 4 && 0x0000ffff == out.getInt(out.writerIndex() - 4)) {
+				out.writerIndex(out.writerIndex() - 4);
+			}
+			return out;
+		} catch (Throwable e) {
+			out.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		deflater.end();
+		logger.debug("{} compression {}", ctx.channel(), stats);
+		super.handlerRemoved(ctx);
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Negotiation handler of permessage-deflate web socket extension (RFC 7692).
+ * 
+ * <P>Picks the first acceptable permessage-deflate offer of the handshake
+ * request, answers it in the handshake response and replaces itself with
+ * {@link WebSocketDeflateDecoder} and {@link WebSocketDeflateEncoder}. Should
+ * be placed before {@code WebSocketServerProtocolHandler}.
+ * 
+ * <P>JDK {@link java.util.zip.Deflater} always uses 15 bits window, so offers
+ * limiting the server window are declined. The client window is limited to
+ * {@code windowBits} if the client allows that.
+ */
+public class WebSocketDeflateExtensionHandler extends ChannelDuplexHandler {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketDeflateExtensionHandler.class);
+
+	// Name of the frame decoder the handshaker adds to the pipeline
+	private static final String WS_DECODER = "wsdecoder";
+
+	private static final String SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+	private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+	private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	private static final int MAX_WINDOW_BITS = 15;
+
+	private static final class Agreement {
+		private boolean serverNoContextTakeover = false;
+		private boolean clientNoContextTakeover = false;
+		private int serverMaxWindowBits = 0;
+		private int clientMaxWindowBits = 0;
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(PERMESSAGE_DEFLATE);
+			if (serverNoContextTakeover) {
+				sb.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+			}
+			if (clientNoContextTakeover) {
+				sb.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+			}
+			if (serverMaxWindowBits > 0) {
+				sb.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(serverMaxWindowBits);
+			}
+			if (clientMaxWindowBits > 0) {
+				sb.append("; ").append(CLIENT_MAX_WINDOW_BITS).append('=').append(clientMaxWindowBits);
+			}
+			return sb.toString();
+		}
+	}
+
+	private final int level;
+	private final int minPayloadLength;
+	private final int windowBits;
+	private final long maxMessageLength;
+
+	private Agreement agreement = null;
+
+	public WebSocketDeflateExtensionHandler(int level, int minPayloadLength, int windowBits, long maxMessageLength) {
+		checkParameters(level, windowBits);
+		this.level = level;
+		this.minPayloadLength = minPayloadLength;
+		this.windowBits = windowBits;
+		this.maxMessageLength = maxMessageLength;
+	}
+
+	static void checkParameters(int level, int windowBits) {
+		if (level < 0 || level > 9) {
+			throw new IllegalArgumentException("The compression level " + level + " should be in range 0..9");
+		}
+		if (windowBits < 8 || windowBits > MAX_WINDOW_BITS) {
+			throw new IllegalArgumentException("The compression window bits " + windowBits + " should be in range 8..15");
+		}
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof HttpRequest) {
+			HttpHeaders headers = ((HttpRequest) msg).headers();
+			if (headers.contains(HttpHeaders.Names.UPGRADE, HttpHeaders.Values.WEBSOCKET, true)) {
+				agreement = negotiate(headers.get(SEC_WEBSOCKET_EXTENSIONS));
+			}
+		}
+		super.channelRead(ctx, msg);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if (msg instanceof HttpResponse && null != agreement) {
+			HttpResponse response = (HttpResponse) msg;
+			if (null == ctx.pipeline().get(WS_DECODER)) {
+				logger.warn("{} has no {} handler, {} is declined", ctx.channel(), WS_DECODER, PERMESSAGE_DEFLATE);
+			} else if (HttpResponseStatus.SWITCHING_PROTOCOLS.equals(response.getStatus())) {
+				logger.debug("{} negotiated {}", ctx.channel(), agreement);
+				response.headers().add(SEC_WEBSOCKET_EXTENSIONS, agreement.toString());
+				WebSocketCompressionStats stats = WebSocketCompressionStats.attach(ctx.channel());
+				Queue<Boolean> textMarks = new ArrayDeque<>();
+				ChannelPipeline pipeline = ctx.pipeline();
+				pipeline.addBefore(WS_DECODER, null, new WebSocketDeflateFrameMarker(textMarks));
+				pipeline.addAfter(ctx.name(), null, new WebSocketDeflateEncoder(level, minPayloadLength,
+						agreement.serverNoContextTakeover, stats));
+				pipeline.addAfter(ctx.name(), null, new WebSocketDeflateDecoder(maxMessageLength,
+						agreement.clientNoContextTakeover, stats, textMarks));
+				pipeline.remove(this);
+			}
+		}
+		super.write(ctx, msg, promise);
+	}
+
+	private Agreement negotiate(String extensions) {
+		if (null == extensions) {
+			return null;
+		}
+		for (String offer : extensions.split(",")) {
+			String[] params = offer.split(";");
+			if (PERMESSAGE_DEFLATE.equalsIgnoreCase(params[0].trim())) {
+				Agreement agreement = accept(params);
+				if (null != agreement) {
+					return agreement;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Agreement accept(String[] params) {
+		Agreement agreement = new Agreement();
+		for (int i = 1; i < params.length; i++) {
+			String[] param = params[i].split("=", 2);
+			String name = param[0].trim();
+			String value = param.length > 1 ? param[1].trim().replace("\"", "") : null;
+			try {
+				switch (name) {
+				case SERVER_NO_CONTEXT_TAKEOVER:
+					agreement.serverNoContextTakeover = true;
+					break;
+				case CLIENT_NO_CONTEXT_TAKEOVER:
+					agreement.clientNoContextTakeover = true;
+					break;
+				case SERVER_MAX_WINDOW_BITS:
+					if (null == value || MAX_WINDOW_BITS != Integer.parseInt(value)) {
+						return null;
+					}
+					agreement.serverMaxWindowBits = MAX_WINDOW_BITS;
+					break;
+				case CLIENT_MAX_WINDOW_BITS:
+					int clientWindowBits = null == value ? MAX_WINDOW_BITS : Integer.parseInt(value);
+					if (clientWindowBits < 8 || clientWindowBits > MAX_WINDOW_BITS) {
+						return null;
+					}
+					agreement.clientMaxWindowBits = Math.min(windowBits, clientWindowBits);
+					break;
+				default:
+					logger.debug("Unknown {} parameter {}", PERMESSAGE_DEFLATE, name);
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				logger.debug("Illegal {} parameter {}", PERMESSAGE_DEFLATE, params[i]);
+				return null;
+			}
+		}
+		return agreement;
+	}
+
+}
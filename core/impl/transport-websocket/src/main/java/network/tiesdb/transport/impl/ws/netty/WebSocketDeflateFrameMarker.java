@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static network.tiesdb.transport.impl.ws.netty.WebSocketDeflateEncoder.RSV1;
+
+import java.util.Queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Marker of compressed text frames for permessage-deflate web socket extension.
+ * 
+ * <P>Netty 4.0 frame decoder checks UTF-8 of text frames before any extension
+ * could inflate them, so compressed text frames are rejected. This handler
+ * runs before the frame decoder, scans frame headers of the raw stream and
+ * turns compressed text frames into binary ones. For every compressed message
+ * it records whether it was a text one, so {@link WebSocketDeflateDecoder}
+ * could restore the frame type after inflating.
+ */
+public class WebSocketDeflateFrameMarker extends ChannelInboundHandlerAdapter {
+
+	private static final int OPCODE_CONTINUATION = 0x0;
+	private static final int OPCODE_TEXT = 0x1;
+	private static final int OPCODE_BINARY = 0x2;
+	private static final int OPCODE_CONTROL = 0x8;
+
+	private final Queue<Boolean> textMarks;
+
+	private int headerPos = 0;
+	private int lengthBytes = 0;
+	private boolean masked = false;
+	private long payloadLength = 0;
+	private long remaining = 0;
+
+	public WebSocketDeflateFrameMarker(Queue<Boolean> textMarks) {
+		if (null == textMarks) {
+			throw new NullPointerException("The textMarks should not be null");
+		}
+		this.textMarks = textMarks;
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof ByteBuf) {
+			mark((ByteBuf) msg);
+		}
+		super.channelRead(ctx, msg);
+	}
+
+	private void mark(ByteBuf buf) {
+		int idx = buf.readerIndex();
+		int end = buf.writerIndex();
+		while (idx < end) {
+			if (remaining > 0) {
+				int skip = (int) Math.min(remaining, end - idx);
+				idx += skip;
+				remaining -= skip;
+				continue;
+			}
+			int b = buf.getUnsignedByte(idx++);
+			switch (headerPos++) {
+			case 0:
+				int opcode = b & 0x0f;
+				if (OPCODE_CONTINUATION != opcode && opcode < OPCODE_CONTROL && 0 != (b & (RSV1 << 4))) {
+					textMarks.add(OPCODE_TEXT == opcode);
+					if (OPCODE_TEXT == opcode) {
+						buf.setByte(idx - 1, (b & 0xf0) | OPCODE_BINARY);
+					}
+				}
+				break;
+			case 1:
+				masked = 0 != (b & 0x80);
+				payloadLength = b & 0x7f;
+				lengthBytes = 126 == payloadLength ? 2 : 127 == payloadLength ? 8 : 0;
+				if (lengthBytes > 0) {
+					payloadLength = 0;
+				} else {
+					endHeader();
+				}
+				break;
+			default:
+				payloadLength = (payloadLength << 8) | b;
+				if (--lengthBytes == 0) {
+					endHeader();
+				}
+			}
+		}
+	}
+
+	private void endHeader() {
+		// Masking key is skipped along with the payload
+		remaining = payloadLength + (masked ? 4 : 0);
+		headerPos = 0;
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Streaming handler of fragmented web socket messages.
+ * 
+ * <P>Passes the first fragment of a message downstream as a
+ * {@link WebSocketFrameInputStream} and feeds that stream with the following
+ * {@link ContinuationWebSocketFrame}s. Unfragmented frames are passed as is.
+ * Must run on the channel event loop while the stream is read elsewhere, or
+ * the reader will wait for fragments that are never delivered.
+ */
+public class WebSocketFragmentStreamHandler extends ChannelInboundHandlerAdapter {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketFragmentStreamHandler.class);
+
+	private static final int MESSAGE_TOO_BIG = 1009;
+
+	private final long maxMessageLength;
+	private final long bufferLength;
+
+	private WebSocketFrameInputStream stream = null;
+	private long received = 0;
+
+	public WebSocketFragmentStreamHandler(long maxMessageLength, long bufferLength) {
+		this.maxMessageLength = maxMessageLength;
+		this.bufferLength = bufferLength;
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (msg instanceof ContinuationWebSocketFrame) {
+			ContinuationWebSocketFrame frame = (ContinuationWebSocketFrame) msg;
+			if (null == stream) {
+				logger.debug("{} dropped continuation frame of {} bytes", ctx.channel(),
+						frame.content().readableBytes());
+				frame.release();
+				return;
+			}
+			if (append(ctx, frame) && frame.isFinalFragment()) {
+				stream.complete();
+				stream = null;
+			}
+		} else if ((msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+				&& !((WebSocketFrame) msg).isFinalFragment()) {
+			WebSocketFrame frame = (WebSocketFrame) msg;
+			failStream(new IOException("Message was interrupted by a new one"));
+			received = 0;
+			stream = new WebSocketFrameInputStream(ctx.channel(), frame instanceof BinaryWebSocketFrame, bufferLength);
+			WebSocketFrameInputStream request = stream;
+			if (append(ctx, frame)) {
+				logger.debug("{} receiving fragmented message", ctx.channel());
+				ctx.fireChannelRead(request);
+			}
+		} else {
+			ctx.fireChannelRead(msg);
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		failStream(new ClosedChannelException());
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		failStream(new ClosedChannelException());
+		super.handlerRemoved(ctx);
+	}
+
+	private boolean append(ChannelHandlerContext ctx, WebSocketFrame frame) {
+		try {
+			received += frame.content().readableBytes();
+			if (maxMessageLength > 0 && received > maxMessageLength) {
+				logger.warn("{} message is longer than {} bytes", ctx.channel(), maxMessageLength);
+				failStream(new IOException("Message is longer than " + maxMessageLength + " bytes"));
+				ctx.writeAndFlush(new CloseWebSocketFrame(MESSAGE_TOO_BIG, "Message is too big"))
+						.addListener(ChannelFutureListener.CLOSE);
+				return false;
+			}
+			stream.append(frame.content().retain());
+			return true;
+		} finally {
+			frame.release();
+		}
+	}
+
+	private void failStream(IOException cause) {
+		if (null != stream) {
+			stream.fail(cause);
+			stream = null;
+		}
+	}
+
+}
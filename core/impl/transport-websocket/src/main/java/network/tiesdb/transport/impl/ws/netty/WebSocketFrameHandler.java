@@ -15,17 +15,22 @@
  */
 package network.tiesdb.transport.impl.ws.netty;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import network.tiesdb.handler.api.TiesAsyncHandler;
+import network.tiesdb.handler.api.TiesHandler;
 import network.tiesdb.transport.api.TiesTransport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+public class WebSocketFrameHandler extends SimpleChannelInboundHandler<Object> {
 
     private static final Logger logger = LoggerFactory.getLogger(WebSocketFrameHandler.class);
 
@@ -39,23 +44,59 @@ public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocket
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
         // ping and pong frames already handled
+        process(ctx, transport, newRequest(ctx, msg));
+    }
 
-        if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame) {
-            // Send the uppercase string back.
-            //String request = ((TextWebSocketFrame) frame).text();
-            logger.info("{} received {} bytes", ctx.channel(), frame.content().readableBytes());
-            
-			try (WebSocketRequestHandler request = new WebSocketRequestHandler(frame)) {
-				try (WebSocketResponseHandler response = new WebSocketResponseHandler(ctx)) {
-					transport.getHandler().handle(request, response);
+	static WebSocketRequestHandler newRequest(ChannelHandlerContext ctx, Object msg) {
+		if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame) {
+			WebSocketFrame frame = (WebSocketFrame) msg;
+			logger.debug("{} received {} bytes", ctx.channel(), frame.content().readableBytes());
+			return new WebSocketRequestHandler(frame);
+		} else if (msg instanceof WebSocketFrameInputStream) {
+			logger.debug("{} received fragmented message", ctx.channel());
+			return new WebSocketRequestHandler((WebSocketFrameInputStream) msg);
+		} else {
+			throw new UnsupportedOperationException("unsupported frame type: " + msg.getClass().getName());
+		}
+	}
+
+	static CompletionStage<Void> process(ChannelHandlerContext ctx, TiesTransport transport,
+			WebSocketRequestHandler request) {
+		TiesHandler handler = transport.getHandler();
+		WebSocketResponseHandler response = new WebSocketResponseHandler(ctx);
+		CompletionStage<Void> completion;
+		try {
+			if (handler instanceof TiesAsyncHandler) {
+				completion = ((TiesAsyncHandler) handler).handleAsync(request, response);
+			} else {
+				handler.handle(request, response);
+				completion = CompletableFuture.completedFuture(null);
+			}
+		} catch (Throwable e) {
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			completion = failed;
+		}
+		return completion.whenComplete((result, cause) -> {
+			try {
+				try {
+					response.close();
+				} finally {
+					request.close();
 				}
+			} catch (Exception e) {
+				logger.warn("Can't close request or response for {}", ctx.channel(), e);
 			}
-
-            //ctx.channel().writeAndFlush(new TextWebSocketFrame(request.toUpperCase(Locale.US)));
-        } else {
-            throw new UnsupportedOperationException("unsupported frame type: " + frame.getClass().getName());
-        }
-    }
+			if (null == cause) {
+				return;
+			}
+			if (ctx.channel().isActive()) {
+				ctx.fireExceptionCaught(cause);
+			} else {
+				logger.debug("{} request failed after channel was closed", ctx.channel(), cause);
+			}
+		});
+	}
 }
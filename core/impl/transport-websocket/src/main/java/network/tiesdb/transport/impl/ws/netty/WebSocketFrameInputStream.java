@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import network.tiesdb.transport.impl.ws.netty.WebSocketReadSuspension.Reason;
+
+/**
+ * Input stream of a fragmented web socket message.
+ * 
+ * <P>Fragments are appended by the channel event loop as they arrive and read
+ * by the request handler thread, so the message is never buffered whole. When
+ * more than {@code bufferLength} bytes are waiting to be read the channel stops
+ * reading until the handler consumes half of them.
+ */
+public class WebSocketFrameInputStream extends InputStream {
+
+	private final Lock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Queue<ByteBuf> fragments = new ArrayDeque<>();
+
+	private final Channel channel;
+	private final boolean binary;
+	private final long bufferLength;
+
+	private long buffered = 0;
+	private boolean suspended = false;
+	private boolean completed = false;
+	private boolean closed = false;
+	private IOException failure = null;
+
+	public WebSocketFrameInputStream(Channel channel, boolean binary, long bufferLength) {
+		if (null == channel) {
+			throw new NullPointerException("The channel should not be null");
+		}
+		this.channel = channel;
+		this.binary = binary;
+		this.bufferLength = bufferLength;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	public void append(ByteBuf fragment) {
+		lock.lock();
+		try {
+			if (closed || completed || null != failure) {
+				fragment.release();
+				return;
+			}
+			fragments.add(fragment);
+			buffered += fragment.readableBytes();
+			if (!suspended && buffered > bufferLength) {
+				suspended = true;
+				WebSocketReadSuspension.suspend(channel, Reason.REQUEST_STREAM_FULL);
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void complete() {
+		lock.lock();
+		try {
+			completed = true;
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void fail(IOException cause) {
+		lock.lock();
+		try {
+			if (!completed && null == failure) {
+				// The message is broken, so nothing left is worth reading
+				failure = cause;
+				releaseFragments();
+			}
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		lock.lock();
+		try {
+			ByteBuf fragment = awaitFragment();
+			if (null == fragment) {
+				return -1;
+			}
+			int b = fragment.readUnsignedByte();
+			consumed(fragment, 1);
+			return b;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (0 == len) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			ByteBuf fragment = awaitFragment();
+			if (null == fragment) {
+				return -1;
+			}
+			int count = Math.min(len, fragment.readableBytes());
+			fragment.readBytes(b, off, count);
+			consumed(fragment, count);
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		lock.lock();
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, buffered);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			releaseFragments();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ByteBuf awaitFragment() throws IOException {
+		while (true) {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if (null != failure) {
+				throw failure;
+			}
+			ByteBuf fragment = fragments.peek();
+			if (null != fragment) {
+				return fragment;
+			}
+			if (completed) {
+				return null;
+			}
+			try {
+				available.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the next fragment");
+			}
+		}
+	}
+
+	private void consumed(ByteBuf fragment, int count) {
+		buffered -= count;
+		if (!fragment.isReadable()) {
+			fragments.poll().release();
+		}
+		if (buffered <= bufferLength / 2) {
+			resume();
+		}
+	}
+
+	private void releaseFragments() {
+		for (ByteBuf fragment = fragments.poll(); null != fragment; fragment = fragments.poll()) {
+			fragment.release();
+		}
+		buffered = 0;
+		resume();
+	}
+
+	private void resume() {
+		if (suspended) {
+			suspended = false;
+			WebSocketReadSuspension.resume(channel, Reason.REQUEST_STREAM_FULL);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.RejectedExecutionHandler;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Executor group for TiesDB request handlers.
+ * 
+ * <P>Runs request handling outside of the I/O threads. Requests are submitted
+ * by {@link WebSocketRequestDispatcher}, which limits how many requests of one
+ * channel run at once. Executors have bounded queues and count rejected tasks.
+ * The queue depth and the rejected count are published in
+ * {@link TiesMetricRegistry} as well.
+ */
+public class WebSocketHandlerExecutorGroup extends DefaultEventExecutorGroup {
+
+	private static final TiesCounter REJECTED_COUNT = TiesMetricRegistry.getDefault().counter("HandlerRejections",
+			"transport", WebSocketRequestHandler.TRANSPORT_NAME);
+
+	private static final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+
+		private final AtomicLong rejectedCount = new AtomicLong();
+
+		@Override
+		public void rejected(Runnable task, SingleThreadEventExecutor executor) {
+			rejectedCount.incrementAndGet();
+			REJECTED_COUNT.increment();
+			throw new RejectedExecutionException("Handler executor queue is full");
+		}
+	}
+
+	private final CountingRejectedExecutionHandler rejectedHandler;
+
+	public WebSocketHandlerExecutorGroup(int threadsCount, int maxPendingTasks) {
+		this(threadsCount, maxPendingTasks, new CountingRejectedExecutionHandler());
+	}
+
+	private WebSocketHandlerExecutorGroup(int threadsCount, int maxPendingTasks,
+			CountingRejectedExecutionHandler rejectedHandler) {
+		super(threadsCount, new DefaultThreadFactory("TiesHandler"), maxPendingTasks, rejectedHandler);
+		this.rejectedHandler = rejectedHandler;
+		TiesMetricRegistry.getDefault().gauge("HandlerQueueDepth", this::getQueueDepth, "transport",
+				WebSocketRequestHandler.TRANSPORT_NAME);
+	}
+
+	public int getQueueDepth() {
+		int depth = 0;
+		Iterator<EventExecutor> iter = iterator();
+		while (iter.hasNext()) {
+			EventExecutor executor = iter.next();
+			if (executor instanceof SingleThreadEventExecutor) {
+				depth += ((SingleThreadEventExecutor) executor).pendingTasks();
+			}
+		}
+		return depth;
+	}
+
+	public long getRejectedCount() {
+		return rejectedHandler.rejectedCount.get();
+	}
+
+}
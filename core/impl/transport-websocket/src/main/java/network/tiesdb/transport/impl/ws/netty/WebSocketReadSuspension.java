@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.EnumSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+/**
+ * Read suspension of the web socket channel.
+ * 
+ * <P>Several handlers need to stop reading from a channel for their own
+ * reasons. Reading is suspended while at least one reason holds, so one
+ * handler can't resume reading another one has suspended. All changes are made
+ * on the channel event loop.
+ */
+public final class WebSocketReadSuspension {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketReadSuspension.class);
+
+	private static final AttributeKey<WebSocketReadSuspension> KEY = AttributeKey
+			.valueOf(WebSocketReadSuspension.class.getName());
+
+	public static enum Reason {
+		WRITE_BUFFER_FULL, REQUEST_STREAM_FULL, IN_FLIGHT_LIMIT, ADMISSION
+	}
+
+	private final EnumSet<Reason> reasons = EnumSet.noneOf(Reason.class);
+
+	private WebSocketReadSuspension() {
+	}
+
+	public static void suspend(Channel ch, Reason reason) {
+		update(ch, reason, true);
+	}
+
+	public static void resume(Channel ch, Reason reason) {
+		update(ch, reason, false);
+	}
+
+	private static void update(Channel ch, Reason reason, boolean suspend) {
+		if (null == ch) {
+			throw new NullPointerException("The ch should not be null");
+		}
+		if (null == reason) {
+			throw new NullPointerException("The reason should not be null");
+		}
+		if (!ch.eventLoop().inEventLoop()) {
+			ch.eventLoop().execute(() -> update(ch, reason, suspend));
+			return;
+		}
+		Attribute<WebSocketReadSuspension> attr = ch.attr(KEY);
+		WebSocketReadSuspension suspension = attr.get();
+		if (null == suspension) {
+			if (!suspend) {
+				return;
+			}
+			suspension = new WebSocketReadSuspension();
+			attr.set(suspension);
+		}
+		boolean changed = suspend ? suspension.reasons.add(reason) : suspension.reasons.remove(reason);
+		boolean autoRead = suspension.reasons.isEmpty();
+		if (changed && ch.config().isAutoRead() != autoRead) {
+			logger.trace("{} reading {} by {}", ch, autoRead ? "resumed" : "suspended", reason);
+			ch.config().setAutoRead(autoRead);
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutorGroup;
+import network.tiesdb.transport.api.TiesTransport;
+import network.tiesdb.transport.impl.ws.netty.WebSocketReadSuspension.Reason;
+import network.tiesdb.util.metrics.TiesHistogram;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Dispatcher of requests to the request handler executors.
+ * 
+ * <P>Runs on the event loop and submits each request to the next executor of
+ * {@link WebSocketHandlerExecutorGroup}, so requests of one channel are
+ * handled concurrently and may complete in any order. Clients match responses
+ * to requests by request ids.
+ * 
+ * <P>The number of requests in flight is limited per channel. When the limit
+ * is reached, further requests are held back and reading is suspended until
+ * some requests complete. With the limit of one request, requests are handled
+ * and answered in arrival order.
+ * 
+ * <P>If the executor rejects a request, the connection is closed. Any frames
+ * received after that are dropped.
+ * 
+ * <P>Time requests wait for an executor is recorded in microseconds to the
+ * {@code TransportLatency} histogram of the {@code queue} stage.
+ */
+public class WebSocketRequestDispatcher extends ChannelInboundHandlerAdapter {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketRequestDispatcher.class);
+
+	private static final int INTERNAL_ERROR = 1011;
+
+	private static final TiesHistogram QUEUE_LATENCY = TiesMetricRegistry.getDefault().histogram("TransportLatency",
+			"transport", WebSocketRequestHandler.TRANSPORT_NAME, "stage", "queue");
+
+	private final TiesTransport transport;
+	private final EventExecutorGroup handlerExecutor;
+	private final int maxInFlightRequests;
+
+	private final Queue<Object> pending = new ArrayDeque<>();
+	private int inFlight = 0;
+	private boolean rejected = false;
+
+	public WebSocketRequestDispatcher(TiesTransport transport, EventExecutorGroup handlerExecutor,
+			int maxInFlightRequests) {
+		if (null == transport) {
+			throw new NullPointerException("The transport should not be null");
+		}
+		if (null == handlerExecutor) {
+			throw new NullPointerException("The handlerExecutor should not be null");
+		}
+		if (maxInFlightRequests < 1) {
+			throw new IllegalArgumentException("The maxInFlightRequests " + maxInFlightRequests + " should be positive");
+		}
+		this.transport = transport;
+		this.handlerExecutor = handlerExecutor;
+		this.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+		if (rejected) {
+			discard(msg);
+			return;
+		}
+		if (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame
+				|| msg instanceof WebSocketFrameInputStream) {
+			pending.add(msg);
+			dispatch(ctx);
+		} else {
+			ctx.fireChannelRead(msg);
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		discardPending();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		discardPending();
+	}
+
+	private void dispatch(ChannelHandlerContext ctx) {
+		while (inFlight < maxInFlightRequests && !pending.isEmpty()) {
+			Object msg = pending.poll();
+			WebSocketRequestHandler request;
+			try {
+				request = WebSocketFrameHandler.newRequest(ctx, msg);
+			} finally {
+				ReferenceCountUtil.release(msg);
+			}
+			inFlight++;
+			long queued = System.nanoTime();
+			try {
+				handlerExecutor.next().execute(() -> {
+					QUEUE_LATENCY.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - queued));
+					WebSocketFrameHandler.process(ctx, transport, request)
+							.whenComplete((result, cause) -> complete(ctx));
+				});
+			} catch (RejectedExecutionException e) {
+				inFlight--;
+				discard(request);
+				reject(ctx, e);
+				return;
+			}
+		}
+		// Reading is suspended only when a request is held back. Suspending it
+		// once the limit is reached would stall fragments of a streamed request
+		// which is already in flight.
+		if (pending.isEmpty()) {
+			WebSocketReadSuspension.resume(ctx.channel(), Reason.IN_FLIGHT_LIMIT);
+		} else {
+			WebSocketReadSuspension.suspend(ctx.channel(), Reason.IN_FLIGHT_LIMIT);
+		}
+	}
+
+	private void complete(ChannelHandlerContext ctx) {
+		if (!ctx.executor().inEventLoop()) {
+			try {
+				ctx.executor().execute(() -> complete(ctx));
+			} catch (RejectedExecutionException e) {
+				logger.trace("{} request completion rejected", ctx.channel(), e);
+			}
+			return;
+		}
+		inFlight--;
+		if (!rejected) {
+			dispatch(ctx);
+		}
+	}
+
+	private void reject(ChannelHandlerContext ctx, RejectedExecutionException e) {
+		rejected = true;
+		logger.warn("{} request rejected: {}", ctx.channel(), e.getMessage());
+		discardPending();
+		ctx.writeAndFlush(new CloseWebSocketFrame(INTERNAL_ERROR, "Server is overloaded"))
+				.addListener(ChannelFutureListener.CLOSE);
+	}
+
+	private void discardPending() {
+		for (Object msg = pending.poll(); null != msg; msg = pending.poll()) {
+			discard(msg);
+		}
+	}
+
+	private void discard(Object msg) {
+		if (msg instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) msg).close();
+			} catch (Exception e) {
+				logger.trace("Can't close discarded {}", msg, e);
+			}
+		} else {
+			ReferenceCountUtil.release(msg);
+		}
+	}
+
+}
@@ -17,6 +17,7 @@ package network.tiesdb.transport.impl.ws.netty;
 
 import java.io.InputStream;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import network.tiesdb.transport.api.TiesRequest;
@@ -28,13 +29,27 @@ import network.tiesdb.transport.api.TiesRequest;
  */
 public class WebSocketRequestHandler implements TiesRequest, AutoCloseable {
 
+	public static final String TRANSPORT_NAME = "WebSocket";
+
 	private final InputStream is;
 
+	private final ByteBuf content;
+
 	public WebSocketRequestHandler(WebSocketFrame frame) {
 		if (null == frame) {
 			throw new NullPointerException("The frame should not be null");
 		}
-		this.is = new ByteBufInputStream(frame.content());
+		// Frame could be released before the request is handled
+		this.content = frame.content().retain();
+		this.is = new ByteBufInputStream(content);
+	}
+
+	public WebSocketRequestHandler(WebSocketFrameInputStream stream) {
+		if (null == stream) {
+			throw new NullPointerException("The stream should not be null");
+		}
+		this.content = null;
+		this.is = stream;
 	}
 
 	@Override
@@ -42,9 +57,20 @@ public class WebSocketRequestHandler implements TiesRequest, AutoCloseable {
 		return is;
 	}
 
+	@Override
+	public String getTransportName() {
+		return TRANSPORT_NAME;
+	}
+
 	@Override
 	public void close() throws Exception {
-		is.close();
+		try {
+			is.close();
+		} finally {
+			if (null != content) {
+				content.release();
+			}
+		}
 	}
 
 }
@@ -15,31 +15,57 @@
  */
 package network.tiesdb.transport.impl.ws.netty;
 
-import java.io.ByteArrayOutputStream;
+import static network.tiesdb.util.Safecheck.nullsafe;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import network.tiesdb.transport.api.TiesResponse;
+import network.tiesdb.transport.api.TiesAsyncResponse;
+import network.tiesdb.transport.api.TiesBinaryResponse;
+import network.tiesdb.transport.api.TiesStreamingResponse;
 
 /**
  * TiesDB response handler for WebSock.
  * 
+ * <P>Response is written directly into a pooled buffer of the channel
+ * allocator, which is then passed to the frame as is, without any copying.
+ * Closing of the response only schedules the frame for sending and never
+ * blocks the calling thread. Use {@link #getCompletion()} to track the send.
+ * Response is sent as a text frame unless {@link #getBinaryOutputStream()}
+ * was used.
+ * 
+ * <P>Response could be split into several messages by
+ * {@link #flushMessage()}. It waits while the channel is not writable, so a
+ * handler producing a large response runs in bounded memory. The waiting is
+ * skipped on the event loop, where it would block the write itself.
+ * 
  * @author Anton Filatov (filatov@ties.network)
  */
-public class WebSocketResponseHandler implements TiesResponse, AutoCloseable {
+public class WebSocketResponseHandler
+		implements TiesAsyncResponse, TiesBinaryResponse, TiesStreamingResponse, AutoCloseable {
 
-	private static class WrappedOutputStream extends ByteArrayOutputStream {
+	private static class WrappedOutputStream extends OutputStream {
 
 		volatile boolean sentAndClosed = false;
+		volatile boolean binary = false;
 		private final ChannelHandlerContext ctx;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private ByteBuf buffer;
+		private ChannelFuture lastSent;
 
 		private WrappedOutputStream(ChannelHandlerContext ctx) {
-			if (null == ctx) {
-				throw new NullPointerException("The ctx should not be null");
-			}
-			this.ctx = ctx;
+			this.ctx = nullsafe(ctx, "The ctx should not be null");
+			this.buffer = ctx.alloc().buffer();
 		}
 
 		private void check() {
@@ -49,28 +75,70 @@ public class WebSocketResponseHandler implements TiesResponse, AutoCloseable {
 		}
 
 		@Override
-		public synchronized void write(int b) {
+		public void write(int b) throws IOException {
 			check();
-			super.write(b);
+			buffer.writeByte(b);
 		}
 
 		@Override
-		public synchronized void write(byte[] b, int off, int len) {
+		public void write(byte[] b, int off, int len) throws IOException {
 			check();
-			super.write(b, off, len);
+			buffer.writeBytes(b, off, len);
+		}
+
+		private ChannelFuture send(ByteBuf content) {
+			// Frame takes ownership of the buffer and releases it after write
+			return lastSent = ctx.channel().writeAndFlush(binary //
+					? new BinaryWebSocketFrame(content)
+					: new TextWebSocketFrame(content));
+		}
+
+		private void flushMessage() throws IOException {
+			check();
+			if (!buffer.isReadable()) {
+				return;
+			}
+			ByteBuf content = buffer;
+			buffer = ctx.alloc().buffer();
+			ChannelFuture sent = send(content);
+			Channel channel = ctx.channel();
+			if (!channel.isWritable() && !channel.eventLoop().inEventLoop()) {
+				// Outbound buffer is drained when the last message is written
+				try {
+					sent.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for channel to be writable");
+				}
+			}
+			if (sent.isDone() && !sent.isSuccess()) {
+				throw new IOException("Can't send response message", sent.cause());
+			}
 		}
 
 		@Override
 		public void close() throws IOException {
 			if (!sentAndClosed) {
-				try {
-					ctx.channel().writeAndFlush(new TextWebSocketFrame(toString())).sync();
-					sentAndClosed = true;
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				sentAndClosed = true;
+				ChannelFuture sent;
+				if (buffer.isReadable() || null == lastSent) {
+					sent = send(buffer);
+				} else {
+					buffer.release();
+					sent = lastSent;
 				}
+				buffer = null;
+				sent.addListener(new ChannelFutureListener() {
+					@Override
+					public void operationComplete(ChannelFuture future) throws Exception {
+						if (future.isSuccess()) {
+							completion.complete(null);
+						} else {
+							completion.completeExceptionally(future.cause());
+						}
+					}
+				});
 			}
-			super.close();
 		}
 
 	}
@@ -86,6 +154,22 @@ public class WebSocketResponseHandler implements TiesResponse, AutoCloseable {
 		return os;
 	}
 
+	@Override
+	public OutputStream getBinaryOutputStream() {
+		os.binary = true;
+		return os;
+	}
+
+	@Override
+	public void flushMessage() throws IOException {
+		os.flushMessage();
+	}
+
+	@Override
+	public CompletionStage<Void> getCompletion() {
+		return os.completion;
+	}
+
 	@Override
 	public void close() throws Exception {
 		os.close();
@@ -20,6 +20,9 @@ import static network.tiesdb.util.Safecheck.nullsafe;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.net.ssl.SSLException;
@@ -28,9 +31,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -77,6 +84,16 @@ public class WebSocketServer {
 		private final boolean secured;
 		private final Integer workerThreadsCount;
 		private final Integer acceptorThreadsCount;
+		private final Integer handlerThreadsCount;
+		private final Integer handlerMaxPendingTasks;
+		private final WebSocketTransportKind transportKind;
+		private final boolean reusePort;
+		private final ByteBufAllocator allocator;
+		private final Integer socketBacklog;
+		private final Integer receiveBufferSize;
+		private final Integer sendBufferSize;
+		private final Integer writeBufferLowWaterMark;
+		private final Integer writeBufferHighWaterMark;
 
 		private SafeConfig(TiesTransportConfig config) {
 			if (null == config) {
@@ -89,23 +106,51 @@ public class WebSocketServer {
 				this.secured = nullsafe(extConfig.getSecurity()).isSecuredSocket();
 				this.workerThreadsCount = nullsafe(extConfig.getWorkerThreadsCount());
 				this.acceptorThreadsCount = nullsafe(extConfig.getAcceptorThreadsCount());
+				this.handlerThreadsCount = nullsafe(extConfig.getHandlerThreadsCount());
+				this.handlerMaxPendingTasks = nullsafe(extConfig.getHandlerMaxPendingTasks());
+				this.transportKind = WebSocketTransportKind.forName(extConfig.getTransportKind()).resolve();
+				this.reusePort = extConfig.isReusePort();
+				this.allocator = extConfig.isPooledAllocator() ? PooledByteBufAllocator.DEFAULT
+						: UnpooledByteBufAllocator.DEFAULT;
+				this.socketBacklog = extConfig.getSocketBacklog();
+				this.receiveBufferSize = extConfig.getReceiveBufferSize();
+				this.sendBufferSize = extConfig.getSendBufferSize();
+				this.writeBufferLowWaterMark = extConfig.getWriteBufferLowWaterMark();
+				this.writeBufferHighWaterMark = extConfig.getWriteBufferHighWaterMark();
+				if (null != writeBufferLowWaterMark && null != writeBufferHighWaterMark
+						&& writeBufferLowWaterMark > writeBufferHighWaterMark) {
+					throw new IllegalArgumentException("The writeBufferLowWaterMark " + writeBufferLowWaterMark
+							+ " should not be greater than writeBufferHighWaterMark " + writeBufferHighWaterMark);
+				}
 			} else {
 				logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesTransportConfigImpl.class),
 						"Using default settings for missing elements");
 				this.secured = false;
 				this.workerThreadsCount = 5;
 				this.acceptorThreadsCount = 1;
+				this.handlerThreadsCount = 0;
+				this.handlerMaxPendingTasks = 1024;
+				this.transportKind = WebSocketTransportKind.NIO;
+				this.reusePort = false;
+				this.allocator = PooledByteBufAllocator.DEFAULT;
+				this.socketBacklog = null;
+				this.receiveBufferSize = null;
+				this.sendBufferSize = null;
+				this.writeBufferLowWaterMark = null;
+				this.writeBufferHighWaterMark = null;
 			}
 		}
 	}
 
 	private static final class ChannelGroupManager {
 
-		private final AtomicReference<Channel> chRef = new AtomicReference<>();
-		private final NioEventLoopGroup bossGroup;
-		private final NioEventLoopGroup workerGroup;
+		private final AtomicReference<List<Channel>> chRef = new AtomicReference<>();
+		private final EventLoopGroup bossGroup;
+		private final EventLoopGroup workerGroup;
+		private final WebSocketHandlerExecutorGroup handlerGroup;
 
-		private ChannelGroupManager(NioEventLoopGroup bossGroup, NioEventLoopGroup workerGroup) {
+		private ChannelGroupManager(EventLoopGroup bossGroup, EventLoopGroup workerGroup,
+				WebSocketHandlerExecutorGroup handlerGroup) {
 			if (null == workerGroup) {
 				throw new NullPointerException("The workerGroup should not be null");
 			}
@@ -114,19 +159,30 @@ public class WebSocketServer {
 			}
 			this.bossGroup = bossGroup;
 			this.workerGroup = workerGroup;
+			this.handlerGroup = handlerGroup;
 		}
 
 		private void stop() {
-			Channel ch = chRef.getAndSet(null);
+			List<Channel> channels = chRef.getAndSet(null);
 			try {
-				if (null != ch && ch.isOpen()) {
-					ch.close();
-					ch.closeFuture().sync();
+				if (null == channels) {
+					logger.warn("No web socket channels to close");
 				} else {
-					logger.warn("Channel is null or not opened {}", ch.localAddress());
+					for (Channel ch : channels) {
+						if (ch.isOpen()) {
+							ch.close();
+						} else {
+							logger.warn("Channel is not opened {}", ch.localAddress());
+						}
+					}
+					for (Channel ch : channels) {
+						try {
+							ch.closeFuture().sync();
+						} catch (InterruptedException e) {
+							logger.error("Can't close web socket channel {}", ch.localAddress(), e);
+						}
+					}
 				}
-			} catch (InterruptedException e) {
-				logger.error("Can't close web socket channel {}", ch.localAddress(), e);
 			} finally {
 				if (bossGroup != null) {
 					try {
@@ -146,6 +202,15 @@ public class WebSocketServer {
 				} else {
 					logger.trace("No channel worker group");
 				}
+				if (null != handlerGroup) {
+					try {
+						handlerGroup.shutdownGracefully().sync();
+					} catch (InterruptedException e) {
+						logger.error("Can't stop request handler group", e);
+					}
+				} else {
+					logger.trace("No request handler group");
+				}
 			}
 		}
 	}
@@ -177,8 +242,13 @@ public class WebSocketServer {
 			throw new NullPointerException("The config should not be null");
 		}
 
-		ChannelGroupManager manager = new ChannelGroupManager(new NioEventLoopGroup(config.acceptorThreadsCount),
-				new NioEventLoopGroup(config.workerThreadsCount));
+		logger.debug("Using {} transport for web socket", config.transportKind);
+		ChannelGroupManager manager = new ChannelGroupManager(
+				config.transportKind.newEventLoopGroup(config.acceptorThreadsCount),
+				config.transportKind.newEventLoopGroup(config.workerThreadsCount),
+				config.handlerThreadsCount > 0
+						? new WebSocketHandlerExecutorGroup(config.handlerThreadsCount, config.handlerMaxPendingTasks)
+						: null);
 
 		try {
 			if (!managerRef.compareAndSet(null, manager)) {
@@ -195,12 +265,36 @@ public class WebSocketServer {
 
 			ServerBootstrap b = new ServerBootstrap();
 			b.group(manager.bossGroup, manager.workerGroup);
-			b.channel(NioServerSocketChannel.class);
+			b.channel(config.transportKind.getServerChannelClass());
 			b.handler(new LoggingHandler(getLoggerLogLevel()));
-			b.childHandler(new WebSocketServerInitializer(transport, sslCtx));
+			b.childHandler(new WebSocketServerInitializer(transport, sslCtx, manager.handlerGroup));
+			configOptions(b, config);
+
+			// With SO_REUSEPORT every acceptor thread gets its own listening socket
+			int socketsCount = 1;
+			if (config.reusePort) {
+				if (config.transportKind.isReusePortSupported()) {
+					b.option(EpollChannelOption.SO_REUSEPORT, true);
+					socketsCount = Math.max(1, config.acceptorThreadsCount);
+				} else {
+					logger.warn("SO_REUSEPORT is not supported by {} transport", config.transportKind);
+				}
+			}
 
+			List<Channel> channels = new ArrayList<>(socketsCount);
 			Channel ch = b.bind(config.host, config.port).sync().channel();
-			if (!manager.chRef.compareAndSet(null, ch)) {
+			channels.add(ch);
+			if (socketsCount > 1) {
+				// Bind the rest to the real port in case an ephemeral one was requested
+				int realPort = ((InetSocketAddress) ch.localAddress()).getPort();
+				for (int i = 1; i < socketsCount; i++) {
+					channels.add(b.bind(config.host, realPort).sync().channel());
+				}
+			}
+			if (!manager.chRef.compareAndSet(null, Collections.unmodifiableList(channels))) {
+				for (Channel bound : channels) {
+					bound.close();
+				}
 				throw new IllegalStateException(Channel.class.getSimpleName() + " was already bound");
 			}
 
@@ -219,7 +313,8 @@ public class WebSocketServer {
 				addressString = realHost + ":" + realPort;
 			}
 
-			System.out.println("Web socket available at " + (config.secured ? "wss" : "ws") + "://" + addressString);
+			System.out.println("Web socket available at " + (config.secured ? "wss" : "ws") + "://" + addressString
+					+ (socketsCount > 1 ? " (" + socketsCount + " sockets)" : ""));
 		} catch (Throwable e) {
 			logger.debug("Can't start server", e);
 			manager.stop();
@@ -227,6 +322,44 @@ public class WebSocketServer {
 		}
 	}
 
+	private static void configOptions(ServerBootstrap b, SafeConfig config) {
+		b.option(ChannelOption.ALLOCATOR, config.allocator);
+		b.childOption(ChannelOption.ALLOCATOR, config.allocator);
+		if (null != config.socketBacklog) {
+			b.option(ChannelOption.SO_BACKLOG, config.socketBacklog);
+		}
+		if (null != config.receiveBufferSize) {
+			// Windows larger than 64K should be set on the listening socket
+			b.option(ChannelOption.SO_RCVBUF, config.receiveBufferSize);
+			b.childOption(ChannelOption.SO_RCVBUF, config.receiveBufferSize);
+		}
+		if (null != config.sendBufferSize) {
+			b.childOption(ChannelOption.SO_SNDBUF, config.sendBufferSize);
+		}
+		// Netty rejects a high mark below the current low one and vice versa,
+		// so the order depends on which way the marks are moved from defaults
+		Integer low = config.writeBufferLowWaterMark;
+		Integer high = config.writeBufferHighWaterMark;
+		if (null != high && high < 32 * 1024) {
+			if (null != low) {
+				b.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+			}
+			b.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+		} else {
+			if (null != high) {
+				b.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, high);
+			}
+			if (null != low) {
+				b.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, low);
+			}
+		}
+	}
+
+	public WebSocketHandlerExecutorGroup getHandlerExecutor() {
+		ChannelGroupManager manager = managerRef.get();
+		return null == manager ? null : manager.handlerGroup;
+	}
+
 	private static LogLevel getLoggerLogLevel() {
 		return logger.isTraceEnabled() ? LogLevel.TRACE
 				: logger.isDebugEnabled() ? LogLevel.DEBUG
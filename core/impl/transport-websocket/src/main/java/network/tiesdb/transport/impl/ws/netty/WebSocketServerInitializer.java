@@ -30,6 +30,7 @@ import io.netty.channel.socket.SocketChannelConfig;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.timeout.IdleStateEvent;
@@ -38,6 +39,8 @@ import network.tiesdb.context.api.TiesTransportConfig;
 import network.tiesdb.exception.util.MessageHelper;
 import network.tiesdb.transport.api.TiesTransport;
 import network.tiesdb.transport.impl.ws.TiesTransportConfigImpl;
+import network.tiesdb.transport.impl.ws.TiesTransportConfigImpl.TransportAdmissionConfig;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
 
 public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel> {
 
@@ -45,6 +48,12 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
 
 	private static final String WEBSOCKET_PATH = "/websocket";
 
+	private static final int DEFAULT_MAX_HTTP_CONTENT_LENGTH = 64 * 1024;
+	private static final int DEFAULT_MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+	private static final int DEFAULT_MAX_FRAME_PAYLOAD_LENGTH = DEFAULT_MAX_MESSAGE_LENGTH;
+	private static final int DEFAULT_MESSAGE_BUFFER_LENGTH = 1024 * 1024;
+	private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 1;
+
 	private static class ConfigurableIdleStateHandler extends IdleStateHandler {
 		private ConfigurableIdleStateHandler(long readerIdleTime, long writerIdleTime, long allIdleTime,
 				TimeUnit unit) {
@@ -77,9 +86,73 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
 
 	private final TiesTransport transport;
 
+	private final WebSocketHandlerExecutorGroup handlerExecutor;
+
+	private final int maxHttpContentLength;
+	private final int maxFramePayloadLength;
+	private final int maxMessageLength;
+	private final int messageBufferLength;
+	private final int maxInFlightRequests;
+
+	private final boolean compression;
+	private final int compressionLevel;
+	private final int compressionMinPayloadLength;
+	private final int compressionWindowBits;
+
+	private final WebSocketAdmissionControl admissionControl;
+
 	public WebSocketServerInitializer(TiesTransport transport, SslContext sslCtx) {
+		this(transport, sslCtx, null);
+	}
+
+	public WebSocketServerInitializer(TiesTransport transport, SslContext sslCtx,
+			WebSocketHandlerExecutorGroup handlerExecutor) {
 		this.transport = transport;
 		this.sslCtx = sslCtx;
+		this.handlerExecutor = handlerExecutor;
+		TiesTransportConfig config = nullsafe(transport.getTiesTransportConfig());
+		if (config instanceof TiesTransportConfigImpl) {
+			TiesTransportConfigImpl extConfig = (TiesTransportConfigImpl) config;
+			this.maxHttpContentLength = nullsafe(extConfig.getMaxHttpContentLength());
+			this.maxMessageLength = nullsafe(extConfig.getMaxMessageLength());
+			Integer framePayloadLength = extConfig.getMaxFramePayloadLength();
+			this.maxFramePayloadLength = null == framePayloadLength ? maxMessageLength : framePayloadLength;
+			this.messageBufferLength = nullsafe(extConfig.getMessageBufferLength());
+			this.maxInFlightRequests = nullsafe(extConfig.getMaxInFlightRequests());
+			if (maxInFlightRequests < 1) {
+				throw new IllegalArgumentException(
+						"The maxInFlightRequests " + maxInFlightRequests + " should be positive");
+			}
+			this.compression = extConfig.isCompression();
+			this.compressionLevel = nullsafe(extConfig.getCompressionLevel());
+			this.compressionMinPayloadLength = nullsafe(extConfig.getCompressionMinPayloadLength());
+			this.compressionWindowBits = nullsafe(extConfig.getCompressionWindowBits());
+			if (compression) {
+				WebSocketDeflateExtensionHandler.checkParameters(compressionLevel, compressionWindowBits);
+			}
+			TransportAdmissionConfig admission = nullsafe(extConfig.getAdmission());
+			WebSocketAdmissionControl control = new WebSocketAdmissionControl(admission.getGlobalRate(),
+					admission.getGlobalBurst(), admission.getConnectionRate(), admission.getConnectionBurst(),
+					admission.getClientRate(), admission.getClientBurst());
+			this.admissionControl = control.isEnabled() ? control : null;
+			if (null != admissionControl) {
+				TiesMetricRegistry.getDefault().gauge("AdmissionClients", admissionControl::getClientCount,
+						"transport", WebSocketRequestHandler.TRANSPORT_NAME);
+			}
+		} else {
+			logger.warn(MessageHelper.notFullyCompatible(config.getClass(), TiesTransportConfigImpl.class),
+					"Using default message limits for websocket");
+			this.maxHttpContentLength = DEFAULT_MAX_HTTP_CONTENT_LENGTH;
+			this.maxFramePayloadLength = DEFAULT_MAX_FRAME_PAYLOAD_LENGTH;
+			this.maxMessageLength = DEFAULT_MAX_MESSAGE_LENGTH;
+			this.messageBufferLength = DEFAULT_MESSAGE_BUFFER_LENGTH;
+			this.maxInFlightRequests = DEFAULT_MAX_IN_FLIGHT_REQUESTS;
+			this.compression = false;
+			this.compressionLevel = 0;
+			this.compressionMinPayloadLength = 0;
+			this.compressionWindowBits = 0;
+			this.admissionControl = null;
+		}
 	}
 
 	@Override
@@ -87,18 +160,47 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
 		config1stStage(ch);
 
 		ChannelPipeline pipeline = ch.pipeline();
+		pipeline.addLast(WebSocketBackpressureHandler.INSTANCE);
 		if (null != sslCtx) {
 			pipeline.addLast(sslCtx.newHandler(ch.alloc()));
 		}
 		pipeline.addLast(new HttpServerCodec());
-		pipeline.addLast(new HttpObjectAggregator(65536));
-		pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, null, true));
+		pipeline.addLast(new HttpObjectAggregator(maxHttpContentLength));
+		if (compression) {
+			pipeline.addLast(new WebSocketDeflateExtensionHandler(compressionLevel, compressionMinPayloadLength,
+					compressionWindowBits, maxMessageLength));
+		}
+		pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, null, true, maxFramePayloadLength));
 		pipeline.addLast(new WebSocketIndexPageHandler(WEBSOCKET_PATH));
-		pipeline.addLast(new WebSocketFrameHandler(transport));
+		if (null != handlerExecutor) {
+			// Fragments are streamed to the handler thread as they arrive
+			pipeline.addLast(new WebSocketFragmentStreamHandler(maxMessageLength, messageBufferLength));
+			addAdmissionHandler(pipeline);
+			pipeline.addLast(new WebSocketRequestDispatcher(transport, handlerExecutor, maxInFlightRequests));
+		} else {
+			// Handler runs on the event loop and can't wait for fragments
+			pipeline.addLast(new WebSocketFrameAggregator(maxMessageLength));
+			addAdmissionHandler(pipeline);
+			pipeline.addLast(new WebSocketFrameHandler(transport));
+		}
 
 		config2ndStage(ch);
 	}
 
+	private void addAdmissionHandler(ChannelPipeline pipeline) {
+		if (null != admissionControl) {
+			pipeline.addLast(new WebSocketAdmissionHandler(admissionControl));
+		}
+	}
+
+	/**
+	 * Returns admission control of the channels or null if requests are not
+	 * limited.
+	 */
+	public WebSocketAdmissionControl getAdmissionControl() {
+		return admissionControl;
+	}
+
 	protected void config1stStage(SocketChannel ch) {
 		SocketChannelConfig config = ch.config();
 		config.setTcpNoDelay(true);
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Promise;
+import network.tiesdb.exception.TiesException;
+
+/**
+ * Web Socket client of TiesDB node to node sync.
+ * 
+ * <P>Connects to the WebSocket transport of a peer node and exchanges text
+ * messages with it. Messages are received in the order they are sent by the
+ * peer, fragmented messages are aggregated up to {@code maxMessageLength}.
+ * Each receive waits for the next message at most the timeout given.
+ */
+public class WebSocketSyncClient implements AutoCloseable {
+
+	private static final Object CLOSED = new Object();
+
+	private final Channel channel;
+	private final BlockingQueue<Object> messages;
+	private final long timeoutNanos;
+
+	private WebSocketSyncClient(Channel channel, BlockingQueue<Object> messages, long timeoutNanos) {
+		this.channel = channel;
+		this.messages = messages;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	public static WebSocketSyncClient connect(EventLoopGroup group, URI uri, int maxMessageLength, long timeout,
+			TimeUnit unit) throws TiesException {
+		if (null == group) {
+			throw new NullPointerException("The group should not be null");
+		}
+		if (null == uri) {
+			throw new NullPointerException("The uri should not be null");
+		}
+		if (null == unit) {
+			throw new NullPointerException("The unit should not be null");
+		}
+		boolean secured = "wss".equalsIgnoreCase(uri.getScheme());
+		if (!secured && !"ws".equalsIgnoreCase(uri.getScheme())) {
+			throw new TiesException("Peer " + uri + " should be a ws or wss URI");
+		}
+		String host = uri.getHost();
+		int port = -1 == uri.getPort() ? secured ? 443 : 80 : uri.getPort();
+		SslContext sslContext;
+		try {
+			sslContext = secured ? SslContextBuilder.forClient().build() : null;
+		} catch (SSLException e) {
+			throw new TiesException("Can't connect to peer " + uri, e);
+		}
+		BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+		Promise<Void> handshake = group.next().newPromise();
+		Channel channel;
+		try {
+			channel = new Bootstrap().group(group).channel(NioSocketChannel.class)
+					.handler(new ChannelInitializer<SocketChannel>() {
+						@Override
+						protected void initChannel(SocketChannel ch) throws Exception {
+							ChannelPipeline pipeline = ch.pipeline();
+							if (null != sslContext) {
+								pipeline.addLast(sslContext.newHandler(ch.alloc(), host, port));
+							}
+							pipeline.addLast(new HttpClientCodec());
+							pipeline.addLast(new HttpObjectAggregator(64 * 1024));
+							pipeline.addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory
+									.newHandshaker(uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders()),
+									true));
+							pipeline.addLast(new WebSocketFrameAggregator(maxMessageLength));
+							pipeline.addLast(new MessageHandler(messages, handshake));
+						}
+					}).connect(host, port).sync().channel();
+			if (!handshake.await(timeout, unit)) {
+				channel.close();
+				throw new TiesException("Handshake with peer " + uri + " timed out");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TiesException("Can't connect to peer " + uri, e);
+		} catch (RuntimeException e) {
+			throw new TiesException("Can't connect to peer " + uri, e);
+		}
+		if (!handshake.isSuccess()) {
+			channel.close();
+			throw new TiesException("Can't connect to peer " + uri, handshake.cause());
+		}
+		return new WebSocketSyncClient(channel, messages, unit.toNanos(timeout));
+	}
+
+	public void send(String message) throws TiesException {
+		try {
+			channel.writeAndFlush(new TextWebSocketFrame(message)).sync();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TiesException("Can't send message to peer", e);
+		} catch (RuntimeException e) {
+			throw new TiesException("Can't send message to peer", e);
+		}
+	}
+
+	public String receive() throws TiesException {
+		Object message;
+		try {
+			message = messages.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TiesException("Can't receive message from peer", e);
+		}
+		if (null == message) {
+			throw new TiesException("Peer response timed out");
+		}
+		if (message instanceof Throwable || CLOSED == message) {
+			// Failure is kept for the next receive as well
+			messages.offer(message);
+			throw new TiesException("Connection to peer is lost",
+					CLOSED == message ? new ClosedChannelException() : (Throwable) message);
+		}
+		return (String) message;
+	}
+
+	@Override
+	public void close() {
+		channel.close().awaitUninterruptibly();
+	}
+
+	private static final class MessageHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+
+		private final BlockingQueue<Object> messages;
+		private final Promise<Void> handshake;
+
+		private MessageHandler(BlockingQueue<Object> messages, Promise<Void> handshake) {
+			this.messages = messages;
+			this.handshake = handshake;
+		}
+
+		@Override
+		public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+			if (WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE == evt) {
+				handshake.trySuccess(null);
+			}
+			super.userEventTriggered(ctx, evt);
+		}
+
+		@Override
+		protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
+			messages.offer(msg.content().toString(CharsetUtil.UTF_8));
+		}
+
+		@Override
+		public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+			handshake.tryFailure(cause);
+			messages.offer(cause);
+			ctx.close();
+		}
+
+		@Override
+		public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+			handshake.tryFailure(new ClosedChannelException());
+			messages.offer(CLOSED);
+			super.channelInactive(ctx);
+		}
+
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012 The Netty Project
+ * 
+ * The Netty Project licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * 
+ * <P>The bucket is kept as the theoretical arrival time of the next token, as
+ * in the generic cell rate algorithm, so taking a token is a single compare
+ * and set of that time. Tokens are added at {@code rate} per second up to
+ * {@code burst} of them, the bucket is full when it is created.
+ */
+final class WebSocketTokenBucket {
+
+	private final long interval;
+	private final long tolerance;
+	private final AtomicLong arrival;
+
+	WebSocketTokenBucket(double rate, int burst) {
+		if (!(rate > 0)) {
+			throw new IllegalArgumentException("The rate " + rate + " should be positive");
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("The burst " + burst + " should be positive");
+		}
+		this.interval = Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / rate));
+		this.tolerance = interval * (burst - 1);
+		this.arrival = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token if there is one.
+	 * 
+	 * @return zero if the token is taken or nanoseconds to wait for the next
+	 *         token otherwise
+	 */
+	long tryAcquire(long now) {
+		while (true) {
+			long current = arrival.get();
+			long start = current - now > 0 ? current : now;
+			long wait = start - now - tolerance;
+			if (wait > 0) {
+				return wait;
+			}
+			if (arrival.compareAndSet(current, start + interval)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the token taken, but not used.
+	 */
+	void release() {
+		arrival.addAndGet(-interval);
+	}
+
+}
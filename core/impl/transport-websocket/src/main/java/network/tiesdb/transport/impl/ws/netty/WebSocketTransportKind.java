@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * Kinds of Netty transport for WebSock server.
+ * 
+ * <P>{@link #AUTO} selects native epoll transport if it is available on the
+ * current platform and falls back to NIO otherwise.
+ */
+public enum WebSocketTransportKind {
+
+	AUTO {
+		@Override
+		public WebSocketTransportKind resolve() {
+			return Epoll.isAvailable() ? EPOLL : NIO;
+		}
+	},
+
+	NIO {
+		@Override
+		public EventLoopGroup newEventLoopGroup(int threadsCount) {
+			return new NioEventLoopGroup(threadsCount);
+		}
+
+		@Override
+		public Class<? extends ServerChannel> getServerChannelClass() {
+			return NioServerSocketChannel.class;
+		}
+	},
+
+	EPOLL {
+		@Override
+		public WebSocketTransportKind resolve() {
+			if (Epoll.isAvailable()) {
+				return this;
+			}
+			logger.warn("Native epoll transport is not available, falling back to NIO",
+					Epoll.unavailabilityCause());
+			return NIO;
+		}
+
+		@Override
+		public EventLoopGroup newEventLoopGroup(int threadsCount) {
+			return new EpollEventLoopGroup(threadsCount);
+		}
+
+		@Override
+		public Class<? extends ServerChannel> getServerChannelClass() {
+			return EpollServerSocketChannel.class;
+		}
+
+		@Override
+		public boolean isReusePortSupported() {
+			return true;
+		}
+	};
+
+	private static final Logger logger = LoggerFactory.getLogger(WebSocketTransportKind.class);
+
+	public static WebSocketTransportKind forName(String name) {
+		return null == name ? AUTO : valueOf(name.trim().toUpperCase());
+	}
+
+	public WebSocketTransportKind resolve() {
+		return this;
+	}
+
+	public EventLoopGroup newEventLoopGroup(int threadsCount) {
+		throw new IllegalStateException(name() + " transport should be resolved first");
+	}
+
+	public Class<? extends ServerChannel> getServerChannelClass() {
+		throw new IllegalStateException(name() + " transport should be resolved first");
+	}
+
+	public boolean isReusePortSupported() {
+		return false;
+	}
+
+}
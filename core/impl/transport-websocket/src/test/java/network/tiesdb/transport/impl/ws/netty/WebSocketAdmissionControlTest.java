@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import network.tiesdb.transport.impl.ws.netty.WebSocketAdmissionControl.Scope;
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Tests of {@link WebSocketAdmissionControl} over {@link WebSocketTokenBucket}s.
+ */
+public class WebSocketAdmissionControlTest {
+
+	@Test
+	public void testAdmitsAllWithoutLimits() {
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(null, null, null, null, null, null);
+		assertFalse(control.isEnabled());
+		assertNull(control.newConnectionBucket());
+		assertNull(control.acquireClientBucket("client"));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(0, control.tryAcquire(null, null, System.nanoTime(), true));
+		}
+		assertEquals(1000, control.getAdmittedCount());
+	}
+
+	@Test
+	public void testThrottlesConnection() {
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(null, null, 10.0, 2, null, null);
+		assertTrue(control.isEnabled());
+		WebSocketTokenBucket first = control.newConnectionBucket();
+		WebSocketTokenBucket second = control.newConnectionBucket();
+		long now = System.nanoTime();
+		assertEquals(0, control.tryAcquire(first, null, now, true));
+		assertEquals(0, control.tryAcquire(first, null, now, true));
+		assertTrue(control.tryAcquire(first, null, now, true) > 0);
+		assertTrue(control.tryAcquire(first, null, now, false) > 0);
+		// Connections have buckets of their own
+		assertEquals(0, control.tryAcquire(second, null, now, true));
+		assertEquals(3, control.getAdmittedCount());
+		assertEquals(1, control.getThrottledCount(Scope.CONNECTION));
+		assertEquals(0, control.getThrottledCount(Scope.GLOBAL));
+	}
+
+	@Test
+	public void testReturnsTokensOfRejectedRequest() {
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(10.0, 1, 10.0, 1, 10.0, 1);
+		WebSocketTokenBucket first = control.newConnectionBucket();
+		WebSocketTokenBucket second = control.newConnectionBucket();
+		WebSocketTokenBucket client = control.acquireClientBucket("second");
+		long now = System.nanoTime();
+		assertEquals(0, control.tryAcquire(first, null, now, true));
+		// Global limit rejects, the connection and client tokens are kept
+		assertTrue(control.tryAcquire(second, client, now, true) > 0);
+		assertEquals(1, control.getThrottledCount(Scope.GLOBAL));
+		assertEquals(0, control.tryAcquire(second, null, now + 100_000_000L, true));
+		assertEquals(0, client.tryAcquire(now));
+	}
+
+	@Test
+	public void testSharesClientBucketAmongConnections() {
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(null, null, null, null, 10.0, 1);
+		WebSocketTokenBucket first = control.acquireClientBucket("client");
+		WebSocketTokenBucket second = control.acquireClientBucket("client");
+		assertSame(first, second);
+		assertEquals(1, control.getClientCount());
+		long now = System.nanoTime();
+		assertEquals(0, control.tryAcquire(null, first, now, true));
+		assertTrue(control.tryAcquire(null, second, now, true) > 0);
+		assertEquals(1, control.getThrottledCount(Scope.CLIENT));
+		control.releaseClientBucket("client");
+		assertEquals(1, control.getClientCount());
+		control.releaseClientBucket("client");
+		assertEquals(0, control.getClientCount());
+	}
+
+	@Test
+	public void testPublishesCounts() {
+		TiesMetricRegistry registry = TiesMetricRegistry.getDefault();
+		String transport = WebSocketRequestHandler.TRANSPORT_NAME;
+		TiesCounter admitted = registry.counter("AdmittedRequests", "transport", transport);
+		TiesCounter throttled = registry.counter("ThrottledRequests", "transport", transport, "scope", "global");
+		TiesCounter throttledTime = registry.counter("ThrottledTime", "transport", transport);
+		long admittedCount = admitted.getCount();
+		long throttledCount = throttled.getCount();
+		long throttledMicros = throttledTime.getCount();
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(10.0, 1, null, null, null, null);
+		long now = System.nanoTime();
+		assertEquals(0, control.tryAcquire(null, null, now, true));
+		assertTrue(control.tryAcquire(null, null, now, true) > 0);
+		control.waited(TimeUnit.MILLISECONDS.toNanos(5));
+		assertEquals(admittedCount + 1, admitted.getCount());
+		assertEquals(throttledCount + 1, throttled.getCount());
+		assertEquals(throttledMicros + 5000, throttledTime.getCount());
+		assertEquals(5, TimeUnit.NANOSECONDS.toMillis(control.getThrottledNanos()));
+	}
+
+	@Test
+	public void testRoundsBurstUpFromRate() {
+		WebSocketAdmissionControl control = new WebSocketAdmissionControl(2.5, null, null, null, null, null);
+		long now = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, control.tryAcquire(null, null, now, true));
+		}
+		assertTrue(control.tryAcquire(null, null, now, true) > 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNegativeRate() {
+		new WebSocketAdmissionControl(null, null, null, null, -1.0, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroBurst() {
+		new WebSocketAdmissionControl(1.0, 0, null, null, null, null);
+	}
+
+}
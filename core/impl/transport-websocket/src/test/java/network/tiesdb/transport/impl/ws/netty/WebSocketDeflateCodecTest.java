@@ -0,0 +1,360 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Tests of {@link WebSocketDeflateEncoder} and {@link WebSocketDeflateDecoder}.
+ * 
+ * <P>Compressed frames are passed to the decoder the way they arrive from
+ * {@link WebSocketDeflateFrameMarker}, text ones relabeled as binary.
+ */
+public class WebSocketDeflateCodecTest {
+
+	private static final int RSV1 = WebSocketDeflateEncoder.RSV1;
+
+	private static final byte[] EMPTY_BLOCK_TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+	@Test
+	public void testRoundTripsTextMessage() {
+		WebSocketCompressionStats stats = new WebSocketCompressionStats();
+		EmbeddedChannel encoder = new EmbeddedChannel(new WebSocketDeflateEncoder(6, 0, false, stats));
+		byte[] payload = repeat("TiesDB ", 200);
+		WebSocketFrame compressed = encode(encoder, new TextWebSocketFrame(Unpooled.wrappedBuffer(payload)));
+		assertTrue(compressed instanceof TextWebSocketFrame);
+		assertEquals(RSV1, compressed.rsv());
+		assertTrue(compressed.isFinalFragment());
+		assertTrue(compressed.content().readableBytes() < payload.length / 10);
+		assertEquals(payload.length, stats.getRawBytesSent());
+		assertEquals(compressed.content().readableBytes(), stats.getCompressedBytesSent());
+
+		Queue<Boolean> marks = new ArrayDeque<>(Arrays.asList(true));
+		EmbeddedChannel decoder = newDecoder(0, false, marks);
+		WebSocketFrame decoded = decode(decoder, relabel(compressed));
+		assertTrue(decoded instanceof TextWebSocketFrame);
+		assertEquals(0, decoded.rsv());
+		assertTrue(decoded.isFinalFragment());
+		assertArrayEquals(payload, toBytes(decoded.content()));
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testRoundTripsBinaryMessage() {
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(9, 0, false, new WebSocketCompressionStats()));
+		byte[] payload = new byte[4096];
+		WebSocketFrame compressed = encode(encoder, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload)));
+		assertTrue(compressed instanceof BinaryWebSocketFrame);
+		assertEquals(RSV1, compressed.rsv());
+
+		WebSocketFrame decoded = decode(newDecoder(0, false, new ArrayDeque<>(Arrays.asList(false))), compressed);
+		assertTrue(decoded instanceof BinaryWebSocketFrame);
+		assertArrayEquals(payload, toBytes(decoded.content()));
+	}
+
+	@Test
+	public void testStripsEmptyBlockTail() throws DataFormatException {
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(6, 0, false, new WebSocketCompressionStats()));
+		byte[] payload = repeat("tail ", 100);
+		byte[] compressed = toBytes(encode(encoder, new TextWebSocketFrame(Unpooled.wrappedBuffer(payload))).content());
+		assertFalse(endsWith(Unpooled.wrappedBuffer(compressed), EMPTY_BLOCK_TAIL));
+
+		// Peer restores the tail before inflating
+		Inflater inflater = new Inflater(true);
+		inflater.setInput(concat(compressed, EMPTY_BLOCK_TAIL));
+		byte[] inflated = new byte[payload.length * 2];
+		assertEquals(payload.length, inflater.inflate(inflated));
+		assertArrayEquals(payload, Arrays.copyOf(inflated, payload.length));
+		inflater.end();
+	}
+
+	@Test
+	public void testDecodesMessagesWithoutTail() {
+		Deflater deflater = new Deflater(6, true);
+		EmbeddedChannel decoder = newDecoder(0, false, new ArrayDeque<>(Arrays.asList(true, true)));
+		for (String text : new String[] { "first message", "second message" }) {
+			byte[] compressed = compress(deflater, text.getBytes(StandardCharsets.UTF_8));
+			WebSocketFrame decoded = decode(decoder,
+					new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(compressed)));
+			assertEquals(text, ((TextWebSocketFrame) decoded).text());
+		}
+		deflater.end();
+	}
+
+	@Test
+	public void testDecodesFinishedDeflateStreams() {
+		EmbeddedChannel decoder = newDecoder(0, false, new ArrayDeque<>(Arrays.asList(false, false)));
+		for (int i = 0; i < 2; i++) {
+			// Each message is a complete deflate stream ended by a final block
+			byte[] payload = repeat("final block " + i, 10);
+			Deflater deflater = new Deflater(6, true);
+			deflater.setInput(payload);
+			deflater.finish();
+			byte[] compressed = new byte[1024];
+			int length = deflater.deflate(compressed);
+			deflater.end();
+			WebSocketFrame decoded = decode(decoder,
+					new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(compressed, 0, length)));
+			assertArrayEquals(payload, toBytes(decoded.content()));
+		}
+	}
+
+	@Test
+	public void testSendsShortMessagesUncompressed() {
+		WebSocketCompressionStats stats = new WebSocketCompressionStats();
+		EmbeddedChannel encoder = new EmbeddedChannel(new WebSocketDeflateEncoder(6, 100, false, stats));
+		TextWebSocketFrame frame = new TextWebSocketFrame("short");
+		assertSame(frame, encode(encoder, frame));
+		assertEquals(0, frame.rsv());
+		assertEquals(5, stats.getUncompressedBytesSent());
+		assertEquals(0, stats.getRawBytesSent());
+	}
+
+	@Test
+	public void testPassesUncompressedMessages() {
+		Queue<Boolean> marks = new ArrayDeque<>(Arrays.asList(true));
+		EmbeddedChannel decoder = newDecoder(0, false, marks);
+		TextWebSocketFrame frame = new TextWebSocketFrame("plain");
+		assertSame(frame, decode(decoder, frame));
+		assertEquals("plain", frame.text());
+		assertEquals(1, marks.size());
+	}
+
+	@Test
+	public void testRoundTripsFragmentedMessage() {
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(6, 0, false, new WebSocketCompressionStats()));
+		byte[][] parts = { repeat("first ", 50), repeat("second ", 50), repeat("third ", 50) };
+		WebSocketFrame first = encode(encoder, new TextWebSocketFrame(false, 0, Unpooled.wrappedBuffer(parts[0])));
+		WebSocketFrame second = encode(encoder,
+				new ContinuationWebSocketFrame(false, 0, Unpooled.wrappedBuffer(parts[1])));
+		WebSocketFrame third = encode(encoder,
+				new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(parts[2])));
+		assertEquals(RSV1, first.rsv());
+		assertTrue(second instanceof ContinuationWebSocketFrame);
+		// Only the first fragment of a message is flagged
+		assertEquals(0, second.rsv());
+		assertEquals(0, third.rsv());
+		// Flushed fragments end with the tail, which is stripped at the end of the message only
+		assertTrue(endsWith(first.content(), EMPTY_BLOCK_TAIL));
+		assertTrue(endsWith(second.content(), EMPTY_BLOCK_TAIL));
+		assertFalse(endsWith(third.content(), EMPTY_BLOCK_TAIL));
+
+		EmbeddedChannel decoder = newDecoder(0, false, new ArrayDeque<>(Arrays.asList(true)));
+		WebSocketFrame decoded = decode(decoder, relabel(first));
+		assertTrue(decoded instanceof TextWebSocketFrame);
+		assertFalse(decoded.isFinalFragment());
+		assertArrayEquals(parts[0], toBytes(decoded.content()));
+		decoded = decode(decoder, second);
+		assertTrue(decoded instanceof ContinuationWebSocketFrame);
+		assertFalse(decoded.isFinalFragment());
+		assertArrayEquals(parts[1], toBytes(decoded.content()));
+		decoded = decode(decoder, third);
+		assertTrue(decoded instanceof ContinuationWebSocketFrame);
+		assertTrue(decoded.isFinalFragment());
+		assertArrayEquals(parts[2], toBytes(decoded.content()));
+	}
+
+	@Test
+	public void testFirstFragmentDecidesCompression() {
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(6, 100, false, new WebSocketCompressionStats()));
+		WebSocketFrame first = encode(encoder, new TextWebSocketFrame(false, 0, "short"));
+		byte[] payload = repeat("long ", 100);
+		WebSocketFrame last = encode(encoder, new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(payload)));
+		assertEquals(0, first.rsv());
+		assertArrayEquals(payload, toBytes(last.content()));
+
+		WebSocketFrame next = encode(encoder, new TextWebSocketFrame(Unpooled.wrappedBuffer(payload)));
+		assertEquals(RSV1, next.rsv());
+	}
+
+	@Test
+	public void testTakesOverContextBetweenMessages() {
+		byte[] payload = random(16 * 1024);
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(6, 0, false, new WebSocketCompressionStats()));
+		WebSocketFrame first = encode(encoder, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload)));
+		WebSocketFrame second = encode(encoder, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload)));
+		// Second message refers back to the first one within the 32K window
+		assertTrue(second.content().readableBytes() * 10 < first.content().readableBytes());
+
+		EmbeddedChannel decoder = newDecoder(0, false, new ArrayDeque<>(Arrays.asList(false, false)));
+		assertArrayEquals(payload, toBytes(decode(decoder, first).content()));
+		assertArrayEquals(payload, toBytes(decode(decoder, second).content()));
+	}
+
+	@Test
+	public void testResetsContextWithoutTakeover() {
+		byte[] payload = random(16 * 1024);
+		EmbeddedChannel encoder = new EmbeddedChannel(
+				new WebSocketDeflateEncoder(6, 0, true, new WebSocketCompressionStats()));
+		byte[] first = toBytes(encode(encoder, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload))).content());
+		byte[] second = toBytes(encode(encoder, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(payload))).content());
+		assertArrayEquals(first, second);
+
+		EmbeddedChannel decoder = newDecoder(0, true, new ArrayDeque<>(Arrays.asList(false, false)));
+		for (byte[] compressed : new byte[][] { first, second }) {
+			WebSocketFrame frame = new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(compressed));
+			assertArrayEquals(payload, toBytes(decode(decoder, frame).content()));
+		}
+	}
+
+	@Test
+	public void testKeepsContextOfDecoderWithTakeover() {
+		byte[] payload = random(1024);
+		Deflater deflater = new Deflater(6, true);
+		byte[] first = compress(deflater, payload);
+		byte[] second = compress(deflater, payload);
+		deflater.end();
+		assertNotEquals(first.length, second.length);
+
+		EmbeddedChannel decoder = newDecoder(0, false, new ArrayDeque<>(Arrays.asList(false, false)));
+		for (byte[] compressed : new byte[][] { first, second }) {
+			WebSocketFrame frame = new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(compressed));
+			assertArrayEquals(payload, toBytes(decode(decoder, frame).content()));
+		}
+	}
+
+	@Test(expected = TooLongFrameException.class)
+	public void testLimitsInflatedMessageLength() {
+		byte[] compressed = compress(new Deflater(9, true), new byte[100000]);
+		decode(newDecoder(1000, false, new ArrayDeque<>()),
+				new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(compressed)));
+	}
+
+	@Test(expected = TooLongFrameException.class)
+	public void testLimitsInflatedLengthOfFragments() {
+		Deflater deflater = new Deflater(6, true);
+		EmbeddedChannel decoder = newDecoder(1000, false, new ArrayDeque<>());
+		assertEquals(600, decode(decoder, new BinaryWebSocketFrame(false, RSV1,
+				Unpooled.wrappedBuffer(syncFlush(deflater, new byte[600])))).content().readableBytes());
+		decode(decoder,
+				new ContinuationWebSocketFrame(true, 0, Unpooled.wrappedBuffer(compress(deflater, new byte[600]))));
+	}
+
+	@Test(expected = CorruptedFrameException.class)
+	public void testRejectsCorruptedMessage() {
+		// Block type 11 is reserved
+		decode(newDecoder(0, false, new ArrayDeque<>()),
+				new BinaryWebSocketFrame(true, RSV1, Unpooled.wrappedBuffer(new byte[] { (byte) 0xff, 0x00 })));
+	}
+
+	private static EmbeddedChannel newDecoder(long maxMessageLength, boolean noContextTakeover, Queue<Boolean> marks) {
+		return new EmbeddedChannel(new WebSocketDeflateDecoder(maxMessageLength, noContextTakeover,
+				new WebSocketCompressionStats(), marks));
+	}
+
+	private static WebSocketFrame encode(EmbeddedChannel channel, WebSocketFrame frame) {
+		channel.writeOutbound(frame);
+		return (WebSocketFrame) channel.readOutbound();
+	}
+
+	private static WebSocketFrame decode(EmbeddedChannel channel, WebSocketFrame frame) {
+		channel.writeInbound(frame);
+		return (WebSocketFrame) channel.readInbound();
+	}
+
+	/*
+	 * Compressed text frames reach the decoder as binary ones
+	 */
+	private static WebSocketFrame relabel(WebSocketFrame frame) {
+		return new BinaryWebSocketFrame(frame.isFinalFragment(), frame.rsv(), frame.content());
+	}
+
+	private static byte[] syncFlush(Deflater deflater, byte[] payload) {
+		deflater.setInput(payload);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int length;
+		do {
+			length = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+			out.write(buf, 0, length);
+		} while (length == buf.length);
+		return out.toByteArray();
+	}
+
+	/*
+	 * Returns the final fragment of a message, which is sent without the tail
+	 */
+	private static byte[] compress(Deflater deflater, byte[] payload) {
+		byte[] compressed = syncFlush(deflater, payload);
+		assertTrue(endsWith(Unpooled.wrappedBuffer(compressed), EMPTY_BLOCK_TAIL));
+		return Arrays.copyOf(compressed, compressed.length - EMPTY_BLOCK_TAIL.length);
+	}
+
+	private static boolean endsWith(ByteBuf buf, byte[] tail) {
+		byte[] bytes = toBytes(buf);
+		return bytes.length >= tail.length
+				&& Arrays.equals(tail, Arrays.copyOfRange(bytes, bytes.length - tail.length, bytes.length));
+	}
+
+	private static byte[] toBytes(ByteBuf buf) {
+		byte[] bytes = new byte[buf.readableBytes()];
+		buf.getBytes(buf.readerIndex(), bytes);
+		return bytes;
+	}
+
+	private static byte[] repeat(String text, int count) {
+		StringBuilder sb = new StringBuilder(text.length() * count);
+		for (int i = 0; i < count; i++) {
+			sb.append(text);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] random(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, bytes, first.length, second.length);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Tests of permessage-deflate negotiation by
+ * {@link WebSocketDeflateExtensionHandler}.
+ */
+public class WebSocketDeflateExtensionHandlerTest {
+
+	private static final String SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+
+	@Test
+	public void testAcceptsOfferWithoutParameters() {
+		EmbeddedChannel channel = handshake(15, "permessage-deflate", HttpResponseStatus.SWITCHING_PROTOCOLS);
+		assertEquals("permessage-deflate", getExtensions(channel));
+		assertNull(channel.pipeline().get(WebSocketDeflateExtensionHandler.class));
+		assertNotNull(channel.pipeline().get(WebSocketDeflateFrameMarker.class));
+		assertNotNull(channel.pipeline().get(WebSocketDeflateDecoder.class));
+		assertNotNull(channel.pipeline().get(WebSocketDeflateEncoder.class));
+		assertNotNull(WebSocketCompressionStats.get(channel));
+	}
+
+	@Test
+	public void testPlacesMarkerBeforeFrameDecoder() {
+		EmbeddedChannel channel = handshake(15, "permessage-deflate", HttpResponseStatus.SWITCHING_PROTOCOLS);
+		String marker = channel.pipeline().context(WebSocketDeflateFrameMarker.class).name();
+		List<String> names = channel.pipeline().names();
+		assertEquals(names.indexOf(marker) + 1, names.indexOf("wsdecoder"));
+	}
+
+	@Test
+	public void testEchoesNoContextTakeover() {
+		EmbeddedChannel channel = handshake(15,
+				"permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+				HttpResponseStatus.SWITCHING_PROTOCOLS);
+		assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+				getExtensions(channel));
+	}
+
+	@Test
+	public void testLimitsClientWindow() {
+		assertEquals("permessage-deflate; client_max_window_bits=10",
+				getExtensions(handshake(10, "permessage-deflate; client_max_window_bits",
+						HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertEquals("permessage-deflate; client_max_window_bits=10",
+				getExtensions(handshake(10, "permessage-deflate; client_max_window_bits=15",
+						HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertEquals("permessage-deflate; client_max_window_bits=9",
+				getExtensions(handshake(10, "permessage-deflate; client_max_window_bits=\"9\"",
+						HttpResponseStatus.SWITCHING_PROTOCOLS)));
+	}
+
+	@Test
+	public void testDeclinesIllegalClientWindow() {
+		assertNull(getExtensions(handshake(15, "permessage-deflate; client_max_window_bits=7",
+				HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertNull(getExtensions(handshake(15, "permessage-deflate; client_max_window_bits=16",
+				HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertNull(getExtensions(handshake(15, "permessage-deflate; client_max_window_bits=x",
+				HttpResponseStatus.SWITCHING_PROTOCOLS)));
+	}
+
+	@Test
+	public void testAcceptsFullServerWindowOnly() {
+		assertEquals("permessage-deflate; server_max_window_bits=15",
+				getExtensions(handshake(15, "permessage-deflate; server_max_window_bits=15",
+						HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		EmbeddedChannel channel = handshake(15, "permessage-deflate; server_max_window_bits=10",
+				HttpResponseStatus.SWITCHING_PROTOCOLS);
+		assertNull(getExtensions(channel));
+		assertNull(channel.pipeline().get(WebSocketDeflateEncoder.class));
+		assertNull(getExtensions(handshake(15, "permessage-deflate; server_max_window_bits",
+				HttpResponseStatus.SWITCHING_PROTOCOLS)));
+	}
+
+	@Test
+	public void testFallsBackToNextOffer() {
+		assertEquals("permessage-deflate; client_no_context_takeover",
+				getExtensions(handshake(15,
+						"permessage-deflate; server_max_window_bits=10, permessage-deflate; client_no_context_takeover",
+						HttpResponseStatus.SWITCHING_PROTOCOLS)));
+	}
+
+	@Test
+	public void testDeclinesUnknownOffers() {
+		assertNull(getExtensions(handshake(15, "permessage-deflate; unknown_parameter",
+				HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertNull(getExtensions(handshake(15, "x-webkit-deflate-frame", HttpResponseStatus.SWITCHING_PROTOCOLS)));
+		assertNull(getExtensions(handshake(15, null, HttpResponseStatus.SWITCHING_PROTOCOLS)));
+	}
+
+	@Test
+	public void testKeepsHandlerUntilHandshakeSucceeds() {
+		EmbeddedChannel channel = handshake(15, "permessage-deflate", HttpResponseStatus.BAD_REQUEST);
+		assertNull(getExtensions(channel));
+		assertNotNull(channel.pipeline().get(WebSocketDeflateExtensionHandler.class));
+		assertNull(channel.pipeline().get(WebSocketDeflateEncoder.class));
+	}
+
+	@Test
+	public void testIgnoresRequestsWithoutUpgrade() {
+		EmbeddedChannel channel = new EmbeddedChannel(new WebSocketDeflateExtensionHandler(6, 0, 15, 0));
+		channel.pipeline().addLast("wsdecoder", new ChannelInboundHandlerAdapter());
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/websocket");
+		request.headers().set(SEC_WEBSOCKET_EXTENSIONS, "permessage-deflate");
+		channel.writeInbound(request);
+		assertSame(request, channel.readInbound());
+		channel.writeOutbound(
+				new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS));
+		assertNull(getExtensions(channel));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsIllegalLevel() {
+		new WebSocketDeflateExtensionHandler(10, 0, 15, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsIllegalWindowBits() {
+		new WebSocketDeflateExtensionHandler(6, 0, 7, 0);
+	}
+
+	private static EmbeddedChannel handshake(int windowBits, String extensions, HttpResponseStatus status) {
+		EmbeddedChannel channel = new EmbeddedChannel(new WebSocketDeflateExtensionHandler(6, 0, windowBits, 0));
+		// Frame decoder is added by the handshaker before the response is sent
+		channel.pipeline().addLast("wsdecoder", new ChannelInboundHandlerAdapter());
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/websocket");
+		request.headers().set(HttpHeaders.Names.UPGRADE, HttpHeaders.Values.WEBSOCKET);
+		request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.UPGRADE);
+		if (null != extensions) {
+			request.headers().set(SEC_WEBSOCKET_EXTENSIONS, extensions);
+		}
+		channel.writeInbound(request);
+		channel.readInbound();
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status));
+		return channel;
+	}
+
+	private static String getExtensions(EmbeddedChannel channel) {
+		HttpResponse response = (HttpResponse) channel.readOutbound();
+		return response.headers().get(SEC_WEBSOCKET_EXTENSIONS);
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Tests of compressed frame relabeling by {@link WebSocketDeflateFrameMarker}.
+ */
+public class WebSocketDeflateFrameMarkerTest {
+
+	private static final int FIN = 0x80;
+	private static final int RSV1 = 0x40;
+	private static final int CONTINUATION = 0x0;
+	private static final int TEXT = 0x1;
+	private static final int BINARY = 0x2;
+	private static final int PING = 0x9;
+
+	@Test
+	public void testRelabelsCompressedText() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] frame = frame(FIN | RSV1 | TEXT, 5);
+		byte[] marked = mark(marks, frame);
+		assertEquals((byte) (FIN | RSV1 | BINARY), marked[0]);
+		assertArrayEquals(Arrays.copyOfRange(frame, 1, frame.length), Arrays.copyOfRange(marked, 1, marked.length));
+		assertEquals(Boolean.TRUE, marks.poll());
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testMarksCompressedBinary() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] frame = frame(FIN | RSV1 | BINARY, 5);
+		assertArrayEquals(frame, mark(marks, frame));
+		assertEquals(Boolean.FALSE, marks.poll());
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testSkipsUncompressedAndControlFrames() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] frames = concat(frame(FIN | TEXT, 5), frame(FIN | BINARY, 5), frame(FIN | PING, 0));
+		assertArrayEquals(frames, mark(marks, frames));
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testMarksFirstFragmentOnly() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] frames = concat(frame(RSV1 | TEXT, 10), frame(FIN | PING, 0), frame(CONTINUATION, 10),
+				frame(FIN | CONTINUATION, 10));
+		byte[] marked = mark(marks, frames);
+		assertEquals((byte) (RSV1 | BINARY), marked[0]);
+		assertArrayEquals(Arrays.copyOfRange(frames, 1, frames.length), Arrays.copyOfRange(marked, 1, marked.length));
+		assertEquals(Boolean.TRUE, marks.poll());
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testFollowsExtendedLengths() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] first = frame(FIN | BINARY, 300);
+		byte[] second = frame(FIN | BINARY, 70000);
+		byte[] third = frame(FIN | RSV1 | TEXT, 5);
+		byte[] marked = mark(marks, concat(first, second, third));
+		assertEquals((byte) (FIN | RSV1 | BINARY), marked[first.length + second.length]);
+		assertEquals(Boolean.TRUE, marks.poll());
+		assertTrue(marks.isEmpty());
+	}
+
+	@Test
+	public void testFollowsFramesSplitAcrossReads() {
+		Queue<Boolean> marks = new ArrayDeque<>();
+		byte[] frames = concat(frame(FIN | BINARY, 200), frame(FIN | RSV1 | TEXT, 5), frame(FIN | RSV1 | BINARY, 3),
+				frame(FIN | RSV1 | TEXT, 130));
+		EmbeddedChannel channel = new EmbeddedChannel(new WebSocketDeflateFrameMarker(marks));
+		for (byte b : frames) {
+			channel.writeInbound(Unpooled.wrappedBuffer(new byte[] { b }));
+		}
+		byte[] marked = readAll(channel);
+		assertEquals((byte) (FIN | RSV1 | BINARY), marked[frame(FIN | BINARY, 200).length]);
+		assertArrayEquals(new Boolean[] { true, false, true }, marks.toArray(new Boolean[0]));
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testRejectsNullMarks() {
+		new WebSocketDeflateFrameMarker(null);
+	}
+
+	/*
+	 * Returns masked client frame of the given length with arbitrary payload
+	 */
+	private static byte[] frame(int header, int length) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header);
+		if (length < 126) {
+			out.write(0x80 | length);
+		} else if (length < 65536) {
+			out.write(0x80 | 126);
+			out.write(length >> 8);
+			out.write(length);
+		} else {
+			out.write(0x80 | 127);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) ((long) length >> shift));
+			}
+		}
+		out.write(0x11);
+		out.write(0x22);
+		out.write(0x33);
+		out.write(0x44);
+		for (int i = 0; i < length; i++) {
+			// Payload looks like frame headers to catch misplaced parsing
+			out.write(FIN | RSV1 | TEXT);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] concat(byte[]... arrays) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] array : arrays) {
+			out.write(array, 0, array.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] mark(Queue<Boolean> marks, byte[] frames) {
+		EmbeddedChannel channel = new EmbeddedChannel(new WebSocketDeflateFrameMarker(marks));
+		channel.writeInbound(Unpooled.copiedBuffer(frames));
+		return readAll(channel);
+	}
+
+	private static byte[] readAll(EmbeddedChannel channel) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (ByteBuf buf; null != (buf = (ByteBuf) channel.readInbound());) {
+			byte[] bytes = new byte[buf.readableBytes()];
+			buf.readBytes(bytes);
+			buf.release();
+			out.write(bytes, 0, bytes.length);
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import network.tiesdb.util.metrics.TiesCounter;
+import network.tiesdb.util.metrics.TiesGauge;
+import network.tiesdb.util.metrics.TiesMetricRegistry;
+
+/**
+ * Tests of {@link WebSocketHandlerExecutorGroup} queue metrics.
+ */
+public class WebSocketHandlerExecutorGroupTest {
+
+	@Test
+	public void testPublishesQueueDepthAndRejections() throws InterruptedException {
+		TiesCounter rejections = TiesMetricRegistry.getDefault().counter("HandlerRejections", "transport",
+				WebSocketRequestHandler.TRANSPORT_NAME);
+		long rejected = rejections.getCount();
+		WebSocketHandlerExecutorGroup group = new WebSocketHandlerExecutorGroup(1, 16);
+		try {
+			TiesGauge depth = (TiesGauge) TiesMetricRegistry.getDefault().getMetrics()
+					.get("network.tiesdb:type=HandlerQueueDepth,transport=WebSocket");
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			group.execute(() -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			started.await();
+			for (int i = 0; i < 16; i++) {
+				group.execute(() -> {
+				});
+			}
+			assertEquals(16, group.getQueueDepth());
+			assertEquals(16, depth.getValue());
+			try {
+				group.execute(() -> {
+				});
+				fail("Task should be rejected by the full queue");
+			} catch (RejectedExecutionException e) {
+				// Expected
+			}
+			assertEquals(1, group.getRejectedCount());
+			assertEquals(rejected + 1, rejections.getCount());
+			release.countDown();
+		} finally {
+			group.shutdownGracefully(0, 0, TimeUnit.SECONDS).await();
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.transport.impl.ws.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link WebSocketTokenBucket}.
+ */
+public class WebSocketTokenBucketTest {
+
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+	@Test
+	public void testAdmitsBurstAtStart() {
+		WebSocketTokenBucket bucket = new WebSocketTokenBucket(10, 3);
+		long now = System.nanoTime();
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(0, bucket.tryAcquire(now));
+		long wait = bucket.tryAcquire(now);
+		assertTrue("Wait " + wait, wait > 0 && wait <= INTERVAL);
+	}
+
+	@Test
+	public void testRefillsAtRate() {
+		WebSocketTokenBucket bucket = new WebSocketTokenBucket(10, 1);
+		long now = System.nanoTime();
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(INTERVAL, bucket.tryAcquire(now));
+		assertEquals(INTERVAL / 2, bucket.tryAcquire(now + INTERVAL / 2));
+		assertEquals(0, bucket.tryAcquire(now + INTERVAL));
+		assertEquals(INTERVAL, bucket.tryAcquire(now + INTERVAL));
+	}
+
+	@Test
+	public void testRefillsUpToBurst() {
+		WebSocketTokenBucket bucket = new WebSocketTokenBucket(10, 2);
+		long now = System.nanoTime() + 100 * INTERVAL;
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(0, bucket.tryAcquire(now));
+		assertTrue(bucket.tryAcquire(now) > 0);
+	}
+
+	@Test
+	public void testReturnsReleasedToken() {
+		WebSocketTokenBucket bucket = new WebSocketTokenBucket(10, 1);
+		long now = System.nanoTime();
+		assertEquals(0, bucket.tryAcquire(now));
+		assertTrue(bucket.tryAcquire(now) > 0);
+		bucket.release();
+		assertEquals(0, bucket.tryAcquire(now));
+	}
+
+	@Test
+	public void testRoundsRateToInterval() {
+		WebSocketTokenBucket bucket = new WebSocketTokenBucket(3e9, 1);
+		long now = System.nanoTime();
+		assertEquals(0, bucket.tryAcquire(now));
+		assertEquals(1, bucket.tryAcquire(now));
+		assertEquals(0, bucket.tryAcquire(now + 1));
+	}
+
+	@Test
+	public void testAdmitsBurstOfConcurrentRequests() throws Exception {
+		final int burst = 100;
+		final WebSocketTokenBucket bucket = new WebSocketTokenBucket(1, burst);
+		final long now = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int count = 0;
+						for (int j = 0; j < burst; j++) {
+							if (0 == bucket.tryAcquire(now)) {
+								count++;
+							}
+						}
+						return count;
+					}
+				}));
+			}
+			int count = 0;
+			for (Future<Integer> result : results) {
+				count += result.get();
+			}
+			assertEquals(burst, count);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroRate() {
+		new WebSocketTokenBucket(0, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsNaNRate() {
+		new WebSocketTokenBucket(Double.NaN, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroBurst() {
+		new WebSocketTokenBucket(1, 0);
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * Signer key recovery for secp256k1 signatures.
+ * 
+ * <P>Recovers the public key of the signer from the signed hash and a
+ * signature of {@value #SIGNATURE_LENGTH} bytes {@code r || s || v}, where
+ * {@code v} is the recovery id either as 0..3 or as 27..30. A signature is
+ * valid for the key it recovers, so it is verified by comparing the recovered
+ * key with the expected one. Public keys are {@value #PUBLIC_KEY_LENGTH} bytes
+ * of the point coordinates {@code x || y}.
+ * 
+ * <P>Points are kept in Jacobian coordinates while being multiplied, so the
+ * only field inversion is the one of the result.
+ */
+public final class Secp256k1 {
+
+	public static final int SIGNATURE_LENGTH = 65;
+
+	public static final int PUBLIC_KEY_LENGTH = 64;
+
+	private static final int COORDINATE_LENGTH = 32;
+
+	private static final BigInteger P = new BigInteger(
+			"FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEFFFFFC2F", 16);
+
+	private static final BigInteger N = new BigInteger(
+			"FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);
+
+	private static final BigInteger B = BigInteger.valueOf(7);
+
+	private static final BigInteger MASK = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+	private static final BigInteger SQRT_EXPONENT = P.add(BigInteger.ONE).shiftRight(2);
+
+	private static final Point INFINITY = new Point(BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+
+	private static final Point G = new Point(
+			new BigInteger("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798", 16),
+			new BigInteger("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8", 16),
+			BigInteger.ONE);
+
+	private static final class Point {
+
+		private final BigInteger x;
+		private final BigInteger y;
+		private final BigInteger z;
+
+		private Point(BigInteger x, BigInteger y, BigInteger z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		private boolean isInfinity() {
+			return z.signum() == 0;
+		}
+
+		private Point twice() {
+			if (isInfinity() || y.signum() == 0) {
+				return INFINITY;
+			}
+			BigInteger a = reduce(x.multiply(x));
+			BigInteger b = reduce(y.multiply(y));
+			BigInteger c = reduce(b.multiply(b));
+			BigInteger d = reduce(x.add(b).pow(2).subtract(a).subtract(c).shiftLeft(1));
+			BigInteger e = reduce(a.multiply(BigInteger.valueOf(3)));
+			BigInteger x3 = reduce(e.multiply(e).subtract(d.shiftLeft(1)));
+			BigInteger y3 = reduce(e.multiply(d.subtract(x3)).subtract(c.shiftLeft(3)));
+			BigInteger z3 = reduce(y.multiply(z).shiftLeft(1));
+			return new Point(x3, y3, z3);
+		}
+
+		private Point add(Point other) {
+			if (isInfinity()) {
+				return other;
+			}
+			if (other.isInfinity()) {
+				return this;
+			}
+			BigInteger z1z1 = reduce(z.multiply(z));
+			BigInteger z2z2 = reduce(other.z.multiply(other.z));
+			BigInteger u1 = reduce(x.multiply(z2z2));
+			BigInteger u2 = reduce(other.x.multiply(z1z1));
+			BigInteger s1 = reduce(y.multiply(other.z).multiply(z2z2));
+			BigInteger s2 = reduce(other.y.multiply(z).multiply(z1z1));
+			if (u1.equals(u2)) {
+				return s1.equals(s2) ? twice() : INFINITY;
+			}
+			BigInteger h = reduce(u2.subtract(u1));
+			BigInteger r = reduce(s2.subtract(s1));
+			BigInteger hh = reduce(h.multiply(h));
+			BigInteger hhh = reduce(h.multiply(hh));
+			BigInteger v = reduce(u1.multiply(hh));
+			BigInteger x3 = reduce(r.multiply(r).subtract(hhh).subtract(v.shiftLeft(1)));
+			BigInteger y3 = reduce(r.multiply(v.subtract(x3)).subtract(s1.multiply(hhh)));
+			BigInteger z3 = reduce(z.multiply(other.z).multiply(h));
+			return new Point(x3, y3, z3);
+		}
+
+		private byte[] encode() {
+			BigInteger zInv = z.modInverse(P);
+			BigInteger zInv2 = zInv.multiply(zInv).mod(P);
+			byte[] encoded = new byte[PUBLIC_KEY_LENGTH];
+			write(x.multiply(zInv2).mod(P), encoded, 0);
+			write(y.multiply(zInv2).multiply(zInv).mod(P), encoded, COORDINATE_LENGTH);
+			return encoded;
+		}
+
+	}
+
+	private Secp256k1() {
+	}
+
+	/**
+	 * Returns the public key of the signer or null if the signature is not valid
+	 * for any key.
+	 */
+	public static byte[] recover(byte[] hash, byte[] signature) {
+		if (null == hash) {
+			throw new NullPointerException("The hash should not be null");
+		}
+		if (null == signature) {
+			throw new NullPointerException("The signature should not be null");
+		}
+		if (signature.length != SIGNATURE_LENGTH) {
+			throw new IllegalArgumentException(
+					"The signature length " + signature.length + " should be " + SIGNATURE_LENGTH);
+		}
+		BigInteger r = read(signature, 0);
+		BigInteger s = read(signature, COORDINATE_LENGTH);
+		int v = signature[SIGNATURE_LENGTH - 1] & 0xFF;
+		if (v >= 27) {
+			v -= 27;
+		}
+		if (v > 3 || r.signum() == 0 || r.compareTo(N) >= 0 || s.signum() == 0 || s.compareTo(N) >= 0) {
+			return null;
+		}
+		// Recovery id tells which of the up to four points with x equal to r
+		// modulo N was the one the signer used
+		BigInteger x = (v & 2) == 0 ? r : r.add(N);
+		if (x.compareTo(P) >= 0) {
+			return null;
+		}
+		BigInteger alpha = x.pow(3).add(B).mod(P);
+		BigInteger y = alpha.modPow(SQRT_EXPONENT, P);
+		if (!y.multiply(y).mod(P).equals(alpha)) {
+			return null;
+		}
+		if (y.testBit(0) != ((v & 1) == 1)) {
+			y = P.subtract(y);
+		}
+		BigInteger rInv = r.modInverse(N);
+		BigInteger e = new BigInteger(1, hash);
+		BigInteger u1 = e.negate().multiply(rInv).mod(N);
+		BigInteger u2 = s.multiply(rInv).mod(N);
+		Point key = multiplyAdd(u1, G, u2, new Point(x, y, BigInteger.ONE));
+		return key.isInfinity() ? null : key.encode();
+	}
+
+	/**
+	 * Returns the public key of the private key given as 32 bytes big-endian
+	 * number.
+	 */
+	public static byte[] publicKey(byte[] privateKey) {
+		if (null == privateKey) {
+			throw new NullPointerException("The privateKey should not be null");
+		}
+		BigInteger d = new BigInteger(1, privateKey);
+		if (d.signum() == 0 || d.compareTo(N) >= 0) {
+			throw new IllegalArgumentException("The privateKey should be in range of the curve order");
+		}
+		return multiplyAdd(d, G, BigInteger.ZERO, INFINITY).encode();
+	}
+
+	/*
+	 * Computes k1 * p1 + k2 * p2 in a single pass over the bits of both
+	 * scalars.
+	 */
+	private static Point multiplyAdd(BigInteger k1, Point p1, BigInteger k2, Point p2) {
+		Point both = p1.add(p2);
+		Point result = INFINITY;
+		for (int i = Math.max(k1.bitLength(), k2.bitLength()) - 1; i >= 0; i--) {
+			result = result.twice();
+			boolean b1 = k1.testBit(i);
+			boolean b2 = k2.testBit(i);
+			if (b1 && b2) {
+				result = result.add(both);
+			} else if (b1) {
+				result = result.add(p1);
+			} else if (b2) {
+				result = result.add(p2);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Reduces modulo P = 2^256 - 2^32 - 977 by folding the bits above 2^256
+	 * back as multiplied by 2^32 + 977, which is much cheaper than division.
+	 * Only values a few times P below zero, as produced by point arithmetic,
+	 * are expected.
+	 */
+	private static BigInteger reduce(BigInteger value) {
+		if (value.signum() < 0) {
+			BigInteger reduced = reduce(value.negate());
+			return reduced.signum() == 0 ? reduced : P.subtract(reduced);
+		}
+		while (value.bitLength() > 256) {
+			BigInteger high = value.shiftRight(256);
+			value = value.and(MASK).add(high.shiftLeft(32)).add(high.multiply(BigInteger.valueOf(977)));
+		}
+		return value.compareTo(P) >= 0 ? value.subtract(P) : value;
+	}
+
+	private static BigInteger read(byte[] bytes, int offset) {
+		byte[] coordinate = new byte[COORDINATE_LENGTH];
+		System.arraycopy(bytes, offset, coordinate, 0, COORDINATE_LENGTH);
+		return new BigInteger(1, coordinate);
+	}
+
+	private static void write(BigInteger value, byte[] bytes, int offset) {
+		byte[] coordinate = value.toByteArray();
+		int length = Math.min(coordinate.length, COORDINATE_LENGTH);
+		System.arraycopy(coordinate, coordinate.length - length, bytes, offset + COORDINATE_LENGTH - length, length);
+	}
+
+}
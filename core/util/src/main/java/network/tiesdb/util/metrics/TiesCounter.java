@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TiesDB metric counter.
+ * 
+ * <P>Counts events of many threads without locking. Increments are spread
+ * over several cells, so concurrent threads do not contend for a single
+ * atomic value, and the cells are summed only when the count is read.
+ */
+public class TiesCounter implements TiesCounterMBean {
+
+	private final LongAdder count = new LongAdder();
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long value) {
+		count.add(value);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(getCount());
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * TiesDB metric gauge.
+ * 
+ * <P>Reports a current value, such as a queue depth or a cache size, which is
+ * read from its source each time the gauge is read, so the source does not
+ * need to update the gauge.
+ */
+public class TiesGauge implements TiesGaugeMBean {
+
+	private final LongSupplier value;
+
+	public TiesGauge(LongSupplier value) {
+		if (null == value) {
+			throw new NullPointerException("The value should not be null");
+		}
+		this.value = value;
+	}
+
+	@Override
+	public long getValue() {
+		return value.getAsLong();
+	}
+
+	@Override
+	public String toString() {
+		return Long.toString(getValue());
+	}
+
+}
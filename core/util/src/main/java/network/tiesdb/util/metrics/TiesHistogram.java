@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TiesDB metric histogram.
+ * 
+ * <P>Records distribution of non-negative values without locking, in the
+ * manner of HdrHistogram. Values are counted in log-linear buckets: values
+ * below 128 get a bucket each, and every following power of two range is
+ * split into 64 equal buckets. So any value is counted with relative error
+ * below 1/64, and recording is a single atomic increment of a fixed array
+ * slot.
+ * 
+ * <P>Percentiles are reported as the highest value of the bucket they fall
+ * into, never exceeding the maximum recorded value. Reading and resetting is
+ * not atomic with concurrent recording, so values recorded meanwhile may be
+ * partially reflected.
+ */
+public class TiesHistogram implements TiesHistogramMBean {
+
+	private static final int SUB_BUCKETS_BITS = 7;
+	private static final int SUB_BUCKETS_COUNT = 1 << SUB_BUCKETS_BITS;
+	private static final int SUB_BUCKETS_HALF_COUNT = SUB_BUCKETS_COUNT >> 1;
+	private static final int BUCKETS_COUNT = (Long.SIZE - 1 - SUB_BUCKETS_BITS) * SUB_BUCKETS_HALF_COUNT
+			+ SUB_BUCKETS_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records the value. Negative values are recorded as zero.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS_COUNT) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKETS_BITS;
+		return shift * SUB_BUCKETS_HALF_COUNT + (int) (value >>> shift);
+	}
+
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS_HALF_COUNT - 1;
+		long lowest = (long) (bucket - shift * SUB_BUCKETS_HALF_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMean() {
+		long count = this.count.sum();
+		return 0 == count ? 0 : (double) sum.sum() / count;
+	}
+
+	@Override
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of recorded
+	 * values fall.
+	 * 
+	 * @param percentile
+	 *            percentage in range 0..100
+	 * @return the percentile value or zero if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("The percentile " + percentile + " should be in range 0..100");
+		}
+		long[] counts = new long[BUCKETS_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			total += counts[i] = buckets.get(i);
+		}
+		if (0 == total) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public long get50thPercentile() {
+		return getPercentile(50);
+	}
+
+	@Override
+	public long get90thPercentile() {
+		return getPercentile(90);
+	}
+
+	@Override
+	public long get99thPercentile() {
+		return getPercentile(99);
+	}
+
+	@Override
+	public long get999thPercentile() {
+		return getPercentile(99.9);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < BUCKETS_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count %d, mean %.1f, p50 %d, p90 %d, p99 %d, p99.9 %d, max %d", //
+				getCount(), getMean(), get50thPercentile(), get90thPercentile(), get99thPercentile(),
+				get999thPercentile(), getMax());
+	}
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TiesDB metric registry.
+ * 
+ * <P>Keeps metrics by their JMX object names, which are built of the metric
+ * type and key properties, for example
+ * {@code network.tiesdb:type=RequestLatency,transport=WebSocket,request=INSERT,stage=decode}.
+ * Each metric is created on first request and registered in the MBean server
+ * of the registry, so it could be watched with any JMX client. Callers are
+ * expected to look metrics up once and keep them, as the lookup builds the
+ * name. Gauges are the exception: they read values of their source, so each
+ * registration replaces the gauge of the same name.
+ * 
+ * <P>The default registry uses the platform MBean server and is shared by
+ * all TiesDB modules.
+ */
+public final class TiesMetricRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiesMetricRegistry.class);
+
+	public static final String DEFAULT_DOMAIN = "network.tiesdb";
+
+	private static final TiesMetricRegistry DEFAULT = new TiesMetricRegistry(DEFAULT_DOMAIN,
+			ManagementFactory.getPlatformMBeanServer());
+
+	private final String domain;
+	private final MBeanServer server;
+	private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a registry.
+	 * 
+	 * @param domain
+	 *            JMX domain of metric names
+	 * @param server
+	 *            MBean server to register metrics in or null to keep them
+	 *            unregistered
+	 */
+	public TiesMetricRegistry(String domain, MBeanServer server) {
+		if (null == domain) {
+			throw new NullPointerException("The domain should not be null");
+		}
+		this.domain = domain;
+		this.server = server;
+	}
+
+	public static TiesMetricRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if needed.
+	 * 
+	 * @param type
+	 *            type of the metric
+	 * @param properties
+	 *            key properties of the metric as key and value pairs
+	 */
+	public TiesCounter counter(String type, String... properties) {
+		return get(TiesCounter.class, TiesCounter::new, type, properties);
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if needed.
+	 * 
+	 * @param type
+	 *            type of the metric
+	 * @param properties
+	 *            key properties of the metric as key and value pairs
+	 */
+	public TiesHistogram histogram(String type, String... properties) {
+		return get(TiesHistogram.class, TiesHistogram::new, type, properties);
+	}
+
+	/**
+	 * Registers the gauge with the given name, replacing the gauge of an
+	 * earlier source, such as one of a restarted transport.
+	 * 
+	 * @param type
+	 *            type of the metric
+	 * @param value
+	 *            source of the gauge value
+	 * @param properties
+	 *            key properties of the metric as key and value pairs
+	 */
+	public TiesGauge gauge(String type, LongSupplier value, String... properties) {
+		String name = getName(type, properties);
+		Object metric = metrics.get(name);
+		if (null != metric && !(metric instanceof TiesGauge)) {
+			throw new IllegalArgumentException(
+					"The metric " + name + " should be a " + TiesGauge.class.getSimpleName());
+		}
+		TiesGauge gauge = new TiesGauge(value);
+		metrics.put(name, gauge);
+		register(name, gauge);
+		return gauge;
+	}
+
+	public Map<String, Object> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Removes all metrics and unregisters them from the MBean server.
+	 */
+	public void clear() {
+		for (String name : metrics.keySet()) {
+			if (null != metrics.remove(name) && null != server) {
+				try {
+					server.unregisterMBean(new ObjectName(name));
+				} catch (JMException e) {
+					logger.debug("Can't unregister metric {}", name, e);
+				}
+			}
+		}
+	}
+
+	private <T> T get(Class<T> metricClass, Supplier<T> factory, String type, String... properties) {
+		String name = getName(type, properties);
+		Object metric = metrics.get(name);
+		if (null == metric) {
+			T created = factory.get();
+			metric = metrics.putIfAbsent(name, created);
+			if (null == metric) {
+				register(name, created);
+				metric = created;
+			}
+		}
+		if (!metricClass.isInstance(metric)) {
+			throw new IllegalArgumentException("The metric " + name + " should be a " + metricClass.getSimpleName());
+		}
+		return metricClass.cast(metric);
+	}
+
+	private String getName(String type, String... properties) {
+		if (null == type) {
+			throw new NullPointerException("The type should not be null");
+		}
+		if (0 != properties.length % 2) {
+			throw new IllegalArgumentException("The properties should be key and value pairs");
+		}
+		StringBuilder name = new StringBuilder(domain).append(":type=").append(quote(type));
+		for (int i = 0; i < properties.length; i += 2) {
+			name.append(',').append(properties[i]).append('=').append(quote(properties[i + 1]));
+		}
+		return name.toString();
+	}
+
+	private static String quote(String value) {
+		if (null == value) {
+			throw new NullPointerException("The property value should not be null");
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (",=:\"*?\n".indexOf(value.charAt(i)) >= 0) {
+				return ObjectName.quote(value);
+			}
+		}
+		return value;
+	}
+
+	private void register(String name, Object metric) {
+		if (null == server) {
+			return;
+		}
+		try {
+			ObjectName objectName = new ObjectName(name);
+			if (server.isRegistered(objectName)) {
+				// Left by a registry of a previous service instance
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(metric, objectName);
+		} catch (JMException e) {
+			logger.warn("Can't register metric {}", name, e);
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TiesDB request metrics.
+ * 
+ * <P>Measures latency of request handling stages in microseconds and counts
+ * handled and failed requests, broken down by transport and request type.
+ * Use {@link #start(String)} when a request is received and mark its stages
+ * on the returned timer:
+ * <ul>
+ * <li>{@code decode} - reading of the request, including waiting for its
+ * content if it is streamed</li>
+ * <li>{@code execute} - handling of the decoded request up to the response
+ * being written</li>
+ * <li>{@code flush} - sending of the written response</li>
+ * <li>{@code total} - all of the above</li>
+ * </ul>
+ */
+public final class TiesRequestMetrics {
+
+	public static final String UNKNOWN = "UNKNOWN";
+
+	public enum Stage {
+		DECODE, EXECUTE, FLUSH, TOTAL
+	}
+
+	private static final class Metrics {
+
+		private final TiesCounter requests;
+		private final TiesCounter failures;
+		private final TiesHistogram[] stages = new TiesHistogram[Stage.values().length];
+
+		private Metrics(TiesMetricRegistry registry, String transport, String request) {
+			this.requests = registry.counter("Requests", "transport", transport, "request", request);
+			this.failures = registry.counter("RequestFailures", "transport", transport, "request", request);
+			for (Stage stage : Stage.values()) {
+				stages[stage.ordinal()] = registry.histogram("RequestLatency", "transport", transport, //
+						"request", request, "stage", stage.name().toLowerCase());
+			}
+		}
+
+	}
+
+	/**
+	 * Timer of a single request.
+	 * 
+	 * <P>Should be used by one thread at a time.
+	 */
+	public final class Timer {
+
+		private final String transport;
+		private final long started;
+		private String request = UNKNOWN;
+		private long decoded;
+		private long executed;
+		private boolean isExecuted = false;
+		private boolean isCompleted = false;
+
+		private Timer(String transport) {
+			this.transport = transport;
+			this.started = System.nanoTime();
+			this.decoded = started;
+		}
+
+		public void decoded(String request) {
+			this.decoded = System.nanoTime();
+			if (null != request) {
+				this.request = request;
+			}
+			record(this.transport, this.request, Stage.DECODE, decoded - started);
+		}
+
+		public void executed() {
+			this.executed = System.nanoTime();
+			this.isExecuted = true;
+			record(transport, request, Stage.EXECUTE, executed - decoded);
+		}
+
+		public void completed(boolean failed) {
+			if (isCompleted) {
+				return;
+			}
+			isCompleted = true;
+			long now = System.nanoTime();
+			Metrics metrics = get(transport, request);
+			if (isExecuted) {
+				metrics.stages[Stage.FLUSH.ordinal()].record(toMicros(now - executed));
+			}
+			metrics.stages[Stage.TOTAL.ordinal()].record(toMicros(now - started));
+			metrics.requests.increment();
+			if (failed) {
+				metrics.failures.increment();
+			}
+		}
+
+	}
+
+	private final TiesMetricRegistry registry;
+	private final ConcurrentMap<String, ConcurrentMap<String, Metrics>> metrics = new ConcurrentHashMap<>();
+
+	public TiesRequestMetrics(TiesMetricRegistry registry) {
+		if (null == registry) {
+			throw new NullPointerException("The registry should not be null");
+		}
+		this.registry = registry;
+	}
+
+	public Timer start(String transport) {
+		return new Timer(null == transport ? UNKNOWN : transport);
+	}
+
+	private void record(String transport, String request, Stage stage, long nanos) {
+		get(transport, request).stages[stage.ordinal()].record(toMicros(nanos));
+	}
+
+	private Metrics get(String transport, String request) {
+		ConcurrentMap<String, Metrics> transportMetrics = metrics.get(transport);
+		if (null == transportMetrics) {
+			metrics.putIfAbsent(transport, new ConcurrentHashMap<>());
+			transportMetrics = metrics.get(transport);
+		}
+		Metrics requestMetrics = transportMetrics.get(request);
+		if (null == requestMetrics) {
+			transportMetrics.putIfAbsent(request, new Metrics(registry, transport, request));
+			requestMetrics = transportMetrics.get(request);
+		}
+		return requestMetrics;
+	}
+
+	private static long toMicros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link Secp256k1} key derivation and recovery.
+ * 
+ * <P>Signatures are the RFC 6979 deterministic secp256k1 signatures of
+ * SHA-256 message hashes published in the test fixtures of bitcoinjs-lib.
+ * Recovery ids are not published with them, the ids used here were found by
+ * an independent recovery, and the other id has to give another key.
+ */
+public class Secp256k1Test {
+
+	private static final String N = "fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141";
+
+	private static final String G = "79be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798"
+			+ "483ada7726a3c4655da4fbfc0e1108a8fd17b448a68554199c47d08ffb10d4b8";
+
+	private static final String[][] SIGNATURES = { //
+			{ "Satoshi Nakamoto", //
+					"934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8"
+							+ "2442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5",
+					"01", G },
+			{ "All those moments will be lost in time, like tears in rain. Time to die...", //
+					"8600dbd41e348fe5c9465ab92d23e3db8b98b873beecd930736488696438cb6b"
+							+ "547fe64427496db33bf66019dacbf0039c04199abb0122918601db38a72cfc21",
+					"00", G },
+			{ "There is a computer disease that anybody who works with computers knows about. It's a very serious "
+					+ "disease and it interferes completely with the work. The trouble with computers is that you "
+					+ "'play' with them!", //
+					"b552edd27580141f3b2a5463048cb7cd3e047b97c9f98076c32dbdf85a68718b"
+							+ "279fa72dd19bfae05577e06c7c0c1900c371fcd5893f7e1d56a37d30174671f6",
+					"01", "567b7512001f3cc4dcb8b8096c046fff571ab07adb2126cd42908f2ff1ca424a"
+							+ "3ab781fe65ba2bbc50b71532312b3836793be62bc4f313e8874fa8a2b1cacea1" } };
+
+	@Test
+	public void testDerivesPublicKeys() {
+		assertArrayEquals(hex(G), Secp256k1.publicKey(scalar("01")));
+		assertArrayEquals(hex("c6047f9441ed7d6d3045406e95c07cd85c778e4b8cef3ca7abac09b95c709ee5"
+				+ "1ae168fea63dc339a3c58419466ceaeef7f632653266d0e1236431a950cfe52a"),
+				Secp256k1.publicKey(scalar("02")));
+		assertArrayEquals(hex("f9308a019258c31049344f85f89d5229b531c845836f99b08601f113bce036f9"
+				+ "388f7b0f632de8140fe337e62a37f3566500a99934c2231b6cb9fd7584b8e672"),
+				Secp256k1.publicKey(scalar("03")));
+		assertArrayEquals(hex("567b7512001f3cc4dcb8b8096c046fff571ab07adb2126cd42908f2ff1ca424a"
+				+ "3ab781fe65ba2bbc50b71532312b3836793be62bc4f313e8874fa8a2b1cacea1"),
+				Secp256k1.publicKey(scalar("e91671c46231f833a6406ccbea0e3e392c76c167bac1cb013f6f1013980455c2")));
+		// -G has the same x and the negated y
+		byte[] negated = Secp256k1.publicKey(scalar(new BigInteger(N, 16).subtract(BigInteger.ONE).toString(16)));
+		assertArrayEquals(Arrays.copyOf(hex(G), 32), Arrays.copyOf(negated, 32));
+		assertFalse(Arrays.equals(hex(G), negated));
+	}
+
+	@Test
+	public void testRecoversSignerOfPublishedSignatures() {
+		for (String[] signature : SIGNATURES) {
+			byte[] hash = sha256(signature[0]);
+			byte[] signer = hex(signature[3]);
+			assertArrayEquals(signature[0], signer, Secp256k1.recover(hash, hex(signature[1] + signature[2])));
+			// Ethereum style recovery id
+			int v = 27 + Integer.parseInt(signature[2], 16);
+			assertArrayEquals(signature[0], signer,
+					Secp256k1.recover(hash, hex(signature[1] + Integer.toHexString(v))));
+		}
+	}
+
+	@Test
+	public void testRecoversAnotherKeyOfAnotherRecoveryId() {
+		for (String[] signature : SIGNATURES) {
+			String other = "00".equals(signature[2]) ? "01" : "00";
+			byte[] key = Secp256k1.recover(sha256(signature[0]), hex(signature[1] + other));
+			assertNotNull(signature[0], key);
+			assertFalse(signature[0], Arrays.equals(hex(signature[3]), key));
+		}
+	}
+
+	@Test
+	public void testRecoversAnotherKeyOfAnotherHash() {
+		String[] signature = SIGNATURES[0];
+		byte[] key = Secp256k1.recover(sha256(signature[0] + "."), hex(signature[1] + signature[2]));
+		assertFalse(Arrays.equals(hex(signature[3]), key));
+	}
+
+	@Test
+	public void testRecoversAnotherKeyOfChangedSignature() {
+		String[] signature = SIGNATURES[1];
+		byte[] hash = sha256(signature[0]);
+		byte[] bytes = hex(signature[1] + signature[2]);
+		for (int i = 0; i < Secp256k1.SIGNATURE_LENGTH - 1; i += 7) {
+			byte[] changed = bytes.clone();
+			changed[i] ^= 0x10;
+			assertFalse("Byte " + i, Arrays.equals(hex(signature[3]), Secp256k1.recover(hash, changed)));
+		}
+	}
+
+	@Test
+	public void testRejectsSignaturesOutOfRange() {
+		byte[] hash = sha256(SIGNATURES[0][0]);
+		String r = SIGNATURES[0][1].substring(0, 64);
+		String s = SIGNATURES[0][1].substring(64);
+		String zero = String.format("%064d", 0);
+		assertNull(Secp256k1.recover(hash, hex(zero + s + "00")));
+		assertNull(Secp256k1.recover(hash, hex(r + zero + "00")));
+		assertNull(Secp256k1.recover(hash, hex(N + s + "00")));
+		assertNull(Secp256k1.recover(hash, hex(r + N + "00")));
+		assertNull(Secp256k1.recover(hash, hex(r + s + "04")));
+		assertNull(Secp256k1.recover(hash, hex(r + s + "1a")));
+		assertNull(Secp256k1.recover(hash, hex(r + s + "1f")));
+		// No point of the curve has x = 5
+		assertNull(Secp256k1.recover(hash, hex(String.format("%064x", 5) + s + "00")));
+		// r + N of this r is above the field prime
+		assertNull(Secp256k1.recover(hash, hex(r + s + "02")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsShortSignature() {
+		Secp256k1.recover(sha256(SIGNATURES[0][0]), hex(SIGNATURES[0][1]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroPrivateKey() {
+		Secp256k1.publicKey(new byte[32]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsPrivateKeyOutOfOrder() {
+		Secp256k1.publicKey(hex(N));
+	}
+
+	private static byte[] sha256(String message) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(message.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static byte[] scalar(String hex) {
+		return hex(String.format("%64s", hex).replace(' ', '0'));
+	}
+
+	private static byte[] hex(String hex) {
+		assertEquals(hex, 0, hex.length() % 2);
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TiesHistogram} buckets and percentiles.
+ */
+public class TiesHistogramTest {
+
+	private static final int LAST_BUCKET = TiesHistogram.bucketOf(Long.MAX_VALUE);
+
+	@Test
+	public void testCountsSmallValuesExactly() {
+		for (int i = 0; i < 128; i++) {
+			assertEquals(i, TiesHistogram.bucketOf(i));
+			assertEquals(i, TiesHistogram.highestValueOf(i));
+		}
+		assertEquals(127, TiesHistogram.bucketOf(127));
+		assertEquals(128, TiesHistogram.bucketOf(128));
+		assertEquals(128, TiesHistogram.bucketOf(129));
+		assertEquals(129, TiesHistogram.bucketOf(130));
+		assertEquals(129, TiesHistogram.highestValueOf(128));
+	}
+
+	@Test
+	public void testStartsBucketAtEachPowerOfTwo() {
+		for (int bit = 7; bit < 63; bit++) {
+			long power = 1L << bit;
+			int bucket = TiesHistogram.bucketOf(power);
+			assertEquals("Bucket of 2^" + bit, bucket - 1, TiesHistogram.bucketOf(power - 1));
+			assertEquals("Bucket of 2^" + bit, power - 1, TiesHistogram.highestValueOf(bucket - 1));
+			assertEquals("Bucket of 2^" + bit, bucket, TiesHistogram.bucketOf(power + (power >>> 6) - 1));
+			assertEquals("Bucket of 2^" + bit, bucket + 1, TiesHistogram.bucketOf(power + (power >>> 6)));
+		}
+	}
+
+	@Test
+	public void testKeepsLargestValueInLastBucket() {
+		assertEquals(Long.MAX_VALUE, TiesHistogram.highestValueOf(LAST_BUCKET));
+		assertEquals(LAST_BUCKET, TiesHistogram.bucketOf(Long.MAX_VALUE - (1L << 56) + 1));
+		assertEquals(LAST_BUCKET - 1, TiesHistogram.bucketOf(Long.MAX_VALUE - (1L << 56)));
+		TiesHistogram histogram = new TiesHistogram();
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testBoundsAllBuckets() {
+		for (int bucket = 0; bucket < LAST_BUCKET; bucket++) {
+			long highest = TiesHistogram.highestValueOf(bucket);
+			assertEquals(bucket, TiesHistogram.bucketOf(highest));
+			assertEquals(bucket + 1, TiesHistogram.bucketOf(highest + 1));
+			long lowest = 0 == bucket ? 0 : TiesHistogram.highestValueOf(bucket - 1) + 1;
+			assertTrue("Bucket " + bucket, highest - lowest <= lowest / 64);
+		}
+	}
+
+	@Test
+	public void testReportsPercentileOfRank() {
+		TiesHistogram histogram = new TiesHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(1, histogram.getPercentile(0));
+		assertEquals(1, histogram.getPercentile(1));
+		assertEquals(2, histogram.getPercentile(1.5));
+		assertEquals(50, histogram.get50thPercentile());
+		assertEquals(90, histogram.get90thPercentile());
+		assertEquals(99, histogram.get99thPercentile());
+		assertEquals(100, histogram.get999thPercentile());
+		assertEquals(100, histogram.getPercentile(100));
+		assertEquals(50.5, histogram.getMean(), 0);
+	}
+
+	@Test
+	public void testReportsHighestValueOfBucketUpToMax() {
+		TiesHistogram histogram = new TiesHistogram();
+		histogram.record(1000);
+		histogram.record(2000);
+		assertEquals(1007, histogram.getPercentile(50));
+		assertEquals(2000, histogram.getPercentile(100));
+		assertEquals(2000, histogram.getMax());
+	}
+
+	@Test
+	public void testRecordsNegativeValuesAsZero() {
+		TiesHistogram histogram = new TiesHistogram();
+		histogram.record(-1);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testResets() {
+		TiesHistogram histogram = new TiesHistogram();
+		histogram.record(10);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(50));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsPercentileOutOfRange() {
+		new TiesHistogram().getPercentile(100.1);
+	}
+
+}
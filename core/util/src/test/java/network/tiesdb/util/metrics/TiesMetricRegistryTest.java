@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Ties BV
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package network.tiesdb.util.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link TiesMetricRegistry} naming and registration.
+ */
+public class TiesMetricRegistryTest {
+
+	private static final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer();
+
+	private final TiesMetricRegistry registry = new TiesMetricRegistry("network.tiesdb.test", SERVER);
+
+	@After
+	public void clear() {
+		registry.clear();
+	}
+
+	@Test
+	public void testKeepsMetricOfName() throws Exception {
+		TiesCounter counter = registry.counter("Requests", "request", "INSERT");
+		assertSame(counter, registry.counter("Requests", "request", "INSERT"));
+		counter.add(3);
+		assertEquals(3L, SERVER.getAttribute(new ObjectName("network.tiesdb.test:type=Requests,request=INSERT"),
+				"Count"));
+	}
+
+	@Test
+	public void testQuotesPropertyValues() {
+		registry.histogram("Latency", "stage", "a,b");
+		assertEquals(1, registry.getMetrics().size());
+		assertEquals("network.tiesdb.test:type=Latency,stage=\"a,b\"",
+				registry.getMetrics().keySet().iterator().next());
+	}
+
+	@Test
+	public void testReadsGaugeOfLatestSource() throws Exception {
+		AtomicLong first = new AtomicLong(1);
+		AtomicLong second = new AtomicLong(2);
+		ObjectName name = new ObjectName("network.tiesdb.test:type=QueueDepth");
+		registry.gauge("QueueDepth", first::get);
+		assertEquals(1L, SERVER.getAttribute(name, "Value"));
+		first.set(5);
+		assertEquals(5L, SERVER.getAttribute(name, "Value"));
+		TiesGauge gauge = registry.gauge("QueueDepth", second::get);
+		assertEquals(2L, SERVER.getAttribute(name, "Value"));
+		assertSame(gauge, registry.getMetrics().get(name.toString()));
+	}
+
+	@Test
+	public void testUnregistersClearedMetrics() throws Exception {
+		registry.counter("Requests");
+		registry.clear();
+		assertEquals(0, registry.getMetrics().size());
+		assertFalse(SERVER.isRegistered(new ObjectName("network.tiesdb.test:type=Requests")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsMetricOfAnotherKind() {
+		registry.counter("Requests");
+		registry.gauge("Requests", () -> 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsOddProperties() {
+		registry.counter("Requests", "request");
+	}
+
+}